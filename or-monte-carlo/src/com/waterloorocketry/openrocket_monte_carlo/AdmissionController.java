@@ -0,0 +1,224 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Limits how many simulations are materialized at once based on heap occupancy.
+ * <p>
+ * After every garbage collection the live heap is compared against the memory budget. Above the budget the limit is
+ * cut multiplicatively, and well below it the limit grows by one as long as the current limit is actually in use.
+ * This never triggers a collection itself, it only reacts to the ones the JVM decides to run.
+ * <p>
+ * Only a collection of the old generation tells how much of it is live. After a young collection the old generation
+ * still holds whatever died there since, so the heap it reports is an upper bound on the live heap: it may let the
+ * limit grow, but never cuts it. The limit is cut when the old generation is above the budget right after the JVM
+ * collected it, through a collection usage threshold on the old generation. With G1 this includes its mixed
+ * collections, which the collector reports as minor, so the limit is cut well before a full collection. Without a
+ * pool that supports the threshold, only major collections and full cycles of a concurrent collector cut it.
+ */
+public class AdmissionController implements NotificationListener, AutoCloseable {
+    private final static Logger log = LoggerFactory.getLogger(AdmissionController.class);
+    /**
+     * Fraction of the budget below which the limit may grow
+     */
+    private final static double GROWTH_THRESHOLD = 0.8;
+    /**
+     * Collection actions after which the old generation only holds live objects
+     */
+    private final static Set<String> FULL_COLLECTIONS = Set.of("end of major GC", "end of GC cycle");
+
+    private final double memoryBudget;
+    private final int maxLimit;
+    private final long maxHeap;
+    private final Set<String> heapPoolNames;
+    /**
+     * Old generation, whose collection usage threshold is armed at the budget, or null if no pool supports one
+     */
+    private final MemoryPoolMXBean tenuredPool;
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition admitted = lock.newCondition();
+    private volatile int limit;
+    private int inFlight = 0;
+
+    /**
+     * @param memoryBudget Fraction of the maximum heap the live set may occupy
+     * @param initialLimit Starting number of simulations admitted at once
+     * @param maxLimit     Upper bound on the number of simulations admitted at once
+     */
+    public AdmissionController(double memoryBudget, int initialLimit, int maxLimit) {
+        this(memoryBudget, initialLimit, maxLimit, true);
+    }
+
+    /**
+     * @param monitorHeap Whether to listen to the collections of the JVM, otherwise only adjust changes the limit
+     */
+    AdmissionController(double memoryBudget, int initialLimit, int maxLimit, boolean monitorHeap) {
+        this.memoryBudget = memoryBudget;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+
+        long max = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        this.maxHeap = max > 0 ? max : Runtime.getRuntime().maxMemory();
+        this.heapPoolNames = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+
+        // the old generation is the heap pool with usage thresholds, the young pools support none
+        this.tenuredPool = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() &&
+                        pool.isCollectionUsageThresholdSupported())
+                .findFirst().orElse(null);
+        if (!monitorHeap) return;
+        if (tenuredPool != null) {
+            // the threshold is shared by every controller of the process, which all arm it at the configured budget
+            long threshold = (long) (memoryBudget * maxHeap);
+            long poolMax = tenuredPool.getUsage().getMax();
+            if (poolMax > 0) threshold = Math.min(threshold, poolMax);
+            tenuredPool.setCollectionUsageThreshold(Math.max(1, threshold));
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+            emitter.addNotificationListener(this, null, null);
+            emitters.add(emitter);
+        }
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+        log.info("Admission control: budget {} of {} MB heap, limit {} (max {}), old generation {}", memoryBudget,
+                maxHeap / (1024 * 1024), limit, this.maxLimit, tenuredPool != null ? tenuredPool.getName() : "unknown");
+    }
+
+    /**
+     * Creates the admission controller of a run on the given number of simulation threads. A run keeps its admission
+     * until its flight data is extracted, so the limit starts with every thread busy and may grow to twice the thread
+     * count, leaving room for finished runs queued for extraction while the threads simulate the next ones.
+     *
+     * @param memoryBudget Fraction of the maximum heap the live set may occupy
+     * @param threadCount  Number of threads simulating
+     */
+    public static AdmissionController forThreads(double memoryBudget, int threadCount) {
+        int threads = Math.max(1, threadCount);
+        return new AdmissionController(memoryBudget, threads, 2 * threads);
+    }
+
+    /**
+     * Blocks until another simulation may be materialized
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) admitted.await();
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a slot taken by acquire once the simulation has been processed
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            admitted.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+            if (tenuredPool != null && tenuredPool.getName().equals(info.getPoolName()))
+                adjust((double) info.getUsage().getUsed() / maxHeap, true);
+            return;
+        }
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+            return;
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+
+        long liveHeap = 0;
+        for (var entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            if (heapPoolNames.contains(entry.getKey())) {
+                MemoryUsage usage = entry.getValue();
+                liveHeap += usage.getUsed();
+            }
+        }
+        // with an armed threshold a collection of the old generation cuts the limit through its notification instead
+        adjust((double) liveHeap / maxHeap, tenuredPool == null && FULL_COLLECTIONS.contains(info.getGcAction()));
+    }
+
+    /**
+     * @param occupancy Heap in use after a collection, as a fraction of the maximum heap
+     * @param live      Whether the collection left only live objects, otherwise the occupancy is an upper bound
+     */
+    void adjust(double occupancy, boolean live) {
+        lock.lock();
+        try {
+            int old = limit;
+            if (occupancy > memoryBudget) {
+                if (!live) return; // possibly dead objects in the old generation, wait for a full collection
+
+                limit = Math.max(1, limit * 3 / 4);
+            } else if (occupancy < memoryBudget * GROWTH_THRESHOLD && inFlight >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+                admitted.signal();
+            }
+            if (limit != old)
+                log.debug("Heap occupancy {}, admission limit {} -> {}", occupancy, old, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops listening to garbage collection notifications. The threshold of the old generation stays armed, as
+     * other controllers of the process may rely on it, and only emits notifications nobody listens to.
+     */
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException ignored) {
+            }
+        }
+        emitters.clear();
+    }
+}
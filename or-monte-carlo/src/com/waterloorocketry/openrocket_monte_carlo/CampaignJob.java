@@ -0,0 +1,493 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A campaign submitted to the JobServer, described by a properties file in the format of config.toml:
+ * <ul>
+ *     <li>{@code rocket}: OpenRocket file to simulate (required)</li>
+ *     <li>{@code thrust_curve}: Thrust curve file the rocket's motors come from</li>
+ *     <li>{@code conditions}: CSV file of conditions, in the format of the GUI's CSV import, to run one simulation
+ *     per row</li>
+ *     <li>{@code sampled_conditions}: Conditions file exported with another campaign, to run the same conditions
+ *     against this rocket</li>
+ *     <li>{@code existing = true}: Run the simulations saved in the rocket file instead</li>
+ *     <li>Otherwise a Monte-Carlo campaign of {@code simulations} runs (100 by default) based on the rocket file's
+ *     simulation named {@code simulation}, or the default simulation if not given. {@code temperature_std_dev}
+ *     (K) and {@code pressure_std_dev} (Pa) randomize the launch conditions, {@code wind_correlation_length} (m)
+ *     correlates the wind levels, {@code antithetic_variates} pairs the runs and {@code sensitivity_analysis}
+ *     estimates the Sobol indices of the results to each condition.</li>
+ *     <li>{@code design.<name>.rocket} and {@code design.<name>.thrust_curve} instead of {@code rocket} and
+ *     {@code thrust_curve}: Compare several designs. All designs run the same conditions, generated for the
+ *     {@code baseline} design (the first by name if not given), and their runs are interleaved on one pool. Results
+ *     of each design are exported to a folder named after it, with a paired comparison against the baseline, and
+ *     combined in the job's results keyed by design.</li>
+ *     <li>{@code optimize_rail = true}: Search the launch rod angles {@code rail_angles} and directions
+ *     {@code rail_directions} (degrees, comma separated) for the setting that minimizes the probability of landing
+ *     within {@code keep_out_radius} of ({@code keep_out_east}, {@code keep_out_north}), or else the distance of the
+ *     landing from ({@code recovery_east}, {@code recovery_north}), all in feet. The best setting's runs are exported
+ *     to the job's results and every candidate's statistics to {@code rail.csv}.</li>
+ *     <li>{@code sweep.<axis> = <values>}: Run a deterministic grid over the swept axes instead of a campaign, see
+ *     {@link ParameterSweep}. The runs are exported to the job's results and with their grid position to
+ *     {@code sweep.csv}.</li>
+ * </ul>
+ * Relative paths are resolved against the directory the job was submitted from.
+ */
+public class CampaignJob {
+    private final static Logger log = LoggerFactory.getLogger(CampaignJob.class);
+    static final String RESULTS_FILE = "results.csv";
+    static final String STATUS_FILE = "status.json";
+    static final String RAIL_FILE = "rail.csv";
+    static final String SWEEP_FILE = "sweep.csv";
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final Configurator config = Configurator.getInstance();
+    private final String id;
+    private final Properties spec;
+    private final File baseDirectory;
+    private final File directory;
+
+    private volatile State state = State.QUEUED;
+    private volatile String message = "";
+    private volatile int total = 0;
+    private final List<RunController> controllers = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled = false;
+    private final long submitted = System.currentTimeMillis();
+    private volatile long started, finished;
+
+    /**
+     * @param id            Id of the job
+     * @param spec          Job description
+     * @param baseDirectory Directory relative paths of the description are resolved against
+     * @param directory     Output directory of the job
+     */
+    private CampaignJob(String id, Properties spec, File baseDirectory, File directory) {
+        this.id = id;
+        this.spec = spec;
+        this.baseDirectory = baseDirectory;
+        this.directory = directory;
+    }
+
+    /**
+     * Reads a job description and creates the job's output directory with a copy of the description
+     *
+     * @throws IllegalArgumentException If the description does not name a rocket file
+     * @throws IOException              If the description could not be read or the directory not created
+     */
+    static CampaignJob create(String id, Reader description, File baseDirectory, File directory) throws IOException {
+        Properties spec = new Properties();
+        spec.load(description);
+        if (spec.getProperty("rocket") == null && designNames(spec).isEmpty())
+            throw new IllegalArgumentException("Job does not name a rocket file");
+        if (!directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Could not create job directory " + directory);
+        try (Writer out = new FileWriter(new File(directory, "job.properties"))) {
+            spec.store(out, "Job " + id + ", submitted from " + baseDirectory.getAbsolutePath());
+        }
+        return new CampaignJob(id, spec, baseDirectory, directory);
+    }
+
+    /**
+     * Runs the campaign and exports its results to the job's directory. Failures are recorded in the job's state.
+     *
+     * @param resultCache Result cache shared by all jobs, or null
+     * @param history     Campaign history finished campaigns are stored in, or null
+     * @param threadCount Number of simulation threads of this job
+     * @param admission   Admission controller of the heap, shared by all jobs since each would compare the whole
+     *                    heap's occupancy against the budget
+     */
+    void run(ResultCache resultCache, HistoryStore history, int threadCount, AdmissionController admission) {
+        if (cancelled) {
+            finish(State.CANCELLED, "Cancelled before it started");
+            return;
+        }
+        state = State.RUNNING;
+        started = System.currentTimeMillis();
+        log.info("Starting job {}", id);
+        try {
+            List<String> designs = designNames(spec);
+            Map<String, SimulationEngine> engines; // by the spec key prefix of the design's files
+            ParameterSweep sweep = ParameterSweep.fromProperties(spec);
+            if (sweep != null) {
+                if (!designs.isEmpty() || isRailOptimization(spec))
+                    throw new IllegalArgumentException("A sweep runs a single design without optimization");
+                engines = Map.of("", runSweep(sweep, resultCache, threadCount, admission));
+            } else if (isRailOptimization(spec)) {
+                if (!designs.isEmpty())
+                    throw new IllegalArgumentException("The launch rail is optimized for a single design");
+                engines = Map.of("", runRailOptimization(resultCache, threadCount, admission));
+            } else if (designs.isEmpty()) {
+                SimulationEngine engine = createEngine(loadDocument("rocket", "thrust_curve"));
+                total = engine.simulationCount; // importance sampled runs are added after the pilot runs
+                runAll(List.of(engine), resultCache, threadCount, admission);
+                engine.exportToCSV(new File(directory, RESULTS_FILE));
+                engines = Map.of("", engine);
+            } else {
+                engines = runComparison(designs, resultCache, threadCount, admission);
+            }
+            if (history != null && !cancelled) {
+                for (Map.Entry<String, SimulationEngine> entry : engines.entrySet()) {
+                    String prefix = entry.getKey();
+                    String name = new File(spec.getProperty(prefix + "rocket").trim()).getName() + " (job " + id + ")";
+                    String motor = spec.getProperty(prefix + "thrust_curve") == null ? null :
+                            HistoryStore.describeMotor(resolve(prefix + "thrust_curve"));
+                    try {
+                        history.record(name, entry.getValue(), motor);
+                    } catch (IOException e) {
+                        log.warn("Could not store job {} in the history: {}", id, e.getMessage());
+                    }
+                }
+            }
+            finish(cancelled ? State.CANCELLED : State.DONE, "");
+        } catch (Exception e) {
+            log.error("Job {} failed", id, e);
+            finish(State.FAILED, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs every design against the conditions generated for the baseline design
+     *
+     * @return Engine of each design, by the spec key prefix of its files
+     */
+    private Map<String, SimulationEngine> runComparison(List<String> designs, ResultCache resultCache,
+                                                        int threadCount, AdmissionController admission)
+            throws Exception {
+        String baseline = spec.getProperty("baseline", designs.get(0)).trim();
+        if (!designs.remove(baseline))
+            throw new IllegalArgumentException("Job has no design named " + baseline);
+        designs.add(0, baseline);
+        if (Boolean.parseBoolean(spec.getProperty("existing", "false")))
+            throw new IllegalArgumentException("Designs cannot be compared on their saved simulations");
+
+        Map<String, SimulationEngine> engines = new LinkedHashMap<>();
+        SimulationEngine baselineEngine = null;
+        for (String design : designs) {
+            OpenRocketDocument document =
+                    loadDocument("design." + design + ".rocket", "design." + design + ".thrust_curve");
+            SimulationEngine engine;
+            if (baselineEngine == null) {
+                engine = baselineEngine = createEngine(document);
+            } else {
+                // imported conditions are run with the default simulation, generated ones with the reference
+                boolean imported = spec.getProperty("conditions") != null ||
+                        spec.getProperty("sampled_conditions") != null;
+                engine = SimulationEngine.withConditions(document, imported ? null : reference(document),
+                        baselineEngine.getData());
+            }
+            engines.put(design, engine);
+            total += engine.simulationCount;
+        }
+        log.info("Job {} compares {} designs against {}", id, designs.size(), baseline);
+
+        runAll(new ArrayList<>(engines.values()), resultCache, threadCount, admission);
+
+        File baselineResults = new File(new File(directory, baseline), RESULTS_FILE);
+        for (Map.Entry<String, SimulationEngine> entry : engines.entrySet()) {
+            File designDirectory = new File(directory, entry.getKey());
+            if (!designDirectory.mkdirs() && !designDirectory.isDirectory())
+                throw new IOException("Could not create design directory " + designDirectory);
+            if (!entry.getKey().equals(baseline))
+                entry.getValue().setBaselineResults(baselineResults);
+            entry.getValue().exportToCSV(new File(designDirectory, RESULTS_FILE));
+        }
+        DesignComparison.exportCombined(engines, new File(directory, RESULTS_FILE));
+
+        Map<String, SimulationEngine> byPrefix = new LinkedHashMap<>();
+        engines.forEach((design, engine) -> byPrefix.put("design." + design + ".", engine));
+        return byPrefix;
+    }
+
+    /**
+     * Runs every point of a grid of launch options and conditions
+     *
+     * @return Engine of the grid's runs
+     */
+    private SimulationEngine runSweep(ParameterSweep sweep, ResultCache resultCache, int threadCount,
+                                      AdmissionController admission) throws Exception {
+        OpenRocketDocument document = loadDocument("rocket", "thrust_curve");
+        Simulation reference = reference(document);
+        if (reference == null) {
+            // the default simulation only depends on the document and the configuration
+            reference = new SimulationEngine(document, 0, 0, 0).generateDefaultSimulation();
+        }
+        SimulationEngine engine = sweep.createEngine(document, reference);
+        log.info("Job {} sweeps {} over {} simulations with {} templates", id, sweep.getAxes(), engine.simulationCount,
+                engine.getTemplateCount());
+        total = engine.simulationCount;
+        runAll(List.of(engine), resultCache, threadCount, admission);
+        engine.exportToCSV(new File(directory, RESULTS_FILE));
+        sweep.exportToCSV(engine, new File(directory, SWEEP_FILE));
+        return engine;
+    }
+
+    /**
+     * Runs the conditions of the campaign for every candidate launch rail setting, pruning the worse half of the
+     * candidates after every round
+     *
+     * @return Engine of the best setting
+     * @see RailOptimizer
+     */
+    private SimulationEngine runRailOptimization(ResultCache resultCache, int threadCount,
+                                                 AdmissionController admission) throws Exception {
+        if (Boolean.parseBoolean(spec.getProperty("existing", "false")))
+            throw new IllegalArgumentException("The launch rail cannot be optimized on saved simulations");
+        RailOptimizer.Objective objective;
+        if (spec.getProperty("keep_out_radius") != null) {
+            objective = RailOptimizer.keepOut(Double.parseDouble(spec.getProperty("keep_out_east", "0")),
+                    Double.parseDouble(spec.getProperty("keep_out_north", "0")),
+                    Double.parseDouble(spec.getProperty("keep_out_radius")));
+        } else if (spec.getProperty("recovery_east") != null || spec.getProperty("recovery_north") != null) {
+            objective = RailOptimizer.recoveryDistance(Double.parseDouble(spec.getProperty("recovery_east", "0")),
+                    Double.parseDouble(spec.getProperty("recovery_north", "0")));
+        } else {
+            throw new IllegalArgumentException("Job names neither a keep-out zone nor a recovery point");
+        }
+
+        OpenRocketDocument document = loadDocument("rocket", "thrust_curve");
+        SimulationEngine conditions = createEngine(document);
+        Simulation reference = reference(document);
+        RailOptimizer optimizer = new RailOptimizer(document, reference == null ?
+                conditions.generateDefaultSimulation() : reference, conditions.getData(), objective);
+        double[] angles = degreesToRadians(spec.getProperty("rail_angles", "0, 2.5, 5, 7.5, 10"));
+        double[] directions = degreesToRadians(spec.getProperty("rail_directions",
+                "0, 30, 60, 90, 120, 150, 180, 210, 240, 270, 300, 330"));
+        SimulationEngine best = optimizer.optimize(angles, directions,
+                engines -> {
+                    for (SimulationEngine engine : engines) total += engine.simulationCount;
+                    runAll(engines, resultCache, threadCount, admission);
+                });
+        optimizer.exportToCSV(new File(directory, RAIL_FILE));
+        best.exportToCSV(new File(directory, RESULTS_FILE));
+        return best;
+    }
+
+    private static double[] degreesToRadians(String list) {
+        String[] values = list.split(",");
+        double[] radians = new double[values.length];
+        for (int i = 0; i < values.length; i++) radians[i] = Math.toRadians(Double.parseDouble(values[i].trim()));
+        return radians;
+    }
+
+    private static boolean isRailOptimization(Properties spec) {
+        return Boolean.parseBoolean(spec.getProperty("optimize_rail", "false"));
+    }
+
+    /**
+     * Runs the campaigns of all engines at once. They share the admission controller and one pool of simulation
+     * threads, so their runs are interleaved and the number of runs in flight and of threads simulating stay those of
+     * a single campaign.
+     */
+    private void runAll(List<SimulationEngine> engines, ResultCache resultCache, int threadCount,
+                        AdmissionController admission) throws Exception {
+        RunController.RunListener listener = new RunController.RunListener() {
+            @Override
+            public void simulationCompleted(SimulationData data) {
+            }
+
+            @Override
+            public void simulationFailed(SimulationData data, Exception e) {
+            }
+        };
+        try (RunController.SharedStages stages = new RunController.SharedStages(threadCount)) {
+            List<RunController> round = new ArrayList<>(); // the job's controllers include earlier rounds
+            for (SimulationEngine engine : engines) {
+                RunController controller = new RunController(engine, threadCount, admission);
+                controller.setSharedStages(stages);
+                if (resultCache != null)
+                    controller.setResultCache(resultCache, true);
+                controller.setRetryPolicy(config.getSimulationTimeout() * 1000L, config.getMaxRetries());
+                controllers.add(controller);
+                round.add(controller);
+                if (cancelled) controller.cancel();
+            }
+            if (round.size() == 1) {
+                round.get(0).run(listener);
+                return;
+            }
+            ExecutorService generators = Executors.newFixedThreadPool(round.size(),
+                    r -> new Thread(r, "campaign-" + id));
+            try {
+                List<Future<?>> runs = new ArrayList<>();
+                for (RunController controller : round)
+                    runs.add(generators.submit(() -> {
+                        controller.run(listener);
+                        return null;
+                    }));
+                for (Future<?> run : runs) {
+                    try {
+                        run.get();
+                    } catch (ExecutionException e) {
+                        cancel(); // stop the other designs, the comparison is incomplete
+                        throw e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            } finally {
+                generators.shutdownNow();
+            }
+        }
+    }
+
+    private OpenRocketDocument loadDocument(String rocketKey, String thrustCurveKey) throws Exception {
+        if (spec.getProperty(rocketKey) == null)
+            throw new IllegalArgumentException("Job does not name the file " + rocketKey);
+        File thrustCurveFile = spec.getProperty(thrustCurveKey) == null ? null : resolve(thrustCurveKey);
+        return DesignCache.getInstance().loadDocument(resolve(rocketKey), thrustCurveFile);
+    }
+
+    /**
+     * @return Names of the designs of a comparison job, sorted, or an empty list for a single design
+     */
+    private static List<String> designNames(Properties spec) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : spec.stringPropertyNames()) {
+            if (key.startsWith("design.") && key.endsWith(".rocket"))
+                names.add(key.substring("design.".length(), key.length() - ".rocket".length()));
+        }
+        return new ArrayList<>(names);
+    }
+
+    private SimulationEngine createEngine(OpenRocketDocument document) throws Exception {
+        if (spec.getProperty("conditions") != null)
+            return new SimulationEngine(document, resolve("conditions"));
+        if (spec.getProperty("sampled_conditions") != null)
+            return SimulationEngine.fromConditions(document, resolve("sampled_conditions"));
+        if (Boolean.parseBoolean(spec.getProperty("existing", "false")))
+            return new SimulationEngine(document);
+
+        SimulationEngine engine = new SimulationEngine(document,
+                Integer.parseInt(spec.getProperty("simulations", "100")),
+                Double.parseDouble(spec.getProperty("temperature_std_dev", "0")),
+                Double.parseDouble(spec.getProperty("pressure_std_dev", "0")));
+        engine.setAntitheticVariates(Boolean.parseBoolean(
+                spec.getProperty("antithetic_variates", String.valueOf(config.isAntitheticVariates()))));
+        engine.setSensitivityAnalysis(Boolean.parseBoolean(
+                spec.getProperty("sensitivity_analysis", String.valueOf(config.isSensitivityAnalysis()))));
+        engine.setWindCorrelationLength(Double.parseDouble(
+                spec.getProperty("wind_correlation_length", String.valueOf(config.getWindCorrelationLength()))));
+        if (!designNames(spec).isEmpty() || isRailOptimization(spec)) {
+            // conditions shifted towards the events of the baseline would bias the comparison of the other designs,
+            // and base samples added for the baseline would be missing from them; the same holds for rail settings
+            engine.setImportanceSampler(null);
+            engine.setSensitivityAnalysis(false);
+        }
+        Simulation reference = reference(document);
+        engine.createMonteCarloSimulations(reference == null ? engine.generateDefaultSimulation() : reference);
+        return engine;
+    }
+
+    /**
+     * @return The simulation named by the job, or null if the job names none and the default simulation should be used
+     */
+    private Simulation reference(OpenRocketDocument document) {
+        String name = spec.getProperty("simulation");
+        if (name == null) return null;
+        for (Simulation sim : document.getSimulations())
+            if (sim.getName().equals(name)) return sim;
+        throw new IllegalArgumentException("Rocket file has no simulation named " + name);
+    }
+
+    private File resolve(String key) {
+        File file = new File(spec.getProperty(key).trim());
+        return file.isAbsolute() ? file : new File(baseDirectory, file.getPath());
+    }
+
+    private void finish(State state, String message) {
+        this.message = message;
+        this.finished = System.currentTimeMillis();
+        this.state = state;
+        log.info("Job {} {}", id, state.name().toLowerCase());
+        try (Writer out = new FileWriter(new File(directory, STATUS_FILE))) {
+            out.write(toJson());
+        } catch (IOException e) {
+            log.warn("Could not write status of job {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Cancels the job. A running campaign stops and exports the results it has so far.
+     */
+    void cancel() {
+        cancelled = true;
+        for (RunController controller : controllers) controller.cancel();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return State, progress and output location of the job as a JSON object
+     */
+    public String toJson() {
+        int completed = 0, failed = 0, cached = 0;
+        for (RunController controller : controllers) {
+            completed += controller.getCompletedCount();
+            failed += controller.getFailedCount();
+            cached += controller.getCachedCount();
+        }
+        return "{\"id\":" + quote(id) +
+                ",\"state\":" + quote(state.name()) +
+                ",\"message\":" + quote(message) +
+                ",\"total\":" + total +
+                ",\"completed\":" + completed +
+                ",\"failed\":" + failed +
+                ",\"cached\":" + cached +
+                ",\"submitted\":" + submitted +
+                ",\"started\":" + started +
+                ",\"finished\":" + finished +
+                ",\"directory\":" + quote(directory.getAbsolutePath()) + "}";
+    }
+
+    /**
+     * @return The value as a JSON number, or null if it is NaN or infinite, which JSON cannot represent
+     */
+    static String number(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,172 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
+import info.openrocket.core.simulation.SimulationOptions;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Samples the conditions of many runs at once from the wind levels, temperature and pressure of a reference
+ * simulation.
+ * <p>
+ * Conditions are kept as a row-major matrix of primitive doubles, one row per run and one column per condition: the
+ * speed and direction of every wind level, then temperature and pressure. Each run's row is first drawn as independent
+ * standard normal values from the run's seed. Wind errors are strongly correlated between neighbouring altitudes, so
+ * the speed columns and the direction columns are then each multiplied by the Cholesky factor of the correlation
+ * between the levels, exp(-|altitude difference| / correlation length). The factor is lower triangular over the levels
+ * in the order of the wind model, so the draw of a level is the part of its error that the levels before it do not
+ * explain. Finally every column is scaled by its standard deviation and shifted by its mean. The simulation options of
+ * a run are only created from its row when the run is about to be simulated.
+ *
+ * @see SimulationEngine#materialize(SimulationData)
+ */
+public class ConditionSampler {
+    private final int levelCount;
+    private final double[] altitudes;
+    private final double[] mean;
+    private final double[] standardDeviation;
+    /**
+     * Lower triangular Cholesky factor of the correlation between the levels, row-major, or null if the levels are
+     * independent
+     */
+    private final double[] cholesky;
+
+    /**
+     * @param opts              Options of the reference simulation, whose wind levels are the mean conditions
+     * @param tempStdDev        Temperature standard deviation
+     * @param pressureStdDev    Pressure standard deviation
+     * @param correlationLength Altitude difference in metres at which the errors of two wind levels are correlated by
+     *                          1/e, 0 for independent levels
+     */
+    public ConditionSampler(SimulationOptions opts, double tempStdDev, double pressureStdDev,
+                            double correlationLength) {
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = opts.getMultiLevelWindModel().getLevels();
+        levelCount = levels.size();
+        altitudes = new double[levelCount];
+        mean = new double[2 * levelCount + 2];
+        standardDeviation = new double[2 * levelCount + 2];
+        for (int i = 0; i < levelCount; i++) {
+            MultiLevelPinkNoiseWindModel.LevelWindModel level = levels.get(i);
+            altitudes[i] = level.getAltitude();
+            mean[2 * i] = level.getSpeed();
+            standardDeviation[2 * i] = level.getStandardDeviation();
+            mean[2 * i + 1] = level.getDirection();
+            standardDeviation[2 * i + 1] = level.getWindDirStdDev();
+        }
+        mean[2 * levelCount] = opts.getLaunchTemperature();
+        standardDeviation[2 * levelCount] = tempStdDev;
+        mean[2 * levelCount + 1] = opts.getLaunchPressure();
+        standardDeviation[2 * levelCount + 1] = pressureStdDev;
+        cholesky = correlationLength > 0 && levelCount > 1 ? cholesky(altitudes, correlationLength) : null;
+    }
+
+    /**
+     * @return Lower triangular factor L of the correlation matrix of the levels, such that L Lᵀ is the correlation
+     */
+    private static double[] cholesky(double[] altitudes, double correlationLength) {
+        int n = altitudes.length;
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = Math.exp(-Math.abs(altitudes[i] - altitudes[j]) / correlationLength);
+                for (int k = 0; k < j; k++) sum -= l[i * n + k] * l[j * n + k];
+                if (i == j) {
+                    // levels at the same altitude are fully correlated, leaving nothing of their own
+                    l[i * n + i] = sum > 1e-12 ? Math.sqrt(sum) : 0;
+                } else {
+                    l[i * n + j] = l[j * n + j] > 0 ? sum / l[j * n + j] : 0;
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * @return Number of conditions of a run, the columns of the condition matrix
+     */
+    public int getConditionCount() {
+        return standardDeviation.length;
+    }
+
+    /**
+     * @return Standard deviation of each condition
+     */
+    public double[] getStandardDeviations() {
+        return standardDeviation.clone();
+    }
+
+    /**
+     * @return Whether the errors of the wind levels are correlated
+     */
+    public boolean isCorrelated() {
+        return cholesky != null;
+    }
+
+    /**
+     * Draws the independent standardized conditions of runs, one standard normal value per condition
+     *
+     * @param seeds    Seed of each run
+     * @param mirrored Whether each run is the second of an antithetic pair, whose draws are those of the first
+     *                 negated, or null if none is
+     * @return Row-major matrix of the draws, one row per run
+     */
+    public double[] draw(long[] seeds, boolean[] mirrored) {
+        int m = getConditionCount();
+        double[] z = new double[seeds.length * m];
+        for (int r = 0; r < seeds.length; r++) {
+            Random random = new Random(seeds[r]);
+            double sign = mirrored != null && mirrored[r] ? -1 : 1;
+            for (int c = 0, o = r * m; c < m; c++) z[o + c] = sign * random.nextGaussian();
+        }
+        return z;
+    }
+
+    /**
+     * Turns independent standardized draws into conditions, correlating the wind levels
+     *
+     * @param z Row-major matrix of draws, as returned by draw, which is overwritten with the conditions
+     * @return The conditions, in the units of the reference simulation's wind levels, temperature and pressure
+     */
+    public double[] transform(double[] z) {
+        int m = getConditionCount();
+        int rows = z.length / m;
+        double[] column = new double[levelCount];
+        for (int r = 0; r < rows; r++) {
+            int o = r * m;
+            if (cholesky != null) {
+                for (int part = 0; part < 2; part++) { // speeds, then directions
+                    for (int i = 0; i < levelCount; i++) column[i] = z[o + 2 * i + part];
+                    for (int i = 0; i < levelCount; i++) {
+                        double sum = 0;
+                        for (int k = 0, row = i * levelCount; k <= i; k++) sum += cholesky[row + k] * column[k];
+                        z[o + 2 * i + part] = sum;
+                    }
+                }
+            }
+            for (int c = 0; c < m; c++) z[o + c] = z[o + c] * standardDeviation[c] + mean[c];
+        }
+        return z;
+    }
+
+    /**
+     * Creates the conditions of a run from its row of the condition matrix
+     *
+     * @param x          Condition matrix, as returned by transform
+     * @param row        Row of the run
+     * @param seed       Seed of the run
+     * @param templateId Template the run is created from
+     * @param weight     Weight of the run
+     */
+    public SampledConditions conditionsOf(double[] x, int row, long seed, int templateId, double weight) {
+        int o = row * getConditionCount();
+        double[][] windLevels = new double[levelCount][];
+        for (int i = 0; i < levelCount; i++) {
+            // a standard deviation of 0 disables openRocket's own randomness
+            windLevels[i] = new double[]{altitudes[i], x[o + 2 * i], Math.toRadians(x[o + 2 * i + 1]), 0.0,
+                    standardDeviation[2 * i + 1]};
+        }
+        return new SampledConditions(seed, templateId, x[o + 2 * levelCount], x[o + 2 * levelCount + 1], windLevels,
+                weight);
+    }
+}
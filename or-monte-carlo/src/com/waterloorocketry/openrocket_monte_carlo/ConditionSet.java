@@ -0,0 +1,95 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import com.opencsv.CSVParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File of the sampled conditions of a campaign, so that another design can be run against exactly the same conditions
+ * (common random numbers) and the two campaigns compared run by run.
+ * <p>
+ * Values are written in SI units at full precision, one run per row: name, seed, weight, temperature, pressure and
+ * the number of wind levels, followed by the altitude, speed, direction, speed standard deviation and direction
+ * standard deviation of every level.
+ *
+ * @see PairedComparison
+ */
+public final class ConditionSet {
+    private final static String[] LEVEL_COLUMNS =
+            {"Altitude (m)", "Speed (m/s)", "Direction (rad)", "Speed Std Dev (m/s)", "Direction Std Dev (rad)"};
+    private final static int RUN_COLUMN_COUNT = 6;
+
+    private ConditionSet() {
+    }
+
+    /**
+     * Writes the conditions of the given runs
+     */
+    public static void export(List<SimulationData> data, File csvFile) throws IOException {
+        int levels = 0;
+        for (SimulationData d : data) levels = Math.max(levels, d.getConditions().getWindLevelCount());
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            StringBuilder header = new StringBuilder("Simulation,Seed,Weight,Temperature (K),Pressure (Pa),Wind Levels");
+            for (int i = 0; i < levels; i++)
+                for (String column : LEVEL_COLUMNS) header.append(",Level ").append(i + 1).append(" ").append(column);
+            writer.write(header.append("\n").toString());
+
+            for (SimulationData d : data) {
+                SampledConditions c = d.getConditions();
+                StringBuilder row = new StringBuilder();
+                row.append(FailureLog.quote(d.getName())).append(",");
+                row.append(c.getSeed()).append(",");
+                row.append(c.getWeight()).append(",");
+                row.append(c.getTemperature()).append(",");
+                row.append(c.getPressure()).append(",");
+                row.append(c.getWindLevelCount());
+                for (int i = 0; i < c.getWindLevelCount(); i++)
+                    for (double value : c.getWindLevel(i)) row.append(",").append(value);
+                writer.write(row.append("\n").toString());
+            }
+        }
+    }
+
+    /**
+     * Reads the runs of a conditions file
+     *
+     * @param csvFile    File written by export
+     * @param templateId Template the runs should be created from
+     * @return The runs, without simulations
+     * @throws IOException If the file cannot be read or is not a conditions file
+     */
+    public static List<SimulationData> load(File csvFile, int templateId) throws IOException {
+        List<SimulationData> data = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
+            CSVParser parser = new CSVParser();
+            String header = reader.readLine();
+            if (header == null || !header.startsWith("Simulation,Seed,Weight,"))
+                throw new IOException(csvFile.getName() + " is not a conditions file");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                String[] row = parser.parseLine(line);
+                try {
+                    int levels = Integer.parseInt(row[5]);
+                    double[][] windLevels = new double[levels][LEVEL_COLUMNS.length];
+                    for (int i = 0; i < levels; i++)
+                        for (int j = 0; j < LEVEL_COLUMNS.length; j++)
+                            windLevels[i][j] = Double.parseDouble(row[RUN_COLUMN_COUNT + i * LEVEL_COLUMNS.length + j]);
+                    data.add(new SimulationData(row[0], new SampledConditions(Long.parseLong(row[1]), templateId,
+                            Double.parseDouble(row[3]), Double.parseDouble(row[4]), windLevels,
+                            Double.parseDouble(row[2]))));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Malformed conditions of " + row[0] + " in " + csvFile.getName(), e);
+                }
+            }
+        }
+        return data;
+    }
+}
@@ -3,6 +3,7 @@ package com.waterloorocketry.openrocket_monte_carlo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -11,8 +12,22 @@ public class Configurator {
     private final static String CONFIG_FILE_PATH = "config.toml";
     private static Configurator instance;
     private boolean enableDebug = false;
-    private int batchSize = 30;
+    private double memoryBudget = 0.7;
+    private long randomSeed = 0;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
     private boolean keepSimulationObject = false;
+    private int simulationTimeout = 120;
+    private int maxRetries = 1;
+    private boolean profileSimulations = false;
+    private int workerProcesses = 0;
+    private String workerHeap = "512m";
+    private int coordinatorPort = 0;
+    private String coordinatorAddress = "";
+    private String coordinatorToken = "";
+    private int coordinatorSlots = 32;
+    private int serverPort = 8765;
+    private String serverDirectory = "jobs";
+    private int serverConcurrency = 1;
     private double launchLatitude = 47.965378;
     private double launchLongitude = -81.873536;
     private double launchAltitude = 420.0144;
@@ -21,6 +36,20 @@ public class Configurator {
     private double launchRodAngle = 0.0872665;
     private double launchRodDirection = 4.71239;
     private int maxSimulationTime = 2400;
+    private boolean lazyMotorLoading = true;
+    private String cacheDirectory = System.getProperty("user.home") + "/.or-monte-carlo";
+    private boolean resultCache = true;
+    private int resultCacheSize = 512;
+    private boolean importanceSampling = false;
+    private int pilotSimulations = 100;
+    private double rangeRadius = 0;
+    private double minStabilityLimit = 1.0;
+    private boolean surrogateModel = true;
+    private boolean antitheticVariates = false;
+    private boolean sensitivityAnalysis = false;
+    private double sensitivityTolerance = 0.05;
+    private double windCorrelationLength = 0;
+    private boolean campaignHistory = true;
 
     private Configurator() {
         try {
@@ -30,8 +59,22 @@ public class Configurator {
 
             enableDebug = Boolean.parseBoolean(props.getProperty("enable_debug", String.valueOf(enableDebug)));
 
-            batchSize = Integer.parseInt(props.getProperty("batch_size", String.valueOf(batchSize)));
+            memoryBudget = Double.parseDouble(props.getProperty("memory_budget", String.valueOf(memoryBudget)));
+            threadCount = Integer.parseInt(props.getProperty("thread_count", String.valueOf(threadCount)));
+            randomSeed = Long.parseLong(props.getProperty("random_seed", String.valueOf(randomSeed)));
             keepSimulationObject = Boolean.parseBoolean(props.getProperty("keep_simulation_object", String.valueOf(keepSimulationObject)));
+            simulationTimeout = Integer.parseInt(props.getProperty("simulation_timeout", String.valueOf(simulationTimeout)));
+            maxRetries = Integer.parseInt(props.getProperty("max_retries", String.valueOf(maxRetries)));
+            profileSimulations = Boolean.parseBoolean(props.getProperty("profile_simulations", String.valueOf(profileSimulations)));
+            workerProcesses = Integer.parseInt(props.getProperty("worker_processes", String.valueOf(workerProcesses)));
+            workerHeap = unquote(props.getProperty("worker_heap", workerHeap));
+            coordinatorPort = Integer.parseInt(props.getProperty("coordinator_port", String.valueOf(coordinatorPort)));
+            coordinatorAddress = unquote(props.getProperty("coordinator_address", coordinatorAddress));
+            coordinatorToken = unquote(props.getProperty("coordinator_token", coordinatorToken));
+            coordinatorSlots = Integer.parseInt(props.getProperty("coordinator_slots", String.valueOf(coordinatorSlots)));
+            serverPort = Integer.parseInt(props.getProperty("server_port", String.valueOf(serverPort)));
+            serverDirectory = unquote(props.getProperty("server_directory", serverDirectory));
+            serverConcurrency = Integer.parseInt(props.getProperty("server_concurrency", String.valueOf(serverConcurrency)));
 
             launchLatitude = Double.parseDouble(props.getProperty("launch_latitude", String.valueOf(launchLatitude)));
             launchLongitude = Double.parseDouble(props.getProperty("launch_longitude", String.valueOf(launchLongitude)));
@@ -42,6 +85,22 @@ public class Configurator {
             launchRodDirection = Double.parseDouble(props.getProperty("launch_rod_direction", String.valueOf(launchRodDirection)));
             maxSimulationTime = Integer.parseInt(props.getProperty("max_simulation_time", String.valueOf(maxSimulationTime)));
 
+            lazyMotorLoading = Boolean.parseBoolean(props.getProperty("lazy_motor_loading", String.valueOf(lazyMotorLoading)));
+            cacheDirectory = unquote(props.getProperty("cache_directory", cacheDirectory));
+            resultCache = Boolean.parseBoolean(props.getProperty("result_cache", String.valueOf(resultCache)));
+            resultCacheSize = Integer.parseInt(props.getProperty("result_cache_size", String.valueOf(resultCacheSize)));
+
+            importanceSampling = Boolean.parseBoolean(props.getProperty("importance_sampling", String.valueOf(importanceSampling)));
+            pilotSimulations = Integer.parseInt(props.getProperty("pilot_simulations", String.valueOf(pilotSimulations)));
+            rangeRadius = Double.parseDouble(props.getProperty("range_radius", String.valueOf(rangeRadius)));
+            minStabilityLimit = Double.parseDouble(props.getProperty("min_stability_limit", String.valueOf(minStabilityLimit)));
+            surrogateModel = Boolean.parseBoolean(props.getProperty("surrogate_model", String.valueOf(surrogateModel)));
+            antitheticVariates = Boolean.parseBoolean(props.getProperty("antithetic_variates", String.valueOf(antitheticVariates)));
+            sensitivityAnalysis = Boolean.parseBoolean(props.getProperty("sensitivity_analysis", String.valueOf(sensitivityAnalysis)));
+            sensitivityTolerance = Double.parseDouble(props.getProperty("sensitivity_tolerance", String.valueOf(sensitivityTolerance)));
+            windCorrelationLength = Double.parseDouble(props.getProperty("wind_correlation_length", String.valueOf(windCorrelationLength)));
+            campaignHistory = Boolean.parseBoolean(props.getProperty("campaign_history", String.valueOf(campaignHistory)));
+
             fis.close();
         } catch (FileNotFoundException ex) {
             log.info("No user configuration file found, using defaults.");
@@ -57,6 +116,17 @@ public class Configurator {
     }
 
 
+    /**
+     * TOML strings are quoted, which Properties does not handle
+     */
+    private static String unquote(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") ||
+                value.startsWith("'") && value.endsWith("'")))
+            return value.substring(1, value.length() - 1);
+        return value;
+    }
+
     public static Configurator getInstance() {
         if (instance == null) {
             instance = new Configurator();
@@ -68,8 +138,22 @@ public class Configurator {
     public String toString() {
         return "Configuration: \n" +
                 "enableDebug=" + enableDebug + "\n" +
-                "batchSize=" + batchSize + "\n" +
+                "memoryBudget=" + memoryBudget + "\n" +
+                "threadCount=" + threadCount + "\n" +
+                "randomSeed=" + randomSeed + "\n" +
                 "keepSimulationObject=" + keepSimulationObject + "\n" +
+                "simulationTimeout=" + simulationTimeout + "\n" +
+                "maxRetries=" + maxRetries + "\n" +
+                "profileSimulations=" + profileSimulations + "\n" +
+                "workerProcesses=" + workerProcesses + "\n" +
+                "workerHeap=" + workerHeap + "\n" +
+                "coordinatorPort=" + coordinatorPort + "\n" +
+                "coordinatorAddress=" + coordinatorAddress + "\n" +
+                "coordinatorToken=" + (coordinatorToken.isEmpty() ? "" : "(set)") + "\n" +
+                "coordinatorSlots=" + coordinatorSlots + "\n" +
+                "serverPort=" + serverPort + "\n" +
+                "serverDirectory=" + serverDirectory + "\n" +
+                "serverConcurrency=" + serverConcurrency + "\n" +
                 "launchLatitude=" + launchLatitude + "\n" +
                 "launchLongitude=" + launchLongitude + "\n" +
                 "launchAltitude=" + launchAltitude + "\n" +
@@ -77,21 +161,133 @@ public class Configurator {
                 "launchIntoWind=" + launchIntoWind + "\n" +
                 "launchRodAngle=" + launchRodAngle + "\n" +
                 "launchRodDirection=" + launchRodDirection + "\n" +
-                "maxSimulationTime=" + maxSimulationTime;
+                "maxSimulationTime=" + maxSimulationTime + "\n" +
+                "lazyMotorLoading=" + lazyMotorLoading + "\n" +
+                "cacheDirectory=" + cacheDirectory + "\n" +
+                "resultCache=" + resultCache + "\n" +
+                "resultCacheSize=" + resultCacheSize + "\n" +
+                "importanceSampling=" + importanceSampling + "\n" +
+                "pilotSimulations=" + pilotSimulations + "\n" +
+                "rangeRadius=" + rangeRadius + "\n" +
+                "minStabilityLimit=" + minStabilityLimit + "\n" +
+                "surrogateModel=" + surrogateModel + "\n" +
+                "antitheticVariates=" + antitheticVariates + "\n" +
+                "sensitivityAnalysis=" + sensitivityAnalysis + "\n" +
+                "sensitivityTolerance=" + sensitivityTolerance + "\n" +
+                "windCorrelationLength=" + windCorrelationLength + "\n" +
+                "campaignHistory=" + campaignHistory;
     }
 
     public boolean debugEnabled() {
         return enableDebug;
     }
 
-    public int getBatchSize() {
-        return batchSize;
+    /**
+     * @return Fraction of the maximum heap that live simulation data may occupy
+     */
+    public double getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return Seed for generating Monte-Carlo conditions, 0 for a different seed every time
+     */
+    public long getRandomSeed() {
+        return randomSeed;
     }
 
     public boolean isKeepSimulationObject() {
         return keepSimulationObject;
     }
 
+    /**
+     * @return Wall-clock budget of a single simulation attempt in seconds, 0 for no limit
+     */
+    public int getSimulationTimeout() {
+        return simulationTimeout;
+    }
+
+    /**
+     * @return How often a failed or timed out simulation is retried with a coarser step configuration
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return Whether to time the hot paths of every simulation and report the breakdown after each run
+     */
+    public boolean isProfileSimulations() {
+        return profileSimulations;
+    }
+
+    /**
+     * @return Number of child processes to run simulations in, 0 to run them in this process
+     */
+    public int getWorkerProcesses() {
+        return workerProcesses;
+    }
+
+    /**
+     * @return Maximum heap size of each worker process, in the format of the JVM's -Xmx option (e.g. 512m)
+     */
+    public String getWorkerHeap() {
+        return workerHeap;
+    }
+
+    /**
+     * @return Port to accept remote workers on while a campaign runs, 0 to not accept remote workers
+     */
+    public int getCoordinatorPort() {
+        return coordinatorPort;
+    }
+
+    /**
+     * @return Address of the interface to accept remote workers on, empty for every interface
+     */
+    public String getCoordinatorAddress() {
+        return coordinatorAddress;
+    }
+
+    /**
+     * @return Secret remote workers must know to join a campaign, the same on the campaign's and the workers' machines
+     */
+    public String getCoordinatorToken() {
+        return coordinatorToken;
+    }
+
+    /**
+     * @return Maximum number of simulations remote workers may run at once
+     */
+    public int getCoordinatorSlots() {
+        return coordinatorSlots;
+    }
+
+    /**
+     * @return Port of the job server's HTTP API on localhost
+     */
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * @return Directory of the job server, holding the drop folder and the output of every job
+     */
+    public File getServerDirectory() {
+        return new File(serverDirectory);
+    }
+
+    /**
+     * @return Number of jobs the job server runs at once
+     */
+    public int getServerConcurrency() {
+        return serverConcurrency;
+    }
+
     public double getLaunchLatitude() {
         return launchLatitude;
     }
@@ -123,4 +319,106 @@ public class Configurator {
     public int getMaxSimulationTime() {
         return maxSimulationTime;
     }
+
+    /**
+     * @return Whether to only load the motors used by the selected files instead of the full motor database
+     */
+    public boolean isLazyMotorLoading() {
+        return lazyMotorLoading;
+    }
+
+    /**
+     * @return Directory for persisted indexes and caches
+     */
+    public File getCacheDirectory() {
+        return new File(cacheDirectory);
+    }
+
+    /**
+     * @return Whether results of previously run simulations with identical inputs should be reused
+     */
+    public boolean isResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return Maximum size of the result cache in megabytes
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * @return Whether Monte-Carlo campaigns should importance sample their conditions towards range safety events
+     */
+    public boolean isImportanceSampling() {
+        return importanceSampling;
+    }
+
+    /**
+     * @return Number of nominal runs an importance sampled campaign starts with to locate the events
+     */
+    public int getPilotSimulations() {
+        return pilotSimulations;
+    }
+
+    /**
+     * @return Distance from the launch site in meters beyond which a landing is a range safety event, 0 to ignore
+     * landings
+     */
+    public double getRangeRadius() {
+        return rangeRadius;
+    }
+
+    /**
+     * @return Minimum stability margin in calibers below which a flight is a range safety event, 0 to ignore stability
+     */
+    public double getMinStabilityLimit() {
+        return minStabilityLimit;
+    }
+
+    /**
+     * @return Whether to fit a surrogate model to the results of campaigns as they run
+     */
+    public boolean isSurrogateModel() {
+        return surrogateModel;
+    }
+
+    /**
+     * @return Whether finished campaigns are stored in the campaign history under the cache directory
+     */
+    public boolean isCampaignHistory() {
+        return campaignHistory;
+    }
+
+    /**
+     * @return Whether Monte-Carlo runs are created by default in antithetic pairs whose draws mirror each other
+     */
+    public boolean isAntitheticVariates() {
+        return antitheticVariates;
+    }
+
+    /**
+     * @return Whether Monte-Carlo campaigns should run a Saltelli design to estimate the Sobol sensitivity indices of
+     * their results to each randomized condition
+     */
+    public boolean isSensitivityAnalysis() {
+        return sensitivityAnalysis;
+    }
+
+    /**
+     * @return Half-width of the confidence intervals of the total sensitivity indices at which a sensitivity analysis
+     * stops adding samples, 0 to always run every simulation
+     */
+    public double getSensitivityTolerance() {
+        return sensitivityTolerance;
+    }
+
+    /**
+     * @return Altitude difference in metres at which the sampled errors of two wind levels are correlated by 1/e, 0 to
+     * sample every level independently
+     */
+    public double getWindCorrelationLength() {
+        return windCorrelationLength;
+    }
 }
@@ -0,0 +1,93 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 content hashes used as cache keys
+ */
+public class ContentHash {
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+
+    public ContentHash() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return Hex encoded hash of the file's contents
+     */
+    public static String of(File file) throws IOException {
+        ContentHash hash = new ContentHash();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0)
+                hash.digest.update(chunk, 0, read);
+        }
+        return hash.toHex();
+    }
+
+    public ContentHash put(double value) {
+        buffer.clear();
+        buffer.putDouble(value);
+        digest.update(buffer.array(), 0, Double.BYTES);
+        return this;
+    }
+
+    public ContentHash put(long value) {
+        buffer.clear();
+        buffer.putLong(value);
+        digest.update(buffer.array(), 0, Long.BYTES);
+        return this;
+    }
+
+    public ContentHash put(boolean value) {
+        digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public ContentHash put(byte[] bytes) {
+        digest.update(bytes);
+        return this;
+    }
+
+    /**
+     * Adds a string, length prefixed so that consecutive strings cannot run into each other
+     */
+    public ContentHash put(String value) {
+        if (value == null) {
+            put(-1L);
+            return this;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        put((long) bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    /**
+     * @return Hex encoded hash of everything added. The hash cannot be used afterwards.
+     */
+    public String toHex() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return The first 64 bits of the hash of everything added, e.g. as a seed. The hash cannot be used afterwards.
+     */
+    public long toLong() {
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+}
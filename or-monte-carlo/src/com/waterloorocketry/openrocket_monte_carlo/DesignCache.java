@@ -0,0 +1,170 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.file.GeneralRocketLoader;
+import info.openrocket.core.file.RocketLoadException;
+import info.openrocket.core.motor.ThrustCurveMotor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of loaded rocket documents and parsed thrust curves, keyed by the hash of the file contents.
+ * <p>
+ * Documents are kept in memory, so repeated campaigns on the same design skip XML parsing. Parsed thrust curves and
+ * the motors a design references are also written to disk, so motor parsing and resolution are skipped across
+ * restarts as well. OpenRocket documents themselves are not serializable and are always parsed once per process.
+ */
+public class DesignCache {
+    private final static Logger log = LoggerFactory.getLogger(DesignCache.class);
+    private final static int MAX_DOCUMENTS = 8;
+    private static DesignCache instance;
+
+    private final File thrustCurveDirectory;
+    private final File designDirectory;
+    private final Map<String, OpenRocketDocument> documents = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OpenRocketDocument> eldest) {
+            return size() > MAX_DOCUMENTS;
+        }
+    };
+    private final Map<String, List<ThrustCurveMotor>> thrustCurves = new HashMap<>();
+    private final Map<String, FileHash> fileHashes = new HashMap<>();
+
+    private record FileHash(long length, long lastModified, String hash) {
+    }
+
+    private DesignCache(File directory) {
+        this.thrustCurveDirectory = new File(directory, "thrustcurves");
+        this.designDirectory = new File(directory, "designs");
+    }
+
+    public static synchronized DesignCache getInstance() {
+        if (instance == null) {
+            instance = new DesignCache(Configurator.getInstance().getCacheDirectory());
+        }
+        return instance;
+    }
+
+    /**
+     * Hashes the file contents. Hashes are remembered until the file's size or modification time changes.
+     */
+    public synchronized String hash(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        FileHash cached = fileHashes.get(path);
+        if (cached != null && cached.length() == file.length() && cached.lastModified() == file.lastModified())
+            return cached.hash();
+        String hash = ContentHash.of(file);
+        fileHashes.put(path, new FileHash(file.length(), file.lastModified(), hash));
+        return hash;
+    }
+
+    /**
+     * Loads the motors defined in a thrust curve file
+     *
+     * @param thrustCurveFile Thrust curve file
+     * @return Motors defined in the file
+     */
+    public synchronized List<ThrustCurveMotor> loadThrustCurves(File thrustCurveFile) throws IOException {
+        String hash = hash(thrustCurveFile);
+        List<ThrustCurveMotor> motors = thrustCurves.get(hash);
+        if (motors != null) return motors;
+
+        File cacheFile = new File(thrustCurveDirectory, hash + ".ser");
+        motors = readMotors(cacheFile);
+        if (motors == null) {
+            motors = TargetedMotorLoader.readThrustCurveFile(thrustCurveFile);
+            writeMotors(cacheFile, motors);
+        } else {
+            log.info("Loaded thrust curves of {} from cache", thrustCurveFile.getName());
+        }
+        thrustCurves.put(hash, motors);
+        return motors;
+    }
+
+    /**
+     * Loads a rocket document, resolving its motors first if motors are loaded on demand.
+     * The same document instance is returned for the same rocket and thrust curve file contents.
+     *
+     * @param rocketFile      OpenRocket design file
+     * @param thrustCurveFile Thrust curve file the design's motors may come from, or null
+     * @return Loaded document
+     */
+    public synchronized OpenRocketDocument loadDocument(File rocketFile, File thrustCurveFile)
+            throws IOException, RocketLoadException {
+        String rocketHash = hash(rocketFile);
+        String key = rocketHash + ":" + (thrustCurveFile == null ? "" : hash(thrustCurveFile));
+        OpenRocketDocument document = documents.get(key);
+        if (document != null) {
+            log.info("Using cached document for {}", rocketFile.getName());
+            return document;
+        }
+
+        TargetedMotorLoader motorLoader = Main.getMotorLoader();
+        if (motorLoader != null) {
+            if (thrustCurveFile != null)
+                motorLoader.addMotors(loadThrustCurves(thrustCurveFile));
+
+            File cacheFile = new File(designDirectory, rocketHash + ".motors");
+            List<ThrustCurveMotor> referenced = readMotors(cacheFile);
+            if (referenced == null) {
+                referenced = motorLoader.resolveReferencedMotors(rocketFile);
+                writeMotors(cacheFile, referenced);
+            }
+            motorLoader.addMotors(referenced);
+        }
+
+        document = new GeneralRocketLoader(rocketFile).load();
+        documents.put(key, document);
+        return document;
+    }
+
+    /**
+     * Removes a document from the cache, e.g. after it has been edited and no longer matches its file
+     */
+    public synchronized void invalidate(OpenRocketDocument document) {
+        documents.values().removeIf(d -> d == document);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ThrustCurveMotor> readMotors(File file) {
+        if (!file.isFile()) return null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (List<ThrustCurveMotor>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // usually a cache written by a different OpenRocket version
+            log.warn("Ignoring unreadable cache file {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeMotors(File file, List<ThrustCurveMotor> motors) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            // worker processes may write the same entry concurrently
+            File tmp = new File(file.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeObject(new ArrayList<>(motors));
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Could not write cache file {}: {}", file, e.getMessage());
+        }
+    }
+}
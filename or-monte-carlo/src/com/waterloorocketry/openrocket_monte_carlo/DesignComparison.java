@@ -0,0 +1,58 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Combined results of several designs that were run against the same conditions, one row per design and run.
+ * <p>
+ * Designs may differ in their stages, so only the first branch, the full rocket, is written. The per-design exports
+ * have every branch.
+ *
+ * @see SimulationEngine#withConditions
+ */
+public final class DesignComparison {
+    private DesignComparison() {
+    }
+
+    /**
+     * Writes the runs of every design
+     *
+     * @param engines Engines by design name, in the order the designs should be written
+     * @param csvFile File to write the results to
+     */
+    public static void exportCombined(Map<String, SimulationEngine> engines, File csvFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Design,Simulation,Max Windspeed (mph),Wind Direction (deg),Temperature (°C)," +
+                    "Pressure (mbar),Apogee (ft),Max Mach,Min Stability,Position East of Launch (ft)," +
+                    "Position North of Launch (ft),Weight,Status\n");
+            for (Map.Entry<String, SimulationEngine> entry : engines.entrySet()) {
+                for (SimulationData d : entry.getValue().getData()) {
+                    StringBuilder row = new StringBuilder();
+                    row.append(FailureLog.quote(entry.getKey())).append(",");
+                    row.append(FailureLog.quote(d.getName())).append(",");
+                    row.append(d.getMaxWindSpeedInMPH()).append(",");
+                    row.append(d.getMaxWindDirectionInDegrees()).append(",");
+                    row.append(d.getTemperatureInCelsius()).append(",");
+                    row.append(d.getPressureInMBar()).append(",");
+                    if (d.hasData() && !d.getBranchName().isEmpty()) {
+                        row.append(d.getApogeeInFeet()).append(",");
+                        row.append(d.getMaxMachNumber()).append(",");
+                        row.append(d.getMinStability().get(0)).append(",");
+                        row.append(d.getEastPostLandingInFeet().get(0)).append(",");
+                        row.append(d.getNorthPostLandingInFeet().get(0)).append(",");
+                    } else {
+                        // leave results empty, the status says why
+                        row.append(",".repeat(5));
+                    }
+                    row.append(d.getWeight()).append(",");
+                    row.append(FailureLog.quote(d.getStatus())).append("\n");
+                    writer.write(row.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import net.miginfocom.swing.MigLayout;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Live dispersion plots updated from the stream of completed simulations: an apogee histogram, the landing points
+ * of every branch and the stability margin distributions.
+ * <p>
+ * Histograms use a fixed number of bins and landing points beyond a limit are reservoir sampled, so memory and
+ * painting cost stay flat regardless of how many simulations are run. Runs are weighted by their likelihood ratio,
+ * so the plots of an importance sampled campaign show the nominal distributions.
+ */
+public class DispersionPlotPanel extends JPanel {
+    private final static int HISTOGRAM_BINS = 40;
+    private final static int SCATTER_LIMIT = 5000;
+    private final static int REPAINT_INTERVAL_MS = 500;
+    private final static Color[] BRANCH_COLORS =
+            {new Color(31, 119, 180), new Color(214, 39, 40), new Color(44, 160, 44), new Color(148, 103, 189)};
+
+    private final FixedBinHistogram apogee = new FixedBinHistogram(HISTOGRAM_BINS, 50); // ft
+    private final FixedBinHistogram minStability = new FixedBinHistogram(HISTOGRAM_BINS, 0.05); // cal
+    private final FixedBinHistogram initStability = new FixedBinHistogram(HISTOGRAM_BINS, 0.05); // cal
+    private final List<ReservoirSample> landings = new ArrayList<>(); // guarded by itself
+    private final List<String> branchNames = new ArrayList<>(); // guarded by landings
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final Timer repaintTimer = new Timer(REPAINT_INTERVAL_MS, e -> {
+        if (dirty.getAndSet(false)) repaint();
+    });
+
+    public DispersionPlotPanel() {
+        super(new MigLayout("fill, wrap 2", "[grow, fill][grow, fill]", "[grow, fill][grow, fill]"));
+        add(new HistogramView("Apogee", "ft", apogee));
+        add(new ScatterView());
+        add(new HistogramView("Min Stability", "cal", minStability));
+        add(new HistogramView("Initial Stability", "cal", initStability));
+
+        repaintTimer.setCoalesce(true);
+        repaintTimer.start();
+    }
+
+    /**
+     * Adds a processed simulation to the plots. Safe to call from any thread.
+     */
+    public void accept(SimulationData data) {
+        double weight = data.getWeight();
+        apogee.add(data.getApogeeInFeet(), weight);
+        if (!data.getMinStability().isEmpty()) {
+            // stability of the first branch, which is the full rocket until separation
+            minStability.add(data.getMinStability().get(0), weight);
+            initStability.add(data.getInitStability().get(0), weight);
+        }
+
+        List<Double> east = data.getEastPostLandingInFeet();
+        List<Double> north = data.getNorthPostLandingInFeet();
+        synchronized (landings) {
+            for (int i = landings.size(); i < east.size(); i++) {
+                landings.add(new ReservoirSample(SCATTER_LIMIT, i));
+                branchNames.add(data.getBranchName().get(i));
+            }
+            for (int i = 0; i < east.size(); i++)
+                landings.get(i).add(east.get(i), north.get(i), weight);
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Removes all data from the plots
+     */
+    public void clear() {
+        apogee.clear();
+        minStability.clear();
+        initStability.clear();
+        synchronized (landings) {
+            landings.clear();
+            branchNames.clear();
+        }
+        repaint();
+    }
+
+    private static void paintFrame(Graphics2D g, JComponent c, String title, String xLabel, String footer) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        FontMetrics fm = g.getFontMetrics();
+        g.setColor(c.getForeground());
+        g.drawString(title, (c.getWidth() - fm.stringWidth(title)) / 2, fm.getAscent());
+        g.drawString(xLabel, (c.getWidth() - fm.stringWidth(xLabel)) / 2, c.getHeight() - 2);
+        g.drawString(footer, c.getWidth() - fm.stringWidth(footer) - 4, fm.getAscent());
+    }
+
+    private static String format(double value) {
+        return String.format("%.4g", value);
+    }
+
+    private static class HistogramView extends JComponent {
+        private final static int MARGIN = 30;
+        private final String title;
+        private final String unit;
+        private final FixedBinHistogram histogram;
+
+        HistogramView(String title, String unit, FixedBinHistogram histogram) {
+            this.title = title;
+            this.unit = unit;
+            this.histogram = histogram;
+        }
+
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            Graphics2D g = (Graphics2D) graphics.create();
+            double[] weights;
+            double origin, width, min, max;
+            long total;
+            synchronized (histogram) {
+                weights = histogram.getWeights();
+                origin = histogram.getOrigin();
+                width = histogram.getBinWidth();
+                min = histogram.getMin();
+                max = histogram.getMax();
+                total = histogram.getTotal();
+            }
+            paintFrame(g, this, title, unit, "n=" + total);
+            if (total == 0) {
+                g.dispose();
+                return;
+            }
+
+            // only draw the occupied part of the range
+            int first = (int) ((min - origin) / width);
+            int last = (int) ((max - origin) / width);
+            double maxWeight = 0;
+            for (int i = first; i <= last; i++) maxWeight = Math.max(maxWeight, weights[i]);
+            if (maxWeight <= 0) maxWeight = 1;
+
+            int plotWidth = getWidth() - 2 * MARGIN;
+            int plotHeight = getHeight() - 2 * MARGIN;
+            int bins = last - first + 1;
+            g.setColor(BRANCH_COLORS[0]);
+            for (int i = first; i <= last; i++) {
+                int x0 = MARGIN + (i - first) * plotWidth / bins;
+                int x1 = MARGIN + (i - first + 1) * plotWidth / bins;
+                int h = (int) (weights[i] * plotHeight / maxWeight);
+                g.fillRect(x0, MARGIN + plotHeight - h, Math.max(1, x1 - x0 - 1), h);
+            }
+            g.setColor(getForeground());
+            g.drawLine(MARGIN, MARGIN + plotHeight, MARGIN + plotWidth, MARGIN + plotHeight);
+            g.drawString(format(origin + first * width), MARGIN, MARGIN + plotHeight + 12);
+            String right = format(origin + (last + 1) * width);
+            g.drawString(right, MARGIN + plotWidth - g.getFontMetrics().stringWidth(right), MARGIN + plotHeight + 12);
+            g.dispose();
+        }
+    }
+
+    private class ScatterView extends JComponent {
+        private final static int MARGIN = 30;
+
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            Graphics2D g = (Graphics2D) graphics.create();
+            List<double[][]> points = new ArrayList<>();
+            List<String> names;
+            long seen = 0;
+            synchronized (landings) {
+                for (ReservoirSample sample : landings) {
+                    points.add(sample.snapshot());
+                    seen = Math.max(seen, sample.getSeen());
+                }
+                names = new ArrayList<>(branchNames);
+            }
+            paintFrame(g, this, "Landing Positions", "East of launch (ft)", "n=" + seen);
+
+            // common bounds, always including the launch site
+            double minX = 0, maxX = 0, minY = 0, maxY = 0;
+            for (double[][] p : points) {
+                for (int i = 0; i < p[0].length; i++) {
+                    minX = Math.min(minX, p[0][i]);
+                    maxX = Math.max(maxX, p[0][i]);
+                    minY = Math.min(minY, p[1][i]);
+                    maxY = Math.max(maxY, p[1][i]);
+                }
+            }
+            // equal scale on both axes so the footprint is not distorted
+            int plotSize = Math.min(getWidth(), getHeight()) - 2 * MARGIN;
+            double span = Math.max(Math.max(maxX - minX, maxY - minY), 1);
+            double scale = plotSize / span;
+            int x0 = (getWidth() - plotSize) / 2;
+            int y0 = MARGIN + plotSize;
+
+            g.setColor(getForeground());
+            g.drawRect(x0, MARGIN, plotSize, plotSize);
+            int launchX = x0 + (int) ((0 - minX) * scale);
+            int launchY = y0 - (int) ((0 - minY) * scale);
+            g.drawLine(launchX - 4, launchY, launchX + 4, launchY);
+            g.drawLine(launchX, launchY - 4, launchX, launchY + 4);
+
+            for (int b = 0; b < points.size(); b++) {
+                Color color = BRANCH_COLORS[b % BRANCH_COLORS.length];
+                g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), 120));
+                double[][] p = points.get(b);
+                for (int i = 0; i < p[0].length; i++) {
+                    int x = x0 + (int) ((p[0][i] - minX) * scale);
+                    int y = y0 - (int) ((p[1][i] - minY) * scale);
+                    g.fillRect(x - 1, y - 1, 3, 3);
+                }
+                g.setColor(color);
+                g.drawString(names.get(b), x0 + 4, MARGIN + 14 * (b + 1));
+            }
+            g.setColor(getForeground());
+            g.drawString(format(minX), x0, y0 + 12);
+            String right = format(minX + span);
+            g.drawString(right, x0 + plotSize - g.getFontMetrics().stringWidth(right), y0 + 12);
+            g.dispose();
+        }
+    }
+}
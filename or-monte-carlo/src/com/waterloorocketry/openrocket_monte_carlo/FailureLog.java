@@ -0,0 +1,105 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record of every failed simulation attempt of a campaign, with the conditions the run was sampled with so that
+ * the failure can be reproduced.
+ */
+public class FailureLog {
+    private final static Logger log = LoggerFactory.getLogger(FailureLog.class);
+
+    /**
+     * A single failed attempt
+     *
+     * @param name          Simulation name
+     * @param attempt       Attempt number, starting at 1
+     * @param reason        Type of the failure, e.g. the exception class
+     * @param message       Failure message
+     * @param elapsedMillis Wall-clock time the attempt ran for
+     * @param timeStep      Time step of the attempt
+     * @param maxStepAngle  Maximum step angle of the attempt
+     * @param conditions    Sampled conditions of the run, may be null
+     */
+    public record Entry(String name, int attempt, String reason, String message, long elapsedMillis,
+                        double timeStep, double maxStepAngle, SampledConditions conditions) {
+    }
+
+    private final List<Entry> entries = new ArrayList<>(); // guarded by this
+
+    /**
+     * Adds a failed attempt. Safe to call from any thread.
+     */
+    public void add(Entry entry) {
+        log.warn("Simulation failed: name={} attempt={} reason={} elapsedMillis={} seed={} message={}",
+                entry.name(), entry.attempt(), entry.reason(), entry.elapsedMillis(),
+                entry.conditions() == null ? null : entry.conditions().getSeed(), entry.message());
+        synchronized (this) {
+            entries.add(entry);
+        }
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Writes all entries as CSV. Wind levels are listed as altitude, speed and direction triples in SI units.
+     */
+    public void exportToCSV(File csvFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Simulation,Attempt,Reason,Message,Elapsed (ms),Time Step (s),Max Step Angle (rad)," +
+                    "Seed,Template,Temperature (K),Pressure (Pa),Wind Levels\n");
+            for (Entry entry : getEntries()) {
+                StringBuilder row = new StringBuilder();
+                row.append(quote(entry.name())).append(",");
+                row.append(entry.attempt()).append(",");
+                row.append(entry.reason()).append(",");
+                row.append(quote(entry.message())).append(",");
+                row.append(entry.elapsedMillis()).append(",");
+                row.append(entry.timeStep()).append(",");
+                row.append(entry.maxStepAngle()).append(",");
+
+                SampledConditions c = entry.conditions();
+                if (c != null) {
+                    row.append(c.getSeed()).append(",");
+                    row.append(c.getTemplateId()).append(",");
+                    row.append(c.getTemperature()).append(",");
+                    row.append(c.getPressure()).append(",");
+                    StringBuilder levels = new StringBuilder();
+                    for (int i = 0; i < c.getWindLevelCount(); i++) {
+                        double[] level = c.getWindLevel(i);
+                        if (i > 0) levels.append(" ");
+                        levels.append(level[0]).append(":").append(level[1]).append(":").append(level[2]);
+                    }
+                    row.append(levels);
+                } else {
+                    row.append(",,,,");
+                }
+                row.append("\n");
+                writer.write(row.toString());
+            }
+        }
+    }
+
+    static String quote(String value) {
+        if (value == null) return "";
+        return "\"" + value.replace("\"", "\"\"").replace('\n', ' ') + "\"";
+    }
+}
@@ -0,0 +1,122 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with a fixed number of bins whose range grows with the data.
+ * <p>
+ * When a value falls outside the current range, the bin width is doubled and neighbouring bins are merged until it
+ * fits, so memory and rendering cost do not depend on the number of values. Values may carry weights, such as the
+ * likelihood ratios of importance sampled runs, in which case the bins hold the sum of the weights. Thread safe.
+ */
+public class FixedBinHistogram {
+    private final double[] weights;
+    private final double initialWidth;
+    private double origin = Double.NaN; // lower edge of the first bin
+    private double width;
+    private long total = 0;
+    private double totalWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param binCount     Number of bins, must be even
+     * @param initialWidth Starting width of a bin, in the units of the added values
+     */
+    public FixedBinHistogram(int binCount, double initialWidth) {
+        if (binCount < 2 || binCount % 2 != 0)
+            throw new IllegalArgumentException("Bin count must be an even number of at least 2");
+        this.weights = new double[binCount];
+        this.initialWidth = initialWidth;
+        this.width = initialWidth;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public synchronized void add(double value, double weight) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        if (Double.isNaN(origin)) {
+            // center the first value so the range can grow in both directions
+            origin = Math.floor(value / width) * width - width * (weights.length / 2);
+        }
+        while (value < origin || value >= origin + width * weights.length) {
+            widen(value < origin);
+        }
+        // a value just below the end of the range may round up to the bin past the last one
+        weights[Math.min(weights.length - 1, (int) ((value - origin) / width))] += weight;
+        total++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Doubles the bin width, merging pairs of bins. The range is extended in the direction of the new value.
+     */
+    private void widen(boolean downwards) {
+        int n = weights.length;
+        double[] merged = new double[n];
+        if (downwards) {
+            // existing bins move into the upper half
+            for (int i = 0; i < n; i++) merged[n / 2 + i / 2] += weights[i];
+            origin -= width * n;
+        } else {
+            for (int i = 0; i < n; i++) merged[i / 2] += weights[i];
+        }
+        System.arraycopy(merged, 0, weights, 0, n);
+        width *= 2;
+    }
+
+    /**
+     * @return Sum of the weights of the values in each bin
+     */
+    public synchronized double[] getWeights() {
+        return weights.clone();
+    }
+
+    public synchronized double getOrigin() {
+        return origin;
+    }
+
+    public synchronized double getBinWidth() {
+        return width;
+    }
+
+    /**
+     * @return Number of values added
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Sum of the weights of the values added
+     */
+    public synchronized double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    public int getBinCount() {
+        return weights.length;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(weights, 0);
+        origin = Double.NaN;
+        width = initialWidth;
+        total = 0;
+        totalWeight = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+}
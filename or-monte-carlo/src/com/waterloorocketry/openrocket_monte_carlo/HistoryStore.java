@@ -0,0 +1,458 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Local history of every campaign that was run, so results can be compared across campaigns without hunting for their
+ * exports.
+ * <p>
+ * The store is a directory of append-only files. The metrics of the runs are stored by column, one file of doubles per
+ * metric, with the runs of a campaign in consecutive rows. The campaign log holds one record per campaign: when it
+ * ran, the design hash, motor, launch options, seed and sampling of the campaign and its range of rows. A campaign is
+ * written to the columns first and becomes visible once its record is appended, so a campaign that was interrupted
+ * while being written is dropped when the store is opened again. The campaigns are indexed by id, date and design in
+ * memory, and reading a metric of a campaign is a single read of its rows. Thread safe.
+ * <p>
+ * Several processes may share a store, e.g. the GUI and the job server. A campaign is stored under an exclusive lock
+ * of the campaign log, after reading the campaigns other processes appended since, so that it gets the next id and
+ * the rows after theirs. Lookups pick up campaigns stored by other processes as well. Only one store per directory
+ * should be open in a process, as file locks are held by the whole process.
+ * <p>
+ * Besides the fixed metrics, the metrics in the {@link MetricRegistry} are stored by name. Their columns only exist
+ * once a campaign had the metric, and rows of earlier campaigns read as NaN.
+ */
+public class HistoryStore {
+    private final static Logger log = LoggerFactory.getLogger(HistoryStore.class);
+    /**
+     * Bump whenever the campaign record or the columns change
+     */
+    private final static int FORMAT_VERSION = 1;
+    private final static String CAMPAIGN_LOG = "campaigns.log";
+    private final static String COLUMN_EXTENSION = ".col";
+
+    /**
+     * Stored metrics of a run, NaN if the run has no results
+     */
+    public enum Metric {
+        APOGEE("Apogee (ft)", SimulationData::getApogeeInFeet),
+        MAX_MACH("Max Mach", SimulationData::getMaxMachNumber),
+        MIN_STABILITY("Min Stability", d -> d.getMinStability().get(0)),
+        EAST("Position East of Launch (ft)", d -> d.getEastPostLandingInFeet().get(0)),
+        NORTH("Position North of Launch (ft)", d -> d.getNorthPostLandingInFeet().get(0)),
+        MAX_WIND_SPEED("Max Windspeed (mph)", SimulationData::getMaxWindSpeedInMPH),
+        WIND_DIRECTION("Wind Direction (deg)", SimulationData::getMaxWindDirectionInDegrees),
+        TEMPERATURE("Temperature (°C)", SimulationData::getTemperatureInCelsius),
+        PRESSURE("Pressure (mbar)", SimulationData::getPressureInMBar),
+        WEIGHT("Weight", SimulationData::getWeight);
+
+        private final String label;
+        private final ToDoubleFunction<SimulationData> value;
+
+        Metric(String label, ToDoubleFunction<SimulationData> value) {
+            this.label = label;
+            this.value = value;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        private boolean isCondition() {
+            return ordinal() >= MAX_WIND_SPEED.ordinal();
+        }
+
+        private double of(SimulationData d) {
+            // conditions are known before a run is simulated, results of the first branch only once it is processed
+            if (!isCondition() && (!d.hasData() || d.getBranchName().isEmpty())) return Double.NaN;
+            return value.applyAsDouble(d);
+        }
+    }
+
+    /**
+     * A stored campaign
+     *
+     * @param id         Id of the campaign, in the order campaigns were stored
+     * @param timestamp  When the campaign was stored, in milliseconds since the epoch
+     * @param name       Name of the campaign, e.g. its rocket file
+     * @param designHash Hash of the rocket design including its motors
+     * @param motor      Thrust curve file the motors came from and its hash, empty if there is none
+     * @param options    Launch options of the campaign's first template
+     * @param seed       Configured random seed, 0 if the campaign was not seeded
+     * @param sampling   How the conditions of the runs were sampled
+     * @param firstRow   Row of the campaign's first run in the columns
+     * @param runs       Number of runs
+     * @param failed     Number of runs without results
+     */
+    public record Campaign(long id, long timestamp, String name, String designHash, String motor, String options,
+                           long seed, String sampling, long firstRow, int runs, int failed) {
+        public String toJson() {
+            return "{\"id\":" + id +
+                    ",\"timestamp\":" + timestamp +
+                    ",\"name\":" + CampaignJob.quote(name) +
+                    ",\"design\":" + CampaignJob.quote(designHash) +
+                    ",\"motor\":" + CampaignJob.quote(motor) +
+                    ",\"options\":" + CampaignJob.quote(options) +
+                    ",\"seed\":" + seed +
+                    ",\"sampling\":" + CampaignJob.quote(sampling) +
+                    ",\"runs\":" + runs +
+                    ",\"failed\":" + failed + "}";
+        }
+    }
+
+    /**
+     * Weighted statistics of a metric over the runs of a campaign that have it
+     *
+     * @param metric Label of a fixed metric or name of a registered one
+     */
+    public record Summary(Campaign campaign, String metric, int runs, double mean, double standardDeviation,
+                          double min, double max) {
+    }
+
+    private final File directory;
+    private final List<Campaign> campaigns = new ArrayList<>(); // guarded by this, indexed by id
+    private final NavigableMap<Long, List<Campaign>> byDate = new TreeMap<>(); // guarded by this
+    private final Map<String, List<Campaign>> byDesign = new HashMap<>(); // guarded by this
+    private long rowCount = 0; // guarded by this
+    private long logLength = 0; // bytes of the campaign log up to its last indexed record, guarded by this
+
+    /**
+     * Opens the store in the given directory. The directory is created when the first campaign is stored.
+     */
+    public HistoryStore(File directory) {
+        this.directory = directory;
+        File campaignLog = new File(directory, CAMPAIGN_LOG);
+        if (!campaignLog.isFile()) return;
+        try (FileChannel channel = FileChannel.open(campaignLog.toPath(), StandardOpenOption.READ)) {
+            if (!hasSupportedFormat(channel)) {
+                File old = new File(directory, CAMPAIGN_LOG + ".old");
+                log.warn("Campaign history at {} has an unsupported format, moving it to {}", directory, old);
+                channel.close();
+                Files.move(campaignLog.toPath(), old.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            synchronized (this) {
+                readNewCampaigns(channel);
+            }
+            // a cut off last record is dropped when the next campaign is stored, under the lock of the log
+            if (channel.size() > logLength) log.warn("Ignoring an incomplete campaign in the history at {}", directory);
+        } catch (IOException e) {
+            log.warn("Could not read the campaign history at {}: {}", directory, e.getMessage());
+        }
+        log.info("Campaign history at {} holds {} campaigns with {} runs", directory, campaigns.size(), rowCount);
+    }
+
+    /**
+     * @return Whether a campaign log is empty or starts with the current format version
+     */
+    private static boolean hasSupportedFormat(FileChannel channel) throws IOException {
+        if (channel.size() < Integer.BYTES) return true; // the header was cut off, the log is started again
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) throw new EOFException();
+        }
+        return header.getInt(0) == FORMAT_VERSION;
+    }
+
+    /**
+     * Indexes the campaigns appended to the log since it was last read, by this or another process. Stops at a
+     * record that is cut off, which is either being written or was interrupted.
+     */
+    private void readNewCampaigns(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = logLength == 0 ? Integer.BYTES : logLength; // after the format version
+        if (size <= start) return;
+        ByteBuffer in = ByteBuffer.allocate(Math.toIntExact(size - start));
+        while (in.hasRemaining()) {
+            if (channel.read(in, start + in.position()) < 0) break;
+        }
+        in.flip();
+        logLength = start;
+        while (in.remaining() >= Integer.BYTES) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > in.remaining() - Integer.BYTES) break;
+            in.position(in.position() + Integer.BYTES);
+            byte[] record = new byte[length];
+            in.get(record);
+            index(readCampaign(new DataInputStream(new ByteArrayInputStream(record))));
+            logLength += Integer.BYTES + length;
+        }
+    }
+
+    /**
+     * Picks up the campaigns other processes stored since the log was last read
+     */
+    private void refresh() {
+        File campaignLog = new File(directory, CAMPAIGN_LOG);
+        if (!campaignLog.isFile()) return;
+        try (FileChannel channel = FileChannel.open(campaignLog.toPath(), StandardOpenOption.READ)) {
+            if (hasSupportedFormat(channel)) readNewCampaigns(channel);
+        } catch (IOException e) {
+            log.warn("Could not read the campaign history at {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static Campaign readCampaign(DataInputStream in) throws IOException {
+        return new Campaign(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                in.readLong(), in.readUTF(), in.readLong(), in.readInt(), in.readInt());
+    }
+
+    private void index(Campaign campaign) {
+        campaigns.add(campaign);
+        byDate.computeIfAbsent(campaign.timestamp(), t -> new ArrayList<>()).add(campaign);
+        byDesign.computeIfAbsent(campaign.designHash(), h -> new ArrayList<>()).add(campaign);
+        rowCount = campaign.firstRow() + campaign.runs();
+    }
+
+    private File column(Metric metric) {
+        return new File(directory, metric.name().toLowerCase() + COLUMN_EXTENSION);
+    }
+
+    /**
+     * @return Column of a registered metric, named after a hash of the metric's name
+     */
+    private File column(String metricName) {
+        return new File(directory, "metric-" + new ContentHash().put(metricName).toHex() + COLUMN_EXTENSION);
+    }
+
+    /**
+     * @return Name and content hash of a thrust curve file, for the motor of a campaign, or null if there is none
+     */
+    static String describeMotor(File thrustCurveFile) {
+        if (thrustCurveFile == null) return null;
+        try {
+            return thrustCurveFile.getName() + " " + DesignCache.getInstance().hash(thrustCurveFile);
+        } catch (IOException e) {
+            return thrustCurveFile.getName();
+        }
+    }
+
+    /**
+     * Stores a campaign that has finished
+     *
+     * @param name   Name of the campaign, e.g. its rocket file
+     * @param engine Engine of the campaign
+     * @param motor  Thrust curve file the motors came from and its hash, or null if there is none
+     * @return The stored campaign
+     * @throws IOException If the campaign could not be written
+     */
+    public synchronized Campaign record(String name, SimulationEngine engine, String motor) throws IOException {
+        Files.createDirectories(directory.toPath());
+        List<SimulationData> data = engine.getData();
+        int failed = 0;
+        for (SimulationData d : data) if (!d.hasData()) failed++;
+        String hash = ResultCache.designHash(engine.getDocument());
+
+        File campaignLog = new File(directory, CAMPAIGN_LOG);
+        try (FileChannel logChannel = FileChannel.open(campaignLog.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = logChannel.lock()) {
+            if (!hasSupportedFormat(logChannel))
+                throw new IOException("Campaign history at " + directory + " has an unsupported format");
+            // other processes may have stored campaigns since the log was last read, the next rows and id follow theirs
+            readNewCampaigns(logChannel);
+            if (logLength == 0) {
+                ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(FORMAT_VERSION).flip();
+                logChannel.truncate(0);
+                while (header.hasRemaining()) logChannel.write(header, header.position());
+                logLength = Integer.BYTES;
+            }
+            logChannel.truncate(logLength); // a record cut off by an interrupted write
+
+            // rows beyond the last campaign are left over from an interrupted write and are overwritten
+            ByteBuffer buffer = ByteBuffer.allocate(data.size() * Double.BYTES);
+            for (Metric metric : Metric.values()) {
+                buffer.clear();
+                for (SimulationData d : data) buffer.putDouble(metric.of(d));
+                writeColumn(column(metric), buffer.flip());
+            }
+            for (MetricExtractor extractor : MetricRegistry.getExtractors()) {
+                buffer.clear();
+                for (SimulationData d : data) {
+                    boolean processed = d.hasData() && !d.getBranchName().isEmpty();
+                    buffer.putDouble(processed ? d.getMetric(extractor.getName(), 0) : Double.NaN);
+                }
+                writeColumn(column(extractor.getName()), buffer.flip());
+            }
+
+            Campaign campaign = new Campaign(campaigns.size(), System.currentTimeMillis(), name,
+                    hash == null ? "" : hash, motor == null ? "" : motor, engine.describeOptions(),
+                    Configurator.getInstance().getRandomSeed(), engine.describeSampling(), rowCount, data.size(),
+                    failed);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(campaign.id());
+            out.writeLong(campaign.timestamp());
+            out.writeUTF(campaign.name());
+            out.writeUTF(campaign.designHash());
+            out.writeUTF(campaign.motor());
+            out.writeUTF(campaign.options());
+            out.writeLong(campaign.seed());
+            out.writeUTF(campaign.sampling());
+            out.writeLong(campaign.firstRow());
+            out.writeInt(campaign.runs());
+            out.writeInt(campaign.failed());
+
+            ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.size());
+            record.putInt(bytes.size()).put(bytes.toByteArray()).flip();
+            long position = logLength;
+            while (record.hasRemaining()) position += logChannel.write(record, position);
+            logChannel.force(false);
+            logLength = position;
+            index(campaign);
+            log.info("Stored campaign {} ({}, {} runs) in the history", campaign.id(), name, data.size());
+            return campaign;
+        }
+    }
+
+    /**
+     * Writes the rows of a campaign after the rows of the stored campaigns. A column that is shorter, because earlier
+     * campaigns did not have its metric, is filled with NaN up to them.
+     */
+    private void writeColumn(File column, ByteBuffer rows) throws IOException {
+        try (FileChannel channel = FileChannel.open(column.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long position = Math.min(channel.size(), rowCount * Double.BYTES);
+            channel.truncate(position);
+            ByteBuffer missing = ByteBuffer.allocate(Math.toIntExact(rowCount * Double.BYTES - position));
+            while (missing.hasRemaining()) missing.putDouble(Double.NaN);
+            missing.flip();
+            while (missing.hasRemaining()) position += channel.write(missing, position);
+            while (rows.hasRemaining()) position += channel.write(rows, position);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return The campaign with the given id, or null if there is none
+     */
+    public synchronized Campaign get(long id) {
+        refresh();
+        return id >= 0 && id < campaigns.size() ? campaigns.get((int) id) : null;
+    }
+
+    /**
+     * Finds the campaigns of a design within a period
+     *
+     * @param designHash Hash of the design, or null for every design
+     * @param from       Earliest time the campaigns were stored, in milliseconds since the epoch
+     * @param to         Latest time the campaigns were stored, in milliseconds since the epoch
+     * @return The campaigns, oldest first
+     * @see ResultCache#designHash
+     */
+    public synchronized List<Campaign> find(String designHash, long from, long to) {
+        refresh();
+        List<Campaign> found = new ArrayList<>();
+        if (designHash != null) {
+            for (Campaign c : byDesign.getOrDefault(designHash, List.of()))
+                if (c.timestamp() >= from && c.timestamp() <= to) found.add(c);
+        } else {
+            for (List<Campaign> at : byDate.subMap(from, true, to, true).values()) found.addAll(at);
+        }
+        return found;
+    }
+
+    /**
+     * Reads a metric of every run of a campaign
+     *
+     * @return Values in the order of the campaign's runs, NaN for runs without it
+     */
+    public double[] values(Campaign campaign, Metric metric) throws IOException {
+        double[] values = read(column(metric), campaign);
+        if (values == null) throw new EOFException("History column " + metric + " is shorter than its campaigns");
+        return values;
+    }
+
+    /**
+     * Reads a registered metric of every run of a campaign
+     *
+     * @param metricName Name of the metric in the {@link MetricRegistry}
+     * @return Values in the order of the campaign's runs, NaN for runs without it or if the campaign was stored before
+     * the metric was registered
+     */
+    public double[] values(Campaign campaign, String metricName) throws IOException {
+        double[] values = read(column(metricName), campaign);
+        if (values != null) return values;
+        values = new double[campaign.runs()];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
+    /**
+     * @return Rows of a campaign in a column, or null if the column does not reach them
+     */
+    private static double[] read(File column, Campaign campaign) throws IOException {
+        if (!column.isFile()) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(campaign.runs() * Double.BYTES);
+        try (FileChannel channel = FileChannel.open(column.toPath(), StandardOpenOption.READ)) {
+            long position = campaign.firstRow() * Double.BYTES;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) return null;
+                position += read;
+            }
+        }
+        buffer.flip();
+        double[] values = new double[campaign.runs()];
+        buffer.asDoubleBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Computes the statistics of a metric over a campaign, weighted by the weights of its runs
+     */
+    public Summary summarize(Campaign campaign, Metric metric) throws IOException {
+        return summarize(campaign, metric.getLabel(), values(campaign, metric));
+    }
+
+    /**
+     * Computes the statistics of a registered metric over a campaign, weighted by the weights of its runs
+     *
+     * @param metricName Name of the metric in the {@link MetricRegistry}
+     */
+    public Summary summarize(Campaign campaign, String metricName) throws IOException {
+        return summarize(campaign, metricName, values(campaign, metricName));
+    }
+
+    private Summary summarize(Campaign campaign, String metric, double[] values) throws IOException {
+        double[] weights = values(campaign, Metric.WEIGHT);
+        int n = 0;
+        double weightSum = 0, sum = 0, sumSquares = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i])) continue;
+            n++;
+            weightSum += weights[i];
+            sum += weights[i] * values[i];
+            sumSquares += weights[i] * values[i] * values[i];
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (n == 0) return new Summary(campaign, metric, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        double mean = sum / weightSum;
+        double variance = Math.max(0, sumSquares / weightSum - mean * mean);
+        return new Summary(campaign, metric, n, mean, Math.sqrt(variance), min, max);
+    }
+}
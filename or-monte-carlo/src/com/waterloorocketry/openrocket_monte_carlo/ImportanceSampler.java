@@ -0,0 +1,220 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Importance sampling of the launch conditions towards range safety events: a landing beyond the range radius or a
+ * minimum stability margin below the limit.
+ * <p>
+ * Such events are rare under the nominal conditions, so plain Monte-Carlo needs a very large campaign to observe
+ * enough of them for a useful probability estimate. An importance sampled campaign starts with pilot runs under the
+ * nominal conditions, from which the mean of every randomized condition is shifted towards the runs that came closest
+ * to an event (one step of the cross-entropy method). The remaining runs are drawn from the shifted distributions and
+ * carry the likelihood ratio of the nominal to the shifted distribution as their weight, so weighted statistics over
+ * all runs still describe the nominal conditions.
+ *
+ * @see SimulationEngine#createFollowUpSimulations()
+ */
+public class ImportanceSampler {
+    private final static Logger log = LoggerFactory.getLogger(ImportanceSampler.class);
+    /**
+     * Fewest runs the shift is fitted to, taken by severity if the pilot saw fewer events
+     */
+    private final static int MIN_ELITE = 10;
+    private final static double ELITE_FRACTION = 0.1;
+    /**
+     * Largest shift of a single condition in standard deviations, beyond which the weights degenerate
+     */
+    private final static double MAX_SHIFT = 4;
+
+    private final int pilotCount;
+    private final double rangeRadius;
+    private final double minStabilityLimit;
+
+    /**
+     * @param pilotCount        Number of nominal runs the shift is fitted to
+     * @param rangeRadius       Distance from the launch site in meters beyond which a landing is an event, 0 to ignore
+     *                          landings
+     * @param minStabilityLimit Minimum stability margin in calibers below which a flight is an event, 0 to ignore
+     *                          stability
+     */
+    public ImportanceSampler(int pilotCount, double rangeRadius, double minStabilityLimit) {
+        this.pilotCount = pilotCount;
+        this.rangeRadius = rangeRadius;
+        this.minStabilityLimit = minStabilityLimit;
+    }
+
+    /**
+     * @return Sampler described by the user configuration, or null if importance sampling is disabled
+     */
+    public static ImportanceSampler fromConfig(Configurator config) {
+        if (!config.isImportanceSampling()) return null;
+        if (config.getRangeRadius() <= 0 && config.getMinStabilityLimit() <= 0) {
+            log.warn("Importance sampling needs a range radius or a minimum stability limit, sampling nominally");
+            return null;
+        }
+        return new ImportanceSampler(config.getPilotSimulations(), config.getRangeRadius(),
+                config.getMinStabilityLimit());
+    }
+
+    public int getPilotCount() {
+        return pilotCount;
+    }
+
+    /**
+     * How close a processed run came to a range safety event, relative to the limits
+     *
+     * @return 1 or more if the run is an event
+     */
+    public double severity(SimulationData d) {
+        double severity = 0;
+        if (rangeRadius > 0) {
+            for (int i = 0; i < d.getEastPosLanding().size(); i++)
+                severity = Math.max(severity,
+                        Math.hypot(d.getEastPosLanding().get(i), d.getNorthPosLanding().get(i)) / rangeRadius);
+        }
+        if (minStabilityLimit > 0 && !d.getMinStability().isEmpty()) {
+            // the first branch is the full rocket, later stages are allowed to tumble after separation
+            double stability = d.getMinStability().get(0);
+            if (!Double.isNaN(stability))
+                severity = Math.max(severity, stability <= 0 ? Double.POSITIVE_INFINITY : minStabilityLimit / stability);
+        }
+        return severity;
+    }
+
+    private boolean landsOutsideRange(SimulationData d) {
+        for (int i = 0; i < d.getEastPosLanding().size(); i++)
+            if (Math.hypot(d.getEastPosLanding().get(i), d.getNorthPosLanding().get(i)) >= rangeRadius) return true;
+        return false;
+    }
+
+    private boolean isUnstable(SimulationData d) {
+        return !d.getMinStability().isEmpty() && d.getMinStability().get(0) <= minStabilityLimit;
+    }
+
+    /**
+     * Fits the shift of the sampling distributions to the pilot runs. The shift is the mean of the standardized
+     * conditions of the pilot's events, or of its most severe runs if it saw too few events.
+     *
+     * @param draws              Standardized conditions of each pilot run
+     * @param pilots             Processed pilot runs, in the order of draws
+     * @param standardDeviations Standard deviation of each condition, conditions that do not vary are not shifted
+     * @return Shift of each condition in standard deviations
+     */
+    public double[] fitShift(List<double[]> draws, List<SimulationData> pilots, double[] standardDeviations) {
+        double[] shift = new double[standardDeviations.length];
+        int n = pilots.size();
+        if (n == 0) return shift;
+
+        double[] severity = new double[n];
+        int events = 0;
+        for (int i = 0; i < n; i++) {
+            severity[i] = severity(pilots.get(i));
+            if (severity[i] >= 1) events++;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> -severity[i]));
+
+        int elite = events >= MIN_ELITE ? events :
+                Math.min(n, Math.max(MIN_ELITE, (int) Math.ceil(n * ELITE_FRACTION)));
+        for (int k = 0; k < elite; k++) {
+            double[] z = draws.get(order[k]);
+            for (int j = 0; j < shift.length; j++) shift[j] += z[j] / elite;
+        }
+        for (int j = 0; j < shift.length; j++) {
+            if (standardDeviations[j] == 0) shift[j] = 0;
+            else shift[j] = Math.max(-MAX_SHIFT, Math.min(MAX_SHIFT, shift[j]));
+        }
+        log.info("Fitted importance sampling shift to {} of {} pilot runs ({} events)", elite, n, events);
+        return shift;
+    }
+
+    /**
+     * Likelihood ratio of the standard normal to the shifted normal distribution
+     *
+     * @param z     Standardized conditions drawn from the shifted distribution
+     * @param shift Shift of each condition in standard deviations
+     */
+    public static double likelihoodRatio(double[] z, double[] shift) {
+        double logRatio = 0;
+        for (int j = 0; j < z.length; j++)
+            logRatio += shift[j] * shift[j] / 2 - shift[j] * z[j];
+        return Math.exp(logRatio);
+    }
+
+    /**
+     * Estimated probability of a range safety event under the nominal conditions
+     *
+     * @param event               Description of the event
+     * @param probability         Weighted mean of the event's indicator over the processed runs
+     * @param standardError       Standard error of the probability
+     * @param runs                Number of processed runs
+     * @param events              Number of runs that were an event
+     * @param effectiveSampleSize Number of nominal runs the weighted runs are worth
+     */
+    public record Estimate(String event, double probability, double standardError, int runs, int events,
+                           double effectiveSampleSize) {
+    }
+
+    /**
+     * @param data Runs of the campaign, runs without data are ignored
+     * @return Estimate for every event of this sampler and for any of them
+     */
+    public List<Estimate> estimate(List<SimulationData> data) {
+        List<Estimate> estimates = new ArrayList<>();
+        if (rangeRadius > 0)
+            estimates.add(estimate("Landing beyond " + rangeRadius + " m", data, this::landsOutsideRange));
+        if (minStabilityLimit > 0)
+            estimates.add(estimate("Min stability below " + minStabilityLimit + " cal", data, this::isUnstable));
+        if (rangeRadius > 0 && minStabilityLimit > 0)
+            estimates.add(estimate("Any event", data, d -> severity(d) >= 1));
+        return estimates;
+    }
+
+    private static Estimate estimate(String event, List<SimulationData> data, Predicate<SimulationData> isEvent) {
+        int n = 0, events = 0;
+        double sum = 0, sumSquares = 0, weightSum = 0, weightSquares = 0;
+        for (SimulationData d : data) {
+            if (!d.hasData()) continue;
+            double w = d.getWeight();
+            n++;
+            weightSum += w;
+            weightSquares += w * w;
+            if (isEvent.test(d)) {
+                events++;
+                sum += w;
+                sumSquares += w * w;
+            }
+        }
+        if (n == 0) return new Estimate(event, Double.NaN, Double.NaN, 0, 0, 0);
+        double p = sum / n;
+        double variance = n > 1 ? (sumSquares - n * p * p) / (n - 1) : Double.NaN;
+        return new Estimate(event, p, Math.sqrt(Math.max(0, variance) / n), n, events,
+                weightSum * weightSum / weightSquares);
+    }
+
+    /**
+     * Writes the estimates of the campaign's runs
+     */
+    public void exportToCSV(File csvFile, List<SimulationData> data) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Event,Probability,Standard Error,Runs,Events,Effective Sample Size\n");
+            for (Estimate e : estimate(data)) {
+                writer.write(e.event() + "," + e.probability() + "," + e.standardError() + "," + e.runs() + "," +
+                        e.events() + "," + e.effectiveSampleSize() + "\n");
+            }
+        }
+    }
+}
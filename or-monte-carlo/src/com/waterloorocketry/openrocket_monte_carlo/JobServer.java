@@ -0,0 +1,280 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running service that runs campaigns back to back in one JVM, so OpenRocket is only started once and later
+ * campaigns run on warmed-up code.
+ * <p>
+ * Jobs are submitted over an HTTP API on localhost or by dropping a job file into the inbox folder of the server
+ * directory, and run in the order they arrive with a configurable number of jobs at once. Every job writes its
+ * description, results and final status to its own folder under the jobs folder of the server directory.
+ * <ul>
+ *     <li>{@code POST /jobs} with a job description as the body submits a job and returns its status</li>
+ *     <li>{@code GET /jobs} lists all jobs of this server</li>
+ *     <li>{@code GET /jobs/<id>} returns the state and progress of a job</li>
+ *     <li>{@code DELETE /jobs/<id>} cancels a job</li>
+ *     <li>{@code GET /history} lists the campaigns of the campaign history, optionally only those of the design hash
+ *     {@code design} stored between the dates {@code from} and {@code to} (yyyy-MM-dd), with the statistics of the
+ *     metric {@code metric} (e.g. apogee) if given</li>
+ * </ul>
+ *
+ * @see CampaignJob
+ */
+public class JobServer {
+    private final static Logger log = LoggerFactory.getLogger(JobServer.class);
+    private final static long INBOX_POLL_SECONDS = 2;
+    private final static String JOB_FILE_EXTENSION = ".job";
+    private final static DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Configurator config = Configurator.getInstance();
+    private final File inbox;
+    private final File jobsDirectory;
+    private final int concurrency = Math.max(1, config.getServerConcurrency());
+    private final ExecutorService runner =
+            Executors.newFixedThreadPool(concurrency, r -> new Thread(r, "job-runner"));
+    private final ScheduledExecutorService inboxWatcher =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "job-inbox"));
+    // every job's controller would compare the whole heap's occupancy against its budget, so they share one
+    private final AdmissionController admission =
+            AdmissionController.forThreads(config.getMemoryBudget(), config.getThreadCount());
+    private final Map<String, CampaignJob> jobs = new LinkedHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final ResultCache resultCache = !config.isResultCache() ? null : new ResultCache(
+            new File(config.getCacheDirectory(), "results"), config.getResultCacheSize() * 1024L * 1024L);
+    private final HistoryStore history = !config.isCampaignHistory() ? null :
+            new HistoryStore(new File(config.getCacheDirectory(), "history"));
+    private HttpServer server;
+
+    public JobServer() {
+        File directory = config.getServerDirectory();
+        this.inbox = new File(directory, "inbox");
+        this.jobsDirectory = new File(directory, "jobs");
+    }
+
+    /**
+     * Starts the HTTP API and the inbox watcher
+     *
+     * @throws IOException If the port could not be opened or the server directory not created
+     */
+    public void start() throws IOException {
+        Files.createDirectories(inbox.toPath());
+        Files.createDirectories(jobsDirectory.toPath());
+
+        // only local clients may submit jobs, the API has no authentication
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getServerPort()), 0);
+        server.createContext("/jobs", this::handle);
+        server.createContext("/history", this::handleHistory);
+        server.start();
+        inboxWatcher.scheduleWithFixedDelay(this::pollInbox, 0, INBOX_POLL_SECONDS, TimeUnit.SECONDS);
+        log.info("Job server listening on http://localhost:{}/jobs, watching {}", config.getServerPort(),
+                inbox.getAbsolutePath());
+    }
+
+    /**
+     * Queues a job
+     *
+     * @param description   Job description
+     * @param baseDirectory Directory relative paths of the description are resolved against
+     * @return The queued job
+     */
+    CampaignJob submit(Reader description, File baseDirectory) throws IOException {
+        String id = LocalDateTime.now().format(ID_FORMAT) + "-" + sequence.incrementAndGet();
+        CampaignJob job = CampaignJob.create(id, description, baseDirectory, new File(jobsDirectory, id));
+        synchronized (jobs) {
+            jobs.put(id, job);
+        }
+        // the processors are split between the jobs running at once
+        int threadCount = Math.max(1, config.getThreadCount() / concurrency);
+        runner.execute(() -> job.run(resultCache, history, threadCount, admission));
+        log.info("Queued job {}", id);
+        return job;
+    }
+
+    /**
+     * Submits every job file in the inbox. Submitted files are moved into the folder of their job.
+     */
+    private void pollInbox() {
+        File[] files = inbox.listFiles((dir, name) -> name.endsWith(JOB_FILE_EXTENSION));
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                CampaignJob job;
+                try (Reader reader = new FileReader(file)) {
+                    job = submit(reader, inbox);
+                }
+                Files.move(file.toPath(), new File(new File(jobsDirectory, job.getId()), file.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (Exception e) {
+                log.error("Could not submit job file {}", file, e);
+                File rejected = new File(file.getPath() + ".rejected");
+                if (!file.renameTo(rejected))
+                    log.warn("Could not rename {}, it will be submitted again", file);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String id = path.length() > "/jobs/".length() ? path.substring("/jobs/".length()) : null;
+            String method = exchange.getRequestMethod();
+
+            if (id == null && method.equals("POST")) {
+                CampaignJob job;
+                try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                    // relative paths of submitted jobs refer to the server's working directory
+                    job = submit(reader, new File("").getAbsoluteFile());
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, "{\"error\":" + CampaignJob.quote(e.getMessage()) + "}");
+                    return;
+                }
+                respond(exchange, 201, job.toJson());
+            } else if (id == null && method.equals("GET")) {
+                List<String> all = new ArrayList<>();
+                synchronized (jobs) {
+                    for (CampaignJob job : jobs.values())
+                        all.add(job.toJson());
+                }
+                respond(exchange, 200, "[" + String.join(",", all) + "]");
+            } else if (id != null) {
+                CampaignJob job;
+                synchronized (jobs) {
+                    job = jobs.get(id);
+                }
+                if (job == null) {
+                    respond(exchange, 404, "{\"error\":\"No such job\"}");
+                } else if (method.equals("GET")) {
+                    respond(exchange, 200, job.toJson());
+                } else if (method.equals("DELETE")) {
+                    job.cancel();
+                    respond(exchange, 200, job.toJson());
+                } else {
+                    respond(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                }
+            } else {
+                respond(exchange, 405, "{\"error\":\"Method not allowed\"}");
+            }
+        } catch (Exception e) {
+            log.error("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            try {
+                respond(exchange, 500, "{\"error\":" + CampaignJob.quote(String.valueOf(e.getMessage())) + "}");
+            } catch (IOException ex) {
+                // the response was already started
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Lists the campaigns of the history matching the query parameters of the request
+     */
+    private void handleHistory(HttpExchange exchange) {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                return;
+            }
+            if (history == null) {
+                respond(exchange, 404, "{\"error\":\"The campaign history is disabled\"}");
+                return;
+            }
+            Map<String, String> query = new LinkedHashMap<>();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String pair : rawQuery.split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+            HistoryStore.Metric metric = null;
+            String registeredMetric = null;
+            long from, to;
+            try {
+                String name = query.get("metric");
+                if (name != null) {
+                    // a fixed metric by its name, or a registered one by its column name
+                    for (MetricExtractor e : MetricRegistry.getExtractors())
+                        if (e.getName().equalsIgnoreCase(name)) registeredMetric = e.getName();
+                    if (registeredMetric == null) metric = HistoryStore.Metric.valueOf(name.toUpperCase());
+                }
+                from = query.containsKey("from") ? LocalDate.parse(query.get("from"))
+                        .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() : Long.MIN_VALUE;
+                to = query.containsKey("to") ? LocalDate.parse(query.get("to")).plusDays(1)
+                        .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1 : Long.MAX_VALUE;
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                respond(exchange, 400, "{\"error\":" + CampaignJob.quote(e.getMessage()) + "}");
+                return;
+            }
+
+            List<String> all = new ArrayList<>();
+            for (HistoryStore.Campaign campaign : history.find(query.get("design"), from, to)) {
+                String json = campaign.toJson();
+                if (metric != null || registeredMetric != null) {
+                    HistoryStore.Summary summary = metric != null ? history.summarize(campaign, metric) :
+                            history.summarize(campaign, registeredMetric);
+                    json = json.substring(0, json.length() - 1) +
+                            ",\"metric\":" + CampaignJob.quote(summary.metric()) +
+                            ",\"mean\":" + CampaignJob.number(summary.mean()) +
+                            ",\"standardDeviation\":" + CampaignJob.number(summary.standardDeviation()) +
+                            ",\"min\":" + CampaignJob.number(summary.min()) +
+                            ",\"max\":" + CampaignJob.number(summary.max()) + "}";
+                }
+                all.add(json);
+            }
+            respond(exchange, 200, "[" + String.join(",", all) + "]");
+        } catch (Exception e) {
+            log.error("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            try {
+                respond(exchange, 500, "{\"error\":" + CampaignJob.quote(String.valueOf(e.getMessage())) + "}");
+            } catch (IOException ex) {
+                // the response was already started
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index over the landing points of every branch, built as results stream in, to answer which share of the
+ * landings falls inside a candidate zone without rescanning the export.
+ * <p>
+ * Positions are east and north of the launch site in feet, as in the export and the dispersion plots. Every branch has
+ * a uniform grid of a few points per cell with prefix sums of the counts and weights along each row of cells, so a
+ * radius or polygon query adds up the cells inside the zone per row and only tests the points of the cells its edge
+ * crosses. The grid is rebuilt when a query finds more than a few thousand points added since the last build, points
+ * added since are tested one by one. Counts are weighted by the runs' likelihood ratios, so the share of the weight
+ * inside a zone estimates its probability under the nominal conditions. Thread safe.
+ *
+ * @see DispersionPlotPanel
+ */
+public class LandingIndex {
+    /**
+     * Points of a branch that are tested one by one before its grid is rebuilt
+     */
+    private final static int MAX_UNINDEXED = 4096;
+    private final static int POINTS_PER_CELL = 4;
+    private final static int MAX_CELLS = 1 << 22;
+    /**
+     * Relative margin of the radius within which a circle query counts whole cells or skips them, so that rounding
+     * never decides a landing on the circle differently from testing it
+     */
+    private final static double MARGIN = 1e-9;
+
+    private final List<Branch> branches = new ArrayList<>(); // guarded by itself
+
+    /**
+     * Landings inside a zone
+     *
+     * @param landings    Number of landings inside the zone
+     * @param weight      Summed weight of the landings inside the zone
+     * @param total       Number of landings of the branch
+     * @param totalWeight Summed weight of all landings of the branch
+     */
+    public record Count(long landings, double weight, long total, double totalWeight) {
+        /**
+         * @return Share of the branch's weight inside the zone, NaN if the branch has no landings
+         */
+        public double fraction() {
+            return totalWeight > 0 ? weight / totalWeight : Double.NaN;
+        }
+    }
+
+    /**
+     * A landing point
+     *
+     * @param run      Name of the run
+     * @param east     Position east of the launch site in feet
+     * @param north    Position north of the launch site in feet
+     * @param weight   Weight of the run
+     * @param distance Distance from the queried point in feet
+     */
+    public record Landing(String run, double east, double north, double weight, double distance) {
+    }
+
+    /**
+     * Adds the landing points of every branch of a processed run
+     */
+    public void add(SimulationData data) {
+        List<Double> east = data.getEastPostLandingInFeet();
+        List<Double> north = data.getNorthPostLandingInFeet();
+        for (int i = 0; i < east.size(); i++) {
+            Branch branch;
+            synchronized (branches) {
+                while (branches.size() <= i) branches.add(new Branch(data.getBranchName().get(branches.size())));
+                branch = branches.get(i);
+            }
+            branch.add(data.getName(), east.get(i), north.get(i), data.getWeight());
+        }
+    }
+
+    /**
+     * Removes all landing points
+     */
+    public void clear() {
+        synchronized (branches) {
+            branches.clear();
+        }
+    }
+
+    /**
+     * @return Names of the branches that have landed so far, in branch order
+     */
+    public List<String> getBranchNames() {
+        synchronized (branches) {
+            return branches.stream().map(b -> b.name).toList();
+        }
+    }
+
+    private Branch branch(int branch) {
+        synchronized (branches) {
+            return branch < branches.size() ? branches.get(branch) : null;
+        }
+    }
+
+    /**
+     * Counts the landings of a branch within a distance of a point
+     *
+     * @param branch Index of the branch
+     * @param east   Position of the center east of the launch site in feet
+     * @param north  Position of the center north of the launch site in feet
+     * @param radius Radius in feet
+     */
+    public Count countWithin(int branch, double east, double north, double radius) {
+        Branch b = branch(branch);
+        return b == null ? new Count(0, 0, 0, 0) : b.countWithin(east, north, radius);
+    }
+
+    /**
+     * Counts the landings of a branch inside a polygon
+     *
+     * @param branch Index of the branch
+     * @param east   Positions of the vertices east of the launch site in feet
+     * @param north  Positions of the vertices north of the launch site in feet
+     * @throws IllegalArgumentException If the polygon has fewer than three vertices
+     */
+    public Count countInside(int branch, double[] east, double[] north) {
+        if (east.length != north.length || east.length < 3)
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        Branch b = branch(branch);
+        return b == null ? new Count(0, 0, 0, 0) : b.countInside(east, north);
+    }
+
+    /**
+     * Finds the landing of a branch nearest to a point, e.g. to a point along a recovery route
+     *
+     * @param branch Index of the branch
+     * @param east   Position east of the launch site in feet
+     * @param north  Position north of the launch site in feet
+     * @return The nearest landing, or null if the branch has none
+     */
+    public Landing nearest(int branch, double east, double north) {
+        Branch b = branch(branch);
+        return b == null ? null : b.nearest(east, north);
+    }
+
+    /**
+     * @return Whether the point is inside the polygon, by the parity of the polygon's crossings of a ray from it
+     */
+    private static boolean contains(double[] px, double[] py, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = px.length - 1; i < px.length; j = i++) {
+            if ((py[i] > y) != (py[j] > y) && x < (px[j] - px[i]) * (y - py[i]) / (py[j] - py[i]) + px[i])
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    private static final class Branch {
+        private final String name;
+        private double[] xs = new double[64];
+        private double[] ys = new double[64];
+        private double[] ws = new double[64];
+        private String[] runs = new String[64];
+        private int size = 0;
+        private double totalWeight = 0;
+
+        // grid over the first indexed points, sorted by cell
+        private int indexed = 0;
+        private double originX, originY, cellSize;
+        private int nx, ny;
+        private int[] cellStart; // first sorted point of each cell, by row then column
+        private int[] order; // index of each sorted point
+        private double[] sortedX, sortedY, sortedW;
+        private int[] rowCount; // points of a row of cells left of each column, (nx + 1) per row
+        private double[] rowWeight;
+
+        Branch(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(String run, double x, double y, double w) {
+            if (Double.isNaN(x) || Double.isNaN(y) || !(w > 0)) return;
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, 2 * size);
+                ys = Arrays.copyOf(ys, 2 * size);
+                ws = Arrays.copyOf(ws, 2 * size);
+                runs = Arrays.copyOf(runs, 2 * size);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            ws[size] = w;
+            runs[size] = run;
+            size++;
+            totalWeight += w;
+        }
+
+        private void ensureIndexed() {
+            if (size - indexed <= MAX_UNINDEXED) return;
+            double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            double meanX = 0, meanY = 0, varianceX = 0, varianceY = 0;
+            for (int i = 0; i < size; i++) {
+                minX = Math.min(minX, xs[i]);
+                maxX = Math.max(maxX, xs[i]);
+                minY = Math.min(minY, ys[i]);
+                maxY = Math.max(maxY, ys[i]);
+                meanX += xs[i] / size;
+                meanY += ys[i] / size;
+            }
+            for (int i = 0; i < size; i++) {
+                varianceX += (xs[i] - meanX) * (xs[i] - meanX) / size;
+                varianceY += (ys[i] - meanY) * (ys[i] - meanY) / size;
+            }
+            double width = maxX - minX, height = maxY - minY;
+            // size the cells by the spread of the bulk of the points rather than by the outliers, which would leave
+            // the dense center with far more points per cell
+            double spreadX = Math.min(width, 4 * Math.sqrt(varianceX));
+            double spreadY = Math.min(height, 4 * Math.sqrt(varianceY));
+            int targetCells = Math.max(1, Math.min(MAX_CELLS, size / POINTS_PER_CELL));
+            // square cells, unless the points lie on a line
+            cellSize = Math.max(Math.sqrt(spreadX * spreadY / targetCells), Math.max(spreadX, spreadY) / targetCells);
+            if (!(cellSize > 0)) cellSize = 1;
+            while ((width / cellSize + 1) * (height / cellSize + 1) > MAX_CELLS) cellSize *= 1.5;
+            originX = minX;
+            originY = minY;
+            nx = (int) (width / cellSize) + 1;
+            ny = (int) (height / cellSize) + 1;
+
+            // counting sort of the points by cell
+            int cells = nx * ny;
+            int[] cellOf = new int[size];
+            cellStart = new int[cells + 1];
+            for (int i = 0; i < size; i++) {
+                cellOf[i] = row(ys[i]) * nx + column(xs[i]);
+                cellStart[cellOf[i] + 1]++;
+            }
+            for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+            int[] next = Arrays.copyOf(cellStart, cells);
+            order = new int[size];
+            sortedX = new double[size];
+            sortedY = new double[size];
+            sortedW = new double[size];
+            for (int i = 0; i < size; i++) {
+                int k = next[cellOf[i]]++;
+                order[k] = i;
+                sortedX[k] = xs[i];
+                sortedY[k] = ys[i];
+                sortedW[k] = ws[i];
+            }
+
+            rowCount = new int[ny * (nx + 1)];
+            rowWeight = new double[ny * (nx + 1)];
+            for (int r = 0; r < ny; r++) {
+                int base = r * (nx + 1);
+                for (int c = 0; c < nx; c++) {
+                    int cell = r * nx + c;
+                    double w = 0;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) w += sortedW[k];
+                    rowCount[base + c + 1] = rowCount[base + c] + cellStart[cell + 1] - cellStart[cell];
+                    rowWeight[base + c + 1] = rowWeight[base + c] + w;
+                }
+            }
+            indexed = size;
+        }
+
+        private int column(double x) {
+            return Math.max(0, Math.min(nx - 1, (int) Math.floor((x - originX) / cellSize)));
+        }
+
+        private int row(double y) {
+            return Math.max(0, Math.min(ny - 1, (int) Math.floor((y - originY) / cellSize)));
+        }
+
+        synchronized Count countWithin(double cx, double cy, double radius) {
+            ensureIndexed();
+            double r2 = radius * radius;
+            double outerRadius = radius * (1 + MARGIN), innerRadius = radius * (1 - MARGIN);
+            long n = 0;
+            double w = 0;
+            if (indexed > 0 && radius >= 0 && cy + outerRadius >= originY &&
+                    cy - outerRadius <= originY + ny * cellSize && cx + outerRadius >= originX &&
+                    cx - outerRadius <= originX + nx * cellSize) {
+                for (int r = row(cy - outerRadius); r <= row(cy + outerRadius); r++) {
+                    double y0 = originY + r * cellSize, y1 = y0 + cellSize;
+                    double dyMin = cy < y0 ? y0 - cy : Math.max(0, cy - y1);
+                    if (dyMin > outerRadius) continue;
+                    double outer = Math.sqrt(outerRadius * outerRadius - dyMin * dyMin);
+                    if (cx + outer < originX || cx - outer > originX + nx * cellSize) continue;
+                    int from = column(cx - outer), to = column(cx + outer);
+                    // cells whose farthest corner is within the radius are counted from the prefix sums
+                    int innerFrom = to + 1, innerTo = to;
+                    double dyMax = Math.max(Math.abs(y0 - cy), Math.abs(y1 - cy));
+                    if (dyMax < innerRadius) {
+                        double inner = Math.sqrt(innerRadius * innerRadius - dyMax * dyMax);
+                        innerFrom = Math.max(from, (int) Math.ceil((cx - inner - originX) / cellSize));
+                        innerTo = Math.min(to, (int) Math.floor((cx + inner - originX) / cellSize) - 1);
+                        if (innerFrom > innerTo) {
+                            innerFrom = to + 1;
+                            innerTo = to;
+                        }
+                    }
+                    int base = r * (nx + 1);
+                    if (innerFrom <= innerTo) {
+                        n += rowCount[base + innerTo + 1] - rowCount[base + innerFrom];
+                        w += rowWeight[base + innerTo + 1] - rowWeight[base + innerFrom];
+                    }
+                    for (int c = from == innerFrom ? innerTo + 1 : from; c <= to;
+                         c = c + 1 == innerFrom ? innerTo + 1 : c + 1) {
+                        int cell = r * nx + c;
+                        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                            double dx = sortedX[k] - cx, dy = sortedY[k] - cy;
+                            if (dx * dx + dy * dy <= r2) {
+                                n++;
+                                w += sortedW[k];
+                            }
+                        }
+                    }
+                }
+            }
+            for (int i = indexed; i < size; i++) {
+                double dx = xs[i] - cx, dy = ys[i] - cy;
+                if (dx * dx + dy * dy <= r2) {
+                    n++;
+                    w += ws[i];
+                }
+            }
+            return new Count(n, w, size, totalWeight);
+        }
+
+        synchronized Count countInside(double[] px, double[] py) {
+            ensureIndexed();
+            long n = 0;
+            double w = 0;
+            if (indexed > 0) {
+                double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                for (double y : py) {
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+                int v = px.length;
+                int[] starts = new int[v], ends = new int[v];
+                for (int r = row(minY); r <= row(maxY); r++) {
+                    double y0 = originY + r * cellSize, y1 = y0 + cellSize;
+                    // columns the polygon's edges cross within this row of cells
+                    int intervals = 0;
+                    for (int i = 0, j = v - 1; i < v; j = i++) {
+                        double ax = px[j], ay = py[j], bx = px[i], by = py[i];
+                        if (Math.max(ay, by) < y0 || Math.min(ay, by) > y1) continue;
+                        double xa = ax, xb = bx;
+                        if (ay != by) {
+                            double ta = Math.max(0, Math.min(1, (y0 - ay) / (by - ay)));
+                            double tb = Math.max(0, Math.min(1, (y1 - ay) / (by - ay)));
+                            xa = ax + ta * (bx - ax);
+                            xb = ax + tb * (bx - ax);
+                        }
+                        double lo = Math.min(xa, xb), hi = Math.max(xa, xb);
+                        if (hi < originX || lo > originX + nx * cellSize) continue;
+                        starts[intervals] = column(lo);
+                        ends[intervals] = column(hi);
+                        intervals++;
+                    }
+                    sortIntervals(starts, ends, intervals);
+                    int merged = 0;
+                    for (int i = 0; i < intervals; i++) {
+                        if (merged > 0 && starts[i] <= ends[merged - 1] + 1) {
+                            ends[merged - 1] = Math.max(ends[merged - 1], ends[i]);
+                        } else {
+                            starts[merged] = starts[i];
+                            ends[merged] = ends[i];
+                            merged++;
+                        }
+                    }
+
+                    int base = r * (nx + 1);
+                    int cursor = 0;
+                    for (int i = 0; i <= merged; i++) {
+                        int start = i < merged ? starts[i] : nx;
+                        // no edge crosses the cells between the crossed ones, so they are all inside or all outside
+                        if (start > cursor && contains(px, py, originX + (cursor + 0.5) * cellSize, (y0 + y1) / 2)) {
+                            n += rowCount[base + start] - rowCount[base + cursor];
+                            w += rowWeight[base + start] - rowWeight[base + cursor];
+                        }
+                        if (i == merged) break;
+                        for (int cell = r * nx + starts[i]; cell <= r * nx + ends[i]; cell++) {
+                            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                                if (contains(px, py, sortedX[k], sortedY[k])) {
+                                    n++;
+                                    w += sortedW[k];
+                                }
+                            }
+                        }
+                        cursor = ends[i] + 1;
+                    }
+                }
+            }
+            for (int i = indexed; i < size; i++) {
+                if (contains(px, py, xs[i], ys[i])) {
+                    n++;
+                    w += ws[i];
+                }
+            }
+            return new Count(n, w, size, totalWeight);
+        }
+
+        /**
+         * Sorts the first count intervals by their start
+         */
+        private static void sortIntervals(int[] starts, int[] ends, int count) {
+            for (int i = 1; i < count; i++) {
+                int s = starts[i], e = ends[i], j = i - 1;
+                for (; j >= 0 && starts[j] > s; j--) {
+                    starts[j + 1] = starts[j];
+                    ends[j + 1] = ends[j];
+                }
+                starts[j + 1] = s;
+                ends[j + 1] = e;
+            }
+        }
+
+        synchronized Landing nearest(double x, double y) {
+            ensureIndexed();
+            int best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int i = indexed; i < size; i++) {
+                double d = Math.hypot(xs[i] - x, ys[i] - y);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = i;
+                }
+            }
+            if (indexed > 0) {
+                int c0 = column(x), r0 = row(y);
+                // distance from the point to its (clamped) cell, cells of ring k are at least k - 1 cells further
+                double x0 = originX + c0 * cellSize, y0 = originY + r0 * cellSize;
+                double offset = Math.hypot(Math.max(0, Math.max(x0 - x, x - x0 - cellSize)),
+                        Math.max(0, Math.max(y0 - y, y - y0 - cellSize)));
+                int rings = Math.max(Math.max(c0, nx - 1 - c0), Math.max(r0, ny - 1 - r0));
+                for (int k = 0; k <= rings; k++) {
+                    if (bestDistance <= (k - 1) * cellSize - offset) break;
+                    for (int r = Math.max(0, r0 - k); r <= Math.min(ny - 1, r0 + k); r++) {
+                        // the whole row at the top and bottom of the ring, its two ends otherwise
+                        int step = r == r0 - k || r == r0 + k ? 1 : 2 * k;
+                        for (int c = c0 - k; c <= c0 + k; c += Math.max(1, step)) {
+                            if (c < 0 || c >= nx) continue;
+                            int cell = r * nx + c;
+                            for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                                double d = Math.hypot(sortedX[p] - x, sortedY[p] - y);
+                                if (d < bestDistance) {
+                                    bestDistance = d;
+                                    best = order[p];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return best < 0 ? null : new Landing(runs[best], xs[best], ys[best], ws[best], bestDistance);
+        }
+    }
+}
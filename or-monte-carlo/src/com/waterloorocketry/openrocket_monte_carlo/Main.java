@@ -3,49 +3,191 @@ package com.waterloorocketry.openrocket_monte_carlo;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.google.inject.util.Modules;
 import info.openrocket.core.database.Databases;
 import info.openrocket.core.plugin.PluginModule;
 import info.openrocket.core.preferences.ApplicationPreferences;
 import info.openrocket.core.startup.Application;
+import info.openrocket.core.util.BuildProperties;
 import info.openrocket.swing.gui.theme.UITheme;
 import info.openrocket.swing.gui.util.GUIUtil;
 import info.openrocket.swing.startup.GuiModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
 public class Main {
     private final static Logger log = LoggerFactory.getLogger(Main.class);
+    private static TargetedMotorLoader motorLoader;
+
+    /**
+     * Starts a headless worker process serving simulations to a campaign instead of the GUI
+     *
+     * @see SimulationWorker
+     */
+    static final String WORKER_ARGUMENT = "--worker";
+    /**
+     * Starts a headless worker that connects to the campaigns of another machine, followed by host:port and
+     * optionally the number of simulations to run at once. The worker proves it knows the configured coordinator
+     * token.
+     *
+     * @see SimulationWorker#connect(String, int, int, String)
+     */
+    static final String CONNECT_ARGUMENT = "--connect";
+    /**
+     * Starts a headless job server instead of the GUI
+     *
+     * @see JobServer
+     */
+    static final String SERVE_ARGUMENT = "--serve";
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(WORKER_ARGUMENT)) {
+            runWorker();
+            return;
+        }
+        if (args.length > 1 && args[0].equals(CONNECT_ARGUMENT)) {
+            runRemoteWorker(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals(SERVE_ARGUMENT)) {
+            runJobServer();
+            return;
+        }
         log.info("Starting OpenRocket Monte Carlo Simulation Options GUI...");
 
-        initializeOpenRocket();
+        SimulationProfiler.setEnabled(Configurator.getInstance().isProfileSimulations());
+        initializeOpenRocket(true);
         SimulationOptionsFrame frame = new SimulationOptionsFrame();
 
         frame.setVisible(true);
 
     }
 
+    private static void runWorker() {
+        // standard output carries the worker protocol, so everything printed goes to standard error instead
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+        initializeOpenRocket(false);
+        try {
+            SimulationWorker.run(System.in, protocol);
+        } catch (IOException e) {
+            log.error("Worker lost its connection to the campaign", e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void runJobServer() {
+        SimulationProfiler.setEnabled(Configurator.getInstance().isProfileSimulations());
+        initializeOpenRocket(false);
+        try {
+            new JobServer().start();
+        } catch (IOException e) {
+            log.error("Could not start the job server", e);
+            System.exit(1);
+        }
+    }
+
+    private static void runRemoteWorker(String[] args) {
+        String address = args[1];
+        int separator = address.lastIndexOf(':');
+        String host = separator < 0 ? null : address.substring(0, separator);
+        int port, connections;
+        try {
+            port = separator < 0 ? -1 : Integer.parseInt(address.substring(separator + 1));
+            connections = args.length > 2 ? Integer.parseInt(args[2]) : Configurator.getInstance().getThreadCount();
+        } catch (NumberFormatException e) {
+            port = connections = -1;
+        }
+        if (host == null || host.isEmpty() || port <= 0 || port > 65535 || connections <= 0) {
+            log.error("Usage: {} <host>:<port> [simulations], with a port from 1 to 65535 and a positive number of " +
+                    "simulations, got {}", CONNECT_ARGUMENT, String.join(" ", args));
+            System.exit(2);
+        }
+        String token = Configurator.getInstance().getCoordinatorToken();
+        if (token.isBlank()) {
+            log.error("Set coordinator_token to the token of the campaign's machine to connect to it");
+            System.exit(2);
+        }
+
+        initializeOpenRocket(false);
+        try {
+            SimulationWorker.connect(host, port, connections, token);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 
     /**
      * Inject required dependencies for OpenRocket, allowing us to run simulations
      * programmatically.
      * This runs the same code as for starting up a GUI version of OpenRocket, making it easier to make manual
      * simulation runs automatic.
+     * <p>
+     * With lazy motor loading, the motor database only receives the motors used by the selected files, looked up in
+     * a persisted index of the bundled motors. The index is built in the background on the first full startup.
+     *
+     * @param gui Whether to apply the look and feel and build a missing motor index, false in worker processes
      */
-    private static void initializeOpenRocket() {
+    static void initializeOpenRocket(boolean gui) {
+        long start = System.nanoTime();
+        Configurator config = Configurator.getInstance();
+        File motorIndexDirectory = new File(config.getCacheDirectory(), "motors");
+        String version = BuildProperties.getVersion();
+
         GuiModule guiModule = new GuiModule();
         Module pluginModule = new PluginModule();
-        Injector injector = Guice.createInjector(guiModule, pluginModule);
-        Application.setInjector(injector);
-        guiModule.startLoader();
+        MotorIndex motorIndex = config.isLazyMotorLoading() ? MotorIndex.open(motorIndexDirectory, version) : null;
+        if (motorIndex != null) {
+            log.info("Loading motors on demand from index with {} entries", motorIndex.size());
+            motorLoader = new TargetedMotorLoader(motorIndex);
+            Injector injector = Guice.createInjector(Modules.override(guiModule).with(motorLoader.createModule()),
+                    pluginModule);
+            Application.setInjector(injector);
+        } else {
+            Injector injector = Guice.createInjector(guiModule, pluginModule);
+            Application.setInjector(injector);
+            guiModule.startLoader();
+            if (gui && config.isLazyMotorLoading())
+                buildMotorIndex(motorIndexDirectory, version);
+        }
         Databases.fakeMethod();
-        String cmdLAF = System.getProperty("openrocket.laf");
-        if (cmdLAF != null) {
-            ApplicationPreferences prefs = Application.getPreferences();
-            prefs.setUITheme(UITheme.Themes.valueOf(cmdLAF));
+        if (gui) {
+            String cmdLAF = System.getProperty("openrocket.laf");
+            if (cmdLAF != null) {
+                ApplicationPreferences prefs = Application.getPreferences();
+                prefs.setUITheme(UITheme.Themes.valueOf(cmdLAF));
+            }
+            GUIUtil.applyLAF();
         }
-        GUIUtil.applyLAF();
+        log.info("OpenRocket initialized in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Writes the motor index once the full motor database has finished loading, without blocking startup
+     */
+    private static void buildMotorIndex(File directory, String version) {
+        Thread thread = new Thread(() -> {
+            try {
+                // blocks until the database loader is done
+                MotorIndex.build(directory, version, Application.getThrustCurveMotorSetDatabase());
+            } catch (IOException e) {
+                log.warn("Could not write motor index to {}: {}", directory, e.getMessage());
+            }
+        }, "motor-index-builder");
+        thread.setDaemon(true);
+        thread.start();
     }
 
+    /**
+     * @return Loader for motors used by the selected files, or null if the full motor database is loaded
+     */
+    public static TargetedMotorLoader getMotorLoader() {
+        return motorLoader;
+    }
 }
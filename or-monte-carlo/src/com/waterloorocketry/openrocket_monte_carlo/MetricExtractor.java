@@ -0,0 +1,106 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.simulation.FlightDataType;
+import info.openrocket.core.simulation.FlightEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A result extracted from the flight data of every branch of a run, e.g. the maximum dynamic pressure.
+ * <p>
+ * Extractors declare the flight data and events they need, which are read once per branch for all registered
+ * extractors. Processing a branch then walks its steps a single time and hands every step to every extractor's
+ * accumulator, so adding a metric does not add a pass over the flight data.
+ *
+ * @see MetricRegistry
+ * @see SimulationData#processData(boolean)
+ */
+public interface MetricExtractor {
+    /**
+     * @return Name of the metric with its unit, the column header in the table and exports
+     */
+    String getName();
+
+    /**
+     * @return Flight data the metric reads from a branch, besides the time which is always available
+     */
+    Set<FlightDataType> getDataTypes();
+
+    /**
+     * @return Events whose first occurrence in a branch the metric needs
+     */
+    default Set<FlightEvent.Type> getEvents() {
+        return Set.of();
+    }
+
+    /**
+     * Starts extracting the metric from a branch
+     *
+     * @return Accumulator that is handed every step of the branch in order
+     */
+    Accumulator start(Branch branch);
+
+    /**
+     * State of an extractor over one branch
+     */
+    interface Accumulator {
+        /**
+         * @param index Index of the step in the branch's flight data
+         */
+        void step(int index);
+
+        /**
+         * @return Value of the metric after all steps, NaN if the branch did not have it
+         */
+        double result();
+    }
+
+    /**
+     * Flight data and event times of a branch, shared by all extractors
+     */
+    final class Branch {
+        private final Map<FlightDataType, List<Double>> columns;
+        private final Map<FlightEvent.Type, Double> eventTimes;
+        private final List<Double> time;
+
+        Branch(Map<FlightDataType, List<Double>> columns, Map<FlightEvent.Type, Double> eventTimes,
+               List<Double> time) {
+            this.columns = columns;
+            this.eventTimes = eventTimes;
+            this.time = time;
+        }
+
+        /**
+         * @return Values of a declared data type at every step
+         * @throws IllegalArgumentException If the extractor did not declare the data type
+         */
+        public List<Double> get(FlightDataType type) {
+            List<Double> column = columns.get(type);
+            if (column == null) throw new IllegalArgumentException(type.getName() + " was not declared");
+            return column;
+        }
+
+        /**
+         * @return Time of every step
+         */
+        public List<Double> getTime() {
+            return time;
+        }
+
+        /**
+         * @return Time of the first occurrence of a declared event, NaN if it did not occur in the branch
+         */
+        public double getEventTime(FlightEvent.Type type) {
+            return eventTimes.getOrDefault(type, Double.NaN);
+        }
+
+        /**
+         * @return Number of steps of the branch
+         */
+        public int getLength() {
+            return time.size();
+        }
+    }
+}
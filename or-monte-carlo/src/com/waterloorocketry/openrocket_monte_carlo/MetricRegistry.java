@@ -0,0 +1,216 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.simulation.FlightDataType;
+import info.openrocket.core.simulation.FlightEvent;
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The metrics extracted from every run besides the built-in results, in the order of their columns.
+ * <p>
+ * Extractors should be registered at startup, before the first campaign: runs processed earlier do not have the new
+ * metric. Worker processes only extract the metrics registered in their own JVM, and the result cache keys on the
+ * registered names, so results cached without a metric are simulated again.
+ * <p>
+ * The registry is also the one source of the per-branch columns of the exports: the built-in results of a branch,
+ * followed by the registered metrics.
+ */
+public final class MetricRegistry {
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    /**
+     * Ratio of specific heats of air, relating dynamic pressure to static pressure and Mach number
+     */
+    private final static double GAMMA = 1.4;
+
+    private final static List<MetricExtractor> extractors = new CopyOnWriteArrayList<>(List.of(
+            maxDynamicPressure(), driftAtDeployment(), railExitVelocity()));
+
+    /**
+     * A per-branch column of the exports
+     *
+     * @param name  Column header, after the branch name
+     * @param value Value of the column for a branch of a processed run
+     */
+    public record Column(String name, BranchValue value) {
+    }
+
+    /**
+     * Value of a branch of a processed run
+     */
+    public interface BranchValue {
+        double of(SimulationData d, int branch);
+    }
+
+    private final static List<Column> BUILT_IN_COLUMNS = List.of(
+            new Column("Initial Stability", (d, i) -> d.getInitStability().get(i)),
+            new Column("Min Stability", (d, i) -> d.getMinStability().get(i)),
+            new Column("Max Stability", (d, i) -> d.getMaxStability().get(i)),
+            new Column("Apogee Stability", (d, i) -> d.getApogeeStability().get(i)),
+            new Column("Landing Latitude (deg N)", (d, i) -> d.getLandingLatitude().get(i)),
+            new Column("Landing Longitude (deg E)", (d, i) -> d.getLandingLongitude().get(i)),
+            new Column("Position East of Launch (ft)", (d, i) -> d.getEastPostLandingInFeet().get(i)),
+            new Column("Position North of Launch (ft)", (d, i) -> d.getNorthPostLandingInFeet().get(i)),
+            new Column("Lateral Velocity at Apogee (m/s)", (d, i) -> d.getApogeeLateralVelocity().get(i)));
+
+    private MetricRegistry() {
+    }
+
+    /**
+     * Adds a metric to every run processed from now on
+     *
+     * @throws IllegalArgumentException If a metric of the same name is already registered
+     */
+    public static synchronized void register(MetricExtractor extractor) {
+        for (MetricExtractor e : extractors) {
+            if (e.getName().equals(extractor.getName()))
+                throw new IllegalArgumentException("A metric named " + extractor.getName() + " is already registered");
+        }
+        extractors.add(extractor);
+    }
+
+    /**
+     * @return The registered extractors, in the order of their columns
+     */
+    public static List<MetricExtractor> getExtractors() {
+        return List.copyOf(extractors);
+    }
+
+    /**
+     * @param metricNames Names of the metrics the runs were processed with, see SimulationData#getMetricNames
+     * @return Per-branch columns of the exports: the built-in results, then the given metrics
+     */
+    public static List<Column> getColumns(List<String> metricNames) {
+        List<Column> columns = new ArrayList<>(BUILT_IN_COLUMNS);
+        for (String name : metricNames) columns.add(new Column(name, (d, i) -> d.getMetric(name, i)));
+        return columns;
+    }
+
+    /**
+     * @return Per-branch columns of the exports for runs processed with the registered metrics
+     */
+    public static List<Column> getColumns() {
+        List<String> names = new ArrayList<>();
+        for (MetricExtractor e : extractors) names.add(e.getName());
+        return getColumns(names);
+    }
+
+    /**
+     * @return Names of the registered metrics, for cache keys
+     */
+    static String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (MetricExtractor e : extractors) sb.append(e.getName()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @return Maximum dynamic pressure in Pa, GAMMA / 2 * p * M^2 from the static pressure p and Mach number M
+     */
+    private static MetricExtractor maxDynamicPressure() {
+        return new MetricExtractor() {
+            @Override
+            public String getName() {
+                return "Max Dynamic Pressure (Pa)";
+            }
+
+            @Override
+            public Set<FlightDataType> getDataTypes() {
+                return Set.of(FlightDataType.TYPE_AIR_PRESSURE, FlightDataType.TYPE_MACH_NUMBER);
+            }
+
+            @Override
+            public Accumulator start(Branch branch) {
+                List<Double> pressure = branch.get(FlightDataType.TYPE_AIR_PRESSURE);
+                List<Double> mach = branch.get(FlightDataType.TYPE_MACH_NUMBER);
+                return new Accumulator() {
+                    double max = Double.NaN;
+
+                    @Override
+                    public void step(int index) {
+                        double q = GAMMA / 2 * pressure.get(index) * mach.get(index) * mach.get(index);
+                        if (!Double.isNaN(q) && (Double.isNaN(max) || q > max)) max = q;
+                    }
+
+                    @Override
+                    public double result() {
+                        return max;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return Horizontal distance in ft from the launch site when the first recovery device deploys
+     */
+    private static MetricExtractor driftAtDeployment() {
+        return atFirstEvent("Drift at Deployment (ft)", FlightEvent.Type.RECOVERY_DEVICE_DEPLOYMENT,
+                Set.of(FlightDataType.TYPE_POSITION_X, FlightDataType.TYPE_POSITION_Y),
+                (branch, index) -> FEET.toUnit(Math.hypot(branch.get(FlightDataType.TYPE_POSITION_X).get(index),
+                        branch.get(FlightDataType.TYPE_POSITION_Y).get(index))));
+    }
+
+    /**
+     * @return Total velocity in m/s when the rocket clears the launch rod
+     */
+    private static MetricExtractor railExitVelocity() {
+        return atFirstEvent("Rail Exit Velocity (m/s)", FlightEvent.Type.LAUNCHROD,
+                Set.of(FlightDataType.TYPE_VELOCITY_TOTAL),
+                (branch, index) -> branch.get(FlightDataType.TYPE_VELOCITY_TOTAL).get(index));
+    }
+
+    /**
+     * Value of a step of a branch
+     */
+    interface StepValue {
+        double of(MetricExtractor.Branch branch, int index);
+    }
+
+    /**
+     * @return Extractor of a value at the first step at or after the first occurrence of an event, NaN if the event
+     * did not occur in the branch
+     */
+    static MetricExtractor atFirstEvent(String name, FlightEvent.Type event, Set<FlightDataType> types,
+                                        StepValue value) {
+        return new MetricExtractor() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Set<FlightDataType> getDataTypes() {
+                return types;
+            }
+
+            @Override
+            public Set<FlightEvent.Type> getEvents() {
+                return Set.of(event);
+            }
+
+            @Override
+            public Accumulator start(Branch branch) {
+                double eventTime = branch.getEventTime(event);
+                List<Double> time = branch.getTime();
+                return new Accumulator() {
+                    double result = Double.NaN;
+
+                    @Override
+                    public void step(int index) {
+                        if (Double.isNaN(result) && time.get(index) >= eventTime) result = value.of(branch, index);
+                    }
+
+                    @Override
+                    public double result() {
+                        return result;
+                    }
+                };
+            }
+        };
+    }
+}
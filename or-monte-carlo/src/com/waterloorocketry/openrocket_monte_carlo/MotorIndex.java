@@ -0,0 +1,174 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.database.motor.ThrustCurveMotorSet;
+import info.openrocket.core.database.motor.ThrustCurveMotorSetDatabase;
+import info.openrocket.core.motor.ThrustCurveMotor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persisted index of the bundled motor database.
+ * <p>
+ * Every motor is serialized as its own record in a data file, and a small index file maps the motor digest and
+ * designation to the record's position. Looking up the few motors a rocket uses only reads those records instead of
+ * loading the whole database.
+ */
+public class MotorIndex {
+    private final static Logger log = LoggerFactory.getLogger(MotorIndex.class);
+    private final static int MAGIC = 0x4d4f5449; // "MOTI"
+    private final static String INDEX_FILE = "motors.idx";
+    private final static String DATA_FILE = "motors.dat";
+
+    private final File dataFile;
+    private final Map<String, long[]> records; // key -> {offset, length}
+
+    private MotorIndex(File dataFile, Map<String, long[]> records) {
+        this.dataFile = dataFile;
+        this.records = records;
+    }
+
+    /**
+     * Opens an existing index
+     *
+     * @param directory Directory the index was written to
+     * @param version   Version the index must have been built for
+     * @return The index, or null if there is no index for this version
+     */
+    public static MotorIndex open(File directory, String version) {
+        File indexFile = new File(directory, INDEX_FILE);
+        File dataFile = new File(directory, DATA_FILE);
+        if (!indexFile.isFile() || !dataFile.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(version)) {
+                log.info("Motor index at {} is outdated", directory);
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, long[]> records = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                records.put(key, new long[]{in.readLong(), in.readInt()});
+            }
+            return new MotorIndex(dataFile, records);
+        } catch (IOException e) {
+            log.warn("Could not read motor index {}: {}", indexFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes an index of every motor in the database
+     *
+     * @param directory Directory to write the index to
+     * @param version   Version the database belongs to
+     * @param database  Fully loaded motor database
+     */
+    public static void build(File directory, String version, ThrustCurveMotorSetDatabase database)
+            throws IOException {
+        Files.createDirectories(directory.toPath());
+        File indexTmp = new File(directory, INDEX_FILE + ".tmp");
+        File dataTmp = new File(directory, DATA_FILE + ".tmp");
+
+        Map<String, long[]> records = new HashMap<>();
+        long offset = 0;
+        try (BufferedOutputStream data = new BufferedOutputStream(new FileOutputStream(dataTmp))) {
+            for (ThrustCurveMotorSet set : database.getMotorSets()) {
+                for (ThrustCurveMotor motor : set.getMotors()) {
+                    byte[] record = serialize(motor);
+                    data.write(record);
+                    long[] position = {offset, record.length};
+                    offset += record.length;
+
+                    records.put(digestKey(motor.getDigest()), position);
+                    records.putIfAbsent(designationKey(motor.getManufacturer().getSimpleName(),
+                            motor.getDesignation()), position);
+                    records.putIfAbsent(designationKey(null, motor.getDesignation()), position);
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexTmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(version);
+            out.writeInt(records.size());
+            for (Map.Entry<String, long[]> entry : records.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeInt((int) entry.getValue()[1]);
+            }
+        }
+
+        // data first, so an index never points into a stale data file
+        Files.move(dataTmp.toPath(), new File(directory, DATA_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(indexTmp.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.info("Wrote motor index with {} entries to {}", records.size(), directory);
+    }
+
+    /**
+     * Finds a motor by digest, falling back to manufacturer and designation
+     *
+     * @return The motor, or null if it is not in the index
+     */
+    public ThrustCurveMotor find(String digest, String manufacturer, String designation) {
+        long[] position = null;
+        if (digest != null) position = records.get(digestKey(digest));
+        if (position == null && designation != null) {
+            position = records.get(designationKey(manufacturer, designation));
+            if (position == null) position = records.get(designationKey(null, designation));
+        }
+        if (position == null) return null;
+
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "r")) {
+            byte[] record = new byte[(int) position[1]];
+            file.seek(position[0]);
+            file.readFully(record);
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+                return (ThrustCurveMotor) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            log.warn("Could not read motor {} from index: {}", designation, e.getMessage());
+            return null;
+        }
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    private static byte[] serialize(ThrustCurveMotor motor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(motor);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String digestKey(String digest) {
+        return "digest:" + digest;
+    }
+
+    private static String designationKey(String manufacturer, String designation) {
+        String m = manufacturer == null ? "" : manufacturer.toLowerCase(Locale.ROOT);
+        return "designation:" + m + "|" + designation.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,133 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import com.opencsv.CSVParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Paired-difference statistics of a campaign against the export of a baseline campaign that was run with the same
+ * conditions, e.g. another airbrake setting of the same rocket.
+ * <p>
+ * Runs are paired by name. Since both runs of a pair saw the same wind and weather, most of the condition-driven
+ * spread cancels in their difference, and the standard error of the mean difference is usually far smaller than if
+ * the campaigns had drawn their conditions independently. Both are written, so the gain is visible.
+ *
+ * @see ConditionSet
+ */
+public final class PairedComparison {
+    /**
+     * Compared metrics: column of the export, or suffix of the first branch's column, and the value of a run
+     */
+    private final static String[] METRIC_COLUMNS = {"Apogee (ft)", "Max Mach", " Min Stability",
+            " Position East of Launch (ft)", " Position North of Launch (ft)"};
+    private final static List<ToDoubleFunction<SimulationData>> METRICS = List.of(
+            SimulationData::getApogeeInFeet,
+            SimulationData::getMaxMachNumber,
+            d -> d.getMinStability().get(0),
+            d -> d.getEastPostLandingInFeet().get(0),
+            d -> d.getNorthPostLandingInFeet().get(0));
+
+    private PairedComparison() {
+    }
+
+    /**
+     * Writes the comparison of the given runs against a baseline
+     *
+     * @param baselineCsv Export of the baseline campaign
+     * @param data        Runs of this campaign, unprocessed runs are skipped
+     * @param csvFile     File to write the comparison to
+     */
+    public static void export(File baselineCsv, List<SimulationData> data, File csvFile) throws IOException {
+        Map<String, double[]> baseline = readBaseline(baselineCsv);
+        int m = METRICS.size();
+        // weighted sums of the baseline values, this campaign's values and their differences
+        double[][] sum = new double[3][m];
+        double[][] sumSquares = new double[3][m];
+        double weightSum = 0, weightSquares = 0;
+        int pairs = 0;
+        for (SimulationData d : data) {
+            double[] base = baseline.get(d.getName());
+            if (base == null || !d.hasData() || d.getBranchName().isEmpty()) continue;
+            double[] values = new double[m];
+            boolean complete = true;
+            for (int i = 0; i < m; i++) {
+                values[i] = METRICS.get(i).applyAsDouble(d);
+                complete &= !Double.isNaN(values[i]) && !Double.isNaN(base[i]);
+            }
+            if (!complete) continue;
+            double w = d.getWeight();
+            pairs++;
+            weightSum += w;
+            weightSquares += w * w;
+            for (int i = 0; i < m; i++) {
+                double[] v = {base[i], values[i], values[i] - base[i]};
+                for (int k = 0; k < 3; k++) {
+                    sum[k][i] += w * v[k];
+                    sumSquares[k][i] += w * v[k] * v[k];
+                }
+            }
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Metric,Pairs,Baseline Mean,Mean,Mean Difference,Paired Standard Error," +
+                    "Unpaired Standard Error\n");
+            for (int i = 0; i < m; i++) {
+                double[] mean = new double[3];
+                double[] standardError = new double[3];
+                for (int k = 0; k < 3; k++) {
+                    mean[k] = sum[k][i] / weightSum;
+                    // standard error of a weighted mean, reduces to s/sqrt(n) without weights
+                    double variance = sumSquares[k][i] / weightSum - mean[k] * mean[k];
+                    standardError[k] = Math.sqrt(Math.max(0, variance) * weightSquares) / weightSum;
+                }
+                writer.write(METRIC_COLUMNS[i].trim() + "," + pairs + "," + mean[0] + "," + mean[1] + "," +
+                        mean[2] + "," + standardError[2] + "," +
+                        Math.hypot(standardError[0], standardError[1]) + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return Metrics of every completed run of an export, by run name
+     */
+    private static Map<String, double[]> readBaseline(File csvFile) throws IOException {
+        Map<String, double[]> runs = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
+            CSVParser parser = new CSVParser();
+            String line = reader.readLine();
+            if (line == null) return runs;
+            String[] header = parser.parseLine(line);
+            int[] columns = new int[METRIC_COLUMNS.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = -1;
+                for (int j = 0; j < header.length && columns[i] < 0; j++) {
+                    boolean branchColumn = METRIC_COLUMNS[i].startsWith(" ");
+                    if (branchColumn ? header[j].endsWith(METRIC_COLUMNS[i]) : header[j].equals(METRIC_COLUMNS[i]))
+                        columns[i] = j;
+                }
+                if (columns[i] < 0)
+                    throw new IOException(csvFile.getName() + " has no " + METRIC_COLUMNS[i].trim() + " column");
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] row = parser.parseLine(line);
+                double[] values = new double[columns.length];
+                try {
+                    for (int i = 0; i < columns.length; i++) values[i] = Double.parseDouble(row[columns[i]]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    continue; // failed runs have no results
+                }
+                runs.put(row[0], values);
+            }
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,278 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.extension.SimulationExtension;
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import info.openrocket.core.util.Chars;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A deterministic grid of launch conditions, e.g. rod angle by wind speed by temperature for the launch crew's lookup
+ * charts, described in a job by one {@code sweep.<axis> = <values>} key per swept axis with comma separated values.
+ * <p>
+ * Axes are either launch options, which need their own template simulation, or conditions of a run. Every combination
+ * of the option axes gets one template, shared by all runs of that combination, and the condition axes only change
+ * the conditions of the runs. Unswept values come from the base simulation and nothing is randomized.
+ * <p>
+ * Runs are laid out row-major over the swept axes in the order of {@link Axis}: the index of a run is the sum of its
+ * position on every axis times that axis' stride, the product of the sizes of the axes after it.
+ */
+public class ParameterSweep {
+    private final static String KEY_PREFIX = "sweep.";
+
+    /**
+     * An axis of the grid, in the units of the sweep definition
+     */
+    public enum Axis {
+        ROD_ANGLE("rod_angle", "Rod Angle (deg)", true, UnitGroup.UNITS_ANGLE.getUnit(String.valueOf(Chars.DEGREE))),
+        ROD_DIRECTION("rod_direction", "Rod Direction (deg)", true,
+                UnitGroup.UNITS_ANGLE.getUnit(String.valueOf(Chars.DEGREE))),
+        ROD_LENGTH("rod_length", "Rod Length (m)", true, UnitGroup.UNITS_LENGTH.getUnit("m")),
+        LAUNCH_ALTITUDE("launch_altitude", "Launch Altitude (m)", true, UnitGroup.UNITS_LENGTH.getUnit("m")),
+        WIND_SPEED("wind_speed", "Wind Speed (mph)", false, UnitGroup.UNITS_VELOCITY.getUnit("mph")),
+        WIND_DIRECTION("wind_direction", "Wind Direction (deg)", false,
+                UnitGroup.UNITS_ANGLE.getUnit(String.valueOf(Chars.DEGREE))),
+        TEMPERATURE("temperature", "Temperature (°C)", false,
+                UnitGroup.UNITS_TEMPERATURE.getUnit(Chars.DEGREE + "C")),
+        PRESSURE("pressure", "Pressure (mbar)", false, UnitGroup.UNITS_PRESSURE.getUnit("mbar"));
+
+        private final String key;
+        private final String label;
+        private final boolean option;
+        private final Unit unit;
+
+        Axis(String key, String label, boolean option, Unit unit) {
+            this.key = key;
+            this.label = label;
+            this.option = option;
+            this.unit = unit;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return Whether the axis is a launch option, which needs its own template, rather than a run condition
+         */
+        public boolean isOption() {
+            return option;
+        }
+    }
+
+    private final List<Axis> axes = new ArrayList<>();
+    /**
+     * Values of each swept axis, in the units of the sweep definition
+     */
+    private final List<double[]> values = new ArrayList<>();
+
+    /**
+     * Reads the swept axes of a job
+     *
+     * @return The sweep, or null if the job sweeps nothing
+     * @throws IllegalArgumentException If a sweep key names no axis or has no values
+     */
+    public static ParameterSweep fromProperties(Properties spec) {
+        for (String key : spec.stringPropertyNames()) {
+            if (!key.startsWith(KEY_PREFIX)) continue;
+            boolean known = false;
+            for (Axis axis : Axis.values()) known |= key.equals(KEY_PREFIX + axis.key);
+            if (!known) throw new IllegalArgumentException("No sweep axis named " + key.substring(KEY_PREFIX.length()));
+        }
+        ParameterSweep sweep = new ParameterSweep();
+        for (Axis axis : Axis.values()) {
+            String list = spec.getProperty(KEY_PREFIX + axis.key);
+            if (list == null) continue;
+            String[] items = list.split(",");
+            double[] axisValues = new double[items.length];
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].isBlank()) throw new IllegalArgumentException("Sweep axis " + axis.key + " has no values");
+                axisValues[i] = Double.parseDouble(items[i].trim());
+            }
+            sweep.axes.add(axis);
+            sweep.values.add(axisValues);
+        }
+        return sweep.axes.isEmpty() ? null : sweep;
+    }
+
+    /**
+     * @return Number of runs of the grid
+     */
+    public int size() {
+        int size = 1;
+        for (double[] axisValues : values) size = Math.multiplyExact(size, axisValues.length);
+        return size;
+    }
+
+    /**
+     * @return Swept axes, in the order of the grid's layout
+     */
+    public List<Axis> getAxes() {
+        return List.copyOf(axes);
+    }
+
+    /**
+     * @param position Index into the values of every swept axis, in the order of getAxes
+     * @return Index of the run at the given grid position
+     */
+    public int getIndex(int... position) {
+        if (position.length != axes.size())
+            throw new IllegalArgumentException("Expected a position on " + axes.size() + " axes");
+        int index = 0;
+        for (int a = 0; a < position.length; a++) {
+            if (position[a] < 0 || position[a] >= values.get(a).length)
+                throw new IndexOutOfBoundsException("Position " + position[a] + " on axis " + axes.get(a).key);
+            index = index * values.get(a).length + position[a];
+        }
+        return index;
+    }
+
+    /**
+     * @return Grid position of the run at the given index, in the order of getAxes
+     */
+    public int[] getPosition(int index) {
+        int[] position = new int[axes.size()];
+        for (int a = axes.size() - 1; a >= 0; a--) {
+            position[a] = index % values.get(a).length;
+            index /= values.get(a).length;
+        }
+        return position;
+    }
+
+    /**
+     * Creates the runs of the grid. Option axes come before condition axes in the layout, so the runs of a template
+     * are consecutive.
+     *
+     * @param document Document of the rocket
+     * @param base     Simulation the unswept options, conditions and extensions come from
+     * @return Engine over the runs of the grid, which are named after their grid position
+     */
+    public SimulationEngine createEngine(OpenRocketDocument document, Simulation base) {
+        SimulationOptions baseOptions = base.getOptions();
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> baseLevels = baseOptions.getMultiLevelWindModel().getLevels();
+
+        int optionRuns = 1; // combinations of the option axes
+        for (int a = 0; a < axes.size() && axes.get(a).option; a++) optionRuns *= values.get(a).length;
+        int runsPerTemplate = size() / optionRuns;
+
+        List<Simulation> templates = new ArrayList<>(optionRuns);
+        List<SimulationData> runs = new ArrayList<>(size());
+        for (int index = 0; index < size(); index++) {
+            int[] position = getPosition(index);
+            if (index % runsPerTemplate == 0) templates.add(template(document, base, position));
+
+            double temperature = baseOptions.getLaunchTemperature();
+            double pressure = baseOptions.getLaunchPressure();
+            double speed = Double.NaN, direction = Double.NaN;
+            StringBuilder name = new StringBuilder();
+            for (int a = 0; a < axes.size(); a++) {
+                Axis axis = axes.get(a);
+                double value = values.get(a)[position[a]];
+                name.append(name.length() == 0 ? "" : ", ").append(axis.key).append(" ").append(value);
+                double si = axis.unit.fromUnit(value);
+                switch (axis) {
+                    case WIND_SPEED -> speed = si;
+                    case WIND_DIRECTION -> direction = si;
+                    case TEMPERATURE -> temperature = si;
+                    case PRESSURE -> pressure = si;
+                    default -> {
+                        // set on the template
+                    }
+                }
+            }
+
+            // a swept wind applies to every level, a base simulation without levels gets one at the ground
+            int levelCount = Math.max(1, baseLevels.size());
+            double[][] windLevels = new double[levelCount][];
+            for (int i = 0; i < levelCount; i++) {
+                MultiLevelPinkNoiseWindModel.LevelWindModel level = i < baseLevels.size() ? baseLevels.get(i) : null;
+                // standard deviations of 0 keep openRocket's own randomness out of the grid
+                windLevels[i] = new double[]{level == null ? 0 : level.getAltitude(),
+                        !Double.isNaN(speed) ? speed : level == null ? 0 : level.getSpeed(),
+                        !Double.isNaN(direction) ? direction : level == null ? 0 : level.getDirection(), 0, 0};
+            }
+            runs.add(new SimulationData(name.toString(), new SampledConditions(index, templates.size() - 1,
+                    temperature, pressure, windLevels)));
+        }
+        return SimulationEngine.withTemplates(document, templates, runs);
+    }
+
+    /**
+     * @return Copy of the base simulation with the option axes set to the given grid position
+     */
+    private Simulation template(OpenRocketDocument document, Simulation base, int[] position) {
+        Simulation sim = new Simulation(document, document.getRocket());
+        sim.setName(base.getName());
+        sim.copySimulationOptionsFrom(base.getOptions());
+        SimulationOptions opts = sim.getOptions();
+        for (int a = 0; a < axes.size() && axes.get(a).option; a++) {
+            double si = axes.get(a).unit.fromUnit(values.get(a)[position[a]]);
+            switch (axes.get(a)) {
+                case ROD_ANGLE -> opts.setLaunchRodAngle(si);
+                case ROD_DIRECTION -> {
+                    opts.setLaunchIntoWind(false); // would override the direction
+                    opts.setLaunchRodDirection(si);
+                }
+                case ROD_LENGTH -> opts.setLaunchRodLength(si);
+                case LAUNCH_ALTITUDE -> opts.setLaunchAltitude(si);
+                default -> throw new IllegalStateException(axes.get(a) + " is not a launch option");
+            }
+        }
+
+        sim.getSimulationExtensions().clear();
+        for (SimulationExtension c : base.getSimulationExtensions()) {
+            sim.getSimulationExtensions().add(c.clone());
+        }
+        return sim;
+    }
+
+    /**
+     * Writes the runs of the grid with their grid position, one row per run in the order of the grid's layout
+     *
+     * @param engine Engine created by createEngine
+     * @param csvFile File to write to
+     */
+    public void exportToCSV(SimulationEngine engine, File csvFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            StringBuilder header = new StringBuilder("Index");
+            for (Axis axis : axes) header.append(",").append(axis.key).append(" Index");
+            for (Axis axis : axes) header.append(",").append(axis.label);
+            header.append(",Apogee (ft),Max Mach,Min Stability,Position East of Launch (ft)," +
+                    "Position North of Launch (ft),Status\n");
+            writer.write(header.toString());
+
+            List<SimulationData> data = engine.getData();
+            for (int index = 0; index < data.size(); index++) {
+                SimulationData d = data.get(index);
+                int[] position = getPosition(index);
+                StringBuilder row = new StringBuilder().append(index);
+                for (int p : position) row.append(",").append(p);
+                for (int a = 0; a < axes.size(); a++) row.append(",").append(values.get(a)[position[a]]);
+                row.append(",");
+                if (d.hasData() && !d.getBranchName().isEmpty()) {
+                    row.append(d.getApogeeInFeet()).append(",");
+                    row.append(d.getMaxMachNumber()).append(",");
+                    row.append(d.getMinStability().get(0)).append(",");
+                    row.append(d.getEastPostLandingInFeet().get(0)).append(",");
+                    row.append(d.getNorthPostLandingInFeet().get(0)).append(",");
+                } else {
+                    // leave results empty, the status says why
+                    row.append(",".repeat(5));
+                }
+                row.append(FailureLog.quote(d.getStatus())).append("\n");
+                writer.write(row.toString());
+            }
+        }
+    }
+}
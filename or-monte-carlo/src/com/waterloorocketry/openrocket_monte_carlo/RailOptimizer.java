@@ -0,0 +1,280 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.extension.SimulationExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Searches the launch rod angle and direction for the setting whose landings best meet an objective, e.g. the fewest
+ * landings in a keep-out zone or the shortest walk to the recovery point.
+ * <p>
+ * Every candidate setting runs the same Monte-Carlo conditions (common random numbers), so differences between
+ * candidates are differences of the rail setting rather than of the weather they happened to draw. Candidates are
+ * pruned by successive halving: all of them run a small first slice of the conditions, the better half runs the next
+ * slice, which doubles the runs per candidate, and so on until one candidate is left, which then runs the remaining
+ * conditions. Each round's runs of all remaining candidates are run at once, interleaved on the campaign's threads.
+ *
+ * @see SimulationEngine#withConditions
+ */
+public class RailOptimizer {
+    private final static Logger log = LoggerFactory.getLogger(RailOptimizer.class);
+    private final static int MIN_FIRST_ROUND_RUNS = 10;
+
+    /**
+     * Cost of a run's landing, lower is better
+     */
+    public interface Objective {
+        /**
+         * @return Cost of the run, NaN if the run has no landing to judge
+         */
+        double of(SimulationData d);
+
+        String describe();
+    }
+
+    /**
+     * Runs the runs of the given engines, blocking until they are finished
+     */
+    public interface Runner {
+        void run(List<SimulationEngine> engines) throws Exception;
+    }
+
+    /**
+     * Statistics of a candidate setting over the runs it got
+     *
+     * @param angle         Launch rod angle from vertical in radians
+     * @param direction     Launch rod direction in radians
+     * @param rounds        Number of rounds the candidate took part in
+     * @param runs          Number of runs with a landing the statistics are over
+     * @param objective     Weighted mean cost of the runs
+     * @param standardError Standard error of the mean cost
+     */
+    public record Result(double angle, double direction, int rounds, int runs, double objective,
+                         double standardError) {
+    }
+
+    /**
+     * @return Cost of 1 for landings within the radius of the centre, 0 otherwise; the mean is the probability of
+     * landing in the zone
+     */
+    public static Objective keepOut(double eastInFeet, double northInFeet, double radiusInFeet) {
+        return new Objective() {
+            @Override
+            public double of(SimulationData d) {
+                if (!d.hasData() || d.getBranchName().isEmpty()) return Double.NaN;
+                double east = d.getEastPostLandingInFeet().get(0) - eastInFeet;
+                double north = d.getNorthPostLandingInFeet().get(0) - northInFeet;
+                return east * east + north * north <= radiusInFeet * radiusInFeet ? 1 : 0;
+            }
+
+            @Override
+            public String describe() {
+                return String.format("probability of landing within %.0f ft of (%.0f, %.0f) ft", radiusInFeet,
+                        eastInFeet, northInFeet);
+            }
+        };
+    }
+
+    /**
+     * @return Cost of the distance in feet from the landing to the recovery point
+     */
+    public static Objective recoveryDistance(double eastInFeet, double northInFeet) {
+        return new Objective() {
+            @Override
+            public double of(SimulationData d) {
+                if (!d.hasData() || d.getBranchName().isEmpty()) return Double.NaN;
+                return Math.hypot(d.getEastPostLandingInFeet().get(0) - eastInFeet,
+                        d.getNorthPostLandingInFeet().get(0) - northInFeet);
+            }
+
+            @Override
+            public String describe() {
+                return String.format("distance in ft from the landing to (%.0f, %.0f) ft", eastInFeet, northInFeet);
+            }
+        };
+    }
+
+    private final OpenRocketDocument document;
+    private final Simulation base;
+    private final List<SimulationData> conditions;
+    private final Objective objective;
+
+    /**
+     * A candidate setting with one engine over all conditions, of which the rounds run consecutive slices
+     */
+    private static class Candidate {
+        final double angle, direction;
+        final SimulationEngine engine;
+        int rounds = 0, runs = 0;
+        double mean = Double.NaN, standardError = Double.NaN;
+
+        Candidate(double angle, double direction, SimulationEngine engine) {
+            this.angle = angle;
+            this.direction = direction;
+            this.engine = engine;
+        }
+
+        Result result() {
+            return new Result(angle, direction, rounds, runs, mean, standardError);
+        }
+    }
+
+    private final List<Candidate> ranked = new ArrayList<>();
+
+    /**
+     * @param document   Document of the rocket
+     * @param base       Simulation whose options and extensions every candidate starts from
+     * @param conditions Runs whose conditions every candidate runs, e.g. the Monte-Carlo runs of an engine
+     * @param objective  Cost of a run's landing
+     */
+    public RailOptimizer(OpenRocketDocument document, Simulation base, List<SimulationData> conditions,
+                         Objective objective) {
+        this.document = document;
+        this.base = base;
+        this.conditions = conditions;
+        this.objective = objective;
+    }
+
+    /**
+     * Finds the best combination of the given angles and directions. A vertical rod is one candidate whatever its
+     * direction. Ties go to the smaller angle.
+     *
+     * @param angles     Rod angles from vertical to try, in radians
+     * @param directions Rod directions to try, in radians
+     * @param runner     Runs the runs of each round
+     * @return Engine of the best candidate, which ran every condition
+     * @throws IllegalArgumentException If no angle or direction is given
+     */
+    public SimulationEngine optimize(double[] angles, double[] directions, Runner runner) throws Exception {
+        if (angles.length == 0 || directions.length == 0)
+            throw new IllegalArgumentException("No launch rail settings to try");
+        double[] sortedAngles = angles.clone();
+        Arrays.sort(sortedAngles);
+        List<Candidate> candidates = new ArrayList<>();
+        for (double angle : sortedAngles) {
+            for (double direction : angle == 0 ? new double[]{base.getOptions().getLaunchRodDirection()} : directions)
+                candidates.add(new Candidate(angle, direction,
+                        SimulationEngine.withConditions(document, template(angle, direction), conditions)));
+        }
+        ranked.clear();
+        int total = conditions.size();
+        int rounds = 32 - Integer.numberOfLeadingZeros(candidates.size() - 1); // halvings down to one candidate
+        log.info("Optimizing the launch rail over {} candidates and {} rounds, minimizing the {}", candidates.size(),
+                rounds, objective.describe());
+
+        // every round doubles the runs per candidate, so that the last candidate runs every condition
+        int firstRound = Math.min(total, Math.max(MIN_FIRST_ROUND_RUNS, total >> rounds));
+        int from = 0;
+        for (int round = 0; ; round++) {
+            int to = candidates.size() == 1 ? total : (int) Math.min(total, (long) firstRound << round);
+            if (to > from) {
+                List<SimulationEngine> slices = new ArrayList<>();
+                for (Candidate c : candidates) slices.add(SimulationEngine.slice(c.engine, from, to));
+                runner.run(slices);
+            }
+            for (Candidate c : candidates) evaluate(c, to);
+            // candidates without a single landing are the worst, the sort is stable so ties keep the smaller angle
+            candidates.sort(Comparator.comparingDouble(c -> Double.isNaN(c.mean) ? Double.MAX_VALUE : c.mean));
+            for (Candidate c : candidates) {
+                log.info("Round {}, {} runs: rod {}° towards {}°, mean cost {} ± {}", round + 1, to,
+                        Math.toDegrees(c.angle), Math.toDegrees(c.direction), c.mean, c.standardError);
+            }
+            from = to;
+            if (candidates.size() == 1 && to == total) break;
+            if (to == total) {
+                // every condition was run, nothing is left to tell the remaining candidates apart with
+                ranked.addAll(0, candidates.subList(1, candidates.size()));
+                candidates.subList(1, candidates.size()).clear();
+                break;
+            }
+            int keep = (candidates.size() + 1) / 2;
+            List<Candidate> pruned = candidates.subList(keep, candidates.size());
+            ranked.addAll(0, pruned);
+            pruned.clear();
+        }
+        ranked.add(0, candidates.get(0));
+        Candidate best = candidates.get(0);
+        log.info("Best launch rail: rod {}° towards {}°, mean cost {} ± {} over {} runs", Math.toDegrees(best.angle),
+                Math.toDegrees(best.direction), best.mean, best.standardError, best.runs);
+        return best.engine;
+    }
+
+    /**
+     * @return Copy of the base simulation with the rod set to the given angle and direction
+     */
+    private Simulation template(double angle, double direction) {
+        Simulation sim = new Simulation(document, document.getRocket());
+        sim.setName(String.format("%s, rod %.1f° towards %.0f°", base.getName(), Math.toDegrees(angle),
+                Math.toDegrees(direction)));
+        sim.copySimulationOptionsFrom(base.getOptions());
+        SimulationOptions opts = sim.getOptions();
+        opts.setLaunchIntoWind(false); // would override the direction
+        opts.setLaunchRodAngle(angle);
+        opts.setLaunchRodDirection(direction);
+
+        sim.getSimulationExtensions().clear();
+        for (SimulationExtension c : base.getSimulationExtensions()) {
+            sim.getSimulationExtensions().add(c.clone());
+        }
+        return sim;
+    }
+
+    /**
+     * Updates the statistics of a candidate over its first runs
+     */
+    private void evaluate(Candidate c, int runs) {
+        double weightSum = 0, sum = 0, sumSquares = 0, weightSquares = 0;
+        int n = 0;
+        for (SimulationData d : c.engine.getData().subList(0, runs)) {
+            double cost = objective.of(d);
+            if (Double.isNaN(cost)) continue;
+            n++;
+            weightSum += d.getWeight();
+            weightSquares += d.getWeight() * d.getWeight();
+            sum += d.getWeight() * cost;
+            sumSquares += d.getWeight() * cost * cost;
+        }
+        c.rounds++;
+        c.runs = n;
+        c.mean = n == 0 ? Double.NaN : sum / weightSum;
+        // standard error of a weighted mean, with Kish's effective sample size
+        double variance = n < 2 ? Double.NaN : Math.max(0, sumSquares / weightSum - c.mean * c.mean);
+        double effective = weightSum * weightSum / weightSquares;
+        c.standardError = n < 2 ? Double.NaN : Math.sqrt(variance / effective);
+    }
+
+    /**
+     * @return Every candidate of the last optimization, best first: those that reached later rounds first, then by
+     * their mean cost
+     */
+    public List<Result> getResults() {
+        List<Result> results = new ArrayList<>();
+        for (Candidate c : ranked) results.add(c.result());
+        return results;
+    }
+
+    /**
+     * Writes the candidates of the last optimization, best first
+     */
+    public void exportToCSV(File csvFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Rod Angle (deg),Rod Direction (deg),Rounds,Runs,Mean Cost,Standard Error\n");
+            for (Result r : getResults()) {
+                writer.write(Math.toDegrees(r.angle()) + "," + Math.toDegrees(r.direction()) + "," + r.rounds() + "," +
+                        r.runs() + "," + r.objective() + "," + r.standardError() + "\n");
+            }
+        }
+    }
+}
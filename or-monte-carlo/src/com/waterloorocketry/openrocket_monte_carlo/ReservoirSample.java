@@ -0,0 +1,78 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.util.Random;
+
+/**
+ * Random sample of a stream of 2D points with a fixed capacity (weighted reservoir sampling, algorithm A-Res).
+ * Every point seen so far has a probability of being kept proportional to its weight, no matter how long the stream
+ * gets, so points of importance sampled runs show up as often as they would under the nominal distribution.
+ * Thread safe.
+ */
+public class ReservoirSample {
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] keys; // log of u^(1/weight), the largest keys are kept
+    private final Random random;
+    private long seen = 0;
+    private int size = 0;
+    private int smallest = 0; // index of the smallest key once the sample is full
+
+    /**
+     * @param capacity Maximum number of points kept
+     * @param seed     Seed for choosing which points to replace
+     */
+    public ReservoirSample(int capacity, long seed) {
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+        this.keys = new double[capacity];
+        this.random = new Random(seed);
+    }
+
+    public void add(double x, double y) {
+        add(x, y, 1);
+    }
+
+    public synchronized void add(double x, double y, double weight) {
+        if (!(weight > 0) || xs.length == 0) return;
+        seen++;
+        double key = Math.log(1 - random.nextDouble()) / weight;
+        int idx;
+        if (size < xs.length) {
+            idx = size++;
+        } else {
+            if (key <= keys[smallest]) return;
+            idx = smallest;
+        }
+        xs[idx] = x;
+        ys[idx] = y;
+        keys[idx] = key;
+        if (size == xs.length) {
+            for (int i = 0; i < size; i++)
+                if (keys[i] < keys[smallest]) smallest = i;
+        }
+    }
+
+    /**
+     * @return Copy of the kept points as {xs, ys}
+     */
+    public synchronized double[][] snapshot() {
+        double[] x = new double[size];
+        double[] y = new double[size];
+        System.arraycopy(xs, 0, x, 0, size);
+        System.arraycopy(ys, 0, y, 0, size);
+        return new double[][]{x, y};
+    }
+
+    /**
+     * @return Number of points offered to the sample, including those not kept
+     */
+    public synchronized long getSeen() {
+        return seen;
+    }
+
+    public synchronized void clear() {
+        seen = 0;
+        size = 0;
+        smallest = 0;
+    }
+}
@@ -0,0 +1,234 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import info.openrocket.core.document.StorageOptions;
+import info.openrocket.core.file.openrocket.OpenRocketSaver;
+import info.openrocket.core.logging.ErrorSet;
+import info.openrocket.core.logging.WarningSet;
+import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.extension.SimulationExtension;
+import info.openrocket.core.util.BuildProperties;
+import info.openrocket.core.util.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of processed simulation results, keyed by a hash of everything that determines the outcome of a
+ * simulation: the rocket design including its motors, the simulation options, the wind levels and the simulation
+ * extensions with their configuration.
+ * <p>
+ * Entries are small files holding the metrics written by SimulationData. When the cache grows beyond its size limit
+ * the least recently used entries are deleted.
+ */
+public class ResultCache {
+    private final static Logger log = LoggerFactory.getLogger(ResultCache.class);
+    /**
+     * Bump whenever the key or the stored metrics change, so that old entries are never matched
+     */
+    private final static int FORMAT_VERSION = 2;
+    private final static String EXTENSION = ".res";
+
+    private final File directory;
+    private final long maxBytes;
+    private long size; // guarded by this
+
+    /**
+     * @param directory Directory to store results in
+     * @param maxBytes  Maximum total size of stored results
+     */
+    public ResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.size = entries().stream().mapToLong(p -> p.toFile().length()).sum();
+        log.info("Result cache at {} holds {} KiB", directory, size / 1024);
+    }
+
+    /**
+     * Hashes the rocket design of a document. The hash is the same for every simulation of a campaign, so it only
+     * has to be computed once.
+     *
+     * @return Hash of the design, or null if the design could not be serialized
+     */
+    public static String designHash(OpenRocketDocument document) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StorageOptions options = new StorageOptions();
+        options.setSaveSimulationData(false);
+        try {
+            new OpenRocketSaver().save(bytes, document, options, new WarningSet(), new ErrorSet());
+        } catch (IOException e) {
+            log.warn("Could not hash rocket design, results will not be cached: {}", e.getMessage());
+            return null;
+        }
+        return new ContentHash().put(bytes.toByteArray()).toHex();
+    }
+
+    /**
+     * Computes the cache key of a simulation
+     *
+     * @param designHash Hash of the simulated design
+     * @param simulation Configured simulation that has not been run yet
+     * @see ResultCache#designHash(OpenRocketDocument)
+     */
+    public static String key(String designHash, Simulation simulation) {
+        ContentHash hash = new ContentHash()
+                .put(FORMAT_VERSION)
+                .put(BuildProperties.getVersion())
+                .put(designHash)
+                .put(MetricRegistry.describe())
+                .put(String.valueOf(simulation.getFlightConfigurationId()));
+
+        SimulationOptions opts = simulation.getOptions();
+        hash.put(opts.getLaunchLatitude())
+                .put(opts.getLaunchLongitude())
+                .put(opts.getLaunchAltitude())
+                .put(opts.getLaunchTemperature())
+                .put(opts.getLaunchPressure())
+                .put(opts.isISAAtmosphere())
+                .put(opts.getLaunchRodLength())
+                .put(opts.getLaunchIntoWind())
+                .put(opts.getLaunchRodAngle())
+                .put(opts.getLaunchRodDirection())
+                .put(String.valueOf(opts.getGeodeticComputation()))
+                .put(opts.getMaxSimulationTime())
+                .put(opts.getTimeStep())
+                .put(opts.getMaximumStepAngle())
+                .put(opts.getRandomSeed())
+                .put(String.valueOf(opts.getWindModelType()));
+
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = opts.getMultiLevelWindModel().getLevels();
+        hash.put(levels.size());
+        for (MultiLevelPinkNoiseWindModel.LevelWindModel level : levels) {
+            hash.put(level.getAltitude())
+                    .put(level.getSpeed())
+                    .put(level.getDirection())
+                    .put(level.getStandardDeviation())
+                    .put(level.getWindDirStdDev());
+        }
+
+        List<SimulationExtension> extensions = simulation.getSimulationExtensions();
+        hash.put(extensions.size());
+        for (SimulationExtension extension : extensions) {
+            hash.put(extension.getId());
+            Config config = extension.getConfig();
+            for (String key : new TreeSet<>(config.keySet())) {
+                hash.put(key).put(String.valueOf(configValue(config, key)));
+            }
+        }
+        return hash.toHex();
+    }
+
+    private static Object configValue(Config config, String key) {
+        Object value = config.getDouble(key, null);
+        if (value == null) value = config.getBoolean(key, null);
+        if (value == null) value = config.getString(key, null);
+        if (value == null) value = config.getList(key, null);
+        return value;
+    }
+
+    /**
+     * Fills in the results of a simulation from the cache
+     *
+     * @return Whether a result was found
+     */
+    public boolean load(String key, SimulationData data, boolean keepSimulationObject) {
+        File file = file(key);
+        if (!file.isFile()) return false;
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != FORMAT_VERSION) return false;
+            data.readMetrics(in, keepSimulationObject);
+        } catch (IOException e) {
+            log.warn("Discarding unreadable cached result {}: {}", file, e.getMessage());
+            remove(file);
+            return false;
+        }
+        // mark as recently used for eviction
+        file.setLastModified(System.currentTimeMillis());
+        log.info("Using cached result for {}", data.getName());
+        return true;
+    }
+
+    /**
+     * Stores the processed results of a simulation
+     */
+    public void store(String key, SimulationData data) {
+        File file = file(key);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_VERSION);
+            data.writeMetrics(out);
+            out.flush();
+
+            Files.createDirectories(file.getParentFile().toPath());
+            File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+            Files.write(tmp.toPath(), bytes.toByteArray());
+            long previous = file.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                size += file.length() - previous;
+            }
+        } catch (IOException e) {
+            log.warn("Could not cache result of {}: {}", data.getName(), e.getMessage());
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is below 90% of its size limit
+     */
+    private synchronized void evict() {
+        if (size <= maxBytes) return;
+        List<Path> entries = new ArrayList<>(entries());
+        entries.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+        long target = maxBytes / 10 * 9;
+        int removed = 0;
+        for (Path entry : entries) {
+            if (size <= target) break;
+            remove(entry.toFile());
+            removed++;
+        }
+        log.info("Evicted {} cached results", removed);
+    }
+
+    private synchronized void remove(File file) {
+        long length = file.length();
+        if (file.delete()) size -= length;
+    }
+
+    private List<Path> entries() {
+        if (!directory.isDirectory()) return List.of();
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            return files.filter(p -> p.toString().endsWith(EXTENSION)).toList();
+        } catch (IOException e) {
+            log.warn("Could not list result cache {}: {}", directory, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Entries are spread over subdirectories named after the first two characters of the key
+     */
+    private File file(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + EXTENSION);
+    }
+}
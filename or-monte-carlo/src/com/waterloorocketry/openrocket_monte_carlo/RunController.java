@@ -0,0 +1,580 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.Simulation;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.SimulationStatus;
+import info.openrocket.core.simulation.exception.SimulationCancelledException;
+import info.openrocket.core.simulation.exception.SimulationException;
+import info.openrocket.core.simulation.listeners.AbstractSimulationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs all simulations of a SimulationEngine on a pool of worker threads, or in worker processes driven by those
+ * threads. The campaign as a whole can be paused, resumed and cancelled from any thread.
+ * <p>
+ * Each simulation is created just before it is run and processed as soon as it finishes, so the large OR
+ * simulation object only exists while the run is in the pipeline.
+ */
+public class RunController {
+    private final static Logger log = LoggerFactory.getLogger(RunController.class);
+    private final static int EXTRACTION_THREADS = 1;
+
+    /**
+     * Receives results as they are produced. Methods are called off the event thread, usually from the run's sink
+     * thread, but from a pipeline thread while the sink is backed up, so calls may be concurrent.
+     */
+    public interface RunListener {
+        /**
+         * Called after a simulation has been run and its data processed
+         */
+        void simulationCompleted(SimulationData data);
+
+        /**
+         * Called when a simulation could not be run or processed
+         */
+        void simulationFailed(SimulationData data, Exception e);
+
+        /**
+         * Called when the campaign adds runs after the ones it started with, e.g. the importance sampled runs after
+         * the pilot runs
+         *
+         * @see SimulationEngine#createFollowUpSimulations()
+         */
+        default void simulationsAdded(List<SimulationData> added) {
+        }
+    }
+
+    /**
+     * Simulation and extraction threads shared by several runs at once, e.g. the designs of a comparison, so that
+     * their runs are interleaved on one pool instead of every run starting its own. Close it once the runs using it
+     * have finished.
+     */
+    public static class SharedStages implements AutoCloseable {
+        private final ExecutorService simulationStage;
+        private final ExecutorService extractionStage;
+
+        /**
+         * @param threadCount Number of threads simulating the runs of all campaigns
+         */
+        public SharedStages(int threadCount) {
+            simulationStage = Executors.newFixedThreadPool(Math.max(1, threadCount),
+                    new StageThreadFactory("simulation-worker"));
+            extractionStage = Executors.newFixedThreadPool(EXTRACTION_THREADS,
+                    new StageThreadFactory("metric-extractor"));
+        }
+
+        @Override
+        public void close() {
+            simulationStage.shutdownNow();
+            extractionStage.shutdownNow();
+        }
+    }
+
+    private final SimulationEngine engine;
+    private final int threadCount;
+    private final AdmissionController admission;
+    private ResultCache resultCache;
+    private boolean reuseResults;
+    private long timeoutNanos = 0;
+    private int maxRetries = 0;
+    private volatile WorkerPool workerPool;
+    private SharedStages sharedStages;
+
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition unpaused = pauseLock.newCondition();
+    private volatile boolean paused = false;
+    private volatile boolean cancelled = false;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+
+    /**
+     * @param engine      Simulation engine with configured simulations
+     * @param threadCount Number of worker threads
+     * @param admission   Admission controller limiting how many simulations are materialized at once
+     */
+    public RunController(SimulationEngine engine, int threadCount, AdmissionController admission) {
+        this.engine = engine;
+        this.threadCount = Math.max(1, threadCount);
+        this.admission = admission;
+    }
+
+    /**
+     * Enables the result cache for this run. Must be called before run.
+     *
+     * @param resultCache  Cache to store results in
+     * @param reuseResults Whether cached results may be used instead of running a simulation. If false the
+     *                     simulations are run anyway and their cached results replaced.
+     */
+    public void setResultCache(ResultCache resultCache, boolean reuseResults) {
+        this.resultCache = resultCache;
+        this.reuseResults = reuseResults;
+    }
+
+    /**
+     * Sets how long a single simulation may run and how often a failed simulation is retried. Retries use a coarser
+     * step configuration, which usually gets runaway simulations (e.g. a tumbling rocket) through.
+     * Must be called before run.
+     *
+     * @param timeoutMillis Wall-clock budget of a single attempt, 0 for no limit
+     * @param maxRetries    Number of retries after the first attempt
+     */
+    public void setRetryPolicy(long timeoutMillis, int maxRetries) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Runs the simulations in worker processes instead of this process, one simulation per worker at a time.
+     * Every worker thread drives one worker, so the thread count limits how many workers are used at once.
+     * The pool is started by run and closed when the run ends. Must be called before run.
+     *
+     * @param workerPool Pool of worker processes that has not been started, or null to simulate in this process
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Runs the simulations and extracts their flight data on threads shared with other runs instead of threads of
+     * this run. The thread count then only limits how many workers are used at once. Must be called before run.
+     *
+     * @param sharedStages Threads shared with other runs, or null for threads of this run
+     */
+    public void setSharedStages(SharedStages sharedStages) {
+        this.sharedStages = sharedStages;
+    }
+
+    /**
+     * Runs every unprocessed simulation of the engine, blocking until all are finished or the run is cancelled.
+     * Must not be called on the Swing event thread.
+     * <p>
+     * Runs move through a pipeline of concurrent stages: the calling thread creates each run's simulation and
+     * checks the result cache, worker threads simulate, extractor threads process the flight data and a single sink
+     * thread delivers results to the listener. The admission controller bounds how many runs are between the first
+     * and the last stage, and the sink queue is bounded so that a slow listener slows down the producers instead of
+     * buffering results.
+     *
+     * @param listener Listener notified for every finished simulation
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     * @throws IOException          If worker processes are used and could not be started
+     */
+    public void run(RunListener listener) throws InterruptedException, IOException {
+        if (workerPool != null) {
+            log.info("Running {} simulations in worker processes, up to {} at once", engine.simulationCount,
+                    threadCount);
+            workerPool.start();
+        } else {
+            log.info("Running {} simulations on {} threads", engine.simulationCount, threadCount);
+        }
+
+        String designHash = resultCache == null ? null : ResultCache.designHash(engine.getDocument());
+
+        Pipeline pipeline = new Pipeline(listener);
+        List<SimulationData> batch = engine.getData();
+        try {
+            while (true) {
+                submitAll(batch, pipeline, designHash);
+                pipeline.awaitDrained();
+                if (cancelled) break;
+                batch = engine.createFollowUpSimulations();
+                if (batch.isEmpty()) break;
+                listener.simulationsAdded(batch);
+            }
+        } finally {
+            pipeline.shutdown();
+            if (workerPool != null) workerPool.close();
+        }
+        log.info("Run {}: {} completed ({} from cache), {} failed", cancelled ? "cancelled" : "finished",
+                completed.get(), cached.get(), failed.get());
+        ImportanceSampler sampler = engine.getImportanceSampler();
+        if (sampler != null) {
+            for (ImportanceSampler.Estimate e : sampler.estimate(engine.getData()))
+                log.info("P({}) = {} ± {} from {} events in {} runs (effective sample size {})", e.event(),
+                        e.probability(), e.standardError(), e.events(), e.runs(), e.effectiveSampleSize());
+        }
+        SensitivityAnalysis sensitivity = engine.getSensitivityAnalysis();
+        if (sensitivity != null) {
+            for (SensitivityAnalysis.Index i : sensitivity.estimate(engine.getData()))
+                log.info("Sensitivity of {} to {}: first order {} [{}, {}], total {} [{}, {}]", i.output(), i.input(),
+                        i.firstOrder(), i.firstOrderLow(), i.firstOrderHigh(), i.total(), i.totalLow(), i.totalHigh());
+        }
+        if (pipeline.profiler != null) log.info(pipeline.profiler.getReport());
+    }
+
+    /**
+     * Feeds runs into the pipeline, skipping runs that are already processed or whose result is cached
+     */
+    private void submitAll(List<SimulationData> batch, Pipeline pipeline, String designHash)
+            throws InterruptedException {
+        for (SimulationData d : batch) {
+            awaitUnpaused();
+            if (cancelled) break;
+            if (d.hasData()) continue; // already processed in a previous run
+
+            Simulation simulation = engine.materialize(d);
+            String key = designHash == null ? null : ResultCache.key(designHash, simulation);
+            if (key != null && reuseResults && resultCache.load(key, d, engine.isKeepSimulationObject())) {
+                cached.incrementAndGet();
+                completed.incrementAndGet();
+                pipeline.deliver(d, null);
+                continue;
+            }
+
+            admission.acquire();
+            if (cancelled) {
+                admission.release();
+                break;
+            }
+            pipeline.submit(new Job(d, key));
+        }
+    }
+
+    /**
+     * A run moving through the pipeline
+     */
+    private static class Job {
+        final SimulationData data;
+        /**
+         * Result cache key, or null if the result should not be cached
+         */
+        final String key;
+        int attempt = 1;
+        long start;
+
+        Job(SimulationData data, String key) {
+            this.data = data;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The stages of a single run
+     */
+    private class Pipeline {
+        private final static int SINK_CAPACITY = 256;
+
+        private final RunListener listener;
+        private final ExecutorService simulationStage = sharedStages != null ? sharedStages.simulationStage :
+                Executors.newFixedThreadPool(threadCount, new StageThreadFactory("simulation-worker"));
+        private final ExecutorService extractionStage = sharedStages != null ? sharedStages.extractionStage :
+                Executors.newFixedThreadPool(EXTRACTION_THREADS, new StageThreadFactory("metric-extractor"));
+        // when the sink falls behind, the producing thread delivers the result itself
+        private final ExecutorService sinkStage = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(SINK_CAPACITY), new StageThreadFactory("result-sink"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // worker processes are not profiled, their timings stay in the worker
+        final SimulationProfiler profiler = SimulationProfiler.isEnabled() && workerPool == null ?
+                new SimulationProfiler() : null;
+        // the generator, plus one party for every admitted job that has not left the pipeline
+        private final Phaser inFlight = new Phaser(1);
+        private int drainingPhase = -1; // phase the generator arrived at while waiting for the jobs to leave
+
+        Pipeline(RunListener listener) {
+            this.listener = listener;
+        }
+
+        void submit(Job job) {
+            inFlight.register();
+            job.data.clearFailure();
+            simulationStage.execute(() -> simulate(job));
+        }
+
+        private void simulate(Job job) {
+            if (cancelled) {
+                leave(job);
+                return;
+            }
+            SimulationData data = job.data;
+            job.start = System.nanoTime();
+            try {
+                log.info("Running {} (attempt {})", data.getName(), job.attempt);
+                if (workerPool != null) {
+                    // a worker cannot be paused mid-simulation, so pausing only holds back the next run
+                    awaitUnpaused();
+                    workerPool.simulate(data, data.getSimulation().getOptions());
+                } else {
+                    if (profiler != null) profiler.attach();
+                    try {
+                        data.getSimulation().simulate(new CampaignControlListener(job.start));
+                    } finally {
+                        if (profiler != null) SimulationProfiler.detach();
+                    }
+                }
+            } catch (SimulationTimeoutException e) {
+                fail(job, e);
+                return;
+            } catch (SimulationCancelledException | InterruptedException e) {
+                cancel(job);
+                return;
+            } catch (Exception e) {
+                fail(job, e);
+                return;
+            }
+            handOff(extractionStage, job, () -> extract(job));
+        }
+
+        /**
+         * Hands a job to a stage. Stages stop accepting jobs when the run is cancelled, a job handed off after that
+         * leaves the pipeline cancelled rather than failed.
+         */
+        private void handOff(ExecutorService stage, Job job, Runnable task) {
+            try {
+                stage.execute(task);
+            } catch (RejectedExecutionException e) {
+                cancel(job);
+            }
+        }
+
+        /**
+         * Removes a cancelled job from the pipeline, leaving its run unprocessed
+         */
+        private void cancel(Job job) {
+            log.info("Simulation {} cancelled", job.data.getName());
+            leave(job);
+        }
+
+        private void extract(Job job) {
+            SimulationData data = job.data;
+            try {
+                engine.processSimulationData(data);
+            } catch (Exception e) {
+                fail(job, e);
+                return;
+            }
+            data.setAttempts(job.attempt);
+            // retried results were simulated with a different step configuration than the key describes
+            if (job.key != null && job.attempt == 1) resultCache.store(job.key, data);
+            completed.incrementAndGet();
+            leave(job);
+            deliver(data, null);
+        }
+
+        /**
+         * Retries a failed attempt with a coarser step configuration, or gives up after the last retry
+         */
+        private void fail(Job job, Exception failure) {
+            SimulationData data = job.data;
+            SimulationOptions opts = data.getSimulation().getOptions();
+            engine.getFailureLog().add(new FailureLog.Entry(data.getName(), job.attempt,
+                    failure.getClass().getSimpleName(), failure.getMessage(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.start), opts.getTimeStep(),
+                    opts.getMaximumStepAngle(), data.getConditions()));
+
+            if (job.attempt > maxRetries || cancelled) {
+                data.markFailed(failure.getClass().getSimpleName() + ": " + failure.getMessage(), job.attempt);
+                failed.incrementAndGet();
+                leave(job);
+                deliver(data, failure);
+                return;
+            }
+            job.attempt++;
+            opts.setTimeStep(opts.getTimeStep() * 2);
+            opts.setMaximumStepAngle(opts.getMaximumStepAngle() * 2);
+            handOff(simulationStage, job, () -> simulate(job));
+        }
+
+        /**
+         * Hands a finished run to the sink
+         *
+         * @param failure Cause of the failure, or null if the run completed
+         */
+        void deliver(SimulationData data, Exception failure) {
+            sinkStage.execute(() -> {
+                if (failure == null) listener.simulationCompleted(data);
+                else listener.simulationFailed(data, failure);
+            });
+        }
+
+        /**
+         * Removes a job from the pipeline, freeing its admission for the next run
+         */
+        private void leave(Job job) {
+            admission.release();
+            inFlight.arriveAndDeregister();
+        }
+
+        /**
+         * Waits until every submitted job has left the pipeline, or the run is cancelled
+         */
+        void awaitDrained() throws InterruptedException {
+            drainingPhase = inFlight.arrive();
+            while (!cancelled) {
+                try {
+                    inFlight.awaitAdvanceInterruptibly(drainingPhase, 100, TimeUnit.MILLISECONDS);
+                    drainingPhase = -1;
+                    return;
+                } catch (TimeoutException e) {
+                    // check for cancellation
+                }
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            if (sharedStages != null) {
+                // the shared threads keep serving the other runs, wait for the jobs of this run to leave them,
+                // which cancelled jobs do at their next step
+                int phase = drainingPhase >= 0 ? drainingPhase : inFlight.arrive();
+                inFlight.awaitAdvanceInterruptibly(phase);
+            } else {
+                simulationStage.shutdown();
+                extractionStage.shutdown();
+                if (cancelled) {
+                    simulationStage.shutdownNow();
+                    extractionStage.shutdownNow();
+                }
+                simulationStage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                extractionStage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            // results that already made it out of the pipeline are always delivered
+            sinkStage.shutdown();
+            sinkStage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Blocks the calling thread while the campaign is paused
+     */
+    private void awaitUnpaused() throws InterruptedException {
+        if (!paused) return;
+        pauseLock.lock();
+        try {
+            while (paused && !cancelled) unpaused.await();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Pauses the campaign. Running simulations stop at their next step.
+     */
+    public void pause() {
+        log.info("Pausing run");
+        paused = true;
+    }
+
+    public void resume() {
+        log.info("Resuming run");
+        pauseLock.lock();
+        try {
+            paused = false;
+            unpaused.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the campaign. Running simulations are aborted and no further simulations are started.
+     */
+    public void cancel() {
+        log.info("Cancelling run");
+        cancelled = true;
+        resume(); // wake paused workers so they can observe the cancellation
+        WorkerPool pool = workerPool;
+        if (pool != null) pool.close(); // aborts the simulations running in worker processes
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return Number of completed simulations whose results were taken from the result cache
+     */
+    public int getCachedCount() {
+        return cached.get();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return Current number of simulations allowed in flight
+     */
+    public int getInFlightLimit() {
+        return admission.getLimit();
+    }
+
+    /**
+     * Applies pause and cancel requests and the wall-clock budget inside a running simulation
+     */
+    private class CampaignControlListener extends AbstractSimulationListener {
+        private long start;
+
+        CampaignControlListener(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public boolean preStep(SimulationStatus status) throws SimulationException {
+            if (paused) {
+                // time spent paused does not count against the budget
+                long pausedAt = System.nanoTime();
+                awaitPausedStep();
+                start += System.nanoTime() - pausedAt;
+            }
+            if (timeoutNanos > 0 && System.nanoTime() - start > timeoutNanos)
+                throw new SimulationTimeoutException("Simulation exceeded its time budget of " +
+                        TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s at t=" + status.getSimulationTime() + "s");
+            if (cancelled || Thread.currentThread().isInterrupted())
+                throw new SimulationCancelledException("Simulation cancelled");
+            return true;
+        }
+
+        private void awaitPausedStep() throws SimulationException {
+            try {
+                awaitUnpaused();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SimulationCancelledException("Simulation interrupted");
+            }
+        }
+    }
+
+    private static class StageThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        StageThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
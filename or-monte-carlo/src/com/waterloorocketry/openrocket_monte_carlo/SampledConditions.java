@@ -0,0 +1,166 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
+import info.openrocket.core.simulation.SimulationOptions;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The inputs that distinguish one run of a campaign from its template simulation. Together with the template this
+ * is enough to rebuild the run's simulation exactly, so the simulation itself does not have to be kept.
+ */
+public class SampledConditions {
+    private final long seed;
+    private final int templateId;
+    private final double temperature;
+    private final double pressure;
+    // per wind level: altitude, speed, direction, standard deviation, direction standard deviation
+    private final double[][] windLevels;
+    private final double weight;
+
+    /**
+     * @param windLevels Per wind level: altitude, speed, direction, standard deviation and direction standard
+     *                   deviation
+     */
+    public SampledConditions(long seed, int templateId, double temperature, double pressure,
+                             double[][] windLevels) {
+        this(seed, templateId, temperature, pressure, windLevels, 1);
+    }
+
+    /**
+     * @param windLevels Per wind level: altitude, speed, direction, standard deviation and direction standard
+     *                   deviation
+     * @param weight     Likelihood ratio of the nominal to the sampling distribution at these conditions, 1 unless
+     *                   the conditions were importance sampled
+     */
+    public SampledConditions(long seed, int templateId, double temperature, double pressure,
+                             double[][] windLevels, double weight) {
+        this.seed = seed;
+        this.templateId = templateId;
+        this.temperature = temperature;
+        this.pressure = pressure;
+        this.windLevels = windLevels;
+        this.weight = weight;
+    }
+
+    /**
+     * Copies conditions for a run created from a different template
+     */
+    public SampledConditions(SampledConditions conditions, int templateId) {
+        this(conditions.seed, templateId, conditions.temperature, conditions.pressure, conditions.windLevels,
+                conditions.weight);
+    }
+
+    /**
+     * Captures the conditions of fully configured simulation options
+     *
+     * @param seed       Seed the conditions were sampled with, also used as OpenRocket's random seed
+     * @param templateId Template the simulation was created from
+     * @param opts       Options of the configured simulation
+     */
+    public static SampledConditions capture(long seed, int templateId, SimulationOptions opts) {
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = opts.getMultiLevelWindModel().getLevels();
+        double[][] windLevels = new double[levels.size()][];
+        for (int i = 0; i < levels.size(); i++) {
+            MultiLevelPinkNoiseWindModel.LevelWindModel level = levels.get(i);
+            windLevels[i] = new double[]{level.getAltitude(), level.getSpeed(), level.getDirection(),
+                    level.getStandardDeviation(), level.getWindDirStdDev()};
+        }
+        return new SampledConditions(seed, templateId, opts.getLaunchTemperature(), opts.getLaunchPressure(),
+                windLevels);
+    }
+
+    /**
+     * Applies the conditions to options copied from the template
+     */
+    public void applyTo(SimulationOptions opts) {
+        opts.setRandomSeed((int) seed);
+        opts.setLaunchTemperature(temperature);
+        opts.setLaunchPressure(pressure);
+
+        MultiLevelPinkNoiseWindModel windModel = opts.getMultiLevelWindModel();
+        windModel.clearLevels();
+        for (double[] level : windLevels) {
+            windModel.addWindLevel(level[0], level[1], level[2], level[3]);
+        }
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = windModel.getLevels();
+        for (int i = 0; i < levels.size(); i++)
+            levels.get(i).setWindDirStdDev(windLevels[i][4]);
+    }
+
+    /**
+     * Writes the conditions, e.g. to hand a run to another process
+     *
+     * @see SampledConditions#read(DataInput)
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeInt(templateId);
+        out.writeDouble(temperature);
+        out.writeDouble(pressure);
+        out.writeInt(windLevels.length);
+        for (double[] level : windLevels) {
+            out.writeInt(level.length);
+            for (double value : level)
+                out.writeDouble(value);
+        }
+        out.writeDouble(weight);
+    }
+
+    /**
+     * Reads conditions written by write
+     *
+     * @see SampledConditions#write(DataOutput)
+     */
+    public static SampledConditions read(DataInput in) throws IOException {
+        long seed = in.readLong();
+        int templateId = in.readInt();
+        double temperature = in.readDouble();
+        double pressure = in.readDouble();
+        double[][] windLevels = new double[in.readInt()][];
+        for (int i = 0; i < windLevels.length; i++) {
+            windLevels[i] = new double[in.readInt()];
+            for (int j = 0; j < windLevels[i].length; j++)
+                windLevels[i][j] = in.readDouble();
+        }
+        return new SampledConditions(seed, templateId, temperature, pressure, windLevels, in.readDouble());
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getTemplateId() {
+        return templateId;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    /**
+     * @return Weight of the run in statistics over the campaign
+     * @see ImportanceSampler
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    public int getWindLevelCount() {
+        return windLevels.length;
+    }
+
+    /**
+     * @return Altitude, speed, direction, standard deviation and direction standard deviation of a wind level
+     */
+    public double[] getWindLevel(int index) {
+        return windLevels[index].clone();
+    }
+}
@@ -0,0 +1,233 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Variance-based global sensitivity analysis of a campaign's results to its randomized conditions, to tell which wind
+ * levels and atmospheric conditions are worth measuring on launch day.
+ * <p>
+ * The runs follow a Saltelli design: every base sample draws two independent rows of standardized conditions, A and
+ * B, and runs A, B and, for every input, A with that input taken from B. A base sample of d inputs is d + 2 runs, laid
+ * out consecutively in that order. The first-order index of an input is the share of an output's variance it explains
+ * on its own (Saltelli 2010 estimator), the total index the share it explains including its interactions with the
+ * other inputs (Jansen estimator). Confidence intervals are bootstrapped over the base samples.
+ * <p>
+ * The campaign starts with a quarter of its base samples and doubles them until the total indices are known within the
+ * tolerance or the campaign's simulations are used up. Samples are only ever added, so no run is repeated.
+ *
+ * @see SimulationEngine#createMonteCarloSimulations(info.openrocket.core.document.Simulation)
+ */
+public class SensitivityAnalysis {
+    private final static Logger log = LoggerFactory.getLogger(SensitivityAnalysis.class);
+    private final static int MIN_BASE_SAMPLES = 16;
+    private final static int BOOTSTRAP_SAMPLES = 500;
+    private final static double CONFIDENCE = 0.95;
+    /**
+     * Variance relative to the squared mean below which an output did not vary but for rounding
+     */
+    private final static double MIN_RELATIVE_VARIANCE = 1e-12;
+
+    private final String[] inputNames;
+    private final int[] inputs;
+    private final int maxBaseSamples;
+    private final double tolerance;
+
+    /**
+     * @param inputNames     Name of each input
+     * @param inputs         Index of each input in the standardized draws of a run
+     * @param maxBaseSamples Largest number of base samples the campaign can afford
+     * @param tolerance      Half-width of the confidence intervals of the total indices at which no more samples are
+     *                       added, 0 to always run every base sample
+     */
+    public SensitivityAnalysis(String[] inputNames, int[] inputs, int maxBaseSamples, double tolerance) {
+        this.inputNames = inputNames;
+        this.inputs = inputs;
+        this.maxBaseSamples = maxBaseSamples;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return Index of each input in the standardized draws of a run
+     */
+    public int[] getInputs() {
+        return inputs.clone();
+    }
+
+    /**
+     * @return Number of runs of a base sample
+     */
+    public int getRunsPerSample() {
+        return inputs.length + 2;
+    }
+
+    /**
+     * @return Number of base samples the campaign starts with
+     */
+    public int getInitialBaseSamples() {
+        return Math.min(maxBaseSamples, Math.max(MIN_BASE_SAMPLES, maxBaseSamples / 4));
+    }
+
+    /**
+     * Decides how many base samples to add once the runs so far have been processed
+     *
+     * @param data Runs of the campaign
+     * @return Number of base samples to add, 0 if the analysis is done
+     */
+    public int getNextBaseSamples(List<SimulationData> data) {
+        int n = data.size() / getRunsPerSample();
+        if (n >= maxBaseSamples) return 0;
+        if (tolerance > 0) {
+            double halfWidth = 0;
+            for (Index index : estimate(data)) {
+                // outputs that did not vary have no interval
+                double w = (index.totalHigh() - index.totalLow()) / 2;
+                if (!Double.isNaN(w)) halfWidth = Math.max(halfWidth, w);
+            }
+            if (halfWidth <= tolerance) {
+                log.info("Total sensitivity indices are within ±{} after {} base samples", halfWidth, n);
+                return 0;
+            }
+            log.info("Total sensitivity indices are within ±{} after {} base samples, adding more", halfWidth, n);
+        }
+        return Math.min(n, maxBaseSamples - n);
+    }
+
+    /**
+     * Sobol indices of an input for an output, NaN if the output did not vary
+     *
+     * @param output         Name of the output
+     * @param input          Name of the input
+     * @param firstOrder     Share of the output's variance explained by the input alone
+     * @param firstOrderLow  Lower confidence bound of the first-order index
+     * @param firstOrderHigh Upper confidence bound of the first-order index
+     * @param total          Share of the output's variance explained by the input and its interactions
+     * @param totalLow       Lower confidence bound of the total index
+     * @param totalHigh      Upper confidence bound of the total index
+     * @param samples        Number of complete base samples the indices were estimated from
+     */
+    public record Index(String output, String input, double firstOrder, double firstOrderLow, double firstOrderHigh,
+                        double total, double totalLow, double totalHigh, int samples) {
+    }
+
+    /**
+     * @param data Runs of the campaign. Base samples with a run that failed or is not processed yet are ignored.
+     * @return Indices of every input for every output
+     */
+    public List<Index> estimate(List<SimulationData> data) {
+        int r = getRunsPerSample();
+        int d = inputs.length;
+        List<double[][]> samples = new ArrayList<>(); // outputs of A, B and every AB per complete base sample
+        for (int k = 0; k + r <= data.size(); k += r) {
+            double[][] y = new double[r][];
+            boolean complete = true;
+            for (int j = 0; j < r && complete; j++) {
+                y[j] = SurrogateModel.outputs(data.get(k + j));
+                complete = y[j] != null;
+            }
+            if (complete) samples.add(y);
+        }
+        int n = samples.size();
+        int m = SurrogateModel.OUTPUT_NAMES.length;
+        List<Index> indices = new ArrayList<>();
+        if (n < 2) return indices;
+
+        int[] all = IntStream.range(0, n).toArray();
+        double[][][] point = indices(samples, all);
+        // bootstrap replicates resample the base samples, each with its own generator so they can run in parallel
+        double[][][][] replicates = IntStream.range(0, BOOTSTRAP_SAMPLES).parallel().mapToObj(b -> {
+            SplittableRandom random = new SplittableRandom(b);
+            int[] resampled = new int[n];
+            for (int i = 0; i < n; i++) resampled[i] = random.nextInt(n);
+            return indices(samples, resampled);
+        }).toArray(double[][][][]::new);
+
+        double[] values = new double[BOOTSTRAP_SAMPLES];
+        for (int o = 0; o < m; o++) {
+            for (int i = 0; i < d; i++) {
+                double[][] bounds = new double[2][];
+                for (int kind = 0; kind < 2; kind++) {
+                    for (int b = 0; b < BOOTSTRAP_SAMPLES; b++) values[b] = replicates[b][o][i][kind];
+                    bounds[kind] = percentiles(values);
+                }
+                indices.add(new Index(SurrogateModel.OUTPUT_NAMES[o], inputNames[i],
+                        point[o][i][0], bounds[0][0], bounds[0][1], point[o][i][1], bounds[1][0], bounds[1][1], n));
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @param samples Outputs of the complete base samples
+     * @param rows    Base samples to estimate from, with repetitions
+     * @return First-order and total index per output and input
+     */
+    private double[][][] indices(List<double[][]> samples, int[] rows) {
+        int n = rows.length;
+        int d = inputs.length;
+        int m = SurrogateModel.OUTPUT_NAMES.length;
+        double[][][] result = new double[m][d][2];
+        for (int o = 0; o < m; o++) {
+            // variance over the A and B runs, which are all drawn independently from the nominal conditions
+            double mean = 0;
+            for (int k : rows) mean += (samples.get(k)[0][o] + samples.get(k)[1][o]) / (2.0 * n);
+            double variance = 0;
+            for (int k : rows) {
+                variance += Math.pow(samples.get(k)[0][o] - mean, 2) + Math.pow(samples.get(k)[1][o] - mean, 2);
+            }
+            variance /= 2.0 * n - 1;
+            boolean varied = variance > MIN_RELATIVE_VARIANCE * mean * mean;
+
+            for (int i = 0; i < d; i++) {
+                double first = 0, total = 0;
+                for (int k : rows) {
+                    double[][] y = samples.get(k);
+                    double a = y[0][o], b = y[1][o], ab = y[2 + i][o];
+                    first += b * (ab - a);
+                    total += (a - ab) * (a - ab);
+                }
+                result[o][i][0] = varied ? first / n / variance : Double.NaN;
+                result[o][i][1] = varied ? total / (2.0 * n) / variance : Double.NaN;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Lower and upper bound of the central confidence interval of the given replicates, which are reordered
+     */
+    private static double[] percentiles(double[] values) {
+        Arrays.sort(values); // NaNs sort last
+        int valid = 0;
+        while (valid < values.length && !Double.isNaN(values[valid])) valid++;
+        if (valid == 0) return new double[]{Double.NaN, Double.NaN};
+        double tail = (1 - CONFIDENCE) / 2;
+        return new double[]{values[(int) Math.floor(tail * (valid - 1))],
+                values[(int) Math.ceil((1 - tail) * (valid - 1))]};
+    }
+
+    /**
+     * Writes the indices of the campaign's runs
+     */
+    public void exportToCSV(File csvFile, List<SimulationData> data) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Output,Input,First Order,First Order Low,First Order High,Total,Total Low,Total High," +
+                    "Base Samples\n");
+            for (Index i : estimate(data)) {
+                writer.write(i.output() + "," + i.input() + "," + i.firstOrder() + "," + i.firstOrderLow() + "," +
+                        i.firstOrderHigh() + "," + i.total() + "," + i.totalLow() + "," + i.totalHigh() + "," +
+                        i.samples() + "\n");
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.waterloorocketry.openrocket_monte_carlo;
 
 import info.openrocket.core.document.Simulation;
-import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
 import info.openrocket.core.simulation.FlightData;
 import info.openrocket.core.simulation.FlightDataBranch;
 import info.openrocket.core.simulation.FlightDataType;
@@ -14,7 +13,11 @@ import info.openrocket.core.util.ListenerList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 /**
@@ -22,6 +25,11 @@ import java.util.stream.Collectors;
  */
 public class SimulationData {
     private final static Logger log = LoggerFactory.getLogger(SimulationData.class);
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    private final static Unit CELSIUS = UnitGroup.UNITS_TEMPERATURE.getUnit(Chars.DEGREE + "C");
+    private final static Unit MBAR = UnitGroup.UNITS_PRESSURE.getUnit("mbar");
+    private final static Unit MPH = UnitGroup.UNITS_VELOCITY.getUnit("mph");
+    private final static Unit DEGREES = UnitGroup.UNITS_ANGLE.getUnit(String.valueOf(Chars.DEGREE));
     private final String name;
     private final List<String> branchName = new ArrayList<>();
     private final List<Double> minStability = new ArrayList<>();
@@ -33,12 +41,19 @@ public class SimulationData {
     private final List<Double> eastPosLanding = new ArrayList<>();
     private final List<Double> northPosLanding = new ArrayList<>();
     private final List<Double> apogeeLateralVelocity = new ArrayList<>();
+    /**
+     * Values of the registered metrics of each branch, in the order of metricNames
+     */
+    private final List<double[]> branchMetrics = new ArrayList<>();
+    private List<String> metricNames = List.of();
 
     private final double temperature;
     private final double pressure;
-    private final MultiLevelPinkNoiseWindModel windModel;
-    private final List<Listener> listeners = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>(); // notified from worker threads
     private Simulation simulation;
+    private final SampledConditions conditions;
+    private volatile String failure;
+    private int attempts;
     private double apogee;
     private double maxVelocity;
     private double maxMachNumber;
@@ -46,24 +61,67 @@ public class SimulationData {
     private double maxWindDirection;
     private boolean hasData = false;
 
-    public SimulationData(Simulation simulation) {
-        this.simulation = simulation;
-        this.name = simulation.getName();
-
-        this.windModel = simulation.getOptions().getMultiLevelWindModel();
+    /**
+     * Creates the data of a run whose simulation has not been created yet
+     *
+     * @param name       Simulation name
+     * @param conditions Conditions to create the simulation with
+     * @see SimulationEngine#materialize(SimulationData)
+     */
+    public SimulationData(String name, SampledConditions conditions) {
+        this.name = name;
+        this.conditions = conditions;
 
-        Optional<MultiLevelPinkNoiseWindModel.LevelWindModel> maxWindSpdLevel =
-                simulation.getOptions().getMultiLevelWindModel().getLevels().stream()
-                        .max(Comparator.comparingDouble(MultiLevelPinkNoiseWindModel.LevelWindModel::getSpeed));
         maxWindSpeed = 0;
         maxWindDirection = 0;
-        if (maxWindSpdLevel.isPresent()) {
-            maxWindSpeed = maxWindSpdLevel.get().getSpeed();
-            maxWindDirection = maxWindSpdLevel.get().getDirection();
+        for (int i = 0; i < conditions.getWindLevelCount(); i++) {
+            double[] level = conditions.getWindLevel(i);
+            if (i == 0 || level[1] > maxWindSpeed) {
+                maxWindSpeed = level[1];
+                maxWindDirection = level[2];
+            }
         }
 
-        this.temperature = simulation.getOptions().getLaunchTemperature();
-        this.pressure = simulation.getOptions().getLaunchPressure();
+        this.temperature = conditions.getTemperature();
+        this.pressure = conditions.getPressure();
+    }
+
+    /**
+     * Creates the data of an existing simulation
+     *
+     * @param simulation Configured simulation
+     * @param conditions Conditions captured from the simulation
+     */
+    public SimulationData(Simulation simulation, SampledConditions conditions) {
+        this(simulation.getName(), conditions);
+        this.simulation = simulation;
+    }
+
+    /**
+     * Creates the data of a run with the given results of a single branch, as if it had been processed, without
+     * simulating it. For runs of chosen results in tests.
+     *
+     * @param east        Landing position east of the launch site in m
+     * @param north       Landing position north of the launch site in m
+     * @param metricNames Registered metrics the run was processed with
+     * @param metrics     Values of the metrics, in the order of metricNames
+     */
+    static SimulationData processed(String name, SampledConditions conditions, double apogee, double maxVelocity,
+                                    double maxMachNumber, String branch, double minStability, double maxStability,
+                                    double apogeeStability, double initStability, double landingLatitude,
+                                    double landingLongitude, double east, double north, double apogeeLateralVelocity,
+                                    List<String> metricNames, double[] metrics) {
+        if (metrics.length != metricNames.size())
+            throw new IllegalArgumentException("Expected " + metricNames.size() + " metrics, got " + metrics.length);
+        SimulationData data = new SimulationData(name, conditions);
+        data.apogee = apogee;
+        data.maxVelocity = maxVelocity;
+        data.maxMachNumber = maxMachNumber;
+        data.addBranch(branch, minStability, maxStability, apogeeStability, initStability, landingLatitude,
+                landingLongitude, east, north, apogeeLateralVelocity, metrics.clone());
+        data.metricNames = List.copyOf(metricNames);
+        data.hasData = true;
+        return data;
     }
 
     /**
@@ -77,6 +135,7 @@ public class SimulationData {
         if (!simulation.hasSimulationData())
             throw new SimulationException("No simulation data recorded. Run a simulation first");
         log.info("Processing data for simulation {}", simulation.getName());
+        clearBranchData(); // left over from a failed attempt
 
         FlightData data = simulation.getSimulatedData();
 
@@ -85,6 +144,9 @@ public class SimulationData {
         maxMachNumber = data.getMaxMachNumber();
 
         List<FlightDataBranch> flightDataBranches = data.getBranches();
+        List<MetricExtractor> extractors = MetricRegistry.getExtractors();
+        List<String> metricNames = new ArrayList<>(extractors.size());
+        for (MetricExtractor e : extractors) metricNames.add(e.getName());
 
         for (FlightDataBranch branch : flightDataBranches) {
             // the flight data consists of multiple lists of values calculated at each step of the simulation
@@ -126,10 +188,16 @@ public class SimulationData {
             }
 
             List<Double> stability = branch.get(FlightDataType.TYPE_STABILITY);
+            MetricExtractor.Accumulator[] accumulators = startMetrics(extractors, branch, time);
 
+            // a single pass over the steps for the stability and every registered metric
             double minStability = Double.NaN;
             double initStability = Double.NaN;
+            boolean stabilityDone = false;
             for (int i = 0; i < time.size(); i++) {
+                for (MetricExtractor.Accumulator a : accumulators) a.step(i);
+                if (stabilityDone) continue;
+
                 Double s = stability.get(i);
                 // stop considering stability 10s before apogee
                 // as well, stability will be NaN if the launch rod is not cleared or the forces are not
@@ -142,20 +210,19 @@ public class SimulationData {
                     initStability = s;
                 }
 
-                if (!Double.isNaN(initStability) && time.get(i) > apogeeTime) break;
+                if (!Double.isNaN(initStability) && time.get(i) > apogeeTime) {
+                    stabilityDone = true;
+                    if (accumulators.length == 0) break;
+                }
             }
+            double[] metrics = new double[accumulators.length];
+            for (int m = 0; m < accumulators.length; m++) metrics[m] = accumulators[m].result();
 
-            this.branchName.add(branch.getName());
-            this.minStability.add(minStability);
-            this.maxStability.add(branch.getMaximum(FlightDataType.TYPE_STABILITY));
-            this.initStability.add(initStability);
-            this.apogeeStability.add(stability.get(apogeeIndex));
-            this.landingLatitude.add(lat.get(landingIndex));
-            this.landingLongitude.add(lng.get(landingIndex));
-            this.eastPosLanding.add(eastPos.get(landingIndex));
-            this.northPosLanding.add(northPos.get(landingIndex));
-            this.apogeeLateralVelocity.add(latVelocity.get(apogeeIndex));
+            addBranch(branch.getName(), minStability, branch.getMaximum(FlightDataType.TYPE_STABILITY),
+                    stability.get(apogeeIndex), initStability, lat.get(landingIndex), lng.get(landingIndex),
+                    eastPos.get(landingIndex), northPos.get(landingIndex), latVelocity.get(apogeeIndex), metrics);
         }
+        this.metricNames = List.copyOf(metricNames);
 
         this.hasData = true;
         if (!keepSimulationObject)
@@ -164,17 +231,209 @@ public class SimulationData {
         notifyListeners();
     }
 
+    /**
+     * Stands in for a metric whose flight data the branch does not have
+     */
+    private final static MetricExtractor.Accumulator MISSING_DATA = new MetricExtractor.Accumulator() {
+        @Override
+        public void step(int index) {
+        }
+
+        @Override
+        public double result() {
+            return Double.NaN;
+        }
+    };
+
+    /**
+     * Reads the flight data and events the extractors declared, each once for all of them, and starts them on the
+     * branch. A metric is NaN if the branch lacks any of its flight data.
+     */
+    private static MetricExtractor.Accumulator[] startMetrics(List<MetricExtractor> extractors,
+                                                              FlightDataBranch branch, List<Double> time) {
+        Map<FlightDataType, List<Double>> columns = new HashMap<>();
+        Set<FlightEvent.Type> eventTypes = new HashSet<>();
+        for (MetricExtractor e : extractors) {
+            for (FlightDataType type : e.getDataTypes()) {
+                List<Double> column = columns.containsKey(type) ? columns.get(type) : branch.get(type);
+                columns.put(type, column == null || column.size() < time.size() ? null : column);
+            }
+            eventTypes.addAll(e.getEvents());
+        }
+        Map<FlightEvent.Type, Double> eventTimes = new HashMap<>();
+        for (FlightEvent event : branch.getEvents()) {
+            if (eventTypes.contains(event.getType())) eventTimes.putIfAbsent(event.getType(), event.getTime());
+        }
+
+        MetricExtractor.Branch view = new MetricExtractor.Branch(columns, eventTimes, time);
+        MetricExtractor.Accumulator[] accumulators = new MetricExtractor.Accumulator[extractors.size()];
+        for (int m = 0; m < accumulators.length; m++) {
+            MetricExtractor e = extractors.get(m);
+            boolean complete = true;
+            for (FlightDataType type : e.getDataTypes()) complete &= columns.get(type) != null;
+            accumulators[m] = complete ? e.start(view) : MISSING_DATA;
+        }
+        return accumulators;
+    }
+
+    private void addBranch(String name, double minStability, double maxStability, double apogeeStability,
+                           double initStability, double landingLatitude, double landingLongitude, double east,
+                           double north, double apogeeLateralVelocity, double[] metrics) {
+        this.branchName.add(name);
+        this.minStability.add(minStability);
+        this.maxStability.add(maxStability);
+        this.apogeeStability.add(apogeeStability);
+        this.initStability.add(initStability);
+        this.landingLatitude.add(landingLatitude);
+        this.landingLongitude.add(landingLongitude);
+        this.eastPosLanding.add(east);
+        this.northPosLanding.add(north);
+        this.apogeeLateralVelocity.add(apogeeLateralVelocity);
+        this.branchMetrics.add(metrics);
+    }
+
+    private void clearBranchData() {
+        branchName.clear();
+        minStability.clear();
+        maxStability.clear();
+        apogeeStability.clear();
+        initStability.clear();
+        landingLatitude.clear();
+        landingLongitude.clear();
+        eastPosLanding.clear();
+        northPosLanding.clear();
+        apogeeLateralVelocity.clear();
+        branchMetrics.clear();
+        metricNames = List.of();
+    }
+
+    /**
+     * Marks the simulation as failed after all attempts to run it
+     *
+     * @param failure  Description of the last failure
+     * @param attempts Number of attempts made
+     */
+    public void markFailed(String failure, int attempts) {
+        this.failure = failure;
+        this.attempts = attempts;
+        notifyListeners();
+    }
+
+    public void clearFailure() {
+        this.failure = null;
+    }
+
+    /**
+     * @return Description of why the simulation failed, or null if it did not fail
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return Number of attempts the last run took. Results of more than one attempt were simulated with a coarser
+     * step configuration than requested.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return Status for exports: ok, retried or failed
+     */
+    public String getStatus() {
+        if (failure != null) return "failed: " + failure;
+        if (attempts > 1) return "retried (" + attempts + " attempts)";
+        return hasData ? "ok" : "not run";
+    }
+
+    /**
+     * Writes the processed metrics, everything that processData extracts from the flight data
+     *
+     * @see SimulationData#readMetrics(DataInput, boolean)
+     */
+    public void writeMetrics(DataOutput out) throws IOException {
+        if (!hasData) throw new IllegalStateException("Simulation " + name + " has not been processed");
+        out.writeDouble(apogee);
+        out.writeDouble(maxVelocity);
+        out.writeDouble(maxMachNumber);
+        out.writeInt(branchName.size());
+        for (int i = 0; i < branchName.size(); i++) {
+            out.writeUTF(branchName.get(i));
+            out.writeDouble(minStability.get(i));
+            out.writeDouble(maxStability.get(i));
+            out.writeDouble(apogeeStability.get(i));
+            out.writeDouble(initStability.get(i));
+            out.writeDouble(landingLatitude.get(i));
+            out.writeDouble(landingLongitude.get(i));
+            out.writeDouble(eastPosLanding.get(i));
+            out.writeDouble(northPosLanding.get(i));
+            out.writeDouble(apogeeLateralVelocity.get(i));
+        }
+        out.writeInt(metricNames.size());
+        for (String metric : metricNames) out.writeUTF(metric);
+        for (double[] metrics : branchMetrics) {
+            for (double v : metrics) out.writeDouble(v);
+        }
+    }
+
+    /**
+     * Fills in the metrics from data written by writeMetrics instead of processing simulated data
+     *
+     * @param keepSimulationObject whether to keep the underlying simulation object
+     * @see SimulationData#writeMetrics(DataOutput)
+     */
+    public void readMetrics(DataInput in, boolean keepSimulationObject) throws IOException {
+        double apogee = in.readDouble();
+        double maxVelocity = in.readDouble();
+        double maxMachNumber = in.readDouble();
+        int branches = in.readInt();
+        // read everything before changing any state, so a truncated input leaves this unprocessed
+        String[] names = new String[branches];
+        double[][] values = new double[branches][9];
+        for (int i = 0; i < branches; i++) {
+            names[i] = in.readUTF();
+            for (int j = 0; j < values[i].length; j++)
+                values[i][j] = in.readDouble();
+        }
+        String[] metricNames = new String[in.readInt()];
+        for (int m = 0; m < metricNames.length; m++) metricNames[m] = in.readUTF();
+        double[][] metrics = new double[branches][metricNames.length];
+        for (int i = 0; i < branches; i++) {
+            for (int m = 0; m < metricNames.length; m++)
+                metrics[i][m] = in.readDouble();
+        }
+
+        this.apogee = apogee;
+        this.maxVelocity = maxVelocity;
+        this.maxMachNumber = maxMachNumber;
+        for (int i = 0; i < branches; i++) {
+            double[] v = values[i];
+            addBranch(names[i], v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], metrics[i]);
+        }
+        this.metricNames = List.of(metricNames);
+
+        this.hasData = true;
+        if (!keepSimulationObject)
+            this.simulation = null;
+
+        notifyListeners();
+    }
+
     public String exportWindLevels() {
         StringBuilder sb = new StringBuilder();
         sb.append("altitude,speed,direction,stddev,windDirStdDev").append("\n");
-        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = windModel.getLevels();
-        for (int i = 0; i < levels.size(); i++) {
-            MultiLevelPinkNoiseWindModel.LevelWindModel level = levels.get(i);
-            sb.append(UnitGroup.UNITS_LENGTH.getUnit("ft").toUnit(level.getAltitude())).append(",")
-                    .append(UnitGroup.UNITS_VELOCITY.getUnit("mph").toUnit(level.getSpeed())).append(",")
-                    .append(UnitGroup.UNITS_ANGLE.getUnit("" + Chars.DEGREE).toUnit(level.getDirection())).append(",")
-                    .append(UnitGroup.UNITS_VELOCITY.getUnit("mph").toUnit(level.getStandardDeviation())).append(",")
-                    .append(UnitGroup.UNITS_ANGLE.getUnit("" + Chars.DEGREE).toUnit(level.getWindDirStdDev()))
+        for (int i = 0; i < conditions.getWindLevelCount(); i++) {
+            double[] level = conditions.getWindLevel(i); // altitude, speed, direction, stddev, windDirStdDev
+            sb.append(FEET.toUnit(level[0])).append(",")
+                    .append(MPH.toUnit(level[1])).append(",")
+                    .append(DEGREES.toUnit(level[2])).append(",")
+                    .append(MPH.toUnit(level[3])).append(",")
+                    .append(DEGREES.toUnit(level[4]))
                     .append("\n");
         }
         return sb.toString();
@@ -189,6 +448,30 @@ public class SimulationData {
         return simulation;
     }
 
+    /**
+     * Attaches the simulation created for this run
+     *
+     * @see SimulationEngine#materialize(SimulationData)
+     */
+    public void setSimulation(Simulation simulation) {
+        this.simulation = simulation;
+    }
+
+    /**
+     * @return Inputs needed to create the simulation
+     * @see SimulationEngine#replay(SimulationData)
+     */
+    public SampledConditions getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return Likelihood-ratio weight of the run in campaign statistics, 1 unless it was importance sampled
+     */
+    public double getWeight() {
+        return conditions.getWeight();
+    }
+
     public boolean hasData() {
         return hasData;
     }
@@ -234,6 +517,22 @@ public class SimulationData {
         return apogeeLateralVelocity;
     }
 
+    /**
+     * @return Names of the metrics extracted from this run's branches, in the order they were registered
+     * @see MetricRegistry
+     */
+    public List<String> getMetricNames() {
+        return metricNames;
+    }
+
+    /**
+     * @return Value of a registered metric for a branch, NaN if this run was processed without that metric
+     */
+    public double getMetric(String name, int branch) {
+        int m = metricNames.indexOf(name);
+        return m < 0 ? Double.NaN : branchMetrics.get(branch)[m];
+    }
+
 
     // global values
     public String getName() {
@@ -270,42 +569,31 @@ public class SimulationData {
 
     // converted values
     public List<Double> getEastPostLandingInFeet() {
-        Unit ftUnit = UnitGroup.UNITS_LENGTH.getUnit("ft");
-        return this.getEastPosLanding().stream().map(ftUnit::toUnit).collect(Collectors.toList());
+        return this.getEastPosLanding().stream().map(FEET::toUnit).collect(Collectors.toList());
     }
 
     public List<Double> getNorthPostLandingInFeet() {
-        Unit ftUnit = UnitGroup.UNITS_LENGTH.getUnit("ft");
-        return this.getNorthPosLanding().stream().map(ftUnit::toUnit).collect(Collectors.toList());
+        return this.getNorthPosLanding().stream().map(FEET::toUnit).collect(Collectors.toList());
     }
 
     public double getApogeeInFeet() {
-        return UnitGroup.UNITS_LENGTH.getUnit("ft")
-                .toUnit(this.getApogee());
+        return FEET.toUnit(this.getApogee());
     }
 
     public double getTemperatureInCelsius() {
-        return UnitGroup.UNITS_TEMPERATURE.getUnit(Chars.DEGREE + "C")
-                .toUnit(this.getTemperature());
+        return CELSIUS.toUnit(this.getTemperature());
     }
 
     public double getPressureInMBar() {
-        return UnitGroup.UNITS_PRESSURE.getUnit("mbar")
-                .toUnit(this.getPressure());
+        return MBAR.toUnit(this.getPressure());
     }
 
     public double getMaxWindSpeedInMPH() {
-        return UnitGroup.UNITS_VELOCITY.getUnit("mph")
-                .toUnit(this.getMaxWindSpeed());
+        return MPH.toUnit(this.getMaxWindSpeed());
     }
 
     public double getMaxWindDirectionInDegrees() {
-        return UnitGroup.UNITS_ANGLE.getUnit(String.valueOf(Chars.DEGREE))
-                .toUnit(this.getMaxWindDirection());
-    }
-
-    public MultiLevelPinkNoiseWindModel getWindModel() {
-        return windModel;
+        return DEGREES.toUnit(this.getMaxWindDirection());
     }
 
     public void notifyListeners() {
@@ -3,9 +3,14 @@ package com.waterloorocketry.openrocket_monte_carlo;
 import com.opencsv.CSVParser;
 import info.openrocket.core.document.OpenRocketDocument;
 import info.openrocket.core.document.Simulation;
+import info.openrocket.core.document.StorageOptions;
+import info.openrocket.core.file.openrocket.OpenRocketSaver;
+import info.openrocket.core.logging.ErrorSet;
+import info.openrocket.core.logging.WarningSet;
 import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
 import info.openrocket.core.models.wind.WindModelType;
 import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.exception.SimulationException;
 import info.openrocket.core.simulation.extension.SimulationExtension;
 import info.openrocket.core.unit.Unit;
 import info.openrocket.core.unit.UnitGroup;
@@ -20,6 +25,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,7 +35,6 @@ import java.util.Random;
  * The main class that is run
  */
 public class SimulationEngine {
-    private final static Random random = new Random();
     private final static Logger log = LoggerFactory.getLogger(SimulationEngine.class);
 
     private final static Unit[] CSV_SIMULATION_UNITS = {
@@ -50,8 +55,28 @@ public class SimulationEngine {
     private final boolean keepSimulationObject = config.isKeepSimulationObject();
     private final OpenRocketDocument document;
     private final List<SimulationData> data = new ArrayList<>();
+    /**
+     * Simulations the runs were created from, indexed by template ID
+     */
+    private final List<Simulation> templates = new ArrayList<>();
+    private final FailureLog failureLog = new FailureLog();
+    private final Random seedSource = config.getRandomSeed() != 0 ? new Random(config.getRandomSeed()) : new Random();
 
     private double tempStdDev, pressureStdDev;
+    private ImportanceSampler importanceSampler;
+    private boolean followUpPending = false;
+    private boolean antitheticVariates = config.isAntitheticVariates();
+    private boolean sensitivityAnalysisEnabled = config.isSensitivityAnalysis();
+    private SensitivityAnalysis sensitivityAnalysis;
+    private double windCorrelationLength = config.getWindCorrelationLength();
+    /**
+     * Sampler of the Monte-Carlo conditions of the first template
+     */
+    private ConditionSampler sampler;
+    /**
+     * Export of the campaign whose conditions this campaign was created from, compared against on export
+     */
+    private File baselineResults;
 
     /**
      * Creates a SimulationEngine with simulations specified by the given csvFile
@@ -68,6 +93,7 @@ public class SimulationEngine {
     SimulationEngine(OpenRocketDocument document, File csvFile) throws Exception {
         this.document = document;
         Simulation defaultSimulation = this.generateDefaultSimulation();
+        int templateId = addTemplate(defaultSimulation);
         try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
             CSVParser parser = new CSVParser();
             String[] header = parser.parseLine(reader.readLine());
@@ -94,9 +120,7 @@ public class SimulationEngine {
                             CSV_WIND_LEVEL_COLUMN_COUNT].fromUnit(simData[i]);
 
                 log.info("Creating simulation {}", date);
-                Simulation simulation = new Simulation(document, document.getRocket());
-                simulation.copySimulationOptionsFrom(defaultSimulation.getOptions()); // copy default options
-                simulation.setName(date);
+                Simulation simulation = instantiate(defaultSimulation, date);
                 simulation.getOptions().setLaunchTemperature(simData[0]);
                 simulation.getOptions().setLaunchPressure(simData[1]);
 
@@ -107,8 +131,17 @@ public class SimulationEngine {
                             simData[2 + i * CSV_WIND_LEVEL_COLUMN_COUNT + 2],
                             simData[2 + i * CSV_WIND_LEVEL_COLUMN_COUNT + 1]);
                 }
-
-                SimulationData simulationData = new SimulationData(simulation);
+                // OpenRocket still randomizes the wind within each level's standard deviation. Seed it by the row's
+                // contents, so a row reproduces the same results when re-imported, also after rows were added,
+                // removed or reordered around it.
+                ContentHash hash = new ContentHash().put(date);
+                for (double value : simData) hash.put(value);
+                long seed = hash.toLong();
+                simulation.getOptions().setRandomSeed((int) seed);
+
+                // only the conditions are kept, the simulation is created again when it is run
+                SimulationData simulationData =
+                        new SimulationData(date, SampledConditions.capture(seed, templateId, simulation.getOptions()));
                 log.debug(simulationData.toString());
 
                 data.add(simulationData);
@@ -132,6 +165,7 @@ public class SimulationEngine {
         this.simulationCount = simulationCount;
         this.tempStdDev = tempStdDev;
         this.pressureStdDev = pressureStdDev;
+        this.importanceSampler = ImportanceSampler.fromConfig(config);
     }
 
     /**
@@ -146,73 +180,401 @@ public class SimulationEngine {
         this.simulationCount = sims.size();
 
         for (Simulation sim : sims) {
-            data.add(new SimulationData(sim));
+            data.add(new SimulationData(sim,
+                    SampledConditions.capture(sim.getOptions().getRandomSeed(), addTemplate(sim), sim.getOptions())));
+        }
+    }
+
+
+    /**
+     * Creates a SimulationEngine that runs the conditions of another campaign, so that the two can be compared run by
+     * run. If the export of that campaign is next to the conditions file, the export of this campaign includes a
+     * paired comparison against it.
+     *
+     * @param document       OpenRocket document to be used with the simulation
+     * @param conditionsFile Conditions file written on export of the other campaign
+     * @throws IOException If the conditions file cannot be read
+     * @see ConditionSet
+     * @see PairedComparison
+     */
+    static SimulationEngine fromConditions(OpenRocketDocument document, File conditionsFile) throws IOException {
+        SimulationEngine engine = withConditions(document, null, ConditionSet.load(conditionsFile, 0));
+        log.info("Loaded the conditions of {} simulations from {}", engine.simulationCount, conditionsFile);
+        File baseline = new File(conditionsFile.getParentFile(),
+                conditionsFile.getName().replaceFirst("-conditions\\.csv$", ".csv"));
+        if (!baseline.equals(conditionsFile) && baseline.isFile()) {
+            log.info("Comparing against {} on export", baseline);
+            engine.baselineResults = baseline;
+        }
+        return engine;
+    }
+
+    /**
+     * Creates a SimulationEngine that runs the conditions of another campaign's runs with a different design
+     *
+     * @param document OpenRocket document to be used with the simulation
+     * @param template Simulation of the document the runs are created from, or null for the default simulation
+     * @param runs     Runs of the other campaign, all created from its first template
+     * @throws IllegalArgumentException If the runs were created from several templates
+     */
+    static SimulationEngine withConditions(OpenRocketDocument document, Simulation template,
+                                           List<SimulationData> runs) {
+        return new SimulationEngine(document, template, runs);
+    }
+
+    private SimulationEngine(OpenRocketDocument document, Simulation template, List<SimulationData> runs) {
+        this.document = document;
+        int templateId = addTemplate(template != null ? template : generateDefaultSimulation());
+        for (SimulationData d : runs) {
+            if (d.getConditions().getTemplateId() != 0)
+                throw new IllegalArgumentException("Runs created from several simulations cannot be shared");
+            // the conditions are immutable, the results are not
+            data.add(new SimulationData(d.getName(), new SampledConditions(d.getConditions(), templateId)));
+        }
+        this.simulationCount = data.size();
+    }
+
+    /**
+     * Creates a SimulationEngine over a slice of another engine's runs, sharing them, so that running the slice fills
+     * in the results of those runs of the other engine
+     *
+     * @param from Index of the first run of the slice
+     * @param to   Index after the last run of the slice
+     */
+    static SimulationEngine slice(SimulationEngine engine, int from, int to) {
+        return new SimulationEngine(engine, from, to);
+    }
+
+    private SimulationEngine(SimulationEngine engine, int from, int to) {
+        this.document = engine.document;
+        this.templates.addAll(engine.templates);
+        this.data.addAll(engine.data.subList(from, to));
+        this.simulationCount = data.size();
+    }
+
+    /**
+     * Creates a SimulationEngine without runs that builds simulations from the given templates, e.g. in a worker
+     * process that receives the conditions of each run from the campaign's engine
+     *
+     * @param document  OpenRocket document to be used with the simulation
+     * @param templates Templates in the order of the campaign's template ids
+     * @see SimulationEngine#saveTemplates(OutputStream)
+     */
+    SimulationEngine(OpenRocketDocument document, List<Simulation> templates) {
+        this(document, templates, List.of());
+    }
+
+    /**
+     * Creates a SimulationEngine over the given runs, which refer to the given templates by their template ids
+     *
+     * @param document  OpenRocket document to be used with the simulation
+     * @param templates Templates in the order of the runs' template ids
+     * @param runs      Runs of the campaign
+     * @see ParameterSweep
+     */
+    static SimulationEngine withTemplates(OpenRocketDocument document, List<Simulation> templates,
+                                          List<SimulationData> runs) {
+        return new SimulationEngine(document, templates, runs);
+    }
+
+    private SimulationEngine(OpenRocketDocument document, List<Simulation> templates, List<SimulationData> runs) {
+        this.document = document;
+        this.templates.addAll(templates);
+        this.data.addAll(runs);
+        this.simulationCount = data.size();
+    }
+
+    /**
+     * @return Whether the run at the given index is the second of an antithetic pair
+     */
+    private boolean isMirrored(int index) {
+        return antitheticVariates && index % 2 == 1;
+    }
+
+    private int addTemplate(Simulation template) {
+        templates.add(template);
+        return templates.size() - 1;
+    }
+
+    /**
+     * Creates a new simulation with the options and extensions of a template
+     */
+    private Simulation instantiate(Simulation template, String name) {
+        Simulation sim = new Simulation(document, document.getRocket());
+        sim.setName(name);
+        sim.copySimulationOptionsFrom(template.getOptions());
+
+        sim.getSimulationExtensions().clear();
+        for (SimulationExtension c : template.getSimulationExtensions()) {
+            sim.getSimulationExtensions().add(c.clone());
         }
+        return sim;
+    }
+
+    public int getTemplateCount() {
+        return templates.size();
     }
 
+    /**
+     * Saves the document with a copy of every template appended to its simulations, so that another process can
+     * rebuild the runs of this campaign from their conditions. The copies are removed again after saving.
+     *
+     * @param out Stream to write the OpenRocket file to
+     * @throws IOException If the document could not be saved
+     * @see SimulationEngine#getTemplateCount()
+     */
+    public void saveTemplates(OutputStream out) throws IOException {
+        List<Simulation> copies = new ArrayList<>();
+        for (Simulation template : templates)
+            copies.add(instantiate(template, template.getName()));
+        for (Simulation copy : copies)
+            document.addSimulation(copy);
+        try {
+            StorageOptions options = new StorageOptions();
+            options.setSaveSimulationData(false);
+            new OpenRocketSaver().save(out, document, options, new WarningSet(), new ErrorSet());
+        } finally {
+            for (Simulation copy : copies)
+                document.removeSimulation(copy);
+        }
+    }
 
     /**
-     * Choose a random number from a Gaussian distribution with a given mean and standard deviation
+     * Rebuilds the simulation of a run from its template and sampled conditions, e.g. to inspect the full flight
+     * data of a run whose simulation object was released after processing. The returned simulation has not been run.
      *
-     * @param mu    Mean
-     * @param sigma Standard deviation
+     * @param d Run to rebuild
+     * @return New simulation with the same inputs as the original run
      */
-    private static double randomGauss(double mu, double sigma) {
-        return SimulationEngine.random.nextGaussian() * sigma + mu;
+    public Simulation replay(SimulationData d) {
+        log.info("Replaying {} with seed {}", d.getName(), d.getConditions().getSeed());
+        return build(d);
     }
 
     /**
-     * Creates simulations with randomized conditions based on referenceSim and provided values at construct time
+     * Creates the simulation of a run that has not been created yet and attaches it to the run
+     *
+     * @param d Run to create the simulation for
+     * @return The run's simulation
+     */
+    public Simulation materialize(SimulationData d) {
+        Simulation sim = d.getSimulation();
+        if (sim == null) {
+            sim = build(d);
+            d.setSimulation(sim);
+        }
+        return sim;
+    }
+
+    private Simulation build(SimulationData d) {
+        SampledConditions conditions = d.getConditions();
+        Simulation sim = instantiate(templates.get(conditions.getTemplateId()), d.getName());
+        conditions.applyTo(sim.getOptions());
+        return sim;
+    }
+
+    /**
+     * Creates runs with randomized conditions based on referenceSim and provided values at construct time.
+     * Only the conditions are generated here, each run's simulation is created when it is about to be run.
+     *
+     * If importance sampling is enabled, only the pilot runs are created here. With antithetic variates, every second
+     * run mirrors the draws of the run before it around the mean, so errors of the pair cancel to first order. A
+     * sensitivity analysis creates the first base samples of its Saltelli design instead.
      *
      * @param referenceSim Reference simulation to copy base conditions, extensions from
      * @implNote Clears existing simulations
-     * @see SimulationEngine#configureMonteCarloSimulationOptions(SimulationOptions)
+     * @see ConditionSampler
+     * @see SimulationEngine#materialize(SimulationData)
+     * @see SimulationEngine#createFollowUpSimulations()
      */
     public void createMonteCarloSimulations(Simulation referenceSim) {
         data.clear();
-        for (int i = 0; i < simulationCount; i++) {
-            Simulation sim = new Simulation(document, document.getRocket());
-            sim.setName("Simulation " + i);
-            log.info("Generating conditions for {}", sim.getName());
-
-            sim.copySimulationOptionsFrom(referenceSim.getOptions());
-
-            sim.getSimulationExtensions().clear();
-            for (SimulationExtension c : referenceSim.getSimulationExtensions()) {
-                sim.getSimulationExtensions().add(c.clone());
+        templates.clear();
+        int templateId = addTemplate(referenceSim);
+        sampler = new ConditionSampler(referenceSim.getOptions(), tempStdDev, pressureStdDev, windCorrelationLength);
+        sensitivityAnalysis = sensitivityAnalysisEnabled ? createSensitivityAnalysis(referenceSim.getOptions()) : null;
+        if (sensitivityAnalysis != null) {
+            if (importanceSampler != null) {
+                log.warn("Importance sampling is not used with a sensitivity analysis");
+                importanceSampler = null;
             }
-
-            configureMonteCarloSimulationOptions(sim.getOptions());
-            data.add(new SimulationData(sim));
+            followUpPending = true;
+            data.addAll(sampleSensitivityRuns(templateId, sensitivityAnalysis.getInitialBaseSamples()));
+            return;
+        }
+        int count = simulationCount;
+        followUpPending = importanceSampler != null && importanceSampler.getPilotCount() < simulationCount;
+        if (followUpPending) {
+            count = importanceSampler.getPilotCount();
+            log.info("Importance sampling: running {} pilot simulations before the remaining {}", count,
+                    simulationCount - count);
         }
+        log.info("Generating conditions for {} simulations", count);
+        long[] seeds = new long[count];
+        boolean[] mirrored = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            // every run has its own seed so it can be reproduced on its own, pairs share theirs
+            mirrored[i] = isMirrored(i);
+            seeds[i] = mirrored[i] ? seeds[i - 1] : seedSource.nextLong();
+        }
+        data.addAll(sampleMonteCarloRuns(0, seeds, mirrored, templateId, null));
     }
 
     /**
-     * Set the Monte-Carlo conditions for the flight simulation
+     * Creates the runs that depend on the results of the runs created so far: with importance sampling, the runs
+     * drawn from the distributions fitted to the pilot runs, with a sensitivity analysis, more base samples while the
+     * indices are too uncertain. Must be called after all previous runs were processed.
      *
-     * @param opts The SimulationOptions object of the simulation
+     * @return The added runs, empty if there are none
+     * @see ImportanceSampler
+     * @see SensitivityAnalysis
      */
-    private void configureMonteCarloSimulationOptions(SimulationOptions opts) {
+    public List<SimulationData> createFollowUpSimulations() {
+        if (!followUpPending) return List.of();
+        if (sensitivityAnalysis != null) {
+            int count = sensitivityAnalysis.getNextBaseSamples(data);
+            if (count == 0) {
+                followUpPending = false;
+                return List.of();
+            }
+            List<SimulationData> added = sampleSensitivityRuns(0, count);
+            data.addAll(added);
+            return added;
+        }
+        followUpPending = false;
 
-        for (MultiLevelPinkNoiseWindModel.LevelWindModel windLevel : opts.getMultiLevelWindModel().getLevels()) {
-            double windSpeed = randomGauss(windLevel.getSpeed(), windLevel.getStandardDeviation());
-            windLevel.setSpeed(windSpeed);
-            log.debug("Cond @ {}: Avg WindSpeed: {}m/s", windLevel.getAltitude(), windSpeed);
-            windLevel.setStandardDeviation(0.0); // disable openRocket's own randomness
+        List<SimulationData> pilots = new ArrayList<>();
+        for (SimulationData d : data) {
+            if (d.hasData()) pilots.add(d); // failed runs tell nothing about the event region
+        }
+        long[] pilotSeeds = new long[pilots.size()];
+        boolean[] pilotMirrored = new boolean[pilots.size()];
+        for (int i = 0, p = 0; i < data.size(); i++) {
+            if (!data.get(i).hasData()) continue;
+            pilotSeeds[p] = data.get(i).getConditions().getSeed();
+            pilotMirrored[p++] = isMirrored(i);
+        }
+        int m = sampler.getConditionCount();
+        double[] z = sampler.draw(pilotSeeds, pilotMirrored);
+        List<double[]> draws = new ArrayList<>();
+        for (int p = 0; p < pilots.size(); p++) draws.add(Arrays.copyOfRange(z, p * m, (p + 1) * m));
+        double[] shift = importanceSampler.fitShift(draws, pilots, sampler.getStandardDeviations());
+        log.info("Sampling the remaining {} simulations with conditions shifted by {} standard deviations",
+                simulationCount - data.size(), Arrays.toString(shift));
+
+        int first = data.size();
+        long[] seeds = new long[simulationCount - first];
+        boolean[] mirrored = new boolean[seeds.length];
+        for (int i = first; i < simulationCount; i++) {
+            mirrored[i - first] = isMirrored(i);
+            if (!mirrored[i - first]) seeds[i - first] = seedSource.nextLong();
+            else seeds[i - first] = i == first ? data.get(i - 1).getConditions().getSeed() : seeds[i - first - 1];
+        }
+        List<SimulationData> added = sampleMonteCarloRuns(first, seeds, mirrored, 0, shift);
+        data.addAll(added);
+        return added;
+    }
 
-            double windDirection = randomGauss(windLevel.getDirection(), windLevel.getWindDirStdDev());
-            windLevel.setDirection(Math.toRadians(windDirection));
-            log.debug("Cond @ {}: windDirection: {}rad with stdDev: {}rad",
-                    windLevel.getAltitude(), windDirection, windLevel.getWindDirStdDev());
+    /**
+     * Samples the Monte-Carlo conditions of consecutive runs in one batch
+     *
+     * @param first      Index of the first run, for the run names
+     * @param seeds      Seed of each run
+     * @param mirrored   Whether each run is the second of an antithetic pair
+     * @param templateId Template ID of the reference simulation
+     * @param shift      Shift of each condition's mean in standard deviations for importance sampling, or null to
+     *                   sample the nominal conditions
+     */
+    private List<SimulationData> sampleMonteCarloRuns(int first, long[] seeds, boolean[] mirrored, int templateId,
+                                                      double[] shift) {
+        int m = sampler.getConditionCount();
+        double[] z = sampler.draw(seeds, mirrored);
+        double[] weights = new double[seeds.length];
+        Arrays.fill(weights, 1);
+        if (shift != null) {
+            // the shift and the likelihood ratio apply to the independent draws, before the levels are correlated
+            for (int r = 0; r < seeds.length; r++) {
+                for (int c = 0; c < m; c++) z[r * m + c] += shift[c];
+                weights[r] = ImportanceSampler.likelihoodRatio(Arrays.copyOfRange(z, r * m, (r + 1) * m), shift);
+            }
+        }
+        double[] x = sampler.transform(z);
+        List<SimulationData> runs = new ArrayList<>(seeds.length);
+        for (int r = 0; r < seeds.length; r++) {
+            runs.add(new SimulationData("Simulation " + (first + r),
+                    sampler.conditionsOf(x, r, seeds[r], templateId, weights[r])));
         }
+        return runs;
+    }
 
-        double temperature = randomGauss(opts.getLaunchTemperature(), tempStdDev);
-        opts.setLaunchTemperature(temperature);
-        log.debug("Cond: Temperature: {}K", temperature);
+    /**
+     * @return Analysis over the conditions the reference simulation randomizes, or null if it randomizes none
+     */
+    private SensitivityAnalysis createSensitivityAnalysis(SimulationOptions opts) {
+        List<MultiLevelPinkNoiseWindModel.LevelWindModel> levels = opts.getMultiLevelWindModel().getLevels();
+        double[] standardDeviations = sampler.getStandardDeviations();
+        List<String> names = new ArrayList<>();
+        List<Integer> inputs = new ArrayList<>();
+        for (int i = 0; i < standardDeviations.length; i++) {
+            if (standardDeviations[i] == 0) continue; // conditions that do not vary explain no variance
+            inputs.add(i);
+            if (i == standardDeviations.length - 2) names.add("Temperature");
+            else if (i == standardDeviations.length - 1) names.add("Pressure");
+            else names.add(String.format("Wind %s at %.0f m", i % 2 == 0 ? "Speed" : "Direction",
+                    levels.get(i / 2).getAltitude()));
+        }
+        if (inputs.isEmpty()) {
+            log.warn("Sensitivity analysis needs randomized conditions, sampling nominally");
+            return null;
+        }
+        int maxBaseSamples = Math.max(2, simulationCount / (inputs.size() + 2));
+        log.info("Sensitivity analysis of {}: up to {} base samples of {} simulations each", names, maxBaseSamples,
+                inputs.size() + 2);
+        return new SensitivityAnalysis(names.toArray(new String[0]), inputs.stream().mapToInt(i -> i).toArray(),
+                maxBaseSamples, config.getSensitivityTolerance());
+    }
 
-        double pressure = randomGauss(opts.getLaunchPressure(), pressureStdDev);
-        opts.setLaunchPressure(pressure);
-        log.debug("Cond: Pressure: {}Pa", pressure);
+    /**
+     * Creates the runs of the next base samples of the sensitivity analysis, after those created so far
+     *
+     * @param count Number of base samples to create
+     * @see SensitivityAnalysis
+     */
+    private List<SimulationData> sampleSensitivityRuns(int templateId, int count) {
+        int runsPerSample = sensitivityAnalysis.getRunsPerSample();
+        int first = data.size() / runsPerSample;
+        int m = sampler.getConditionCount();
+        int[] inputs = sensitivityAnalysis.getInputs();
+        long[] seeds = new long[2 * count];
+        for (int i = 0; i < seeds.length; i++) seeds[i] = seedSource.nextLong();
+        double[] ab = sampler.draw(seeds, null); // A and B of every base sample
+
+        // rows A, B, then A with each input taken from B; with correlated levels, an input is a level's own error
+        long[] runSeeds = new long[count * runsPerSample];
+        double[] z = new double[runSeeds.length * m];
+        for (int k = 0; k < count; k++) {
+            int a = 2 * k * m, b = (2 * k + 1) * m, row = k * runsPerSample;
+            for (int j = 0; j < runsPerSample; j++) {
+                System.arraycopy(ab, j == 1 ? b : a, z, (row + j) * m, m);
+                // any randomness of the simulation beyond the inputs follows A, so it cancels in the differences
+                runSeeds[row + j] = seeds[j == 1 ? 2 * k + 1 : 2 * k];
+            }
+            for (int i = 0; i < inputs.length; i++) z[(row + 2 + i) * m + inputs[i]] = ab[b + inputs[i]];
+        }
+        double[] x = sampler.transform(z);
+
+        List<SimulationData> runs = new ArrayList<>(runSeeds.length);
+        for (int k = 0; k < count; k++) {
+            String name = "Simulation " + (first + k);
+            for (int j = 0; j < runsPerSample; j++) {
+                String suffix = j == 0 ? " A" : j == 1 ? " B" : " AB" + (j - 1);
+                int row = k * runsPerSample + j;
+                runs.add(new SimulationData(name + suffix, sampler.conditionsOf(x, row, runSeeds[row], templateId, 1)));
+            }
+        }
+        log.info("Created base samples {} to {} of the sensitivity analysis ({} simulations)", first,
+                first + count - 1, runs.size());
+        return runs;
     }
 
     /**
@@ -247,25 +609,107 @@ public class SimulationEngine {
         return defaultSimulation;
     }
 
+    public List<SimulationData> getData() {
+        return data;
+    }
+
     /**
-     * Gets a range of simulations
-     *
-     * @param start starting index
-     * @param size  number of simulations following the start to return
-     * @return list of simulations
+     * @return How the conditions of the runs were sampled, e.g. for the campaign history
      */
-    public List<Simulation> getSimulations(int start, int size) {
-        return data.stream().skip(start).limit(size).map(SimulationData::getSimulation).toList();
+    public String describeSampling() {
+        String sampling = sensitivityAnalysis != null ? "sensitivity analysis" :
+                importanceSampler != null ? "importance sampling" :
+                        antitheticVariates ? "antithetic pairs" : "independent";
+        return sampling + ", temperature std dev " + tempStdDev + " K, pressure std dev " + pressureStdDev + " Pa" +
+                (windCorrelationLength > 0 ? ", wind correlation length " + windCorrelationLength + " m" : "");
     }
 
-    public List<SimulationData> getData() {
-        return data;
+    /**
+     * @return Launch options of the first template, e.g. for the campaign history, empty if there is none
+     */
+    public String describeOptions() {
+        if (templates.isEmpty()) return "";
+        SimulationOptions opts = templates.get(0).getOptions();
+        return String.format("launch %.6f, %.6f at %.1f m, rod %.2f m at %.4f rad towards %.4f rad%s, " +
+                        "max time %.0f s", opts.getLaunchLatitude(), opts.getLaunchLongitude(),
+                opts.getLaunchAltitude(), opts.getLaunchRodLength(), opts.getLaunchRodAngle(),
+                opts.getLaunchRodDirection(), opts.getLaunchIntoWind() ? " into the wind" : "",
+                opts.getMaxSimulationTime());
+    }
+
+    /**
+     * @return Importance sampler of this campaign, or null if its conditions are sampled nominally
+     */
+    public ImportanceSampler getImportanceSampler() {
+        return importanceSampler;
+    }
+
+    /**
+     * @return Sensitivity analysis of this campaign, or null if it does not run one
+     */
+    public SensitivityAnalysis getSensitivityAnalysis() {
+        return sensitivityAnalysis;
+    }
+
+    /**
+     * @param sensitivityAnalysis Whether Monte-Carlo runs should follow a Saltelli design to estimate sensitivity
+     *                            indices
+     * @see SimulationEngine#createMonteCarloSimulations(Simulation)
+     */
+    public void setSensitivityAnalysis(boolean sensitivityAnalysis) {
+        this.sensitivityAnalysisEnabled = sensitivityAnalysis;
+    }
+
+    /**
+     * @param windCorrelationLength Altitude difference in metres at which the sampled errors of two wind levels are
+     *                              correlated by 1/e, 0 to sample every level independently
+     * @see ConditionSampler
+     */
+    public void setWindCorrelationLength(double windCorrelationLength) {
+        this.windCorrelationLength = windCorrelationLength;
+    }
+
+    /**
+     * @param antitheticVariates Whether Monte-Carlo runs should be created in antithetic pairs
+     * @see SimulationEngine#createMonteCarloSimulations(Simulation)
+     */
+    public void setAntitheticVariates(boolean antitheticVariates) {
+        this.antitheticVariates = antitheticVariates;
+    }
+
+    /**
+     * @param importanceSampler Sampler of the Monte-Carlo runs, or null to sample them nominally
+     * @see SimulationEngine#createMonteCarloSimulations(Simulation)
+     */
+    public void setImportanceSampler(ImportanceSampler importanceSampler) {
+        this.importanceSampler = importanceSampler;
+    }
+
+    /**
+     * @param baselineResults Export of a campaign with the same conditions to compare against on export, or null
+     * @see PairedComparison
+     */
+    void setBaselineResults(File baselineResults) {
+        this.baselineResults = baselineResults;
+    }
+
+    public FailureLog getFailureLog() {
+        return failureLog;
+    }
+
+    public OpenRocketDocument getDocument() {
+        return document;
+    }
+
+    public boolean isKeepSimulationObject() {
+        return keepSimulationObject;
     }
 
     public void processSimulationData() {
         for (SimulationData d : data) {
             try {
-                if (!d.hasData() && d.getSimulation().hasSimulationData()) // only process unprocessed simulations
+                // only process simulations that were run but not processed
+                if (!d.hasData() && d.getSimulation() != null && d.getSimulation().hasSimulationData())
                     d.processData(keepSimulationObject);
             } catch (Exception e) {
                 log.error(e.getMessage());
@@ -273,6 +717,17 @@ public class SimulationEngine {
         }
     }
 
+    /**
+     * Process a single simulation once it has been run
+     *
+     * @param d Simulation data to process
+     * @throws SimulationException If the simulation has no data or the data cannot be processed
+     */
+    public void processSimulationData(SimulationData d) throws SimulationException {
+        if (!d.hasData())
+            d.processData(keepSimulationObject);
+    }
+
     public void exportToCSV(File csvFile) {
         if (data.isEmpty()) {
             log.warn("No data has been generated, ignoring CSV export");
@@ -284,53 +739,93 @@ public class SimulationEngine {
             StringBuilder header = new StringBuilder(
                     "Simulation,Max Windspeed (mph),Wind Direction (deg),Temperature (°C),Pressure (mbar),Apogee (ft),Max Mach");
 
-            // add branch-specific headers
-            String[] branchHeaders =
-                    {"Initial Stability", "Min Stability", "Max Stability", "Apogee Stability",
-                            "Landing Latitude (deg N)",
-                            "Landing Longitude (deg E)", "Position East of Launch (ft)",
-                            "Position North of Launch (ft)",
-                            "Lateral Velocity at Apogee (m/s)"};
-            int branches = data.get(0).getBranchName().size();
+            // branches of the first processed simulation, failed ones have none
+            SimulationData first = data.stream().filter(SimulationData::hasData).findFirst().orElse(data.get(0));
+            int branches = first.getBranchName().size();
+            List<MetricRegistry.Column> columns = first.hasData() ? MetricRegistry.getColumns(first.getMetricNames()) :
+                    MetricRegistry.getColumns();
             for (int i = 0; i < branches; i++) {
-                String branchName = data.get(0).getBranchName().get(i);
-                StringBuilder branchHeader = new StringBuilder();
-                for (String branchHeaderLabel : branchHeaders) {
-                    branchHeader.append(",").append(branchName).append(" ").append(branchHeaderLabel);
+                String branchName = first.getBranchName().get(i);
+                for (MetricRegistry.Column column : columns) {
+                    header.append(",").append(branchName).append(" ").append(column.name());
                 }
-                header.append(branchHeader);
             }
-            header.append("\n");
+            header.append(",Weight,Status\n");
 
             writer.write(header.toString());
 
             // Write data for each simulation
             for (SimulationData simData : data) {
                 StringBuilder row = new StringBuilder();
-                row.append(simData.getName()).append(",");
+                row.append(FailureLog.quote(simData.getName())).append(",");
                 row.append(simData.getMaxWindSpeedInMPH()).append(",");
                 row.append(simData.getMaxWindDirectionInDegrees()).append(",");
                 row.append(simData.getTemperatureInCelsius()).append(",");
                 row.append(simData.getPressureInMBar()).append(",");
+                if (!simData.hasData() || simData.getBranchName().size() != branches) {
+                    // leave results empty, the status says why
+                    row.append(",".repeat(2 + branches * columns.size()));
+                    row.append(simData.getWeight()).append(",");
+                    row.append(FailureLog.quote(simData.getStatus())).append("\n");
+                    writer.write(row.toString());
+                    continue;
+                }
                 row.append(simData.getApogeeInFeet()).append(",");
                 row.append(simData.getMaxMachNumber()).append(",");
 
                 for (int i = 0; i < branches; i++) { // branch-specific data
-                    row.append(simData.getInitStability().get(i)).append(",");
-                    row.append(simData.getMinStability().get(i)).append(",");
-                    row.append(simData.getMaxStability().get(i)).append(",");
-                    row.append(simData.getApogeeStability().get(i)).append(",");
-                    row.append(simData.getLandingLatitude().get(i)).append(",");
-                    row.append(simData.getLandingLongitude().get(i)).append(",");
-                    row.append(simData.getEastPostLandingInFeet().get(i)).append(",");
-                    row.append(simData.getNorthPostLandingInFeet().get(i)).append(",");
-                    row.append(simData.getApogeeLateralVelocity().get(i)).append(",");
+                    for (MetricRegistry.Column column : columns) row.append(column.value().of(simData, i)).append(",");
                 }
-                row.append("\n");
+                row.append(simData.getWeight()).append(",");
+                row.append(FailureLog.quote(simData.getStatus())).append("\n");
                 writer.write(row.toString());
             }
         } catch (IOException e) {
-            System.err.println("Error writing to CSV file: " + e.getMessage());
+            log.error("Error writing to CSV file {}: {}", csvFile, e.getMessage());
+        }
+
+        String name = csvFile.getName().replaceFirst("\\.csv$", "");
+        File conditionsFile = new File(csvFile.getParentFile(), name + "-conditions.csv");
+        try {
+            ConditionSet.export(data, conditionsFile);
+        } catch (IOException e) {
+            log.error("Error writing conditions: {}", e.getMessage());
+        }
+        if (baselineResults != null && !baselineResults.equals(csvFile)) {
+            File comparisonFile = new File(csvFile.getParentFile(), name + "-paired.csv");
+            try {
+                PairedComparison.export(baselineResults, data, comparisonFile);
+                log.info("Wrote paired comparison against {} to {}", baselineResults.getName(), comparisonFile);
+            } catch (IOException e) {
+                log.error("Error writing paired comparison: {}", e.getMessage());
+            }
+        }
+        if (importanceSampler != null) {
+            File riskFile = new File(csvFile.getParentFile(), name + "-risk.csv");
+            try {
+                importanceSampler.exportToCSV(riskFile, data);
+                log.info("Wrote range safety estimates to {}", riskFile);
+            } catch (IOException e) {
+                log.error("Error writing range safety estimates: {}", e.getMessage());
+            }
+        }
+        if (sensitivityAnalysis != null) {
+            File sensitivityFile = new File(csvFile.getParentFile(), name + "-sensitivity.csv");
+            try {
+                sensitivityAnalysis.exportToCSV(sensitivityFile, data);
+                log.info("Wrote sensitivity indices to {}", sensitivityFile);
+            } catch (IOException e) {
+                log.error("Error writing sensitivity indices: {}", e.getMessage());
+            }
+        }
+        if (!failureLog.isEmpty()) {
+            File failureFile = new File(csvFile.getParentFile(), name + "-failures.csv");
+            try {
+                failureLog.exportToCSV(failureFile);
+                log.info("Wrote failed simulation attempts to {}", failureFile);
+            } catch (IOException e) {
+                log.error("Error writing failure log: {}", e.getMessage());
+            }
         }
     }
 }
@@ -2,7 +2,6 @@ package com.waterloorocketry.openrocket_monte_carlo;
 
 import info.openrocket.core.document.OpenRocketDocument;
 import info.openrocket.core.document.Simulation;
-import info.openrocket.core.file.GeneralRocketLoader;
 import info.openrocket.core.file.RocketLoadException;
 import info.openrocket.core.gui.util.SimpleFileFilter;
 import info.openrocket.core.logging.ErrorSet;
@@ -17,7 +16,6 @@ import info.openrocket.swing.gui.dialogs.ErrorWarningDialog;
 import info.openrocket.swing.gui.main.componenttree.ComponentTree;
 import info.openrocket.swing.gui.scalefigure.RocketPanel;
 import info.openrocket.swing.gui.simulation.SimulationConfigDialog;
-import info.openrocket.swing.gui.simulation.SimulationRunDialog;
 import info.openrocket.swing.gui.theme.UITheme;
 import info.openrocket.swing.gui.util.FileHelper;
 import info.openrocket.swing.gui.util.Icons;
@@ -28,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.BorderLayout;
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.event.ActionListener;
@@ -43,8 +42,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import javax.swing.*;
@@ -62,12 +63,13 @@ public class SimulationOptionsFrame extends JFrame {
             THRUST_FILE_SET_EVENT = "thrustFileSet",
             ROCKET_FILE_SET_EVENT = "rocketFileSet",
             SIMULATIONS_CONFIGURED_EVENT = "simulationConfigured", // fires when simulations are generated
-            SIMULATIONS_PROCESSED_EVENT = "simulationProcessed", // fires whenever a batch is processed (updates table)
-            SIMULATIONS_DONE_EVENT = "simulationDone"; // fires when all simulations are done (begin export)
+            SIMULATIONS_STARTED_EVENT = "simulationStarted", // fires when a run is started
+            SIMULATIONS_PROCESSED_EVENT = "simulationProcessed", // fires as simulations finish (updates progress)
+            SIMULATIONS_ADDED_EVENT = "simulationsAdded", // fires when a run adds simulations to the campaign
+            SIMULATIONS_DONE_EVENT = "simulationDone", // fires when all simulations are done (begin export)
+            SURROGATE_FITTED_EVENT = "surrogateFitted"; // fires when the surrogate model is refitted
 
     private final Configurator config = Configurator.getInstance();
-    private final int BATCH_RUN_SIZE = config.getBatchSize();
-    private int batchCount = (int) Math.ceil(100.0 / BATCH_RUN_SIZE);
     private final boolean enableDebug = config.debugEnabled();
     private int numSimulations = 100;
     private double tempStdDev = 0.0, pressureStdDev = 0.0;
@@ -75,6 +77,17 @@ public class SimulationOptionsFrame extends JFrame {
     private OpenRocketDocument document;
     private File openRocketFile, thrustCurveFile;
     private SimulationEngine simulationEngine;
+    private RunController runController;
+    private final DispersionPlotPanel dispersionPlotPanel = new DispersionPlotPanel();
+    private final LandingIndex landingIndex = new LandingIndex();
+    private final HistoryStore history = !config.isCampaignHistory() ? null :
+            new HistoryStore(new File(config.getCacheDirectory(), "history"));
+    private final ResultCache resultCache = !config.isResultCache() ? null : new ResultCache(
+            new File(config.getCacheDirectory(), "results"), config.getResultCacheSize() * 1024L * 1024L);
+    private boolean reuseCachedResults = true;
+    private boolean antitheticVariates = config.isAntitheticVariates();
+    private final SurrogateTrainer surrogateTrainer = !config.isSurrogateModel() ? null : new SurrogateTrainer(
+            model -> SwingUtilities.invokeLater(() -> pcs.firePropertyChange(SURROGATE_FITTED_EVENT, null, model)));
 
     public SimulationOptionsFrame() {
         super("Waterloo Rocketry Monte-Carlo Simulator");
@@ -118,7 +131,6 @@ public class SimulationOptionsFrame extends JFrame {
         this.simulationEngine = simulationEngine;
         if (this.simulationEngine != null) {
             log.info("Simulations ready");
-            batchCount = (int) Math.ceil((double) simulationEngine.simulationCount / BATCH_RUN_SIZE);
         }
 
         pcs.firePropertyChange(SIMULATIONS_CONFIGURED_EVENT, old, this.simulationEngine);
@@ -146,7 +158,13 @@ public class SimulationOptionsFrame extends JFrame {
         final JPanel bottomPanel = new JPanel(new MigLayout("fill"));
 
         final JButton exportButton = getExportButton();
-        bottomPanel.add(exportButton, "alignx left");
+        bottomPanel.add(exportButton, "alignx left, split 3");
+
+        final JButton predictButton = getPredictButton();
+        bottomPanel.add(predictButton, "alignx left");
+
+        final JButton landingZoneButton = getLandingZoneButton();
+        bottomPanel.add(landingZoneButton, "alignx left");
 
         final JPanel statusDialog = getStatusPanel();
         bottomPanel.add(statusDialog, "alignx right, growx");
@@ -154,7 +172,13 @@ public class SimulationOptionsFrame extends JFrame {
         final JButton closeButton = new JButton("Close");
         closeButton.addActionListener(e ->
                 this.dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
-        bottomPanel.add(closeButton, "split 2, tag ok");
+        bottomPanel.add(closeButton, "split 4, tag ok");
+
+        final JButton pauseButton = getPauseButton();
+        bottomPanel.add(pauseButton, "tag ok");
+
+        final JButton cancelButton = getCancelButton();
+        bottomPanel.add(cancelButton, "tag ok");
 
         final JButton runButton = getRunButton();
         bottomPanel.add(runButton, "tag ok");
@@ -189,6 +213,18 @@ public class SimulationOptionsFrame extends JFrame {
         panel.add(pressureStdDevField, "split 2, grow");
         panel.add(pressureStDevUnit);
 
+        JCheckBox antitheticBox = new JCheckBox("Antithetic pairs", antitheticVariates);
+        antitheticBox.setToolTipText("Every second simulation mirrors the conditions of the one before it");
+        antitheticBox.addItemListener(evt -> antitheticVariates = antitheticBox.isSelected());
+        panel.add(antitheticBox, "span, growx");
+
+        if (resultCache != null) {
+            // unchecking forces every simulation to be run again, e.g. after an OpenRocket change
+            JCheckBox reuseCachedResultsBox = new JCheckBox("Reuse cached results", reuseCachedResults);
+            reuseCachedResultsBox.addItemListener(evt -> reuseCachedResults = reuseCachedResultsBox.isSelected());
+            panel.add(reuseCachedResultsBox, "span, growx");
+        }
+
         final JButton configButton = getConfigButton();
         panel.add(configButton, "span, pushx, growx");
 
@@ -196,6 +232,9 @@ public class SimulationOptionsFrame extends JFrame {
         panel.add(new JSeparator(JSeparator.HORIZONTAL), "span, grow, hmin 10, aligny, pushy");
         panel.add(importDataButton, "span, pushx, growx, center");
 
+        final JButton importConditionsButton = getImportConditionsButton();
+        panel.add(importConditionsButton, "span, pushx, growx, center");
+
         if (enableDebug) {
             final JButton importExistingSimButton = getImportExistingSimButton();
             panel.add(new JSeparator(JSeparator.HORIZONTAL), "span, grow, hmin 10, aligny, pushy");
@@ -216,10 +255,15 @@ public class SimulationOptionsFrame extends JFrame {
         SimulationTableModel tableModel = new SimulationTableModel();
         JTable simulationTable = new JTable(tableModel);
 
-        simulationListPanel.add(new JScrollPane(simulationTable), "grow, push");
+        JTabbedPane resultTabs = new JTabbedPane();
+        resultTabs.addTab("Table", new JScrollPane(simulationTable));
+        resultTabs.addTab("Dispersion", dispersionPlotPanel);
+        simulationListPanel.add(resultTabs, "grow, push");
 
         PropertyChangeListener tableChangeHandler = evt -> {
             tableModel.clearSimulations();
+            dispersionPlotPanel.clear();
+            landingIndex.clear();
             if (simulationEngine == null) {
                 return;
             }
@@ -236,13 +280,10 @@ public class SimulationOptionsFrame extends JFrame {
                         log.info("Opening simulation config for {}", data.getName());
                         Simulation sim = data.getSimulation();
                         if (sim != null) {
-                            SimulationConfigDialog config =
-                                    new SimulationConfigDialog(SimulationOptionsFrame.this, document, true, sim);
-
-                            for (WindowListener listener : config.getWindowListeners())
-                                config.removeWindowListener(listener);
-
-                            config.setVisible(true);
+                            showSimulation(sim);
+                        } else if (data.hasData() && data.getConditions() != null) {
+                            // the simulation was released after processing, run it again to get its flight data
+                            getReplayWorker(simulationEngine, data).execute();
                         }
                     }
                 }
@@ -251,6 +292,11 @@ public class SimulationOptionsFrame extends JFrame {
 
         // Add listener to add rows when simulations are configured
         pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, tableChangeHandler);
+        pcs.addPropertyChangeListener(SIMULATIONS_ADDED_EVENT, evt -> {
+            @SuppressWarnings("unchecked")
+            List<SimulationData> added = (List<SimulationData>) evt.getNewValue();
+            tableModel.addSimulations(added);
+        });
 
         JButton exportButton = new JButton("Export Wind Levels", Icons.EXPORT);
         exportButton.addActionListener(e -> {
@@ -337,6 +383,15 @@ public class SimulationOptionsFrame extends JFrame {
             setThrustCurveFile(chooser.getSelectedFile());
             log.info(Markers.USER_MARKER, "Opening thrust curve file {}", thrustCurveFile);
 
+            TargetedMotorLoader motorLoader = Main.getMotorLoader();
+            if (motorLoader != null) {
+                try {
+                    motorLoader.addMotors(DesignCache.getInstance().loadThrustCurves(thrustCurveFile));
+                } catch (IOException ex) {
+                    log.error("Failed to load thrust curve file {}", thrustCurveFile, ex);
+                }
+            }
+
             // invalidate previous rocket file with updated thrust curves
             setOpenRocketFile(openRocketFile);
 
@@ -397,6 +452,8 @@ public class SimulationOptionsFrame extends JFrame {
             frame.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowClosed(WindowEvent we) {
+                    // The document no longer matches its file
+                    DesignCache.getInstance().invalidate(document);
                     // Inform the user that changes were applied
                     JOptionPane.showMessageDialog(SimulationOptionsFrame.this,
                             "Rocket changes applied.",
@@ -435,8 +492,8 @@ public class SimulationOptionsFrame extends JFrame {
             rocketFilePath.setText(openRocketFile.getName());
 
             try {
-                document = new GeneralRocketLoader(openRocketFile).load();
-            } catch (RocketLoadException ex) {
+                document = DesignCache.getInstance().loadDocument(openRocketFile, thrustCurveFile);
+            } catch (IOException | RocketLoadException ex) {
                 log.error(Markers.USER_MARKER, "Error loading Rocket Document", ex);
             }
         });
@@ -489,6 +546,44 @@ public class SimulationOptionsFrame extends JFrame {
         return importCSVButton;
     }
 
+    /**
+     * Runs the conditions of a previous campaign against the current design, to compare the two run by run
+     */
+    private @NotNull JButton getImportConditionsButton() {
+        final JButton importConditionsButton = new JButton("Import Conditions");
+        importConditionsButton.setToolTipText("Run the conditions exported with another campaign");
+        importConditionsButton.addActionListener(evt -> {
+            JFileChooser chooser = new JFileChooser();
+
+            chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            chooser.setMultiSelectionEnabled(false);
+            chooser.setFileFilter(FileHelper.CSV_FILTER);
+            chooser.setCurrentDirectory(((SwingPreferences) Application.getPreferences()).getDefaultDirectory());
+            int option = chooser.showOpenDialog(this);
+            if (option != JFileChooser.APPROVE_OPTION) {
+                log.info(Markers.USER_MARKER, "Decided not to open conditions file, option={}", option);
+                return;
+            }
+
+            ((SwingPreferences) Application.getPreferences()).setDefaultDirectory(chooser.getCurrentDirectory());
+
+            try {
+                setSimulationEngine(SimulationEngine.fromConditions(document, chooser.getSelectedFile()));
+            } catch (Exception e) {
+                log.error("Failed to import conditions", e);
+
+                ErrorSet errors = new ErrorSet();
+                errors.add(e.toString());
+                ErrorWarningDialog.showErrorsAndWarnings(this, "Failed to load conditions file", "Conditions Error",
+                        errors, new WarningSet());
+            }
+        });
+        importConditionsButton.setEnabled(false);
+        pcs.addPropertyChangeListener(ROCKET_FILE_SET_EVENT,
+                event -> importConditionsButton.setEnabled(event.getNewValue() != null));
+        return importConditionsButton;
+    }
+
     private @NotNull JButton getImportExistingSimButton() {
         final JButton importExistingButton = new JButton("Import Existing Sims");
         importExistingButton.addActionListener(evt -> setSimulationEngine(new SimulationEngine(document)));
@@ -527,6 +622,7 @@ public class SimulationOptionsFrame extends JFrame {
 
                 okButton.addActionListener(event -> {
                     log.info(Markers.USER_MARKER, "Simulation options accepted, creating simulations...");
+                    simulationEngine.setAntitheticVariates(antitheticVariates);
                     simulationEngine.createMonteCarloSimulations(sims[0]);
                     setSimulationEngine(simulationEngine);
                     config.dispose();
@@ -550,42 +646,182 @@ public class SimulationOptionsFrame extends JFrame {
 
             log.info("Options accepted, starting Monte Carlo Simulation");
 
-            // due to memory limitations, we run simulations in batches and process desired data
+            // due to memory limitations, the admission controller limits how many simulations are in flight
+            // based on heap occupancy, and each one is processed as soon as it finishes.
             // this allows us to remove the large OR Simulation object from memory
-            log.info("Simulations: {} Batches: {}", simulationEngine.simulationCount, batchCount);
-
-            for (int i = 0; i < batchCount; i++) {
-                int start = i * BATCH_RUN_SIZE;
-                List<Simulation> sims = simulationEngine.getSimulations(start, BATCH_RUN_SIZE);
-                JDialog runDialog = getSimulationRunDialog(sims, i + 1);
-                runDialog.setVisible(true);
+            // with worker processes, every worker thread drives one process or remote connection
+            int workerProcesses = config.getWorkerProcesses();
+            int coordinatorPort = config.getCoordinatorPort();
+            int workerCount = workerProcesses + (coordinatorPort > 0 ? config.getCoordinatorSlots() : 0);
+            int threadCount = workerCount > 0 ? workerCount : config.getThreadCount();
+            AdmissionController admission = AdmissionController.forThreads(config.getMemoryBudget(), threadCount);
+            runController = new RunController(simulationEngine, threadCount, admission);
+            if (resultCache != null)
+                runController.setResultCache(resultCache, reuseCachedResults);
+            runController.setRetryPolicy(config.getSimulationTimeout() * 1000L, config.getMaxRetries());
+            if (workerCount > 0) {
+                WorkerPool workerPool = new WorkerPool(simulationEngine, workerProcesses, config.getWorkerHeap(),
+                        thrustCurveFile, config.getSimulationTimeout() * 1000L);
+                workerPool.listenForRemoteWorkers(config.getCoordinatorAddress(), coordinatorPort,
+                        config.getCoordinatorToken());
+                runController.setWorkerPool(workerPool);
             }
-            simulationEngine.processSimulationData(); // race condition between windowListener and this thread, safe to call again
-            // simulationEngine.summarizeSimulations();
-            pcs.firePropertyChange(SIMULATIONS_DONE_EVENT, null, true);
+            log.info("Simulations: {} Threads: {}", simulationEngine.simulationCount, runController.getThreadCount());
+
+            getRunWorker(runController, admission).execute();
+            pcs.firePropertyChange(SIMULATIONS_STARTED_EVENT, null, runController);
         });
         runButton.setEnabled(false);
         pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event ->
                 runButton.setEnabled(event.getNewValue() != null));
+        pcs.addPropertyChangeListener(SIMULATIONS_STARTED_EVENT, event -> runButton.setEnabled(false));
         pcs.addPropertyChangeListener(SIMULATIONS_DONE_EVENT, event ->
                 runButton.setEnabled(event.getNewValue() == null));
         return runButton;
     }
 
-    private @NotNull JDialog getSimulationRunDialog(List<Simulation> sims, int batchNumber) {
-        JDialog runDialog = new SimulationRunDialog(this, document, sims.toArray(new Simulation[0]));
+    private void showSimulation(Simulation sim) {
+        SimulationConfigDialog config = new SimulationConfigDialog(this, document, true, sim);
+
+        for (WindowListener listener : config.getWindowListeners())
+            config.removeWindowListener(listener);
+
+        config.setVisible(true);
+    }
+
+    /**
+     * Rebuilds and runs a single simulation from its recorded conditions, then shows it
+     */
+    private @NotNull SwingWorker<Simulation, Void> getReplayWorker(SimulationEngine engine, SimulationData data) {
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        return new SwingWorker<>() {
+            @Override
+            protected Simulation doInBackground() throws Exception {
+                Simulation sim = engine.replay(data);
+                sim.simulate();
+                return sim;
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showSimulation(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    log.error("Failed to replay {}", data.getName(), e);
+                    JOptionPane.showMessageDialog(SimulationOptionsFrame.this,
+                            "Could not replay " + data.getName() + ": " + e.getMessage(),
+                            "Replay Failed",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs the campaign off the event thread. Progress is published as simulations finish and coalesced
+     * by the SwingWorker, so the UI is updated at most once per event dispatch.
+     */
+    private @NotNull SwingWorker<Void, Integer> getRunWorker(RunController controller,
+                                                             AdmissionController admission) {
+        // the campaign as it was started, for the history
+        SimulationEngine engine = simulationEngine;
+        String name = openRocketFile == null ? "" : openRocketFile.getName();
+        String motor = HistoryStore.describeMotor(thrustCurveFile);
+        return new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                try (admission) {
+                    runCampaign();
+                }
+                if (history != null && !controller.isCancelled()) {
+                    try {
+                        history.record(name, engine, motor);
+                    } catch (IOException e) {
+                        log.warn("Could not store the campaign in the history: {}", e.getMessage());
+                    }
+                }
+                return null;
+            }
+
+            private void runCampaign() throws InterruptedException, IOException {
+                controller.run(new RunController.RunListener() {
+                    @Override
+                    public void simulationCompleted(SimulationData data) {
+                        dispersionPlotPanel.accept(data);
+                        landingIndex.add(data);
+                        if (surrogateTrainer != null) surrogateTrainer.add(data);
+                        publish(controller.getCompletedCount() + controller.getFailedCount());
+                    }
+
+                    @Override
+                    public void simulationFailed(SimulationData data, Exception e) {
+                        publish(controller.getCompletedCount() + controller.getFailedCount());
+                    }
+
+                    @Override
+                    public void simulationsAdded(List<SimulationData> added) {
+                        SwingUtilities.invokeLater(() -> pcs.firePropertyChange(SIMULATIONS_ADDED_EVENT, null, added));
+                    }
+                });
+            }
+
+            @Override
+            protected void process(List<Integer> finished) {
+                pcs.firePropertyChange(SIMULATIONS_PROCESSED_EVENT, null, finished.get(finished.size() - 1));
+            }
 
-        runDialog.addWindowListener(new WindowAdapter() {
             @Override
-            public void windowClosed(WindowEvent e) {
-                log.info("Batch done, processing data");
-                simulationEngine.processSimulationData();
-                pcs.firePropertyChange(SIMULATIONS_PROCESSED_EVENT, null, batchNumber);
-                runDialog.dispose();
-                Runtime.getRuntime().gc();
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    log.error("Simulation run failed", ex);
+                }
+                if (surrogateTrainer != null) surrogateTrainer.flush();
+                pcs.firePropertyChange(SIMULATIONS_PROCESSED_EVENT, null,
+                        controller.getCompletedCount() + controller.getFailedCount());
+                pcs.firePropertyChange(SIMULATIONS_DONE_EVENT, null, true);
+            }
+        };
+    }
+
+    private @NotNull JButton getPauseButton() {
+        final JButton pauseButton = new JButton("Pause");
+        pauseButton.addActionListener(e -> {
+            if (runController == null) return;
+            if (runController.isPaused()) {
+                runController.resume();
+                pauseButton.setText("Pause");
+            } else {
+                runController.pause();
+                pauseButton.setText("Resume");
             }
         });
-        return runDialog;
+        pauseButton.setEnabled(false);
+        pcs.addPropertyChangeListener(SIMULATIONS_STARTED_EVENT, event -> {
+            pauseButton.setText("Pause");
+            pauseButton.setEnabled(true);
+        });
+        pcs.addPropertyChangeListener(SIMULATIONS_DONE_EVENT, event -> {
+            pauseButton.setText("Pause");
+            pauseButton.setEnabled(false);
+        });
+        return pauseButton;
+    }
+
+    private @NotNull JButton getCancelButton() {
+        final JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            if (runController == null) return;
+            log.info(Markers.USER_MARKER, "Cancelling simulation run");
+            runController.cancel();
+            cancelButton.setEnabled(false);
+        });
+        cancelButton.setEnabled(false);
+        pcs.addPropertyChangeListener(SIMULATIONS_STARTED_EVENT, event -> cancelButton.setEnabled(true));
+        pcs.addPropertyChangeListener(SIMULATIONS_DONE_EVENT, event -> cancelButton.setEnabled(false));
+        return cancelButton;
     }
 
     private @NotNull JButton getExportButton() {
@@ -616,44 +852,164 @@ public class SimulationOptionsFrame extends JFrame {
         return exportButton;
     }
 
+    /**
+     * Predicts the outcome of every row of a weather CSV, in the format of the CSV import, with the surrogate model
+     * of the campaign instead of simulating them
+     */
+    private @NotNull JButton getPredictButton() {
+        final JButton predictButton = new JButton("Predict CSV");
+        predictButton.addActionListener(e -> {
+            SurrogateModel model = surrogateTrainer.getModel();
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            chooser.setMultiSelectionEnabled(false);
+            chooser.setFileFilter(FileHelper.CSV_FILTER);
+            chooser.setCurrentDirectory(((SwingPreferences) Application.getPreferences()).getDefaultDirectory());
+            int option = chooser.showOpenDialog(this);
+            if (option != JFileChooser.APPROVE_OPTION) {
+                log.info(Markers.USER_MARKER, "Decided not to open csv file to predict, option={}", option);
+                return;
+            }
+            File file = chooser.getSelectedFile();
+            File predictionFile = new File(file.getParentFile(),
+                    file.getName().replaceFirst("\\.csv$", "") + "-predictions.csv");
+            try {
+                // only the conditions of the rows are parsed, nothing is simulated
+                SimulationEngine conditions = new SimulationEngine(document, file);
+                model.exportPredictions(conditions.getData(), predictionFile);
+                log.info("Wrote surrogate predictions to {}", predictionFile);
+                JOptionPane.showMessageDialog(SimulationOptionsFrame.this,
+                        "Predicted " + conditions.getData().size() + " rows to " + predictionFile.getName() +
+                                ".\n" + model,
+                        "Prediction Complete",
+                        JOptionPane.INFORMATION_MESSAGE);
+            } catch (Exception ex) {
+                log.error("Failed to predict {}", file, ex);
+
+                ErrorSet errors = new ErrorSet();
+                errors.add(ex.toString());
+                ErrorWarningDialog.showErrorsAndWarnings(this, "Failed to predict csv file", "Prediction Error",
+                        errors, new WarningSet());
+            }
+        });
+        predictButton.setEnabled(false);
+        pcs.addPropertyChangeListener(SURROGATE_FITTED_EVENT, event -> {
+            predictButton.setEnabled(event.getNewValue() != null);
+            if (event.getNewValue() != null) predictButton.setToolTipText(event.getNewValue().toString());
+        });
+        pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> {
+            // the model describes the previous campaign's design
+            if (surrogateTrainer != null) surrogateTrainer.clear();
+            predictButton.setEnabled(false);
+            predictButton.setToolTipText(null);
+        });
+        return predictButton;
+    }
+
+    /**
+     * Answers which share of the landings of a branch falls within a radius or a polygon, or which landing is nearest
+     * to a point, from the landings of the campaign so far
+     */
+    private @NotNull JButton getLandingZoneButton() {
+        final JButton landingZoneButton = new JButton("Landing Zones");
+        landingZoneButton.addActionListener(e -> {
+            List<String> branches = landingIndex.getBranchNames();
+            if (branches.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "No simulation has landed yet.", "Landing Zones",
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            JComboBox<String> branchBox = new JComboBox<>(branches.toArray(new String[0]));
+            JComboBox<String> queryBox = new JComboBox<>(new String[]{"Within radius", "Inside polygon", "Nearest"});
+            JTextField pointsField = new JTextField("0, 0, 3000", 30);
+            JPanel panel = new JPanel(new MigLayout("wrap 2", "[][grow, fill]"));
+            panel.add(new JLabel("Branch"));
+            panel.add(branchBox);
+            panel.add(new JLabel("Query"));
+            panel.add(queryBox);
+            panel.add(new JLabel("Feet east, north of launch"));
+            panel.add(pointsField);
+            panel.add(new JLabel("<html>Radius: east, north, radius<br>Polygon: east north; east north; ...<br>" +
+                    "Nearest: east, north</html>"), "span");
+            if (JOptionPane.showConfirmDialog(this, panel, "Landing Zones", JOptionPane.OK_CANCEL_OPTION,
+                    JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+                return;
+
+            int branch = branchBox.getSelectedIndex();
+            String result;
+            try {
+                String[] vertices = pointsField.getText().trim().split("\\s*;\\s*");
+                double[][] points = new double[vertices.length][];
+                for (int i = 0; i < vertices.length; i++)
+                    points[i] = Arrays.stream(vertices[i].split("[\\s,]+"))
+                            .mapToDouble(Double::parseDouble).toArray();
+                long start = System.nanoTime();
+                if (queryBox.getSelectedIndex() == 2) {
+                    LandingIndex.Landing nearest = landingIndex.nearest(branch, points[0][0], points[0][1]);
+                    result = nearest == null ? "No landings" : String.format("Nearest landing: %s at %.0f ft east, %.0f ft north, %.0f ft away",
+                            nearest.run(), nearest.east(), nearest.north(), nearest.distance());
+                } else {
+                    LandingIndex.Count count;
+                    if (queryBox.getSelectedIndex() == 0) {
+                        count = landingIndex.countWithin(branch, points[0][0], points[0][1], points[0][2]);
+                    } else {
+                        double[] east = new double[points.length], north = new double[points.length];
+                        for (int i = 0; i < points.length; i++) {
+                            east[i] = points[i][0];
+                            north[i] = points[i][1];
+                        }
+                        count = landingIndex.countInside(branch, east, north);
+                    }
+                    result = String.format("%d of %d landings inside, %.2f%% of the weight",
+                            count.landings(), count.total(), 100 * count.fraction());
+                }
+                result += String.format(" (%.1f µs)", (System.nanoTime() - start) / 1e3);
+            } catch (RuntimeException ex) {
+                // malformed numbers or too few of them
+                JOptionPane.showMessageDialog(this, "Could not read the zone: " + ex.getMessage(),
+                        "Landing Zones", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            log.info("{} {}: {}", branches.get(branch), pointsField.getText(), result);
+            JOptionPane.showMessageDialog(this, result, "Landing Zones", JOptionPane.INFORMATION_MESSAGE);
+        });
+        landingZoneButton.setEnabled(false);
+        pcs.addPropertyChangeListener(SIMULATIONS_STARTED_EVENT, event -> landingZoneButton.setEnabled(true));
+        pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> landingZoneButton.setEnabled(false));
+        return landingZoneButton;
+    }
+
     private @NotNull JPanel getStatusPanel() {
         final JPanel statusPanel = new JPanel();
         statusPanel.setLayout(new MigLayout("fill, align right"));
 
-        final JLabel batchCountLabel = new JLabel();
-        pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> {
-            if (this.simulationEngine != null)
-                batchCountLabel.setText("Batch Size: " + BATCH_RUN_SIZE + " Batch Count: " + batchCount);
-        });
-        statusPanel.add(batchCountLabel, "alignx right");
+        final JLabel runInfoLabel = new JLabel();
+        PropertyChangeListener runInfoHandler = event ->
+                runInfoLabel.setText("Threads: " + runController.getThreadCount() + " In Flight: " +
+                        runController.getInFlightLimit());
+        pcs.addPropertyChangeListener(SIMULATIONS_STARTED_EVENT, runInfoHandler);
+        pcs.addPropertyChangeListener(SIMULATIONS_PROCESSED_EVENT, runInfoHandler);
+        pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> runInfoLabel.setText(""));
+        statusPanel.add(runInfoLabel, "alignx right");
 
         final JProgressBar progressBar = new JProgressBar();
         progressBar.setVisible(false);
         progressBar.setValue(0);
-        pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> {
-            if (event.getNewValue() == null) progressBar.setVisible(false);
-            progressBar.setMaximum(batchCount);
-        });
-        pcs.addPropertyChangeListener(SIMULATIONS_PROCESSED_EVENT, event -> {
-            progressBar.setValue((int) event.getNewValue());
-            progressBar.setVisible(true);
-        });
         statusPanel.add(progressBar, "alignx right, split 2");
 
         final JLabel fractionLabel = new JLabel();
         statusPanel.add(fractionLabel);
         fractionLabel.setVisible(false);
         pcs.addPropertyChangeListener(SIMULATIONS_CONFIGURED_EVENT, event -> {
-            if (event.getNewValue() != null) {
-                progressBar.setVisible(false);
-                fractionLabel.setVisible(false);
-            }
-            progressBar.setMaximum(batchCount);
+            progressBar.setVisible(false);
+            fractionLabel.setVisible(false);
+            if (this.simulationEngine != null)
+                progressBar.setMaximum(simulationEngine.simulationCount);
         });
         pcs.addPropertyChangeListener(SIMULATIONS_PROCESSED_EVENT, event -> {
             progressBar.setValue((int) event.getNewValue());
             progressBar.setVisible(true);
-            fractionLabel.setText(event.getNewValue() + "/" + batchCount);
+            fractionLabel.setText(event.getNewValue() + "/" + simulationEngine.simulationCount);
             fractionLabel.setVisible(true);
         });
 
@@ -0,0 +1,149 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the time spent in the hot paths of OpenRocket simulations: simulation listener callbacks (including those
+ * of our extensions), stepper steps, aerodynamic calculations and atmosphere evaluations.
+ * <p>
+ * Timings are recorded by SimulationProfilingAspect when profiling is enabled, into the profiler attached to the
+ * calling thread. Every run has its own profiler, so runs of concurrent campaigns do not mix or reset each other's
+ * timings. Within a profiler every thread has its own counters so recording needs no synchronization; they are only
+ * combined for the report.
+ *
+ * @see com.waterloorocketry.openrocket_monte_carlo.aspect.SimulationProfilingAspect
+ */
+public class SimulationProfiler {
+    /**
+     * Profiled code paths
+     */
+    public enum Section {
+        SIMULATION("Simulation"),
+        STEPPER("Stepper"),
+        AERODYNAMICS("Aerodynamics"),
+        ATMOSPHERE("Atmosphere"),
+        LISTENER("Listener");
+
+        private final String label;
+
+        Section(String label) {
+            this.label = label;
+        }
+    }
+
+    private static class Counter {
+        final Section section;
+        final Class<?> type;
+        final String method;
+        long calls;
+        long nanos;
+
+        Counter(Section section, Class<?> type, String method) {
+            this.section = section;
+            this.type = type;
+            this.method = method;
+        }
+    }
+
+    /**
+     * Counters of a single thread, only written by that thread
+     */
+    private static class ThreadCounters {
+        // method names come from join point signatures and are the same instance on every call
+        final Map<Class<?>, Map<String, Counter>> counters = new IdentityHashMap<>();
+
+        void add(Section section, Class<?> type, String method, long nanos) {
+            Map<String, Counter> methods = counters.computeIfAbsent(type, t -> new IdentityHashMap<>());
+            Counter counter = methods.get(method);
+            if (counter == null) {
+                counter = new Counter(section, type, method);
+                methods.put(method, counter);
+            }
+            counter.calls++;
+            counter.nanos += nanos;
+        }
+    }
+
+    private static volatile boolean enabled = false;
+    // profiler of the simulation the thread is running, threads are shared between the runs of a job
+    private static final ThreadLocal<SimulationProfiler> attached = new ThreadLocal<>();
+
+    private final List<ThreadCounters> threads = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadCounters> local = ThreadLocal.withInitial(() -> {
+        ThreadCounters counters = new ThreadCounters();
+        threads.add(counters);
+        return counters;
+    });
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        SimulationProfiler.enabled = enabled;
+    }
+
+    /**
+     * Records a single call into the profiler attached to the calling thread, if any. Called by the profiling aspect
+     * on the thread that made the call.
+     */
+    public static void record(Section section, Class<?> type, String method, long nanos) {
+        SimulationProfiler profiler = attached.get();
+        if (profiler != null) profiler.local.get().add(section, type, method, nanos);
+    }
+
+    /**
+     * Records the calls of the current thread into this profiler until detach is called on the thread
+     */
+    public void attach() {
+        attached.set(this);
+    }
+
+    /**
+     * Stops recording the calls of the current thread
+     */
+    public static void detach() {
+        attached.remove();
+    }
+
+    /**
+     * @return Table of the recorded timings, sorted by total time. Times are inclusive, e.g. stepper time includes
+     * the aerodynamic calculations made during the step. Should only be called once the profiled simulations have
+     * finished.
+     */
+    public String getReport() {
+        Map<String, Counter> totals = new HashMap<>();
+        for (ThreadCounters thread : threads) {
+            for (Map<String, Counter> methods : thread.counters.values()) {
+                for (Counter c : methods.values()) {
+                    String name = c.section.label + " " + c.type.getSimpleName() + "." + c.method;
+                    Counter total = totals.computeIfAbsent(name, n -> new Counter(c.section, c.type, c.method));
+                    total.calls += c.calls;
+                    total.nanos += c.nanos;
+                }
+            }
+        }
+
+        long simulationNanos = totals.values().stream()
+                .filter(c -> c.section == Section.SIMULATION).mapToLong(c -> c.nanos).sum();
+        List<Map.Entry<String, Counter>> rows = new ArrayList<>(totals.entrySet());
+        rows.sort(Comparator.comparingLong((Map.Entry<String, Counter> e) -> e.getValue().nanos).reversed());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Simulation profile over %d threads (inclusive wall-clock time)%n", threads.size()));
+        sb.append(String.format("%-60s %12s %12s %10s %8s%n", "Call", "Calls", "Total (ms)", "Avg (us)", "Share"));
+        for (Map.Entry<String, Counter> row : rows) {
+            Counter c = row.getValue();
+            sb.append(String.format("%-60s %12d %12.1f %10.2f %7.1f%%%n", row.getKey(), c.calls, c.nanos / 1e6,
+                    c.nanos / 1e3 / Math.max(1, c.calls),
+                    simulationNanos == 0 ? 0.0 : 100.0 * c.nanos / simulationNanos));
+        }
+        return sb.toString();
+    }
+}
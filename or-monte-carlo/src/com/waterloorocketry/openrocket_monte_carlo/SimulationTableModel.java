@@ -1,29 +1,69 @@
 package com.waterloorocketry.openrocket_monte_carlo;
 
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
-public class SimulationTableModel extends AbstractTableModel implements Listener {
+/**
+ * Table model for simulation results.
+ * <p>
+ * Simulation data notifies from worker threads, often thousands of times per minute. Notifications only mark their
+ * row as dirty, and a timer on the event thread fires one rowsUpdated event per contiguous range of dirty rows.
+ * Display values are converted once per row and cached, and only for rows that the table actually paints.
+ */
+public class SimulationTableModel extends AbstractTableModel {
+    private final static int UPDATE_INTERVAL_MS = 250;
+
     private final List<SimulationData> data = new ArrayList<>();
-    private final String[] columnNames =
+    private final List<Object[]> rowCache = new ArrayList<>();
+    private final static String[] BASE_COLUMNS =
             {"Simulation Name", "Wind Speed(mph)", "Wind Direction(°)", "Temperature(°C)", "Pressure(mbar)",
                     "Apogee(ft)", "Max Velocity(m/s)", "Min Stability"};
+    /**
+     * Registered metrics shown for the first branch, after the base columns
+     */
+    private final List<String> metricNames = new ArrayList<>();
+    private final String[] columnNames;
+
+    private final BitSet dirtyRows = new BitSet(); // guarded by itself
+    private final Timer updateTimer = new Timer(UPDATE_INTERVAL_MS, e -> flushUpdates());
+    private volatile int generation = 0; // incremented on clear so listeners of removed rows are ignored
+
+    public SimulationTableModel() {
+        for (MetricExtractor e : MetricRegistry.getExtractors()) metricNames.add(e.getName());
+        columnNames = new String[BASE_COLUMNS.length + metricNames.size()];
+        System.arraycopy(BASE_COLUMNS, 0, columnNames, 0, BASE_COLUMNS.length);
+        for (int m = 0; m < metricNames.size(); m++) columnNames[BASE_COLUMNS.length + m] = metricNames.get(m);
+        updateTimer.setRepeats(false);
+        updateTimer.setCoalesce(true);
+    }
 
     public void addSimulation(SimulationData simulation) {
-        simulation.addListener(this);
-        data.add(simulation);
-        fireTableDataChanged();
+        addSimulations(List.of(simulation));
     }
 
     public void addSimulations(List<SimulationData> simulations) {
+        if (simulations.isEmpty()) return;
+        int first = data.size();
         for (SimulationData simulation : simulations) {
-            addSimulation(simulation);
+            int row = data.size();
+            int rowGeneration = generation;
+            simulation.addListener(() -> markDirty(row, rowGeneration));
+            data.add(simulation);
+            rowCache.add(null);
         }
+        fireTableRowsInserted(first, data.size() - 1);
     }
 
     public void clearSimulations() {
+        generation++;
         data.clear();
+        rowCache.clear();
+        synchronized (dirtyRows) {
+            dirtyRows.clear();
+        }
         fireTableDataChanged();
     }
 
@@ -44,37 +84,63 @@ public class SimulationTableModel extends AbstractTableModel implements Listener
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        switch (columnIndex) {
-            case 0:
-                return data.get(rowIndex).getName();
-            case 1:
-                return data.get(rowIndex).getMaxWindSpeedInMPH();
-            case 2:
-                return data.get(rowIndex).getMaxWindDirectionInDegrees();
-            case 3:
-                return data.get(rowIndex).getTemperatureInCelsius();
-            case 4:
-                return data.get(rowIndex).getPressureInMBar();
-            case 5:
-                return data.get(rowIndex).getApogeeInFeet();
-            case 6:
-                return data.get(rowIndex).getMaxVelocity();
-            case 7:
-                if (data.get(rowIndex).getMinStability().isEmpty()) {
-                    return null;
-                }
-                return data.get(rowIndex).getMinStability().get(0);
-            default:
-                return null;
+        Object[] row = rowCache.get(rowIndex);
+        if (row == null) {
+            row = convertRow(data.get(rowIndex));
+            rowCache.set(rowIndex, row);
+        }
+        return columnIndex < row.length ? row[columnIndex] : null;
+    }
+
+    private Object[] convertRow(SimulationData d) {
+        Object[] row = new Object[columnNames.length];
+        System.arraycopy(new Object[]{
+                d.getFailure() == null ? d.getName() : d.getName() + " (failed)",
+                d.getMaxWindSpeedInMPH(),
+                d.getMaxWindDirectionInDegrees(),
+                d.getTemperatureInCelsius(),
+                d.getPressureInMBar(),
+                d.getApogeeInFeet(),
+                d.getMaxVelocity(),
+                d.getMinStability().isEmpty() ? null : d.getMinStability().get(0)}, 0, row, 0, BASE_COLUMNS.length);
+        for (int m = 0; m < metricNames.size(); m++) {
+            row[BASE_COLUMNS.length + m] = d.getBranchName().isEmpty() ? null : d.getMetric(metricNames.get(m), 0);
         }
+        return row;
     }
 
     public SimulationData getDataAt(int rowIndex) {
         return data.get(rowIndex);
     }
 
-    @Override
-    public void update() {
-        fireTableDataChanged();
+    /**
+     * Marks a row for update. Safe to call from any thread.
+     */
+    private void markDirty(int row, int rowGeneration) {
+        if (rowGeneration != generation) return;
+        synchronized (dirtyRows) {
+            dirtyRows.set(row);
+        }
+        if (!updateTimer.isRunning())
+            updateTimer.start();
+    }
+
+    /**
+     * Fires rowsUpdated for every contiguous range of dirty rows. Runs on the event thread.
+     */
+    private void flushUpdates() {
+        BitSet rows;
+        synchronized (dirtyRows) {
+            rows = (BitSet) dirtyRows.clone();
+            dirtyRows.clear();
+        }
+
+        for (int first = rows.nextSetBit(0); first >= 0 && first < data.size(); ) {
+            int last = Math.min(rows.nextClearBit(first), data.size()) - 1;
+            for (int i = first; i <= last; i++)
+                rowCache.set(i, null);
+            fireTableRowsUpdated(first, last);
+            first = rows.nextSetBit(last + 1);
+        }
     }
 }
@@ -0,0 +1,13 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.simulation.exception.SimulationCancelledException;
+
+/**
+ * Thrown from inside a simulation that exceeded its wall-clock budget. Extends the cancellation exception so that
+ * OpenRocket aborts the simulation instead of recording it as an ordinary simulation error.
+ */
+public class SimulationTimeoutException extends SimulationCancelledException {
+    public SimulationTimeoutException(String message) {
+        super(message);
+    }
+}
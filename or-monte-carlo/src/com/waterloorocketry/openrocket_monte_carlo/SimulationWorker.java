@@ -0,0 +1,269 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.SimulationStatus;
+import info.openrocket.core.simulation.exception.SimulationException;
+import info.openrocket.core.simulation.listeners.AbstractSimulationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Worker side of WorkerPool. Runs the simulations it receives one at a time and replies with their metrics, either
+ * over the standard input and output of a worker process started by the pool, or over TCP connections to a pool on
+ * another machine.
+ *
+ * @see WorkerProtocol
+ */
+public class SimulationWorker {
+    private final static Logger log = LoggerFactory.getLogger(SimulationWorker.class);
+    private final static long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final DataInputStream in;
+    private final DataOutputStream out; // shared with the heartbeat, guarded by itself
+    private SimulationEngine engine;
+    private long timeoutNanos;
+    private Path directory;
+
+    private SimulationWorker(DataInputStream in, DataOutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Serves jobs until the campaign shuts the worker down. OpenRocket must already be initialized.
+     *
+     * @param in  Stream of messages from the campaign
+     * @param out Stream of replies to the campaign, nothing else may write to it
+     * @throws IOException If the connection to the campaign breaks
+     */
+    static void run(InputStream in, OutputStream out) throws IOException {
+        new SimulationWorker(new DataInputStream(new BufferedInputStream(in)),
+                new DataOutputStream(new BufferedOutputStream(out))).serve();
+    }
+
+    /**
+     * Serves campaigns of the pool listening on the given address with several connections, one simulation at a
+     * time on each. Connects again after every campaign and whenever the pool is not reachable, so it never returns.
+     * OpenRocket must already be initialized.
+     *
+     * @param host        Host of the campaign's pool
+     * @param port        Port the pool listens on
+     * @param connections Number of simulations to run at once
+     * @param token       Secret shared with the pool
+     */
+    static void connect(String host, int port, int connections, String token) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= connections; i++) {
+            Thread thread = new Thread(() -> serveRemote(host, port, token), "remote-worker-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        log.info("Serving campaigns of {}:{} with {} connections", host, port, connections);
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    private static void serveRemote(String host, int port, String token) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                log.info("Connected to {}", socket.getRemoteSocketAddress());
+                runRemote(socket, token);
+                continue; // the campaign is done, wait for the next one right away
+            } catch (IOException e) {
+                log.debug("No campaign at {}:{}: {}", host, port, e.getMessage());
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Proves to the pool at the other end of a connection that this worker knows its token, then serves the pool's
+     * campaign until it shuts the worker down
+     *
+     * @throws IOException If the pool rejected the token or the connection breaks
+     */
+    static void runRemote(Socket socket, String token) throws IOException {
+        // unbuffered, so that nothing the pool sends after its verdict is read ahead
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        WorkerProtocol.Challenge challenge = WorkerProtocol.Challenge.read(in);
+        out.write(challenge.answer(token));
+        out.flush();
+        byte verdict = in.readByte();
+        if (verdict == WorkerProtocol.ERROR) {
+            String message = in.readUTF();
+            log.error("Campaign at {} rejected this worker: {}", socket.getRemoteSocketAddress(), message);
+            throw new IOException(message);
+        }
+        if (verdict != WorkerProtocol.READY) throw new IOException("Unexpected reply " + verdict);
+        run(socket.getInputStream(), socket.getOutputStream());
+    }
+
+    private void serve() throws IOException {
+        WorkerProtocol.Handshake handshake;
+        try {
+            handshake = WorkerProtocol.Handshake.read(in);
+        } catch (IOException e) {
+            log.error("Could not read the campaign's handshake", e);
+            out.writeByte(WorkerProtocol.ERROR);
+            out.writeUTF(String.valueOf(e.getMessage()));
+            out.flush();
+            return;
+        }
+        Thread heartbeat = new Thread(() -> sendHeartbeats(handshake.heartbeatMillis()), "worker-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        try {
+            try {
+                load(handshake);
+            } catch (Exception e) {
+                log.error("Could not load the campaign's design", e);
+                synchronized (out) {
+                    out.writeByte(WorkerProtocol.ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                    out.flush();
+                }
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(WorkerProtocol.READY);
+                out.flush();
+            }
+
+            while (true) {
+                byte message;
+                try {
+                    message = in.readByte();
+                } catch (EOFException e) {
+                    return; // the campaign went away
+                }
+                if (message == WorkerProtocol.SHUTDOWN) return;
+                if (message != WorkerProtocol.JOB) throw new IOException("Unexpected message " + message);
+                runJob(WorkerProtocol.Job.read(in));
+            }
+        } finally {
+            heartbeat.interrupt();
+            deleteFiles();
+        }
+    }
+
+    /**
+     * Tells the campaign that the worker is alive, also while it loads the design or simulates, until interrupted or
+     * the connection breaks
+     */
+    private void sendHeartbeats(long intervalMillis) {
+        if (intervalMillis <= 0) return;
+        try {
+            while (true) {
+                Thread.sleep(intervalMillis);
+                synchronized (out) {
+                    out.writeByte(WorkerProtocol.HEARTBEAT);
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // the worker is done with this campaign
+        }
+    }
+
+    /**
+     * Writes the files of the handshake to a temporary directory and loads the design from there
+     */
+    private void load(WorkerProtocol.Handshake handshake) throws Exception {
+        directory = Files.createTempDirectory("or-monte-carlo-worker");
+        File designFile = directory.resolve("campaign.ork").toFile();
+        Files.write(designFile.toPath(), handshake.design());
+        File thrustCurveFile = null;
+        if (!handshake.thrustCurveName().isEmpty()) {
+            // only the name is kept, the path of the campaign's machine means nothing here
+            thrustCurveFile = directory.resolve(new File(handshake.thrustCurveName()).getName()).toFile();
+            Files.write(thrustCurveFile.toPath(), handshake.thrustCurve());
+        }
+        OpenRocketDocument document = DesignCache.getInstance().loadDocument(designFile, thrustCurveFile);
+        List<Simulation> simulations = document.getSimulations();
+        List<Simulation> templates =
+                simulations.subList(simulations.size() - handshake.templateCount(), simulations.size());
+        engine = new SimulationEngine(document, templates);
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshake.timeoutMillis());
+        log.info("Worker ready with {} templates", templates.size());
+    }
+
+    private void runJob(WorkerProtocol.Job job) throws IOException {
+        SimulationData data = new SimulationData(job.name(), job.conditions());
+        try {
+            Simulation simulation = engine.materialize(data);
+            SimulationOptions opts = simulation.getOptions();
+            opts.setTimeStep(job.timeStep());
+            opts.setMaximumStepAngle(job.maximumStepAngle());
+            log.info("Running {}", job.name());
+            simulation.simulate(new TimeoutListener(System.nanoTime()));
+            engine.processSimulationData(data);
+        } catch (Exception e) {
+            synchronized (out) {
+                new WorkerProtocol.Failure(e).write(out);
+                out.flush();
+            }
+            return;
+        }
+        synchronized (out) {
+            out.writeByte(WorkerProtocol.RESULT);
+            data.writeMetrics(out);
+            out.flush();
+        }
+    }
+
+    private void deleteFiles() {
+        if (directory == null) return;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            log.debug("Could not delete {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the campaign's wall-clock budget inside a running simulation
+     */
+    private class TimeoutListener extends AbstractSimulationListener {
+        private final long start;
+
+        TimeoutListener(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public boolean preStep(SimulationStatus status) throws SimulationException {
+            if (timeoutNanos > 0 && System.nanoTime() - start > timeoutNanos)
+                throw new SimulationTimeoutException("Simulation exceeded its time budget of " +
+                        TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s at t=" + status.getSimulationTime() + "s");
+            return true;
+        }
+    }
+}
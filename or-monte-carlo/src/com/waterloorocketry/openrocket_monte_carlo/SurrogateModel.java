@@ -0,0 +1,280 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Response surface of a campaign's results over its sampled conditions, to predict the outcome of new conditions
+ * without simulating them.
+ * <p>
+ * The inputs are the east and north wind components of every wind level, the temperature and the pressure. The
+ * outputs are the apogee and the landing position and minimum stability margin of the first branch. The model is a
+ * least-squares fit of every linear and quadratic term of the standardized inputs with a small ridge penalty, or of
+ * the linear terms only while there are too few runs for the quadratic ones. Its error is estimated by k-fold
+ * cross-validation. A prediction is a few hundred multiply-adds. Instances are immutable and thread safe.
+ *
+ * @see SurrogateTrainer
+ */
+public class SurrogateModel {
+    static final String[] OUTPUT_NAMES =
+            {"Apogee (ft)", "Position East of Launch (ft)", "Position North of Launch (ft)", "Min Stability"};
+    private final static int FOLDS = 5;
+    /**
+     * Runs required per fitted term
+     */
+    private final static int RUNS_PER_TERM = 2;
+    private final static double RIDGE = 1e-3;
+
+    private final int windLevelCount;
+    private final double[] mean;
+    private final double[] scale;
+    private final boolean quadratic;
+    private final double[][] coefficients; // per output and term
+    private final double[] error; // cross-validated root mean square error per output
+    private final int runCount;
+
+    private SurrogateModel(int windLevelCount, double[] mean, double[] scale, boolean quadratic,
+                           double[][] coefficients, double[] error, int runCount) {
+        this.windLevelCount = windLevelCount;
+        this.mean = mean;
+        this.scale = scale;
+        this.quadratic = quadratic;
+        this.coefficients = coefficients;
+        this.error = error;
+        this.runCount = runCount;
+    }
+
+    /**
+     * @return Inputs of the model for the given conditions
+     */
+    static double[] inputs(SampledConditions conditions) {
+        int levels = conditions.getWindLevelCount();
+        double[] x = new double[2 * levels + 2];
+        for (int i = 0; i < levels; i++) {
+            double[] level = conditions.getWindLevel(i); // altitude, speed, direction, stddev, windDirStdDev
+            // components instead of speed and direction, which wraps around
+            x[2 * i] = level[1] * Math.sin(level[2]);
+            x[2 * i + 1] = level[1] * Math.cos(level[2]);
+        }
+        x[x.length - 2] = conditions.getTemperature();
+        x[x.length - 1] = conditions.getPressure();
+        return x;
+    }
+
+    /**
+     * @return Outputs of a processed run in the order of OUTPUT_NAMES, or null if the run has none
+     */
+    static double[] outputs(SimulationData d) {
+        if (!d.hasData() || d.getBranchName().isEmpty()) return null;
+        double[] y = {d.getApogeeInFeet(), d.getEastPostLandingInFeet().get(0), d.getNorthPostLandingInFeet().get(0),
+                d.getMinStability().get(0)};
+        for (double v : y)
+            if (Double.isNaN(v) || Double.isInfinite(v)) return null;
+        return y;
+    }
+
+    /**
+     * @return Fewest runs a model over the given number of wind levels can be fitted to
+     */
+    static int minimumRuns(int windLevelCount) {
+        return RUNS_PER_TERM * termCount(2 * windLevelCount + 2, false);
+    }
+
+    private static int termCount(int inputCount, boolean quadratic) {
+        return 1 + inputCount + (quadratic ? inputCount * (inputCount + 1) / 2 : 0);
+    }
+
+    private static void terms(double[] z, boolean quadratic, double[] out) {
+        int k = 0;
+        out[k++] = 1;
+        for (double v : z) out[k++] = v;
+        if (quadratic) {
+            for (int i = 0; i < z.length; i++)
+                for (int j = i; j < z.length; j++) out[k++] = z[i] * z[j];
+        }
+    }
+
+    /**
+     * Fits a model to processed runs
+     *
+     * @param conditions Conditions of the runs, all with the same number of wind levels
+     * @param outputs    Outputs of the runs
+     * @return The model, or null if there are too few runs
+     */
+    static SurrogateModel fit(List<SampledConditions> conditions, List<double[]> outputs) {
+        int n = conditions.size();
+        if (n == 0) return null;
+        int windLevelCount = conditions.get(0).getWindLevelCount();
+        int d = 2 * windLevelCount + 2;
+        if (n < minimumRuns(windLevelCount)) return null;
+        boolean quadratic = n >= RUNS_PER_TERM * termCount(d, true);
+        int p = termCount(d, quadratic);
+        int m = OUTPUT_NAMES.length;
+
+        double[][] inputs = new double[n][];
+        double[] mean = new double[d];
+        double[] scale = new double[d];
+        for (int i = 0; i < n; i++) {
+            inputs[i] = inputs(conditions.get(i));
+            for (int j = 0; j < d; j++) mean[j] += inputs[i][j] / n;
+        }
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < d; j++) scale[j] += Math.pow(inputs[i][j] - mean[j], 2) / n;
+        for (int j = 0; j < d; j++) scale[j] = scale[j] > 0 ? Math.sqrt(scale[j]) : 1; // constant inputs
+
+        double[][] x = new double[n][p];
+        double[][] y = new double[n][];
+        double[] z = new double[d];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++) z[j] = (inputs[i][j] - mean[j]) / scale[j];
+            terms(z, quadratic, x[i]);
+            y[i] = outputs.get(i);
+        }
+
+        double[] squaredError = new double[m];
+        for (int fold = 0; fold < FOLDS; fold++) {
+            double[][] c = solve(x, y, fold);
+            for (int i = fold; i < n; i += FOLDS) {
+                for (int o = 0; o < m; o++)
+                    squaredError[o] += Math.pow(dot(c[o], x[i]) - y[i][o], 2);
+            }
+        }
+        double[] error = new double[m];
+        for (int o = 0; o < m; o++) error[o] = Math.sqrt(squaredError[o] / n);
+
+        return new SurrogateModel(windLevelCount, mean, scale, quadratic, solve(x, y, -1), error, n);
+    }
+
+    /**
+     * Solves the ridge-regularized normal equations over all rows except those of a fold
+     *
+     * @param excludedFold Fold to leave out, rows i with i % FOLDS == excludedFold, or -1 to use all rows
+     * @return Coefficients per output
+     */
+    private static double[][] solve(double[][] x, double[][] y, int excludedFold) {
+        int p = x[0].length;
+        int m = y[0].length;
+        double[][] a = new double[p][p];
+        double[][] b = new double[p][m];
+        for (int i = 0; i < x.length; i++) {
+            if (i % FOLDS == excludedFold) continue;
+            double[] row = x[i];
+            for (int j = 0; j < p; j++) {
+                double v = row[j];
+                if (v == 0) continue;
+                for (int k = j; k < p; k++) a[j][k] += v * row[k];
+                for (int o = 0; o < m; o++) b[j][o] += v * y[i][o];
+            }
+        }
+        // the intercept is not penalized
+        for (int j = 1; j < p; j++) a[j][j] += RIDGE;
+        for (int j = 0; j < p; j++)
+            for (int k = 0; k < j; k++) a[j][k] = a[k][j];
+
+        // Cholesky decomposition a = l * l^T, in place in the lower triangle
+        for (int j = 0; j < p; j++) {
+            double sum = a[j][j];
+            for (int k = 0; k < j; k++) sum -= a[j][k] * a[j][k];
+            if (sum <= 0) throw new ArithmeticException("Surrogate normal equations are not positive definite");
+            a[j][j] = Math.sqrt(sum);
+            for (int i = j + 1; i < p; i++) {
+                double s = a[i][j];
+                for (int k = 0; k < j; k++) s -= a[i][k] * a[j][k];
+                a[i][j] = s / a[j][j];
+            }
+        }
+        double[][] coefficients = new double[m][p];
+        for (int o = 0; o < m; o++) {
+            double[] c = coefficients[o];
+            for (int i = 0; i < p; i++) {
+                double s = b[i][o];
+                for (int k = 0; k < i; k++) s -= a[i][k] * c[k];
+                c[i] = s / a[i][i];
+            }
+            for (int i = p - 1; i >= 0; i--) {
+                double s = c[i];
+                for (int k = i + 1; k < p; k++) s -= a[k][i] * c[k];
+                c[i] = s / a[i][i];
+            }
+        }
+        return coefficients;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /**
+     * Predicts the outputs of a run
+     *
+     * @param conditions Conditions of the run
+     * @return Outputs in the order of OUTPUT_NAMES
+     * @throws IllegalArgumentException If the conditions have a different number of wind levels than the runs the
+     *                                  model was fitted to
+     */
+    public double[] predict(SampledConditions conditions) {
+        if (conditions.getWindLevelCount() != windLevelCount)
+            throw new IllegalArgumentException("Conditions have " + conditions.getWindLevelCount() +
+                    " wind levels, the surrogate was fitted to " + windLevelCount);
+        double[] x = inputs(conditions);
+        double[] z = new double[x.length];
+        for (int j = 0; j < x.length; j++) z[j] = (x[j] - mean[j]) / scale[j];
+
+        double[] terms = new double[coefficients[0].length];
+        terms(z, quadratic, terms);
+        double[] out = new double[coefficients.length];
+        for (int o = 0; o < coefficients.length; o++) out[o] = dot(coefficients[o], terms);
+        return out;
+    }
+
+    /**
+     * Writes the predicted outputs of runs, e.g. those of an imported weather CSV, without simulating them
+     *
+     * @throws IllegalArgumentException If the runs have a different number of wind levels than the model
+     */
+    public void exportPredictions(List<SimulationData> runs, File csvFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write("Simulation,Max Windspeed (mph),Wind Direction (deg),Temperature (°C),Pressure (mbar)," +
+                    String.join(",", OUTPUT_NAMES) + "\n");
+            for (SimulationData run : runs) {
+                StringBuilder row = new StringBuilder();
+                row.append(run.getName()).append(",");
+                row.append(run.getMaxWindSpeedInMPH()).append(",");
+                row.append(run.getMaxWindDirectionInDegrees()).append(",");
+                row.append(run.getTemperatureInCelsius()).append(",");
+                row.append(run.getPressureInMBar());
+                for (double v : predict(run.getConditions())) row.append(",").append(v);
+                writer.write(row.append("\n").toString());
+            }
+        }
+    }
+
+    /**
+     * @return Cross-validated root mean square error of each output, in the order of OUTPUT_NAMES
+     */
+    public double[] getError() {
+        return error.clone();
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public int getWindLevelCount() {
+        return windLevelCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder((quadratic ? "Quadratic" : "Linear") + " surrogate of " + runCount +
+                " runs, cross-validated RMS error:");
+        for (int o = 0; o < OUTPUT_NAMES.length; o++)
+            sb.append(o == 0 ? " " : ", ").append(OUTPUT_NAMES[o]).append(" ").append(String.format("%.3g", error[o]));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Collects the results of a campaign as its runs complete and refits a SurrogateModel on a background thread
+ * whenever the number of runs has grown by a quarter since the last fit, so fitting costs stay small next to the
+ * simulations. Thread safe.
+ */
+public class SurrogateTrainer {
+    private final static Logger log = LoggerFactory.getLogger(SurrogateTrainer.class);
+    private final static double REFIT_GROWTH = 1.25;
+
+    private final List<SampledConditions> conditions = new ArrayList<>(); // guarded by this
+    private final List<double[]> outputs = new ArrayList<>(); // guarded by this
+    private final ExecutorService fitter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "surrogate-fitter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Consumer<SurrogateModel> onFit;
+    private volatile SurrogateModel model;
+    private int fittedCount = 0;
+    private boolean fitting = false;
+    private boolean flushRequested = false;
+    private int generation = 0; // fits of data from before the last clear are discarded
+
+    /**
+     * @param onFit Called from the background thread with every newly fitted model
+     */
+    public SurrogateTrainer(Consumer<SurrogateModel> onFit) {
+        this.onFit = onFit;
+    }
+
+    /**
+     * Adds a completed run. Runs without results, or with a different number of wind levels than the first run, are
+     * ignored.
+     */
+    public synchronized void add(SimulationData data) {
+        double[] y = SurrogateModel.outputs(data);
+        if (y == null) return;
+        if (!conditions.isEmpty() &&
+                conditions.get(0).getWindLevelCount() != data.getConditions().getWindLevelCount()) {
+            log.debug("Not training the surrogate on {}, it has a different number of wind levels", data.getName());
+            return;
+        }
+        conditions.add(data.getConditions());
+        outputs.add(y);
+        if (!fitting && conditions.size() >= Math.max(
+                SurrogateModel.minimumRuns(conditions.get(0).getWindLevelCount()), fittedCount * REFIT_GROWTH))
+            scheduleFit();
+    }
+
+    /**
+     * Fits the model to every run added so far, e.g. once a campaign is done
+     */
+    public synchronized void flush() {
+        if (fitting) flushRequested = true;
+        else if (conditions.size() > fittedCount) scheduleFit();
+    }
+
+    /**
+     * Removes all runs and the model, e.g. when a different campaign is configured
+     */
+    public synchronized void clear() {
+        conditions.clear();
+        outputs.clear();
+        model = null;
+        fittedCount = 0;
+        flushRequested = false;
+        generation++;
+    }
+
+    private void scheduleFit() {
+        fitting = true;
+        List<SampledConditions> c = new ArrayList<>(conditions);
+        List<double[]> o = new ArrayList<>(outputs);
+        int generation = this.generation;
+        fitter.execute(() -> fit(c, o, generation));
+    }
+
+    private void fit(List<SampledConditions> c, List<double[]> o, int generation) {
+        long start = System.nanoTime();
+        SurrogateModel fitted = null;
+        try {
+            fitted = SurrogateModel.fit(c, o);
+        } catch (RuntimeException e) {
+            log.warn("Could not fit the surrogate to {} runs: {}", c.size(), e.getMessage());
+        }
+        synchronized (this) {
+            fitting = false;
+            if (generation != this.generation) return;
+            fittedCount = c.size();
+            if (fitted != null) model = fitted;
+            if (flushRequested) {
+                flushRequested = false;
+                if (conditions.size() > fittedCount) scheduleFit();
+            }
+        }
+        if (fitted != null) {
+            log.info("{} (fitted in {} ms)", fitted, (System.nanoTime() - start) / 1_000_000);
+            onFit.accept(fitted);
+        }
+    }
+
+    /**
+     * @return The latest model, or null if none has been fitted yet
+     */
+    public SurrogateModel getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,212 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import info.openrocket.core.database.ComponentPresetDao;
+import info.openrocket.core.database.ComponentPresetDatabase;
+import info.openrocket.core.database.motor.MotorDatabase;
+import info.openrocket.core.database.motor.ThrustCurveMotorSetDatabase;
+import info.openrocket.core.file.motor.GeneralMotorLoader;
+import info.openrocket.core.motor.ThrustCurveMotor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Motor database that only contains the motors that are actually used: the ones referenced by the loaded rocket
+ * files and the user's thrust curve files. Referenced motors are looked up in the persisted MotorIndex instead of
+ * loading every bundled motor at startup.
+ *
+ * @see MotorIndex
+ */
+public class TargetedMotorLoader {
+    private final static Logger log = LoggerFactory.getLogger(TargetedMotorLoader.class);
+
+    /**
+     * A motor as referenced by a rocket file
+     */
+    public record MotorReference(String digest, String manufacturer, String designation) {
+    }
+
+    private final ThrustCurveMotorSetDatabase database = new ThrustCurveMotorSetDatabase();
+    private final MotorIndex index;
+    private final Set<String> loadedDigests = new HashSet<>();
+
+    public TargetedMotorLoader(MotorIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return Guice module replacing OpenRocket's motor and component preset databases with targeted ones
+     */
+    public Module createModule() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ThrustCurveMotorSetDatabase.class).toInstance(database);
+                bind(MotorDatabase.class).toInstance(database);
+                // component presets are only used for editing, loaded designs keep their own component values
+                bind(ComponentPresetDao.class).toInstance(new ComponentPresetDatabase());
+            }
+        };
+    }
+
+    /**
+     * Adds the motors referenced by a rocket file to the database. Must be called before the file is loaded.
+     *
+     * @param rocketFile OpenRocket design file
+     * @return Number of motors added
+     */
+    public int loadReferencedMotors(File rocketFile) {
+        int added = addMotors(resolveReferencedMotors(rocketFile));
+        log.info("Loaded {} referenced motors for {}", added, rocketFile.getName());
+        return added;
+    }
+
+    /**
+     * Looks up the motors referenced by a rocket file in the motor index
+     *
+     * @param rocketFile OpenRocket design file
+     * @return Motors found in the index. Motors that are not indexed are skipped.
+     */
+    public List<ThrustCurveMotor> resolveReferencedMotors(File rocketFile) {
+        List<ThrustCurveMotor> motors = new ArrayList<>();
+        try {
+            for (MotorReference ref : findMotorReferences(rocketFile)) {
+                ThrustCurveMotor motor = index.find(ref.digest(), ref.manufacturer(), ref.designation());
+                if (motor == null) {
+                    log.warn("Motor {} {} is not in the motor index, it must be loaded from a thrust curve file",
+                            ref.manufacturer(), ref.designation());
+                    continue;
+                }
+                motors.add(motor);
+            }
+        } catch (IOException | XMLStreamException e) {
+            log.error("Could not read motor references from {}", rocketFile, e);
+        }
+        return motors;
+    }
+
+    /**
+     * Adds all motors of a thrust curve file to the database
+     *
+     * @param thrustCurveFile Thrust curve file, e.g. a RockSim .rse file
+     * @return Number of motors added
+     */
+    public int loadThrustCurveFile(File thrustCurveFile) throws IOException {
+        int added = addMotors(readThrustCurveFile(thrustCurveFile));
+        log.info("Loaded {} motors from {}", added, thrustCurveFile.getName());
+        return added;
+    }
+
+    /**
+     * Adds motors to the database, skipping motors that were already added
+     *
+     * @return Number of motors added
+     */
+    public synchronized int addMotors(Collection<ThrustCurveMotor> motors) {
+        int added = 0;
+        for (ThrustCurveMotor motor : motors) {
+            if (loadedDigests.add(motor.getDigest())) {
+                database.addMotor(motor);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public ThrustCurveMotorSetDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Parses a thrust curve file
+     *
+     * @param thrustCurveFile Thrust curve file in any format OpenRocket supports
+     * @return Motors defined in the file
+     */
+    public static List<ThrustCurveMotor> readThrustCurveFile(File thrustCurveFile) throws IOException {
+        List<ThrustCurveMotor> motors = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(thrustCurveFile))) {
+            for (ThrustCurveMotor.Builder builder : new GeneralMotorLoader().load(in, thrustCurveFile.getName())) {
+                motors.add(builder.build());
+            }
+        }
+        return motors;
+    }
+
+    /**
+     * Reads the motor references of a rocket file without loading the design
+     *
+     * @param rocketFile OpenRocket design file, either zipped, gzipped or plain XML
+     */
+    public static List<MotorReference> findMotorReferences(File rocketFile) throws IOException, XMLStreamException {
+        List<MotorReference> references = new ArrayList<>();
+        try (InputStream in = openDesign(rocketFile)) {
+            XMLStreamReader reader = XMLInputFactory.newFactory().createXMLStreamReader(in);
+            try {
+                String digest = null, manufacturer = null, designation = null;
+                boolean inMotor = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("motor")) {
+                            inMotor = true;
+                            digest = manufacturer = designation = null;
+                        } else if (inMotor) {
+                            switch (name) {
+                                case "digest" -> digest = reader.getElementText().trim();
+                                case "manufacturer" -> manufacturer = reader.getElementText().trim();
+                                case "designation" -> designation = reader.getElementText().trim();
+                                default -> {
+                                }
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("motor")) {
+                        inMotor = false;
+                        references.add(new MotorReference(digest, manufacturer, designation));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return references;
+    }
+
+    private static InputStream openDesign(File rocketFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(rocketFile));
+        in.mark(4);
+        int b0 = in.read(), b1 = in.read();
+        in.reset();
+        if (b0 == 'P' && b1 == 'K') {
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".ork") || entry.getName().endsWith(".xml")) return zip;
+            }
+            zip.close();
+            throw new IOException("No design found in " + rocketFile);
+        }
+        if (b0 == 0x1f && b1 == 0x8b) return new GZIPInputStream(in);
+        return in;
+    }
+}
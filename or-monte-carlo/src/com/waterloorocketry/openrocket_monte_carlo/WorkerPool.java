@@ -0,0 +1,399 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.simulation.exception.SimulationCancelledException;
+import info.openrocket.core.simulation.exception.SimulationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs simulations in worker JVMs instead of this process: child processes started by the pool, and workers on
+ * other machines that connect to the pool over TCP (see SimulationWorker#connect). Remote workers must know the
+ * pool's token before they are sent the design or their results are taken.
+ * <p>
+ * Every child process has its own small heap, so garbage collection pauses stay short, and a run that crashes its
+ * worker or exhausts its heap only takes that worker down: the run fails like any other failed simulation and a new
+ * worker takes the old one's place. A run whose remote worker disconnects is not the run's fault, so it is
+ * dispatched again to another worker instead.
+ * <p>
+ * Each worker runs one simulation at a time and is given the next run as soon as it answers, so the runs of a
+ * campaign are spread over the workers by how fast they finish instead of in fixed index ranges. Results are read
+ * into the campaign's SimulationData, so they are exported together with the rest of the campaign.
+ *
+ * @see SimulationWorker
+ */
+public class WorkerPool implements AutoCloseable {
+    private final static Logger log = LoggerFactory.getLogger(WorkerPool.class);
+    // how often a run is dispatched again after losing its remote worker
+    private final static int MAX_REDISPATCHES = 3;
+    private final static long HEARTBEAT_MILLIS = 5_000;
+    // a remote worker that misses this many heartbeats in a row is considered lost
+    private final static int MISSED_HEARTBEATS = 3;
+
+    private final SimulationEngine engine;
+    private final int processes;
+    private final String heap;
+    private final File thrustCurveFile;
+    private final long timeoutMillis;
+    private String bindAddress = null;
+    private int port = 0;
+    private String token = "";
+    private long heartbeatMillis = HEARTBEAT_MILLIS;
+
+    private WorkerProtocol.Handshake handshake;
+    private ServerSocket server;
+    private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * @param engine          Engine whose runs are simulated
+     * @param processes       Number of child processes to start, may be 0 if remote workers are accepted
+     * @param heap            Maximum heap of each child process, in the format of the JVM's -Xmx option
+     * @param thrustCurveFile Thrust curve file the design's motors may come from, or null
+     * @param timeoutMillis   Wall-clock budget of a single simulation, 0 for no limit
+     */
+    public WorkerPool(SimulationEngine engine, int processes, String heap, File thrustCurveFile, long timeoutMillis) {
+        this.engine = engine;
+        this.processes = Math.max(0, processes);
+        this.heap = heap;
+        this.thrustCurveFile = thrustCurveFile;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Accepts remote workers on a TCP port while the pool is open. Must be called before start.
+     *
+     * @param bindAddress Address of the interface to listen on, null or empty for every interface
+     * @param port        Port to listen on, 0 to only use child processes
+     * @param token       Secret shared with the remote workers, which they must prove they know
+     */
+    public void listenForRemoteWorkers(String bindAddress, int port, String token) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.token = token == null ? "" : token;
+    }
+
+    /**
+     * Sets how often workers report that they are alive. A remote worker that stays silent for several intervals,
+     * e.g. because its machine died, is dropped and its run dispatched again. Must be called before start.
+     */
+    void setHeartbeatInterval(long heartbeatMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * Saves the campaign's design for the workers, starts listening for remote workers and starts the child
+     * processes, blocking until all child processes have loaded the design
+     *
+     * @throws IOException If the design could not be saved, the port could not be opened or has no token, or no child
+     *                     process could be started
+     */
+    public void start() throws IOException {
+        if (processes == 0 && port <= 0)
+            throw new IllegalStateException("A worker pool needs child processes or a port for remote workers");
+        if (port > 0 && token.isBlank())
+            throw new IOException("Remote workers need a token shared with them, set coordinator_token");
+
+        ByteArrayOutputStream design = new ByteArrayOutputStream();
+        engine.saveTemplates(design);
+        handshake = new WorkerProtocol.Handshake(design.toByteArray(),
+                thrustCurveFile == null ? "" : thrustCurveFile.getName(),
+                thrustCurveFile == null ? new byte[0] : Files.readAllBytes(thrustCurveFile.toPath()),
+                engine.getTemplateCount(), timeoutMillis, heartbeatMillis);
+
+        if (port > 0) {
+            boolean everyInterface = bindAddress == null || bindAddress.isBlank();
+            server = new ServerSocket(port, 0, everyInterface ? null : InetAddress.getByName(bindAddress.trim()));
+            Thread acceptor = new Thread(this::acceptRemoteWorkers, "worker-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            log.info("Accepting remote workers on {}", server.getLocalSocketAddress());
+        }
+
+        // workers load OpenRocket in parallel, only the handshakes are awaited one by one
+        List<Worker> started = new ArrayList<>();
+        for (int i = 0; i < processes; i++)
+            started.add(launch());
+        for (Worker worker : started) {
+            try {
+                worker.awaitReady();
+                idle.add(worker);
+            } catch (IOException e) {
+                log.warn("Worker {} failed to start: {}", worker, e.getMessage());
+                worker.destroy();
+            }
+        }
+        if (processes > 0 && idle.isEmpty() && server == null) {
+            close();
+            throw new IOException("No worker process could be started, see the log for details");
+        }
+        if (processes > 0) log.info("Started {} worker processes with {} heap", idle.size(), heap);
+    }
+
+    /**
+     * Runs a simulation on the next idle worker and reads its metrics into the run, blocking until it finished
+     *
+     * @param data Run to simulate
+     * @param opts Options of the run's simulation, for the step configuration of the attempt
+     * @throws SimulationTimeoutException   If the simulation exceeded its time budget
+     * @throws SimulationCancelledException If the pool was closed while the simulation was waiting or running
+     * @throws SimulationException          If the simulation failed in the worker
+     * @throws IOException                  If the worker died while running the simulation
+     * @throws InterruptedException         If the calling thread is interrupted while waiting for a worker
+     */
+    public void simulate(SimulationData data, SimulationOptions opts) throws Exception {
+        WorkerProtocol.Job job = new WorkerProtocol.Job(data.getName(), data.getConditions(), opts.getTimeStep(),
+                opts.getMaximumStepAngle());
+        for (int dispatch = 0; ; dispatch++) {
+            Worker worker = borrow();
+            byte reply;
+            WorkerProtocol.Failure failure = null;
+            try {
+                job.write(worker.out);
+                worker.out.flush();
+                reply = worker.readReply();
+                if (reply == WorkerProtocol.RESULT) {
+                    // the flight data stays in the worker, the run can be replayed locally to inspect it
+                    data.readMetrics(worker.in, false);
+                } else if (reply == WorkerProtocol.FAILURE) {
+                    failure = WorkerProtocol.Failure.read(worker.in);
+                }
+            } catch (IOException e) {
+                if (closed) throw new SimulationCancelledException("Simulation cancelled");
+                if (worker.process == null && dispatch < MAX_REDISPATCHES) {
+                    log.warn("Lost worker {} while running {}, dispatching it again: {}", worker, data.getName(),
+                            e.getMessage());
+                    worker.destroy();
+                    continue;
+                }
+                String status = worker.exitStatus();
+                replace(worker);
+                throw new IOException("Worker " + worker + " died while running " + data.getName() + " (" +
+                        status + ")", e);
+            }
+
+            if (reply != WorkerProtocol.RESULT && reply != WorkerProtocol.FAILURE) {
+                replace(worker);
+                throw new IOException("Unexpected reply " + reply + " from worker " + worker);
+            }
+            idle.add(worker);
+            if (reply == WorkerProtocol.RESULT) return;
+            String type = failure.type();
+            if (type.equals(SimulationTimeoutException.class.getName()))
+                throw new SimulationTimeoutException(failure.message());
+            throw new SimulationException(type.substring(type.lastIndexOf('.') + 1) + ": " + failure.message());
+        }
+    }
+
+    private Worker borrow() throws InterruptedException, SimulationException {
+        while (true) {
+            if (closed) throw new SimulationCancelledException("Simulation cancelled");
+            // remote workers may still connect
+            if (workers.isEmpty() && server == null) throw new SimulationException("All worker processes have died");
+            Worker worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker != null) return worker;
+        }
+    }
+
+    /**
+     * Replaces a broken child process with a new one. If the new one cannot be started the pool continues with one
+     * worker less. Remote workers are only dropped, they connect again by themselves.
+     */
+    private void replace(Worker worker) {
+        worker.destroy();
+        if (closed || worker.process == null) return;
+        Worker replacement = null;
+        try {
+            replacement = launch();
+            replacement.awaitReady();
+            idle.add(replacement);
+            log.info("Replaced worker {} with worker {}", worker, replacement);
+        } catch (IOException e) {
+            log.warn("Could not replace worker {}: {}", worker, e.getMessage());
+            if (replacement != null) replacement.destroy();
+        }
+    }
+
+    private Worker launch() throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = List.of(java, "-Xmx" + heap, "-XX:+ExitOnOutOfMemoryError",
+                "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), Main.WORKER_ARGUMENT);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        Worker worker = new Worker("process " + nextId.incrementAndGet(), process.getInputStream(),
+                process.getOutputStream(), process::destroyForcibly, process);
+        workers.add(worker);
+        handshake.write(worker.out);
+        worker.out.flush();
+        return worker;
+    }
+
+    private void acceptRemoteWorkers() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) log.error("Stopped accepting remote workers", e);
+                return;
+            }
+            // loading the design takes a while, so every worker is set up on its own thread
+            Thread thread = new Thread(() -> addRemoteWorker(socket), "worker-handshake");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void addRemoteWorker(Socket socket) {
+        Worker worker = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            // the worker sends heartbeats even while it simulates, so silence means the machine or network is gone
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, heartbeatMillis * MISSED_HEARTBEATS));
+            worker = new Worker(String.valueOf(socket.getRemoteSocketAddress()), socket.getInputStream(),
+                    socket.getOutputStream(), socket, null);
+            WorkerProtocol.Challenge challenge = WorkerProtocol.Challenge.random();
+            challenge.write(worker.out);
+            worker.out.flush();
+            byte[] answer = new byte[WorkerProtocol.Challenge.LENGTH];
+            worker.in.readFully(answer);
+            if (!challenge.accepts(answer, token)) {
+                log.warn("Rejected remote worker {}, it does not know the token", worker);
+                worker.out.writeByte(WorkerProtocol.ERROR);
+                worker.out.writeUTF("Rejected by the campaign, the worker's coordinator_token does not match");
+                worker.out.flush();
+                worker.destroy();
+                return;
+            }
+            worker.out.writeByte(WorkerProtocol.READY);
+            workers.add(worker);
+            handshake.write(worker.out);
+            worker.out.flush();
+            worker.awaitReady();
+            if (closed) {
+                worker.destroy();
+                return;
+            }
+            idle.add(worker);
+            log.info("Remote worker {} joined", worker);
+        } catch (IOException e) {
+            log.warn("Remote worker {} failed to start: {}", socket.getRemoteSocketAddress(), e.getMessage());
+            if (worker != null) worker.destroy();
+            else closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Stops all workers, aborting the simulations they are running, and stops accepting remote workers
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (server != null) closeQuietly(server);
+        for (Worker worker : workers) {
+            try {
+                worker.out.writeByte(WorkerProtocol.SHUTDOWN);
+                worker.out.flush();
+            } catch (IOException e) {
+                // already gone
+            }
+            worker.destroy();
+        }
+        idle.clear();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    private class Worker {
+        final String name;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final Closeable connection;
+        /**
+         * Child process of the worker, null for remote workers
+         */
+        final Process process;
+
+        Worker(String name, InputStream in, OutputStream out, Closeable connection, Process process) {
+            this.name = name;
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.connection = connection;
+            this.process = process;
+        }
+
+        /**
+         * Reads the next reply of the worker, skipping its heartbeats
+         */
+        byte readReply() throws IOException {
+            byte reply;
+            do {
+                reply = in.readByte();
+            } while (reply == WorkerProtocol.HEARTBEAT);
+            return reply;
+        }
+
+        void awaitReady() throws IOException {
+            byte reply = readReply();
+            if (reply == WorkerProtocol.ERROR)
+                throw new IOException(in.readUTF());
+            if (reply != WorkerProtocol.READY)
+                throw new IOException("Unexpected reply " + reply);
+        }
+
+        String exitStatus() {
+            if (process == null) return "disconnected";
+            try {
+                if (process.waitFor(1, TimeUnit.SECONDS))
+                    return "exit code " + process.exitValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "still running";
+        }
+
+        void destroy() {
+            workers.remove(this);
+            closeQuietly(connection);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
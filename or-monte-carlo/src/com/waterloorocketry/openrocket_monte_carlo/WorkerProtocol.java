@@ -0,0 +1,179 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Messages exchanged between a campaign and a worker, over a worker process's standard input and output or over a
+ * TCP connection from a worker on another machine.
+ * <p>
+ * A remote worker first proves that it knows the campaign's token: the campaign sends a challenge, the worker answers
+ * with its HMAC under the token, and the campaign replies READY, or ERROR and closes the connection. Only then does
+ * anything of the campaign go over the connection, and only results of such workers are merged into it. Child
+ * processes are started by the campaign itself and skip the challenge.
+ * <p>
+ * The campaign opens with a handshake carrying the design to load, which the worker answers with READY or ERROR.
+ * After that the campaign sends one JOB at a time and the worker answers each with RESULT, followed by the run's
+ * metrics, or FAILURE, until the campaign sends SHUTDOWN or closes the connection. From the handshake on, the worker
+ * also sends a HEARTBEAT at the interval the handshake asks for, between its other replies, so that the campaign can
+ * tell a busy worker from a lost one.
+ *
+ * @see SimulationWorker
+ * @see WorkerPool
+ */
+final class WorkerProtocol {
+    static final int VERSION = 6;
+
+    static final byte READY = 1;
+    static final byte ERROR = 2;
+    static final byte JOB = 3;
+    static final byte RESULT = 4;
+    static final byte FAILURE = 5;
+    static final byte SHUTDOWN = 6;
+    static final byte HEARTBEAT = 7;
+
+    private WorkerProtocol() {
+    }
+
+    /**
+     * Random bytes a remote worker answers with their HMAC-SHA256 under the shared token, so the token itself never
+     * goes over the connection
+     */
+    record Challenge(byte[] nonce) {
+        static final int LENGTH = 32;
+        private static final SecureRandom random = new SecureRandom();
+        private static final String ALGORITHM = "HmacSHA256";
+
+        static Challenge random() {
+            byte[] nonce = new byte[LENGTH];
+            random.nextBytes(nonce);
+            return new Challenge(nonce);
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(VERSION);
+            out.write(nonce);
+        }
+
+        static Challenge read(DataInput in) throws IOException {
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported worker protocol version " + version);
+            byte[] nonce = new byte[LENGTH];
+            in.readFully(nonce);
+            return new Challenge(nonce);
+        }
+
+        /**
+         * @return Answer of a worker that knows the token, LENGTH bytes
+         */
+        byte[] answer(String token) {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(new SecretKeySpec(token.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+                return mac.doFinal(nonce);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        }
+
+        /**
+         * @return Whether a worker's answer shows that it knows the token, in time independent of the answer
+         */
+        boolean accepts(byte[] answer, String token) {
+            return MessageDigest.isEqual(answer(token), answer);
+        }
+    }
+
+    /**
+     * Everything a worker needs to rebuild the runs of a campaign. Files are sent by content, since a worker on
+     * another machine cannot read the campaign's files.
+     *
+     * @param design          OpenRocket file with the campaign's templates appended to its simulations
+     * @param thrustCurveName Name of the thrust curve file the design's motors may come from, empty if there is none.
+     *                        The motor loader picks the file format by its extension.
+     * @param thrustCurve     Contents of the thrust curve file, empty if there is none
+     * @param templateCount   Number of templates at the end of the design's simulations
+     * @param timeoutMillis   Wall-clock budget of a single simulation, 0 for no limit
+     * @param heartbeatMillis Interval of the worker's heartbeats
+     * @see SimulationEngine#saveTemplates(java.io.OutputStream)
+     */
+    record Handshake(byte[] design, String thrustCurveName, byte[] thrustCurve, int templateCount,
+                     long timeoutMillis, long heartbeatMillis) {
+        void write(DataOutput out) throws IOException {
+            out.writeInt(VERSION);
+            out.writeInt(design.length);
+            out.write(design);
+            out.writeUTF(thrustCurveName);
+            out.writeInt(thrustCurve.length);
+            out.write(thrustCurve);
+            out.writeInt(templateCount);
+            out.writeLong(timeoutMillis);
+            out.writeLong(heartbeatMillis);
+        }
+
+        static Handshake read(DataInput in) throws IOException {
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported worker protocol version " + version);
+            byte[] design = new byte[in.readInt()];
+            in.readFully(design);
+            String thrustCurveName = in.readUTF();
+            byte[] thrustCurve = new byte[in.readInt()];
+            in.readFully(thrustCurve);
+            return new Handshake(design, thrustCurveName, thrustCurve, in.readInt(), in.readLong(), in.readLong());
+        }
+    }
+
+    /**
+     * A single run. The step configuration is sent along because retries coarsen it.
+     */
+    record Job(String name, SampledConditions conditions, double timeStep, double maximumStepAngle) {
+        void write(DataOutput out) throws IOException {
+            out.writeByte(JOB);
+            out.writeUTF(name);
+            conditions.write(out);
+            out.writeDouble(timeStep);
+            out.writeDouble(maximumStepAngle);
+        }
+
+        /**
+         * Reads a job after its JOB tag
+         */
+        static Job read(DataInput in) throws IOException {
+            return new Job(in.readUTF(), SampledConditions.read(in), in.readDouble(), in.readDouble());
+        }
+    }
+
+    /**
+     * A run that failed in the worker
+     *
+     * @param type    Class name of the exception the run failed with
+     * @param message Message of the exception
+     */
+    record Failure(String type, String message) {
+        Failure(Exception e) {
+            this(e.getClass().getName(), String.valueOf(e.getMessage()));
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte(FAILURE);
+            out.writeUTF(type);
+            out.writeUTF(message);
+        }
+
+        /**
+         * Reads a failure after its FAILURE tag
+         */
+        static Failure read(DataInput in) throws IOException {
+            return new Failure(in.readUTF(), in.readUTF());
+        }
+    }
+}
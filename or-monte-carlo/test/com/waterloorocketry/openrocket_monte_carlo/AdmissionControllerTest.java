@@ -0,0 +1,107 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Adjusts the admission limit to heap occupancies after young and old collections
+ */
+class AdmissionControllerTest {
+    private final static double BUDGET = 0.5;
+
+    @Test
+    void onlyOccupancyAfterAnOldCollectionCutsTheLimit() throws InterruptedException {
+        try (AdmissionController admission = new AdmissionController(BUDGET, 4, 8, false)) {
+            for (int i = 0; i < 4; i++) admission.acquire();
+
+            // after a young collection the old generation may hold garbage, the occupancy is only an upper bound
+            admission.adjust(0.9, false);
+            assertEquals(4, admission.getLimit());
+            admission.adjust(0.9, true);
+            assertEquals(3, admission.getLimit());
+            // between the growth threshold and the budget the limit holds
+            admission.adjust(0.45, true);
+            admission.adjust(0.45, false);
+            assertEquals(3, admission.getLimit());
+
+            for (int i = 0; i < 10; i++) admission.adjust(0.9, true);
+            assertEquals(1, admission.getLimit());
+        }
+    }
+
+    @Test
+    void limitGrowsByOneWhileInUse() throws InterruptedException {
+        try (AdmissionController admission = new AdmissionController(BUDGET, 2, 4, false)) {
+            admission.adjust(0.1, false);
+            assertEquals(2, admission.getLimit(), "the limit is not in use");
+
+            admission.acquire();
+            admission.acquire();
+            admission.adjust(0.1, false);
+            assertEquals(3, admission.getLimit());
+            admission.adjust(0.1, true);
+            assertEquals(3, admission.getLimit(), "the new slot is not in use yet");
+
+            admission.acquire();
+            admission.adjust(0.1, false);
+            admission.acquire();
+            admission.adjust(0.1, false);
+            assertEquals(4, admission.getLimit(), "the limit is capped");
+            assertEquals(4, admission.getInFlight());
+        }
+    }
+
+    @Test
+    void growthAdmitsAWaitingSimulation() throws InterruptedException {
+        try (AdmissionController admission = new AdmissionController(BUDGET, 1, 2, false)) {
+            admission.acquire();
+            CountDownLatch acquired = new CountDownLatch(1);
+            Thread waiting = new Thread(() -> {
+                try {
+                    admission.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            waiting.start();
+            assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+            admission.adjust(0.1, false);
+            assertTrue(acquired.await(1, TimeUnit.MINUTES));
+            assertEquals(2, admission.getInFlight());
+            waiting.join();
+        }
+    }
+
+    @Test
+    void oldGenerationAboveTheBudgetCutsTheLimit() throws InterruptedException {
+        MemoryPoolMXBean tenured = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() &&
+                        pool.isCollectionUsageThresholdSupported())
+                .findFirst().orElse(null);
+        if (tenured == null) return; // a collector without thresholds only cuts after major collections
+
+        // a budget every old generation is above once it holds the classes' static data
+        try (AdmissionController admission = new AdmissionController(1e-9, 4, 8)) {
+            assertTrue(tenured.getCollectionUsageThreshold() > 0);
+            long[][] retained = new long[64][];
+            for (int i = 0; i < retained.length; i++) retained[i] = new long[1 << 12];
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (admission.getLimit() == 4 && System.nanoTime() < deadline) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            assertTrue(admission.getLimit() < 4, "limit " + admission.getLimit());
+            assertEquals(64, retained.length);
+        }
+    }
+}
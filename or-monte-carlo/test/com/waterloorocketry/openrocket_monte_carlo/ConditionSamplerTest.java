@@ -0,0 +1,162 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.models.wind.MultiLevelPinkNoiseWindModel;
+import info.openrocket.core.simulation.SimulationOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Draws many runs and compares their empirical moments to the configured ones
+ */
+class ConditionSamplerTest {
+    private final static double[] ALTITUDES = {0, 300, 1000, 2500};
+    private final static double CORRELATION_LENGTH = 1000;
+    private final static double TEMPERATURE_STD_DEV = 2, PRESSURE_STD_DEV = 300;
+    private final static int RUNS = 20_000;
+    /**
+     * About five standard errors of an empirical correlation over RUNS runs
+     */
+    private final static double TOLERANCE = 0.035;
+
+    @Test
+    void windLevelsAreCorrelatedByAltitude() {
+        ConditionSampler sampler = new ConditionSampler(options(ALTITUDES), TEMPERATURE_STD_DEV, PRESSURE_STD_DEV,
+                CORRELATION_LENGTH);
+        assertTrue(sampler.isCorrelated());
+        double[] x = sampler.transform(sampler.draw(seeds(1), null));
+        int m = sampler.getConditionCount();
+        assertEquals(2 * ALTITUDES.length + 2, m);
+
+        for (int i = 0; i < ALTITUDES.length; i++) {
+            for (int j = 0; j < ALTITUDES.length; j++) {
+                double expected = Math.exp(-Math.abs(ALTITUDES[i] - ALTITUDES[j]) / CORRELATION_LENGTH);
+                assertEquals(expected, correlation(x, m, 2 * i, 2 * j), TOLERANCE, "speeds " + i + ", " + j);
+                assertEquals(expected, correlation(x, m, 2 * i + 1, 2 * j + 1), TOLERANCE,
+                        "directions " + i + ", " + j);
+                assertEquals(0, correlation(x, m, 2 * i, 2 * j + 1), TOLERANCE, "speed " + i + ", direction " + j);
+            }
+            assertEquals(0, correlation(x, m, 2 * i, m - 2), TOLERANCE, "speed " + i + ", temperature");
+        }
+        assertEquals(0, correlation(x, m, m - 2, m - 1), TOLERANCE, "temperature, pressure");
+
+        // the correlation only mixes the draws, every condition keeps its mean and standard deviation
+        double[] means = {8, 90, 10, 100, 12, 110, 14, 120, 288.15, 101_325};
+        double[] standardDeviations = sampler.getStandardDeviations();
+        for (int c = 0; c < m; c++) {
+            assertEquals(means[c], mean(x, m, c), 4 * standardDeviations[c] / Math.sqrt(RUNS), "mean " + c);
+            assertEquals(standardDeviations[c], Math.sqrt(variance(x, m, c)), 0.02 * standardDeviations[c],
+                    "standard deviation " + c);
+        }
+    }
+
+    @Test
+    void levelsAtTheSameAltitudeAreFullyCorrelated() {
+        ConditionSampler sampler = new ConditionSampler(options(new double[]{0, 500, 500}), 0, 0, CORRELATION_LENGTH);
+        double[] x = sampler.transform(sampler.draw(seeds(2), null));
+        int m = sampler.getConditionCount();
+        assertEquals(1, correlation(x, m, 2, 4), 1e-9);
+        assertEquals(1, correlation(x, m, 3, 5), 1e-9);
+        assertEquals(Math.exp(-0.5), correlation(x, m, 0, 4), TOLERANCE);
+    }
+
+    @Test
+    void independentLevelsAreUncorrelated() {
+        ConditionSampler sampler = new ConditionSampler(options(ALTITUDES), TEMPERATURE_STD_DEV, PRESSURE_STD_DEV, 0);
+        assertFalse(sampler.isCorrelated());
+        double[] x = sampler.transform(sampler.draw(seeds(3), null));
+        int m = sampler.getConditionCount();
+        for (int i = 0; i < ALTITUDES.length; i++) {
+            for (int j = 0; j < i; j++) {
+                assertEquals(0, correlation(x, m, 2 * i, 2 * j), TOLERANCE);
+                assertEquals(0, correlation(x, m, 2 * i + 1, 2 * j + 1), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    void fixedSeedsGiveTheSameConditions() {
+        long[] seeds = {42, 7, 42, -3};
+        boolean[] mirrored = {false, false, true, false};
+        ConditionSampler sampler = new ConditionSampler(options(ALTITUDES), TEMPERATURE_STD_DEV, PRESSURE_STD_DEV,
+                CORRELATION_LENGTH);
+        double[] z = sampler.draw(seeds, mirrored);
+        double[] x = sampler.transform(z.clone());
+        ConditionSampler other = new ConditionSampler(options(ALTITUDES), TEMPERATURE_STD_DEV, PRESSURE_STD_DEV,
+                CORRELATION_LENGTH);
+        assertArrayEquals(z, other.draw(seeds, mirrored));
+        assertArrayEquals(x, other.transform(other.draw(seeds, mirrored)));
+
+        int m = sampler.getConditionCount();
+        for (int c = 0; c < m; c++) {
+            // the mirrored run is the first one negated, its conditions are reflected about the means
+            assertEquals(-z[c], z[2 * m + c]);
+            assertFalse(z[c] == z[m + c]);
+        }
+
+        SampledConditions first = sampler.conditionsOf(x, 0, seeds[0], 1, 0.5);
+        SampledConditions again = other.conditionsOf(other.transform(other.draw(seeds, mirrored)), 0, seeds[0], 1,
+                0.5);
+        assertEquals(42, first.getSeed());
+        assertEquals(1, first.getTemplateId());
+        assertEquals(0.5, first.getWeight());
+        assertEquals(x[m - 2], first.getTemperature());
+        assertEquals(x[m - 1], first.getPressure());
+        assertEquals(ALTITUDES.length, first.getWindLevelCount());
+        for (int i = 0; i < ALTITUDES.length; i++) {
+            assertEquals(ALTITUDES[i], first.getWindLevel(i)[0]);
+            assertEquals(x[2 * i], first.getWindLevel(i)[1]);
+            assertArrayEquals(first.getWindLevel(i), again.getWindLevel(i));
+        }
+    }
+
+    /**
+     * @return Options whose wind levels speed up and veer with altitude
+     */
+    private static SimulationOptions options(double[] altitudes) {
+        SimulationOptions opts = new SimulationOptions();
+        opts.setLaunchTemperature(288.15);
+        opts.setLaunchPressure(101_325);
+        MultiLevelPinkNoiseWindModel windModel = opts.getMultiLevelWindModel();
+        windModel.clearLevels();
+        for (int i = 0; i < altitudes.length; i++)
+            windModel.addWindLevel(altitudes[i], 8.0 + 2 * i, 90.0 + 10 * i, 2.0);
+        for (int i = 0; i < altitudes.length; i++) windModel.getLevels().get(i).setWindDirStdDev(15);
+        return opts;
+    }
+
+    /**
+     * @return Seeds of the runs drawn from a seed source, as the engine does
+     */
+    private static long[] seeds(long seed) {
+        Random seedSource = new Random(seed);
+        long[] seeds = new long[RUNS];
+        for (int r = 0; r < RUNS; r++) seeds[r] = seedSource.nextLong();
+        return seeds;
+    }
+
+    private static double mean(double[] x, int m, int c) {
+        double sum = 0;
+        for (int o = c; o < x.length; o += m) sum += x[o];
+        return sum / (x.length / m);
+    }
+
+    private static double variance(double[] x, int m, int c) {
+        return covariance(x, m, c, c);
+    }
+
+    private static double covariance(double[] x, int m, int a, int b) {
+        double meanA = mean(x, m, a), meanB = mean(x, m, b), sum = 0;
+        for (int o = 0; o < x.length; o += m) sum += (x[o + a] - meanA) * (x[o + b] - meanB);
+        return sum / (x.length / m - 1);
+    }
+
+    private static double correlation(double[] x, int m, int a, int b) {
+        return covariance(x, m, a, b) / Math.sqrt(variance(x, m, a) * variance(x, m, b));
+    }
+}
@@ -0,0 +1,62 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Writes the conditions of runs and reads them back for another design
+ */
+class ConditionSetTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void conditionsRoundTrip() throws IOException {
+        List<SimulationData> runs = List.of(
+                new SimulationData("Simulation 1", new SampledConditions(-4_611_686_018_427_387_904L, 0, 288.15,
+                        101_325, new double[][]{{0, 5.1, 0.3, 1, 0.1}, {1000, 12.345678901234567, Math.PI, 2.5, 0.2}},
+                        0.125)),
+                // fewer levels than the widest run, and a name that needs quoting
+                new SimulationData("Run \"2\", windy", new SampledConditions(7, 0, 301.4, 98_765.4321,
+                        new double[][]{{0, 1e-9, 6.2, 0, 0}}, 3)));
+        File file = new File(directory, "conditions.csv");
+        ConditionSet.export(runs, file);
+
+        List<SimulationData> read = ConditionSet.load(file, 4);
+        assertEquals(runs.size(), read.size());
+        for (int r = 0; r < runs.size(); r++) {
+            SampledConditions expected = runs.get(r).getConditions(), actual = read.get(r).getConditions();
+            assertEquals(runs.get(r).getName(), read.get(r).getName());
+            assertEquals(expected.getSeed(), actual.getSeed());
+            assertEquals(4, actual.getTemplateId());
+            assertEquals(expected.getWeight(), actual.getWeight());
+            assertEquals(expected.getTemperature(), actual.getTemperature());
+            assertEquals(expected.getPressure(), actual.getPressure());
+            assertEquals(expected.getWindLevelCount(), actual.getWindLevelCount());
+            for (int i = 0; i < expected.getWindLevelCount(); i++)
+                assertArrayEquals(expected.getWindLevel(i), actual.getWindLevel(i), "level " + i);
+            assertFalse(read.get(r).hasData());
+        }
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        File file = new File(directory, "results.csv");
+        Files.writeString(file.toPath(), "Simulation,Apogee (ft)\nSimulation 1,10000\n");
+        assertThrows(IOException.class, () -> ConditionSet.load(file, 0));
+
+        Files.writeString(file.toPath(), "Simulation,Seed,Weight,Temperature (K),Pressure (Pa),Wind Levels\n" +
+                "\"Simulation 1\",1,1,288.15,101325,2,0,5,0,1,0.1\n");
+        assertThrows(IOException.class, () -> ConditionSet.load(file, 0), "the second level is missing");
+    }
+}
@@ -0,0 +1,115 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the bins of growing histograms against binning every value at the final width
+ */
+class FixedBinHistogramTest {
+    private final static int BINS = 16;
+
+    private final Random random = new Random(3);
+
+    @Test
+    void binsHoldTheWeightOfTheirValues() {
+        FixedBinHistogram histogram = new FixedBinHistogram(BINS, 0.5);
+        List<double[]> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // mostly near the first value, with outliers on both sides and values on bin edges
+            double value = i % 100 == 0 ? 1000 * random.nextGaussian() : i % 3 == 0 ? Math.round(random.nextGaussian()
+                    * 8) / 2.0 : 3 * random.nextGaussian();
+            double weight = 0.1 + random.nextDouble();
+            histogram.add(value, weight);
+            values.add(new double[]{value, weight});
+        }
+
+        double origin = histogram.getOrigin(), width = histogram.getBinWidth();
+        double[] expected = new double[BINS];
+        double totalWeight = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double[] v : values) {
+            int bin = (int) Math.floor((v[0] - origin) / width);
+            assertTrue(bin >= 0 && bin < BINS, v[0] + " is outside the range");
+            expected[bin] += v[1];
+            totalWeight += v[1];
+            min = Math.min(min, v[0]);
+            max = Math.max(max, v[0]);
+        }
+        double[] weights = histogram.getWeights();
+        for (int b = 0; b < BINS; b++) assertEquals(expected[b], weights[b], 1e-9, "bin " + b);
+        assertEquals(values.size(), histogram.getTotal());
+        assertEquals(totalWeight, histogram.getTotalWeight(), 1e-9);
+        assertEquals(min, histogram.getMin());
+        assertEquals(max, histogram.getMax());
+
+        // the width only ever doubles, and the bins stay aligned to it
+        double doublings = Math.log(width / 0.5) / Math.log(2);
+        assertEquals(Math.rint(doublings), doublings, 1e-12);
+        assertEquals(Math.rint(origin / 0.5), origin / 0.5, 1e-9);
+    }
+
+    @Test
+    void firstValueIsCentered() {
+        FixedBinHistogram histogram = new FixedBinHistogram(BINS, 1);
+        histogram.add(10.5);
+        assertEquals(10 - BINS / 2, histogram.getOrigin());
+        assertEquals(1, histogram.getWeights()[BINS / 2]);
+
+        histogram.add(2.5); // in range
+        assertEquals(1, histogram.getWeights()[0]);
+        histogram.add(-100); // widens downwards three times, to [-110, 18)
+        assertEquals(8, histogram.getBinWidth());
+        assertEquals(-110, histogram.getOrigin());
+        assertEquals(1, histogram.getWeights()[1]);
+        assertEquals(1, histogram.getWeights()[BINS - 2]);
+        assertEquals(1, histogram.getWeights()[BINS - 1]);
+    }
+
+    @Test
+    void valueJustBelowTheEndOfTheRangeIsInTheLastBin() {
+        FixedBinHistogram histogram = new FixedBinHistogram(BINS, 0.5);
+        histogram.add(-6.1);
+        assertEquals(-10.5, histogram.getOrigin());
+        // (end - ulp - origin) / width rounds to the bin count
+        histogram.add(Math.nextDown(-2.5));
+        assertEquals(-10.5, histogram.getOrigin());
+        assertEquals(0.5, histogram.getBinWidth());
+        assertEquals(1, histogram.getWeights()[BINS - 1]);
+    }
+
+    @Test
+    void invalidValuesAreIgnored() {
+        FixedBinHistogram histogram = new FixedBinHistogram(BINS, 1);
+        histogram.add(Double.NaN);
+        histogram.add(Double.POSITIVE_INFINITY);
+        assertEquals(0, histogram.getTotal());
+        assertTrue(Double.isNaN(histogram.getOrigin()));
+    }
+
+    @Test
+    void clearRestoresTheInitialWidth() {
+        FixedBinHistogram histogram = new FixedBinHistogram(BINS, 1);
+        histogram.add(0);
+        histogram.add(1e6);
+        histogram.clear();
+        assertEquals(1, histogram.getBinWidth());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getTotalWeight());
+        for (double w : histogram.getWeights()) assertEquals(0, w);
+        histogram.add(5);
+        assertEquals(5 - BINS / 2, histogram.getOrigin());
+    }
+
+    @Test
+    void oddBinCountsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new FixedBinHistogram(7, 1));
+        assertThrows(IllegalArgumentException.class, () -> new FixedBinHistogram(0, 1));
+    }
+}
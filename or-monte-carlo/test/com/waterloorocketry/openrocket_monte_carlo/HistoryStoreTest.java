@@ -0,0 +1,236 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores campaigns of chosen results and reads them back, from the same store, another store of the directory and
+ * after interrupted writes
+ */
+class HistoryStoreTest {
+    private final static File ROCKET = new File("rockets/c31a.ork");
+    private final static File THRUST_CURVE = new File("rockets/Kismet_v4_C2-2.rse");
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    static void initializeOpenRocket() {
+        Main.initializeOpenRocket(false);
+    }
+
+    @Test
+    void storedCampaignsAreFoundAgain() throws Exception {
+        HistoryStore store = new HistoryStore(directory);
+        assertNull(store.get(0));
+        HistoryStore.Campaign first = store.record("first", createEngine(5, 1000), null);
+        HistoryStore.Campaign second = store.record("second", createEngine(3, 2000), "motor.rse 0123");
+
+        assertEquals(0, first.id());
+        assertEquals(0, first.firstRow());
+        assertEquals(5, first.runs());
+        assertEquals(1, first.failed());
+        assertEquals("", first.motor());
+        assertEquals(1, second.id());
+        assertEquals(5, second.firstRow());
+        assertEquals(3, second.runs());
+        assertEquals("motor.rse 0123", second.motor());
+        assertEquals(first.designHash(), second.designHash());
+        assertFalse(first.designHash().isEmpty());
+
+        assertEquals(first, store.get(0));
+        assertEquals(second, store.get(1));
+        assertNull(store.get(2));
+        assertEquals(List.of(first, second), store.find(first.designHash(), 0, Long.MAX_VALUE));
+        assertEquals(List.of(first, second), store.find(null, 0, Long.MAX_VALUE));
+        assertEquals(List.of(), store.find("another design", 0, Long.MAX_VALUE));
+        assertEquals(List.of(), store.find(null, 0, first.timestamp() - 1));
+
+        assertValues(store, first, 1000);
+        assertValues(store, second, 2000);
+
+        // opened again, e.g. on the next start
+        HistoryStore reopened = new HistoryStore(directory);
+        assertEquals(first, reopened.get(0));
+        assertEquals(second, reopened.get(1));
+        assertValues(reopened, second, 2000);
+    }
+
+    @Test
+    void summaryIsWeightedByTheRuns() throws Exception {
+        HistoryStore store = new HistoryStore(directory);
+        HistoryStore.Campaign campaign = store.record("weighted", createEngine(5, 1000), null);
+        double[] weights = {1, 2, 3, 4};
+        double weightSum = 0, sum = 0, sumSquares = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double apogee = FEET.toUnit(apogee(1000, i));
+            weightSum += weights[i];
+            sum += weights[i] * apogee;
+            sumSquares += weights[i] * apogee * apogee;
+        }
+        double mean = sum / weightSum;
+
+        HistoryStore.Summary summary = store.summarize(campaign, HistoryStore.Metric.APOGEE);
+        assertEquals(HistoryStore.Metric.APOGEE.getLabel(), summary.metric());
+        assertEquals(4, summary.runs());
+        assertEquals(mean, summary.mean(), 1e-9);
+        assertEquals(Math.sqrt(sumSquares / weightSum - mean * mean), summary.standardDeviation(), 1e-6);
+        assertEquals(FEET.toUnit(apogee(1000, 0)), summary.min(), 1e-9);
+        assertEquals(FEET.toUnit(apogee(1000, 3)), summary.max(), 1e-9);
+    }
+
+    @Test
+    void registeredMetricsAreStoredByName() throws Exception {
+        HistoryStore store = new HistoryStore(directory);
+        HistoryStore.Campaign campaign = store.record("metrics", createEngine(5, 1000), null);
+        String name = MetricRegistry.getExtractors().get(0).getName();
+
+        double[] values = store.values(campaign, name);
+        for (int i = 0; i < 4; i++) assertEquals(metric(i), values[i]);
+        assertTrue(Double.isNaN(values[4]));
+        HistoryStore.Summary summary = store.summarize(campaign, name);
+        assertEquals(name, summary.metric());
+        assertEquals(4, summary.runs());
+        assertEquals(metric(0), summary.min());
+        assertEquals(metric(3), summary.max());
+
+        // a metric that was never stored reads as NaN for every run
+        for (double v : store.values(campaign, "Never registered")) assertTrue(Double.isNaN(v));
+        assertEquals(0, store.summarize(campaign, "Never registered").runs());
+    }
+
+    @Test
+    void campaignsOfAnotherProcessAreSeen() throws Exception {
+        HistoryStore store = new HistoryStore(directory);
+        HistoryStore other = new HistoryStore(directory);
+        HistoryStore.Campaign first = store.record("first", createEngine(5, 1000), null);
+        // the other store had not read the log since the first campaign, its campaign still follows it
+        HistoryStore.Campaign second = other.record("second", createEngine(3, 2000), null);
+
+        assertEquals(1, second.id());
+        assertEquals(5, second.firstRow());
+        assertEquals(first, other.get(0));
+        assertEquals(second, store.get(1));
+        assertEquals(List.of(first, second), store.find(null, 0, Long.MAX_VALUE));
+        assertValues(store, second, 2000);
+        assertValues(other, first, 1000);
+    }
+
+    @Test
+    void interruptedCampaignIsDropped() throws Exception {
+        HistoryStore store = new HistoryStore(directory);
+        HistoryStore.Campaign first = store.record("first", createEngine(5, 1000), null);
+
+        // the rows of a campaign were written, but its record was cut off
+        append(new File(directory, "apogee.col"), new byte[3 * Double.BYTES + 5]);
+        append(new File(directory, "campaigns.log"), ByteBuffer.allocate(Integer.BYTES + 10).putInt(200).array());
+
+        HistoryStore reopened = new HistoryStore(directory);
+        assertEquals(first, reopened.get(0));
+        assertNull(reopened.get(1));
+        HistoryStore.Campaign second = reopened.record("second", createEngine(3, 2000), null);
+        assertEquals(1, second.id());
+        assertEquals(5, second.firstRow());
+        assertValues(reopened, first, 1000);
+        assertValues(reopened, second, 2000);
+        assertEquals(List.of(first, second), new HistoryStore(directory).find(null, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void unsupportedFormatIsSetAside() throws Exception {
+        Files.createDirectories(directory.toPath());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, "campaigns.log")))) {
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(0);
+        }
+        HistoryStore store = new HistoryStore(directory);
+        assertNull(store.get(0));
+        assertTrue(new File(directory, "campaigns.log.old").isFile());
+
+        HistoryStore.Campaign campaign = store.record("first", createEngine(5, 1000), null);
+        assertEquals(0, campaign.id());
+        assertValues(store, campaign, 1000);
+    }
+
+    /**
+     * Asserts the stored metrics of a campaign of createEngine
+     */
+    private static void assertValues(HistoryStore store, HistoryStore.Campaign campaign, double baseApogee)
+            throws IOException {
+        double[] apogees = store.values(campaign, HistoryStore.Metric.APOGEE);
+        double[] east = store.values(campaign, HistoryStore.Metric.EAST);
+        double[] stabilities = store.values(campaign, HistoryStore.Metric.MIN_STABILITY);
+        double[] weights = store.values(campaign, HistoryStore.Metric.WEIGHT);
+        double[] temperatures = store.values(campaign, HistoryStore.Metric.TEMPERATURE);
+        int last = campaign.runs() - 1;
+        for (int i = 0; i < last; i++) {
+            assertEquals(FEET.toUnit(apogee(baseApogee, i)), apogees[i], 1e-9);
+            assertEquals(FEET.toUnit(100 * i), east[i], 1e-9);
+            assertEquals(1 + 0.1 * i, stabilities[i]);
+            assertEquals(i + 1, weights[i]);
+            assertEquals(temperature(i) - 273.15, temperatures[i], 1e-9);
+        }
+        // the failed run has its conditions but no results
+        assertTrue(Double.isNaN(apogees[last]));
+        assertTrue(Double.isNaN(east[last]));
+        assertEquals(last + 1, weights[last]);
+        assertEquals(temperature(last) - 273.15, temperatures[last], 1e-9);
+    }
+
+    /**
+     * @return An engine of the given number of runs, whose last run failed and whose others were processed with
+     * results derived from their index
+     */
+    private static SimulationEngine createEngine(int runs, double baseApogee) throws Exception {
+        OpenRocketDocument document = DesignCache.getInstance().loadDocument(ROCKET, THRUST_CURVE);
+        SimulationEngine engine = new SimulationEngine(document, runs, 0, 0);
+        engine.createMonteCarloSimulations(engine.generateDefaultSimulation());
+        String[] metricNames = {MetricRegistry.getExtractors().get(0).getName()};
+        List<SimulationData> data = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            SampledConditions conditions = new SampledConditions(i, 0, temperature(i), 101_325,
+                    new double[][]{{0, 5, 0, 1, 0.1}}, i + 1);
+            data.add(i < runs - 1 ? TestRuns.processed("Simulation " + i, conditions, apogee(baseApogee, i), 100 * i,
+                    0, 1 + 0.1 * i, metricNames, new double[]{metric(i)}) : new SimulationData("Failed", conditions));
+        }
+        engine.getData().clear();
+        engine.getData().addAll(data);
+        return engine;
+    }
+
+    private static double apogee(double baseApogee, int index) {
+        return baseApogee + 10 * index;
+    }
+
+    private static double temperature(int index) {
+        return 280 + index;
+    }
+
+    private static double metric(int index) {
+        return 5000 + 250 * index;
+    }
+
+    private static void append(File file, byte[] bytes) throws IOException {
+        Files.write(file.toPath(), bytes, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,133 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Estimates the probability of rare events whose probability is known analytically
+ */
+class ImportanceSamplerTest {
+    /**
+     * Landings are this far east of the launch site on average, in m, plus DRIFT per standard deviation of the first
+     * condition
+     */
+    private final static double MEAN_DISTANCE = 1000, DRIFT = 200;
+    /**
+     * A landing beyond the range is 4 standard deviations out, P(Z >= 4)
+     */
+    private final static double RANGE_RADIUS = 1800, EVENT_PROBABILITY = 3.1671e-5;
+    private final static double[] STANDARD_DEVIATIONS = {2, 1, 0};
+
+    private final Random random = new Random(5);
+
+    @Test
+    void shiftedCampaignEstimatesTheNominalProbability() {
+        ImportanceSampler sampler = new ImportanceSampler(500, RANGE_RADIUS, 0);
+        List<double[]> pilotDraws = new ArrayList<>();
+        List<SimulationData> pilots = new ArrayList<>();
+        for (int i = 0; i < sampler.getPilotCount(); i++) {
+            double[] z = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+            pilotDraws.add(z);
+            pilots.add(run(i, z, 1));
+        }
+        double[] shift = sampler.fitShift(pilotDraws, pilots, STANDARD_DEVIATIONS);
+        // towards the most severe tenth of the pilot, the mean of a standard normal above its 90th percentile
+        assertEquals(1.755, shift[0], 0.3);
+        assertEquals(0, shift[1], 0.3);
+        assertEquals(0, shift[2]);
+
+        List<SimulationData> data = new ArrayList<>(pilots);
+        for (int i = 0; i < 20_000; i++) {
+            double[] z = new double[3];
+            for (int j = 0; j < z.length; j++) z[j] = shift[j] + random.nextGaussian();
+            data.add(run(pilots.size() + i, z, ImportanceSampler.likelihoodRatio(z, shift)));
+        }
+        ImportanceSampler.Estimate estimate = sampler.estimate(data).get(0);
+        assertEquals(data.size(), estimate.runs());
+        assertTrue(estimate.events() > 100, estimate.events() + " events");
+        assertEquals(EVENT_PROBABILITY, estimate.probability(), 4 * estimate.standardError());
+        assertEquals(EVENT_PROBABILITY, estimate.probability(), 0.25 * EVENT_PROBABILITY);
+        assertTrue(estimate.effectiveSampleSize() < data.size());
+    }
+
+    @Test
+    void likelihoodRatioIsTheRatioOfTheDensities() {
+        double[] shift = {1.5, -0.5};
+        double[] z = {0.3, 2.0};
+        double expected = 1;
+        for (int j = 0; j < z.length; j++)
+            expected *= Math.exp(-z[j] * z[j] / 2) / Math.exp(-(z[j] - shift[j]) * (z[j] - shift[j]) / 2);
+        assertEquals(expected, ImportanceSampler.likelihoodRatio(z, shift), 1e-12);
+
+        // weights average to 1 under the shifted distribution
+        double sum = 0;
+        int n = 200_000;
+        for (int i = 0; i < n; i++) {
+            double[] x = {shift[0] + random.nextGaussian(), shift[1] + random.nextGaussian()};
+            sum += ImportanceSampler.likelihoodRatio(x, shift);
+        }
+        assertEquals(1, sum / n, 0.02);
+    }
+
+    @Test
+    void nominalCampaignEstimatesTheEventFraction() {
+        ImportanceSampler sampler = new ImportanceSampler(0, RANGE_RADIUS, 1.2);
+        List<SimulationData> data = new ArrayList<>();
+        // 10 runs: 2 land beyond the range, 3 have a margin at or below the limit, 1 of them both
+        double[] distances = {1000, 1900, 1500, 2500, 1700, 1000, 1000, 1000, 1000, 1000};
+        double[] stabilities = {1.5, 1.1, 1.2, 1.5, -0.1, 1.5, 2, 2, 2, 2};
+        for (int i = 0; i < distances.length; i++) {
+            data.add(TestRuns.processed("Simulation " + i, conditions(i, 1), 3000, distances[i], 0,
+                    stabilities[i]));
+        }
+        data.add(new SimulationData("Not run yet", conditions(99, 1)));
+
+        List<ImportanceSampler.Estimate> estimates = sampler.estimate(data);
+        assertEquals(3, estimates.size());
+        assertEstimate(0.2, 2, estimates.get(0));
+        assertEstimate(0.3, 3, estimates.get(1));
+        assertEstimate(0.4, 4, estimates.get(2));
+        assertEquals(Double.POSITIVE_INFINITY, sampler.severity(data.get(4)));
+        assertEquals(2500 / RANGE_RADIUS, sampler.severity(data.get(3)), 1e-12);
+    }
+
+    @Test
+    void campaignWithoutDataHasNoEstimate() {
+        ImportanceSampler sampler = new ImportanceSampler(0, RANGE_RADIUS, 0);
+        ImportanceSampler.Estimate estimate =
+                sampler.estimate(List.of(new SimulationData("Not run yet", conditions(0, 1)))).get(0);
+        assertEquals(0, estimate.runs());
+        assertTrue(Double.isNaN(estimate.probability()));
+        assertEquals(0, sampler.fitShift(List.of(), List.of(), STANDARD_DEVIATIONS)[0]);
+    }
+
+    /**
+     * Asserts an estimate of ten equally weighted runs
+     */
+    private static void assertEstimate(double probability, int events, ImportanceSampler.Estimate estimate) {
+        assertEquals(probability, estimate.probability(), 1e-12, estimate.event());
+        assertEquals(events, estimate.events(), estimate.event());
+        assertEquals(10, estimate.runs(), estimate.event());
+        assertEquals(Math.sqrt(probability * (1 - probability) * 10 / 9 / 10), estimate.standardError(), 1e-12,
+                estimate.event());
+        assertEquals(10, estimate.effectiveSampleSize(), 1e-9, estimate.event());
+    }
+
+    /**
+     * @return A run that lands east of the launch site by the first standardized condition, and north by the second
+     */
+    private static SimulationData run(int index, double[] z, double weight) {
+        return TestRuns.processed("Simulation " + index, conditions(index, weight), 3000,
+                MEAN_DISTANCE + DRIFT * z[0], 10 * z[1], 1.5);
+    }
+
+    private static SampledConditions conditions(long seed, double weight) {
+        return new SampledConditions(seed, 0, 288.15, 101_325, new double[][]{{0, 5, 0, 1, 0.1}}, weight);
+    }
+}
@@ -0,0 +1,213 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the grid queries of the landing index against testing every landing
+ */
+class LandingIndexTest {
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    /**
+     * Landings over a square of this side in feet. With 6400 landings spread over all of it, the index uses 2 ft
+     * cells starting at 0, so landings and zone edges at even coordinates lie on cell borders.
+     */
+    private final static double SIDE = 80;
+    private final static int LANDINGS = 6400;
+
+    private final Random random = new Random(20240611);
+    private final LandingIndex index = new LandingIndex();
+    private final List<double[]> landings = new ArrayList<>(); // east, north and weight of every landing added
+
+    @Test
+    void countsMatchBruteForce() throws IOException {
+        add(0, 0);
+        add(SIDE, SIDE);
+        while (landings.size() < LANDINGS) add(halfFeet(0, SIDE), halfFeet(0, SIDE));
+        compareZones();
+
+        // not indexed yet, some outside the grid
+        for (int i = 0; i < 500; i++) add(halfFeet(-SIDE / 2, 3 * SIDE / 2), halfFeet(-SIDE / 2, 3 * SIDE / 2));
+        compareZones();
+
+        // enough to rebuild the grid over the new extent
+        for (int i = 0; i < 5000; i++) add(halfFeet(-SIDE / 2, 3 * SIDE / 2), halfFeet(0, SIDE));
+        compareZones();
+    }
+
+    @Test
+    void clusteredCountsMatchBruteForce() throws IOException {
+        // a dense center with a few outliers far away, so the grid does not cover the outliers' cells evenly
+        while (landings.size() < LANDINGS) {
+            if (random.nextInt(100) == 0) add(halfFeet(-10 * SIDE, 10 * SIDE), halfFeet(-10 * SIDE, 10 * SIDE));
+            else add(Math.round(random.nextGaussian() * 20) / 2.0, Math.round(random.nextGaussian() * 20) / 2.0);
+        }
+        compareZones();
+    }
+
+    @Test
+    void nearestMatchesBruteForce() throws IOException {
+        while (landings.size() < LANDINGS) add(halfFeet(0, SIDE), halfFeet(0, SIDE));
+        for (int q = 0; q < 200; q++) {
+            double east = halfFeet(-SIDE, 2 * SIDE), north = halfFeet(-SIDE, 2 * SIDE);
+            double expected = Double.POSITIVE_INFINITY;
+            for (double[] l : landings) expected = Math.min(expected, Math.hypot(l[0] - east, l[1] - north));
+            LandingIndex.Landing nearest = index.nearest(0, east, north);
+            assertEquals(expected, nearest.distance(), "nearest to " + east + ", " + north);
+            assertEquals(expected, Math.hypot(nearest.east() - east, nearest.north() - north));
+        }
+    }
+
+    @Test
+    void emptyBranchCountsNothing() {
+        LandingIndex.Count count = index.countWithin(0, 0, 0, 100);
+        assertEquals(0, count.landings());
+        assertEquals(0, count.total());
+        assertTrue(Double.isNaN(count.fraction()));
+        assertNull(index.nearest(0, 0, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> index.countInside(0, new double[]{0, 1}, new double[]{0, 1}));
+    }
+
+    /**
+     * Queries random rectangles, triangles and circles, with edges on cell borders and through landings, reaching out
+     * of the grid or entirely outside it
+     */
+    private void compareZones() {
+        for (int q = 0; q < 300; q++) {
+            double[] east, north;
+            if (q % 3 == 0) {
+                // through the corners of landings
+                double[] a = landings.get(random.nextInt(landings.size()));
+                double[] b = landings.get(random.nextInt(landings.size()));
+                east = new double[]{a[0], b[0], b[0], a[0]};
+                north = new double[]{a[1], a[1], b[1], b[1]};
+            } else if (q % 3 == 1) {
+                double e0 = halfFeet(-SIDE, 2 * SIDE), e1 = halfFeet(-SIDE, 2 * SIDE);
+                double n0 = halfFeet(-SIDE, 2 * SIDE), n1 = halfFeet(-SIDE, 2 * SIDE);
+                east = new double[]{e0, e1, e1, e0};
+                north = new double[]{n0, n0, n1, n1};
+            } else {
+                east = new double[]{halfFeet(-SIDE, 2 * SIDE), halfFeet(-SIDE, 2 * SIDE), halfFeet(-SIDE, 2 * SIDE)};
+                north = new double[]{halfFeet(-SIDE, 2 * SIDE), halfFeet(-SIDE, 2 * SIDE), halfFeet(-SIDE, 2 * SIDE)};
+            }
+            long n = 0;
+            double w = 0;
+            for (double[] l : landings) {
+                if (contains(east, north, l[0], l[1])) {
+                    n++;
+                    w += l[2];
+                }
+            }
+            assertCount(n, w, index.countInside(0, east, north), "polygon " + q);
+        }
+
+        for (int q = 0; q < 300; q++) {
+            double east = halfFeet(-SIDE, 2 * SIDE), north = halfFeet(-SIDE, 2 * SIDE), radius;
+            if (q % 2 == 0) {
+                // through a landing
+                double[] l = landings.get(random.nextInt(landings.size()));
+                radius = Math.hypot(l[0] - east, l[1] - north);
+            } else {
+                radius = random.nextInt((int) SIDE);
+            }
+            long n = 0;
+            double w = 0;
+            for (double[] l : landings) {
+                double dx = l[0] - east, dy = l[1] - north;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    n++;
+                    w += l[2];
+                }
+            }
+            assertCount(n, w, index.countWithin(0, east, north, radius),
+                    "circle of " + radius + " around " + east + ", " + north);
+        }
+
+        double west = Double.POSITIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+        for (double[] l : landings) {
+            west = Math.min(west, l[0]);
+            east = Math.max(east, l[0]);
+        }
+        assertCount(0, 0, index.countWithin(0, east + 2 * SIDE, 0, SIDE), "circle outside the grid");
+        assertCount(0, 0, index.countInside(0, new double[]{west - 3 * SIDE, west - SIDE, west - SIDE},
+                new double[]{0, 0, SIDE}), "triangle outside the grid");
+    }
+
+    private void assertCount(long landings, double weight, LandingIndex.Count count, String zone) {
+        double totalWeight = 0;
+        for (double[] l : this.landings) totalWeight += l[2];
+        assertEquals(landings, count.landings(), zone);
+        assertEquals(weight, count.weight(), 1e-9 * totalWeight, zone);
+        assertEquals(this.landings.size(), count.total(), zone);
+        assertEquals(totalWeight, count.totalWeight(), 1e-9 * totalWeight, zone);
+    }
+
+    /**
+     * Ray casting test of the index, which decides the landings on the edges the same way
+     */
+    private static boolean contains(double[] px, double[] py, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = px.length - 1; i < px.length; j = i++) {
+            if ((py[i] > y) != (py[j] > y) && x < (px[j] - px[i]) * (y - py[i]) / (py[j] - py[i]) + px[i])
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    /**
+     * @return Random multiple of half a foot in the range
+     */
+    private double halfFeet(double from, double to) {
+        return from + random.nextInt((int) (2 * (to - from)) + 1) / 2.0;
+    }
+
+    /**
+     * Adds a processed run with a single landing of random weight
+     */
+    private void add(double east, double north) throws IOException {
+        double weight = 0.5 + random.nextDouble();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeDouble(1000);
+        out.writeDouble(200);
+        out.writeDouble(0.6);
+        out.writeInt(1);
+        out.writeUTF("Sustainer");
+        for (double v : new double[]{1.5, 2.5, 2, 1.8, 43, -80, metres(east), metres(north), 5}) out.writeDouble(v);
+        out.writeInt(0);
+
+        SampledConditions conditions = new SampledConditions(landings.size(), 0, 288.15, 101_325,
+                new double[][]{{0, 5, 0, 1, 0.1}}, weight);
+        SimulationData data = new SimulationData("Simulation " + landings.size(), conditions);
+        data.readMetrics(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), false);
+        index.add(data);
+        landings.add(new double[]{data.getEastPostLandingInFeet().get(0), data.getNorthPostLandingInFeet().get(0),
+                weight});
+    }
+
+    /**
+     * @return Distance in metres that converts back to exactly the distance in feet, if there is one
+     */
+    private static double metres(double feet) {
+        double m = FEET.fromUnit(feet);
+        for (int i = 0; i < 4 && FEET.toUnit(m) != feet; i++)
+            m = FEET.toUnit(m) < feet ? Math.nextUp(m) : Math.nextDown(m);
+        return m;
+    }
+}
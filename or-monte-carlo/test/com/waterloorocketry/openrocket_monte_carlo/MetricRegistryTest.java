@@ -0,0 +1,92 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.simulation.FlightDataType;
+import info.openrocket.core.simulation.FlightEvent;
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Extracts the built-in metrics from a branch in a single pass over its steps
+ */
+class MetricRegistryTest {
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    private final static List<Double> TIME = List.of(0.0, 0.1, 0.2, 0.3, 0.4);
+    private final static Map<FlightDataType, List<Double>> COLUMNS = Map.of(
+            FlightDataType.TYPE_AIR_PRESSURE, List.of(101_325.0, 100_000.0, 95_000.0, 90_000.0, 85_000.0),
+            // the Mach number is NaN where OpenRocket could not compute it
+            FlightDataType.TYPE_MACH_NUMBER, List.of(0.0, 0.5, 0.9, 0.8, Double.NaN),
+            FlightDataType.TYPE_POSITION_X, List.of(0.0, 1.0, 10.0, 30.0, 60.0),
+            FlightDataType.TYPE_POSITION_Y, List.of(0.0, -1.0, -20.0, -40.0, -60.0),
+            FlightDataType.TYPE_VELOCITY_TOTAL, List.of(0.0, 12.0, 25.0, 40.0, 38.0));
+
+    @Test
+    void maxDynamicPressureIsOverEveryStep() {
+        MetricExtractor.Branch branch = new MetricExtractor.Branch(COLUMNS, Map.of(), TIME);
+        // γ/2·p·M² is largest at the third step, although the pressure falls
+        assertEquals(0.7 * 95_000 * 0.9 * 0.9, extract("Max Dynamic Pressure (Pa)", branch), 1e-6);
+    }
+
+    @Test
+    void eventMetricsAreTakenAtTheFirstStepAfterTheEvent() {
+        MetricExtractor.Branch branch = new MetricExtractor.Branch(COLUMNS,
+                Map.of(FlightEvent.Type.LAUNCHROD, 0.15, FlightEvent.Type.RECOVERY_DEVICE_DEPLOYMENT, 0.3), TIME);
+        assertEquals(25, extract("Rail Exit Velocity (m/s)", branch));
+        assertEquals(FEET.toUnit(50), extract("Drift at Deployment (ft)", branch), 1e-9);
+
+        // a branch that never deployed its recovery device or left the rod has no value
+        MetricExtractor.Branch noEvents = new MetricExtractor.Branch(COLUMNS, Map.of(), TIME);
+        assertTrue(Double.isNaN(extract("Rail Exit Velocity (m/s)", noEvents)));
+        assertTrue(Double.isNaN(extract("Drift at Deployment (ft)", noEvents)));
+    }
+
+    @Test
+    void extractorsOnlyReadTheirDeclaredData() {
+        Map<FlightEvent.Type, Double> events =
+                Map.of(FlightEvent.Type.LAUNCHROD, 0.15, FlightEvent.Type.RECOVERY_DEVICE_DEPLOYMENT, 0.3);
+        for (MetricExtractor e : MetricRegistry.getExtractors()) {
+            Map<FlightDataType, List<Double>> declared = new HashMap<>();
+            for (FlightDataType type : e.getDataTypes()) declared.put(type, COLUMNS.get(type));
+            // the branch throws on data types that were not declared
+            assertFalse(Double.isNaN(extract(e.getName(), new MetricExtractor.Branch(declared, events, TIME))),
+                    e.getName());
+        }
+    }
+
+    @Test
+    void columnsAreTheBuiltInResultsThenTheMetrics() {
+        List<String> names = MetricRegistry.getExtractors().stream().map(MetricExtractor::getName).toList();
+        assertEquals(List.of("Max Dynamic Pressure (Pa)", "Drift at Deployment (ft)", "Rail Exit Velocity (m/s)"),
+                names);
+        List<MetricRegistry.Column> columns = MetricRegistry.getColumns();
+        assertEquals("Initial Stability", columns.get(0).name());
+        assertEquals(names, columns.subList(columns.size() - names.size(), columns.size()).stream()
+                .map(MetricRegistry.Column::name).toList());
+
+        MetricExtractor duplicate = MetricRegistry.atFirstEvent(names.get(0), FlightEvent.Type.LAUNCHROD, Set.of(),
+                (branch, index) -> 0);
+        assertThrows(IllegalArgumentException.class, () -> MetricRegistry.register(duplicate));
+        assertEquals(names.size(), MetricRegistry.getExtractors().size());
+    }
+
+    /**
+     * @return Result of a registered extractor after stepping over every step of the branch
+     */
+    private static double extract(String name, MetricExtractor.Branch branch) {
+        MetricExtractor extractor = MetricRegistry.getExtractors().stream()
+                .filter(e -> e.getName().equals(name)).findFirst().orElseThrow();
+        MetricExtractor.Accumulator accumulator = extractor.start(branch);
+        for (int i = 0; i < branch.getLength(); i++) accumulator.step(i);
+        return accumulator.result();
+    }
+}
@@ -0,0 +1,104 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares campaigns against the export of a baseline run with the same conditions
+ */
+class PairedComparisonTest {
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void pairedStandardErrorIsOverTheDifferences() throws IOException {
+        List<SimulationData> baseline = new ArrayList<>(), campaign = new ArrayList<>();
+        int n = 10;
+        double[] base = new double[n], values = new double[n];
+        for (int i = 0; i < n; i++) {
+            // the condition-driven spread is shared by both runs of a pair
+            base[i] = 5000 + 100 * i;
+            values[i] = base[i] + 30 + (i % 2 == 0 ? 2 : -2);
+            baseline.add(run("Simulation " + i, 1, base[i]));
+            campaign.add(run("Simulation " + i, 1, values[i]));
+        }
+        // runs without a partner, or without results on either side, are not paired
+        baseline.add(run("Simulation 10", 1, 4000));
+        campaign.add(run("Simulation 11", 1, 4000));
+        baseline.add(new SimulationData("Simulation 12", TestRuns.conditions(12, 5, 0, 288.15, 101_325)));
+        campaign.add(run("Simulation 12", 1, 4000));
+        baseline.add(run("Simulation 13", 1, 4000));
+        campaign.add(new SimulationData("Simulation 13", TestRuns.conditions(13, 5, 0, 288.15, 101_325)));
+
+        String[] apogee = compare(baseline, campaign).get(0);
+        assertEquals("Apogee (ft)", apogee[0]);
+        assertEquals(n, Integer.parseInt(apogee[1]));
+        assertEquals(mean(base), Double.parseDouble(apogee[2]), 1e-6);
+        assertEquals(mean(values), Double.parseDouble(apogee[3]), 1e-6);
+        assertEquals(30, Double.parseDouble(apogee[4]), 1e-6);
+        // differences of 32 and 28 ft
+        assertEquals(Math.sqrt(4.0 / n), Double.parseDouble(apogee[5]), 1e-6);
+        double unpaired = Math.hypot(standardError(base), standardError(values));
+        assertEquals(unpaired, Double.parseDouble(apogee[6]), 1e-6);
+        assertTrue(Double.parseDouble(apogee[5]) < unpaired / 100);
+    }
+
+    @Test
+    void pairsAreWeightedByTheirRun() throws IOException {
+        List<SimulationData> baseline = List.of(run("Simulation 0", 1, 5000), run("Simulation 1", 1, 6000));
+        List<SimulationData> campaign = List.of(run("Simulation 0", 1, 5010), run("Simulation 1", 2, 6040));
+
+        String[] apogee = compare(baseline, campaign).get(0);
+        assertEquals(2, Integer.parseInt(apogee[1]));
+        // differences of 10 and 40 ft with weights 1 and 2
+        assertEquals(30, Double.parseDouble(apogee[4]), 1e-6);
+        // weighted variance (100 + 2 * 1600) / 3 - 30², standard error sqrt(variance * (1 + 2²)) / 3
+        assertEquals(Math.sqrt(200 * 5) / 3, Double.parseDouble(apogee[5]), 1e-6);
+    }
+
+    /**
+     * @return Rows of the comparison of a campaign against the export of the baseline runs, without the header
+     */
+    private List<String[]> compare(List<SimulationData> baseline, List<SimulationData> campaign) throws IOException {
+        File baselineCsv = new File(directory, "baseline.csv");
+        SimulationEngine.withTemplates(null, List.of(), baseline).exportToCSV(baselineCsv);
+        File paired = new File(directory, "paired.csv");
+        PairedComparison.export(baselineCsv, campaign, paired);
+        List<String> lines = Files.readAllLines(paired.toPath());
+        assertEquals("Metric,Pairs,Baseline Mean,Mean,Mean Difference,Paired Standard Error,Unpaired Standard Error",
+                lines.get(0));
+        return lines.stream().skip(1).map(line -> line.split(",")).toList();
+    }
+
+    private static SimulationData run(String name, double weight, double apogeeInFeet) {
+        int index = Integer.parseInt(name.substring(name.lastIndexOf(' ') + 1));
+        SampledConditions conditions = new SampledConditions(index, 0, 288.15, 101_325,
+                new double[][]{{0, 5, 0, 1, 0.1}}, weight);
+        return TestRuns.processed(name, conditions, FEET.fromUnit(apogeeInFeet), 10 * index, -5 * index, 1.5);
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) sum += v;
+        return sum / values.length;
+    }
+
+    private static double standardError(double[] values) {
+        double mean = mean(values), squares = 0;
+        for (double v : values) squares += (v - mean) * (v - mean);
+        return Math.sqrt(squares / values.length / values.length);
+    }
+}
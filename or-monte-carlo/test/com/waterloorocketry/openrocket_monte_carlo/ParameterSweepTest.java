@@ -0,0 +1,128 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.document.Simulation;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Lays out multi-axis sweeps and maps their runs to grid positions and back
+ */
+class ParameterSweepTest {
+    private final static File ROCKET = new File("rockets/c31a.ork");
+    private final static File THRUST_CURVE = new File("rockets/Kismet_v4_C2-2.rse");
+
+    @Test
+    void indexAndPositionRoundTrip() {
+        ParameterSweep sweep = ParameterSweep.fromProperties(spec());
+        assertEquals(List.of(ParameterSweep.Axis.ROD_ANGLE, ParameterSweep.Axis.ROD_LENGTH,
+                ParameterSweep.Axis.WIND_SPEED, ParameterSweep.Axis.TEMPERATURE), sweep.getAxes());
+        assertEquals(3 * 2 * 4 * 5, sweep.size());
+
+        // row-major: the last axis varies fastest
+        int index = 0;
+        for (int angle = 0; angle < 3; angle++) {
+            for (int length = 0; length < 2; length++) {
+                for (int speed = 0; speed < 4; speed++) {
+                    for (int temperature = 0; temperature < 5; temperature++) {
+                        int[] position = {angle, length, speed, temperature};
+                        assertEquals(index, sweep.getIndex(position));
+                        assertArrayEquals(position, sweep.getPosition(index));
+                        index++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < sweep.size(); i++) assertEquals(i, sweep.getIndex(sweep.getPosition(i)));
+    }
+
+    @Test
+    void positionsOutsideTheGridAreRejected() {
+        ParameterSweep sweep = ParameterSweep.fromProperties(spec());
+        assertThrows(IndexOutOfBoundsException.class, () -> sweep.getIndex(3, 0, 0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> sweep.getIndex(0, 0, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> sweep.getIndex(0, 0, 0));
+    }
+
+    @Test
+    void layoutDoesNotDependOnTheOrderOfTheKeys() {
+        Properties reversed = new Properties();
+        reversed.setProperty("sweep.temperature", "-10, 0, 10, 20, 30");
+        reversed.setProperty("sweep.wind_speed", "0,5,10,15");
+        reversed.setProperty("sweep.rod_length", "5.2,6.1");
+        reversed.setProperty("sweep.rod_angle", "0, 2.5, 5");
+        reversed.setProperty("runs", "3");
+        ParameterSweep sweep = ParameterSweep.fromProperties(spec());
+        ParameterSweep other = ParameterSweep.fromProperties(reversed);
+        assertEquals(sweep.getAxes(), other.getAxes());
+        for (int i = 0; i < sweep.size(); i++) assertArrayEquals(sweep.getPosition(i), other.getPosition(i));
+    }
+
+    @Test
+    void invalidSweepsAreRejected() {
+        assertNull(ParameterSweep.fromProperties(new Properties()));
+        Properties unknown = new Properties();
+        unknown.setProperty("sweep.humidity", "10,20");
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.fromProperties(unknown));
+        Properties empty = new Properties();
+        empty.setProperty("sweep.wind_speed", "5,,10");
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.fromProperties(empty));
+    }
+
+    @Test
+    void runsAreTheSameEveryTime() throws Exception {
+        Main.initializeOpenRocket(false);
+        OpenRocketDocument document = DesignCache.getInstance().loadDocument(ROCKET, THRUST_CURVE);
+        ParameterSweep sweep = ParameterSweep.fromProperties(spec());
+        List<SimulationData> runs = createRuns(sweep, document);
+        List<SimulationData> again = createRuns(sweep, document);
+
+        assertEquals(sweep.size(), runs.size());
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < runs.size(); i++) {
+            SimulationData run = runs.get(i);
+            assertEquals(run.getName(), again.get(i).getName());
+            names.add(run.getName());
+            SampledConditions c = run.getConditions(), other = again.get(i).getConditions();
+            assertEquals(c.getSeed(), other.getSeed());
+            assertEquals(c.getTemperature(), other.getTemperature());
+            assertEquals(c.getPressure(), other.getPressure());
+            for (int l = 0; l < c.getWindLevelCount(); l++) assertArrayEquals(c.getWindLevel(l), other.getWindLevel(l));
+
+            // one template per combination of the option axes, the condition axes only change the conditions
+            int[] position = sweep.getPosition(i);
+            assertEquals(position[0] * 2 + position[1], c.getTemplateId());
+            assertEquals(new double[]{-10, 0, 10, 20, 30}[position[3]] + 273.15, c.getTemperature(), 1e-9);
+        }
+        assertEquals(runs.size(), names.size());
+    }
+
+    private static List<SimulationData> createRuns(ParameterSweep sweep, OpenRocketDocument document) {
+        SimulationEngine engine = new SimulationEngine(document, 1, 0, 0);
+        Simulation base = engine.generateDefaultSimulation();
+        return sweep.createEngine(document, base).getData();
+    }
+
+    /**
+     * @return A job sweeping two launch options and two conditions, among other keys
+     */
+    private static Properties spec() {
+        Properties spec = new Properties();
+        spec.setProperty("runs", "3");
+        spec.setProperty("sweep.rod_angle", "0, 2.5, 5");
+        spec.setProperty("sweep.rod_length", "5.2,6.1");
+        spec.setProperty("sweep.wind_speed", "0,5,10,15");
+        spec.setProperty("sweep.temperature", "-10, 0, 10, 20, 30");
+        return spec;
+    }
+}
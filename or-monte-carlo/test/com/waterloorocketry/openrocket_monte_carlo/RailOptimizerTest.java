@@ -0,0 +1,118 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import info.openrocket.core.simulation.SimulationOptions;
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prunes launch rail candidates by successive halving over landings derived from their rod setting
+ */
+class RailOptimizerTest {
+    private final static File ROCKET = new File("rockets/c31a.ork");
+    private final static File THRUST_CURVE = new File("rockets/Kismet_v4_C2-2.rse");
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    private final static int RUNS = 80;
+
+    @Test
+    void worseHalfIsPrunedEveryRound() throws Exception {
+        Main.initializeOpenRocket(false);
+        OpenRocketDocument document = DesignCache.getInstance().loadDocument(ROCKET, THRUST_CURVE);
+        List<SimulationData> conditions = new ArrayList<>();
+        for (int i = 0; i < RUNS; i++)
+            conditions.add(new SimulationData("Simulation " + i, TestRuns.conditions(i, 5, 0, 288.15, 101_325)));
+        RailOptimizer optimizer = new RailOptimizer(document,
+                new SimulationEngine(document, 1, 0, 0).generateDefaultSimulation(), conditions,
+                RailOptimizer.recoveryDistance(0, 0));
+
+        List<int[]> rounds = new ArrayList<>(); // candidates and runs of every round
+        double[] angles = {0.15, 0, 0.1, 0.05}, directions = {0, Math.PI / 2};
+        SimulationEngine best = optimizer.optimize(angles, directions, engines -> {
+            rounds.add(new int[]{engines.size(), engines.get(0).getData().size()});
+            for (SimulationEngine engine : engines) {
+                for (int i = 0; i < engine.getData().size(); i++) {
+                    SimulationData run = engine.getData().get(i);
+                    SimulationOptions opts = engine.materialize(run).getOptions();
+                    land(run, opts.getLaunchRodAngle(), opts.getLaunchRodDirection(), i);
+                }
+            }
+        });
+
+        // 7 candidates, the vertical rod only once: three halvings, then the last one runs the remaining conditions
+        assertEquals(List.of(List.of(7, 10), List.of(4, 10), List.of(2, 20), List.of(1, 40)),
+                rounds.stream().map(r -> List.of(r[0], r[1])).toList());
+        List<RailOptimizer.Result> results = optimizer.getResults();
+        assertEquals(7, results.size());
+        double[][] ranking = {{0.1, 0}, {0.05, 0}, {0.15, 0}, {0, Double.NaN}, {0.05, Math.PI / 2},
+                {0.1, Math.PI / 2}, {0.15, Math.PI / 2}};
+        int[] expectedRounds = {4, 3, 2, 2, 1, 1, 1};
+        int[] expectedRuns = {80, 40, 20, 20, 10, 10, 10};
+        for (int i = 0; i < ranking.length; i++) {
+            RailOptimizer.Result r = results.get(i);
+            assertEquals(ranking[i][0], r.angle(), 1e-12, "rank " + i);
+            if (!Double.isNaN(ranking[i][1])) assertEquals(ranking[i][1], r.direction(), 1e-12, "rank " + i);
+            assertEquals(expectedRounds[i], r.rounds(), "rank " + i);
+            assertEquals(expectedRuns[i], r.runs(), "rank " + i);
+        }
+
+        // the best candidate ran every condition, its statistics are over all of them
+        double sum = 0, sumSquares = 0;
+        for (SimulationData d : best.getData()) {
+            assertTrue(d.hasData());
+            double cost = Math.hypot(d.getEastPostLandingInFeet().get(0), d.getNorthPostLandingInFeet().get(0));
+            sum += cost;
+            sumSquares += cost * cost;
+        }
+        double mean = sum / RUNS;
+        assertEquals(mean, results.get(0).objective(), 1e-9);
+        assertEquals(Math.sqrt((sumSquares / RUNS - mean * mean) / RUNS), results.get(0).standardError(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> optimizer.optimize(new double[0], directions, e -> {
+        }));
+    }
+
+    @Test
+    void objectivesJudgeTheLandingOfTheFirstBranch() {
+        SimulationData inside = TestRuns.processed("Inside", TestRuns.conditions(1, 5, 0, 288.15, 101_325), 1000,
+                FEET.fromUnit(120), FEET.fromUnit(-40), 1.5);
+        SimulationData outside = TestRuns.processed("Outside", TestRuns.conditions(2, 5, 0, 288.15, 101_325), 1000,
+                FEET.fromUnit(300), FEET.fromUnit(0), 1.5);
+        SimulationData failed = new SimulationData("Failed", TestRuns.conditions(3, 5, 0, 288.15, 101_325));
+
+        RailOptimizer.Objective keepOut = RailOptimizer.keepOut(100, 0, 50);
+        assertEquals(1, keepOut.of(inside));
+        assertEquals(0, keepOut.of(outside));
+        assertTrue(Double.isNaN(keepOut.of(failed)));
+
+        RailOptimizer.Objective recovery = RailOptimizer.recoveryDistance(0, -40);
+        assertEquals(120, recovery.of(inside), 1e-9);
+        assertEquals(Math.hypot(300, 40), recovery.of(outside), 1e-9);
+        assertTrue(Double.isNaN(recovery.of(failed)));
+    }
+
+    /**
+     * Fills in a run as if it had been simulated: the landing moves east of the recovery point as the rod angle
+     * departs from 0.1 rad, faster above it, and north as the rod turns away from 0°, plus a spread by run index
+     */
+    private static void land(SimulationData run, double angle, double direction, int index) throws IOException {
+        double east = (angle > 0.1 ? 1500 * (angle - 0.1) : 1000 * (0.1 - angle)) + index % 5 - 2;
+        double north = 3000 * angle * Math.sin(direction);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TestRuns.processed(run.getName(), run.getConditions(), 1000, east, north, 1.5)
+                .writeMetrics(new DataOutputStream(bytes));
+        run.readMetrics(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), false);
+    }
+}
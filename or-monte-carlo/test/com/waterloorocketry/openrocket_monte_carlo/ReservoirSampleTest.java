@@ -0,0 +1,86 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Samples streams of points and checks which points are kept
+ */
+class ReservoirSampleTest {
+    private final static int CAPACITY = 100;
+
+    @Test
+    void everyPointIsKeptUntilTheCapacity() {
+        ReservoirSample sample = new ReservoirSample(CAPACITY, 1);
+        for (int i = 0; i < CAPACITY; i++) sample.add(i, -i);
+        double[][] points = sample.snapshot();
+        assertEquals(CAPACITY, points[0].length);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i, points[0][i]);
+            assertEquals(-i, points[1][i]);
+        }
+
+        for (int i = CAPACITY; i < 10 * CAPACITY; i++) sample.add(i, -i);
+        points = sample.snapshot();
+        assertEquals(CAPACITY, points[0].length);
+        assertEquals(10 * CAPACITY, sample.getSeen());
+        for (int i = 0; i < CAPACITY; i++) assertEquals(-points[0][i], points[1][i]);
+    }
+
+    @Test
+    void pointsAreKeptInProportionToTheirWeight() {
+        // a quarter of the weight on points at x = 0, three quarters on points at x = 1
+        long kept = 0, heavy = 0;
+        for (int seed = 0; seed < 200; seed++) {
+            ReservoirSample sample = new ReservoirSample(CAPACITY, seed);
+            for (int i = 0; i < 10_000; i++) {
+                if (i % 2 == 0) sample.add(0, 0, 1);
+                else sample.add(1, 0, 3);
+            }
+            for (double x : sample.snapshot()[0]) {
+                kept++;
+                if (x == 1) heavy++;
+            }
+        }
+        assertEquals(0.75, (double) heavy / kept, 0.02);
+    }
+
+    @Test
+    void sameSeedKeepsTheSamePoints() {
+        ReservoirSample sample = new ReservoirSample(CAPACITY, 42);
+        ReservoirSample other = new ReservoirSample(CAPACITY, 42);
+        for (int i = 0; i < 5000; i++) {
+            sample.add(i, 2 * i, 1 + i % 7);
+            other.add(i, 2 * i, 1 + i % 7);
+        }
+        assertArrayEquals(sample.snapshot()[0], other.snapshot()[0]);
+        assertArrayEquals(sample.snapshot()[1], other.snapshot()[1]);
+    }
+
+    @Test
+    void pointsWithoutWeightAreIgnored() {
+        ReservoirSample sample = new ReservoirSample(CAPACITY, 1);
+        sample.add(1, 1, 0);
+        sample.add(2, 2, -1);
+        sample.add(3, 3, Double.NaN);
+        assertEquals(0, sample.getSeen());
+        assertEquals(0, sample.snapshot()[0].length);
+
+        ReservoirSample empty = new ReservoirSample(0, 1);
+        empty.add(1, 1);
+        assertEquals(0, empty.snapshot()[0].length);
+    }
+
+    @Test
+    void clearEmptiesTheSample() {
+        ReservoirSample sample = new ReservoirSample(CAPACITY, 1);
+        for (int i = 0; i < 3 * CAPACITY; i++) sample.add(i, i);
+        sample.clear();
+        assertEquals(0, sample.getSeen());
+        assertEquals(0, sample.snapshot()[0].length);
+        sample.add(7, 8);
+        assertArrayEquals(new double[]{7}, sample.snapshot()[0]);
+    }
+}
@@ -0,0 +1,149 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Estimates the indices of functions whose indices are known analytically
+ */
+class SensitivityAnalysisTest {
+    private final static String[] INPUTS = {"x1", "x2", "x3"};
+    private final static int BASE_SAMPLES = 4096;
+    private final static double TOLERANCE = 0.05;
+    /**
+     * Intervals of the 12 varying indices that may miss the exact value, which 95 % intervals do about 0.6 times
+     */
+    private final static int MAX_MISSES = 3;
+    /**
+     * Coefficients of the additive linear function, whose first-order and total indices are both c_i^2 / sum(c^2)
+     */
+    private final static double[] LINEAR = {1, 2, 3};
+    private final static double ISHIGAMI_A = 7, ISHIGAMI_B = 0.1;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void indicesOfKnownFunctions() {
+        SensitivityAnalysis analysis = new SensitivityAnalysis(INPUTS, new int[]{0, 1, 2}, BASE_SAMPLES, 0);
+        List<SimulationData> data = design(BASE_SAMPLES);
+        List<SensitivityAnalysis.Index> indices = analysis.estimate(data);
+        assertEquals(SurrogateModel.OUTPUT_NAMES.length * INPUTS.length, indices.size());
+
+        double[][] ishigami = ishigamiIndices();
+        double sumOfSquares = 0;
+        for (double c : LINEAR) sumOfSquares += c * c;
+        int misses = 0;
+        for (SensitivityAnalysis.Index index : indices) {
+            int i = List.of(INPUTS).indexOf(index.input());
+            assertEquals(BASE_SAMPLES, index.samples());
+            if (index.output().equals(SurrogateModel.OUTPUT_NAMES[0])) {
+                misses += assertIndex(ishigami[0][i], ishigami[1][i], index);
+            } else if (index.output().equals(SurrogateModel.OUTPUT_NAMES[1])) {
+                double expected = LINEAR[i] * LINEAR[i] / sumOfSquares;
+                misses += assertIndex(expected, expected, index);
+            } else if (index.output().equals(SurrogateModel.OUTPUT_NAMES[2])) {
+                // the north position does not vary
+                assertTrue(Double.isNaN(index.firstOrder()));
+                assertTrue(Double.isNaN(index.total()));
+                assertTrue(Double.isNaN(index.totalLow()) && Double.isNaN(index.totalHigh()));
+            }
+        }
+        assertTrue(misses <= MAX_MISSES, misses + " confidence intervals miss the exact index");
+    }
+
+    @Test
+    void incompleteBaseSamplesAreIgnored() {
+        SensitivityAnalysis analysis = new SensitivityAnalysis(INPUTS, new int[]{0, 1, 2}, 64, 0);
+        List<SimulationData> data = design(64);
+        // a failed run, and a base sample that has not completed yet
+        data.set(3, new SimulationData("Failed", TestRuns.conditions(3, 5, 0, 288.15, 101_325)));
+        data.add(data.get(0));
+        for (SensitivityAnalysis.Index index : analysis.estimate(data)) assertEquals(63, index.samples());
+    }
+
+    @Test
+    void baseSamplesDoubleUntilTheBudget() {
+        SensitivityAnalysis analysis = new SensitivityAnalysis(INPUTS, new int[]{0, 1, 2}, 100, 0);
+        assertEquals(5, analysis.getRunsPerSample());
+        assertEquals(25, analysis.getInitialBaseSamples());
+        assertEquals(25, analysis.getNextBaseSamples(design(25)));
+        assertEquals(40, analysis.getNextBaseSamples(design(60)));
+        assertEquals(0, analysis.getNextBaseSamples(design(100)));
+    }
+
+    @Test
+    void baseSamplesStopWithinTolerance() {
+        SensitivityAnalysis analysis = new SensitivityAnalysis(INPUTS, new int[]{0, 1, 2}, 1 << 20, 0.5);
+        assertEquals(0, analysis.getNextBaseSamples(design(BASE_SAMPLES)));
+    }
+
+    /**
+     * Asserts that the estimates are within the tolerance of the exact indices, inside their intervals, and that the
+     * intervals are narrower than the tolerance
+     *
+     * @return Number of the two intervals that miss the exact index
+     */
+    private static int assertIndex(double firstOrder, double total, SensitivityAnalysis.Index index) {
+        String name = index.output() + " to " + index.input() + " " + index;
+        assertEquals(firstOrder, index.firstOrder(), TOLERANCE, name);
+        assertEquals(total, index.total(), TOLERANCE, name);
+        assertTrue(index.firstOrderLow() <= index.firstOrder() && index.firstOrder() <= index.firstOrderHigh(), name);
+        assertTrue(index.totalLow() <= index.total() && index.total() <= index.totalHigh(), name);
+        assertTrue(index.firstOrderHigh() - index.firstOrderLow() < 2 * TOLERANCE, name);
+        assertTrue(index.totalHigh() - index.totalLow() < 2 * TOLERANCE, name);
+        int misses = 0;
+        if (firstOrder < index.firstOrderLow() || firstOrder > index.firstOrderHigh()) misses++;
+        if (total < index.totalLow() || total > index.totalHigh()) misses++;
+        return misses;
+    }
+
+    /**
+     * @return First-order and total indices of the Ishigami function over x_i uniform in [-pi, pi]
+     */
+    private static double[][] ishigamiIndices() {
+        double a = ISHIGAMI_A, b = ISHIGAMI_B, pi4 = Math.pow(Math.PI, 4), pi8 = pi4 * pi4;
+        double v1 = 0.5 * Math.pow(1 + b * pi4 / 5, 2);
+        double v2 = a * a / 8;
+        double v13 = b * b * pi8 * (1.0 / 18 - 1.0 / 50);
+        double v = v1 + v2 + v13;
+        return new double[][]{{v1 / v, v2 / v, 0}, {(v1 + v13) / v, v2 / v, v13 / v}};
+    }
+
+    /**
+     * @return Runs of a Saltelli design, A, B and A with each input taken from B per base sample. The apogee is the
+     * Ishigami function, the east position the additive linear function and the north position constant.
+     */
+    private List<SimulationData> design(int baseSamples) {
+        List<SimulationData> data = new ArrayList<>();
+        for (int k = 0; k < baseSamples; k++) {
+            double[] a = new double[INPUTS.length], b = new double[INPUTS.length];
+            for (int i = 0; i < INPUTS.length; i++) {
+                a[i] = Math.PI * (2 * random.nextDouble() - 1);
+                b[i] = Math.PI * (2 * random.nextDouble() - 1);
+            }
+            data.add(run(data.size(), a));
+            data.add(run(data.size(), b));
+            for (int i = 0; i < INPUTS.length; i++) {
+                double[] ab = a.clone();
+                ab[i] = b[i];
+                data.add(run(data.size(), ab));
+            }
+        }
+        return data;
+    }
+
+    private static SimulationData run(int index, double[] x) {
+        double ishigami = Math.sin(x[0]) + ISHIGAMI_A * Math.pow(Math.sin(x[1]), 2) +
+                ISHIGAMI_B * Math.pow(x[2], 4) * Math.sin(x[0]);
+        double linear = 0;
+        for (int i = 0; i < x.length; i++) linear += LINEAR[i] * x[i];
+        return TestRuns.processed("Simulation " + index, TestRuns.conditions(index, 5, 0, 288.15, 101_325),
+                ishigami, linear, 100, 1.5);
+    }
+}
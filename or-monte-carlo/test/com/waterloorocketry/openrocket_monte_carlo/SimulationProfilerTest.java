@@ -0,0 +1,36 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keeps the timings of concurrent runs apart
+ */
+class SimulationProfilerTest {
+    @Test
+    void callsAreRecordedIntoTheAttachedProfiler() throws InterruptedException {
+        SimulationProfiler first = new SimulationProfiler();
+        SimulationProfiler second = new SimulationProfiler();
+
+        first.attach();
+        SimulationProfiler.record(SimulationProfiler.Section.STEPPER, String.class, "step", 1000);
+        SimulationProfiler.detach();
+        Thread other = new Thread(() -> {
+            second.attach();
+            SimulationProfiler.record(SimulationProfiler.Section.AERODYNAMICS, Integer.class, "forces", 1000);
+            SimulationProfiler.detach();
+        });
+        other.start();
+        other.join();
+        // a call outside of any run is dropped
+        SimulationProfiler.record(SimulationProfiler.Section.ATMOSPHERE, Long.class, "density", 1000);
+
+        assertTrue(first.getReport().contains("Stepper String.step"));
+        assertFalse(first.getReport().contains("Aerodynamics"));
+        assertTrue(second.getReport().contains("Aerodynamics Integer.forces"));
+        assertFalse(second.getReport().contains("Stepper"));
+        assertFalse(first.getReport().contains("Atmosphere") || second.getReport().contains("Atmosphere"));
+    }
+}
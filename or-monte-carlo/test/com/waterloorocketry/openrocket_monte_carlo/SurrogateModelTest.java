@@ -0,0 +1,180 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.unit.Unit;
+import info.openrocket.core.unit.UnitGroup;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fits the surrogate to outputs that are exact functions of the inputs
+ */
+class SurrogateModelTest {
+    private final static Unit FEET = UnitGroup.UNITS_LENGTH.getUnit("ft");
+    /**
+     * Runs of a single wind level: 10 for the 5 linear terms, 30 for the 15 quadratic ones
+     */
+    private final static int LINEAR_RUNS = 10, QUADRATIC_RUNS = 30;
+
+    private final Random random = new Random(11);
+
+    @Test
+    void quadraticOutputsAreFittedExactly() {
+        List<SampledConditions> conditions = new ArrayList<>();
+        List<double[]> outputs = new ArrayList<>();
+        for (int r = 0; r < 200; r++) {
+            SampledConditions c = randomConditions(r);
+            conditions.add(c);
+            outputs.add(quadratic(c));
+        }
+        SurrogateModel model = SurrogateModel.fit(conditions, outputs);
+
+        assertNotNull(model);
+        assertTrue(model.toString().startsWith("Quadratic"), model.toString());
+        assertEquals(200, model.getRunCount());
+        assertEquals(1, model.getWindLevelCount());
+        double[] spread = spread(outputs);
+        double[] error = model.getError();
+        for (int o = 0; o < error.length; o++)
+            assertTrue(error[o] < 1e-3 * spread[o], SurrogateModel.OUTPUT_NAMES[o] + " error " + error[o]);
+        for (int r = 0; r < 20; r++) {
+            SampledConditions c = randomConditions(1000 + r);
+            double[] expected = quadratic(c), predicted = model.predict(c);
+            for (int o = 0; o < expected.length; o++)
+                assertEquals(expected[o], predicted[o], 1e-3 * spread[o], SurrogateModel.OUTPUT_NAMES[o]);
+        }
+    }
+
+    @Test
+    void fewerRunsThanTermsFitsLinearOrNothing() {
+        List<SampledConditions> conditions = new ArrayList<>();
+        List<double[]> outputs = new ArrayList<>();
+        for (int r = 0; r < QUADRATIC_RUNS; r++) {
+            SampledConditions c = randomConditions(r);
+            conditions.add(c);
+            outputs.add(quadratic(c));
+            SurrogateModel model = SurrogateModel.fit(conditions, outputs);
+            if (r + 1 < LINEAR_RUNS) {
+                assertNull(model, (r + 1) + " runs");
+            } else {
+                assertNotNull(model, (r + 1) + " runs");
+                String expected = r + 1 < QUADRATIC_RUNS ? "Linear" : "Quadratic";
+                assertTrue(model.toString().startsWith(expected), model.toString());
+            }
+        }
+        assertNull(SurrogateModel.fit(List.of(), List.of()));
+    }
+
+    @Test
+    void identicalRunsFitTheirMean() {
+        List<SampledConditions> conditions = new ArrayList<>();
+        List<double[]> outputs = new ArrayList<>();
+        SampledConditions c = randomConditions(0);
+        for (int r = 0; r < QUADRATIC_RUNS; r++) {
+            // the same conditions with some noise on the outputs, so every input is constant
+            conditions.add(c);
+            outputs.add(new double[]{3000 + r % 3, 100 - r % 5, -50, 1.5});
+        }
+        SurrogateModel model = SurrogateModel.fit(conditions, outputs);
+
+        assertNotNull(model);
+        double[] mean = new double[4];
+        for (double[] y : outputs)
+            for (int o = 0; o < y.length; o++) mean[o] += y[o] / outputs.size();
+        double[] predicted = model.predict(c);
+        for (int o = 0; o < mean.length; o++) assertEquals(mean[o], predicted[o], 1e-6);
+        for (double e : model.getError()) assertTrue(Double.isFinite(e));
+    }
+
+    @Test
+    void otherWindLevelCountIsRejected() {
+        List<SampledConditions> conditions = new ArrayList<>();
+        List<double[]> outputs = new ArrayList<>();
+        for (int r = 0; r < LINEAR_RUNS; r++) {
+            conditions.add(randomConditions(r));
+            outputs.add(quadratic(conditions.get(r)));
+        }
+        SurrogateModel model = SurrogateModel.fit(conditions, outputs);
+        SampledConditions twoLevels = new SampledConditions(0, 0, 288, 101_000,
+                new double[][]{{0, 5, 0, 1, 0.1}, {500, 8, 0.2, 1, 0.1}});
+        assertThrows(IllegalArgumentException.class, () -> model.predict(twoLevels));
+    }
+
+    @Test
+    void trainerRefitsAsRunsComeIn() throws InterruptedException {
+        LinkedBlockingQueue<SurrogateModel> fits = new LinkedBlockingQueue<>();
+        SurrogateTrainer trainer = new SurrogateTrainer(fits::add);
+        for (int r = 0; r < LINEAR_RUNS - 1; r++) trainer.add(run(r));
+        trainer.add(new SimulationData("Failed", randomConditions(99)));
+        trainer.add(TestRuns.processed("Two levels", new SampledConditions(0, 0, 288, 101_000,
+                new double[][]{{0, 5, 0, 1, 0.1}, {500, 8, 0.2, 1, 0.1}}), 1000, 10, 10, 2));
+        trainer.flush();
+        assertNull(fits.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(trainer.getModel());
+
+        for (int r = LINEAR_RUNS - 1; r < 100; r++) trainer.add(run(r));
+        trainer.flush();
+        SurrogateModel model;
+        do {
+            model = fits.poll(1, TimeUnit.MINUTES);
+            assertNotNull(model);
+        } while (model.getRunCount() < 100);
+        assertEquals(model, trainer.getModel());
+        assertTrue(model.toString().startsWith("Quadratic"), model.toString());
+
+        trainer.clear();
+        assertNull(trainer.getModel());
+    }
+
+    /**
+     * @return A run whose outputs are the quadratic function of its conditions
+     */
+    private SimulationData run(int index) {
+        SampledConditions c = randomConditions(index);
+        double[] y = quadratic(c);
+        return TestRuns.processed("Simulation " + index, c, FEET.fromUnit(y[0]), FEET.fromUnit(y[1]),
+                FEET.fromUnit(y[2]), y[3]);
+    }
+
+    private SampledConditions randomConditions(long seed) {
+        return TestRuns.conditions(seed, 2 + 10 * random.nextDouble(), 2 * Math.PI * random.nextDouble(),
+                288.15 + 5 * random.nextGaussian(), 101_325 + 500 * random.nextGaussian());
+    }
+
+    /**
+     * @return Outputs that are quadratic in the inputs of the surrogate, the wind components, temperature and pressure
+     */
+    private static double[] quadratic(SampledConditions c) {
+        double[] x = SurrogateModel.inputs(c);
+        double east = x[0], north = x[1], t = x[2] - 288.15, p = (x[3] - 101_325) / 100;
+        return new double[]{
+                3000 - 20 * east + 5 * north - 2 * t + 3 * p + 0.8 * east * east - 0.5 * north * p + 0.3 * t * t,
+                40 * east + 2 * east * north - t * p,
+                35 * north - 1.5 * north * north + 0.2 * east * t + 4 * p,
+                2.1 - 0.02 * east + 0.01 * north * north + 0.005 * t * p};
+    }
+
+    /**
+     * @return Standard deviation of each output
+     */
+    private static double[] spread(List<double[]> outputs) {
+        int m = outputs.get(0).length;
+        double[] mean = new double[m], variance = new double[m];
+        for (double[] y : outputs)
+            for (int o = 0; o < m; o++) mean[o] += y[o] / outputs.size();
+        for (double[] y : outputs)
+            for (int o = 0; o < m; o++) variance[o] += Math.pow(y[o] - mean[o], 2) / outputs.size();
+        for (int o = 0; o < m; o++) variance[o] = Math.sqrt(variance[o]);
+        return variance;
+    }
+}
@@ -0,0 +1,44 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import java.util.List;
+
+/**
+ * Processed runs with chosen results, without simulating them
+ */
+final class TestRuns {
+    private TestRuns() {
+    }
+
+    /**
+     * @return Conditions of a single wind level
+     */
+    static SampledConditions conditions(long seed, double windSpeed, double windDirection, double temperature,
+                                        double pressure) {
+        return new SampledConditions(seed, 0, temperature, pressure,
+                new double[][]{{0, windSpeed, windDirection, 1, 0.1}});
+    }
+
+    /**
+     * @param apogee       Apogee in m
+     * @param east         Landing position of the single branch east of the launch site in m
+     * @param north        Landing position of the single branch north of the launch site in m
+     * @param minStability Minimum stability of the single branch
+     * @return A run processed from the given results, as if it had been simulated
+     */
+    static SimulationData processed(String name, SampledConditions conditions, double apogee, double east,
+                                    double north, double minStability) {
+        return processed(name, conditions, apogee, east, north, minStability, new String[0], new double[0]);
+    }
+
+    /**
+     * @param metricNames Registered metrics the run was processed with
+     * @param metrics     Values of the metrics for the single branch
+     * @return A run processed from the given results and metrics, as if it had been simulated
+     */
+    static SimulationData processed(String name, SampledConditions conditions, double apogee, double east,
+                                    double north, double minStability, String[] metricNames, double[] metrics) {
+        return SimulationData.processed(name, conditions, apogee, 200, 0.6, "Sustainer", minStability,
+                minStability + 1, minStability + 0.5, minStability + 0.2, 43.5, -80.5, east, north, 5,
+                List.of(metricNames), metrics);
+    }
+}
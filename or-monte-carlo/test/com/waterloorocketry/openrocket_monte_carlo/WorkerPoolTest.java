@@ -0,0 +1,201 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import info.openrocket.core.document.OpenRocketDocument;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs campaigns on remote workers connected over localhost
+ */
+class WorkerPoolTest {
+    private final static File ROCKET = new File("rockets/c31a.ork");
+    private final static File THRUST_CURVE = new File("rockets/Kismet_v4_C2-2.rse");
+    private final static int RUNS = 6;
+    private final static long HEARTBEAT_MILLIS = 100;
+    private final static String TOKEN = "test token";
+
+    @BeforeAll
+    static void initializeOpenRocket() {
+        Main.initializeOpenRocket(false);
+    }
+
+    @Test
+    void everyRunComesBackFromSeveralWorkers() throws Exception {
+        SimulationEngine engine = createEngine();
+        int port = freePort();
+        Future<RunController> run = start(engine, port);
+        for (int i = 0; i < 3; i++) startWorker(port);
+
+        RunController controller = run.get(5, TimeUnit.MINUTES);
+        assertEquals(RUNS, controller.getCompletedCount());
+        assertEquals(0, controller.getFailedCount());
+        for (SimulationData d : engine.getData()) assertTrue(d.hasData(), d.getName() + " did not come back");
+    }
+
+    @Test
+    void runOfSilentWorkerIsDispatchedAgain() throws Exception {
+        SimulationEngine engine = createEngine();
+        int port = freePort();
+        Future<RunController> run = start(engine, port);
+        CountDownLatch silentReady = new CountDownLatch(1);
+        AtomicInteger silentJobs = new AtomicInteger();
+        startSilentWorker(port, silentReady, silentJobs);
+        assertTrue(silentReady.await(1, TimeUnit.MINUTES));
+        startWorker(port);
+
+        RunController controller = run.get(5, TimeUnit.MINUTES);
+        assertEquals(1, silentJobs.get());
+        assertEquals(RUNS, controller.getCompletedCount());
+        assertEquals(0, controller.getFailedCount());
+        for (SimulationData d : engine.getData()) assertTrue(d.hasData(), d.getName() + " did not come back");
+    }
+
+    @Test
+    void workerWithoutTheTokenIsRejected() throws Exception {
+        SimulationEngine engine = createEngine();
+        int port = freePort();
+        Future<RunController> run = start(engine, port);
+        try (Socket socket = connect(port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(WorkerProtocol.Challenge.read(in).answer("another token"));
+            out.flush();
+            // the pool answers with an error and closes the connection before sending anything of the campaign
+            assertEquals(WorkerProtocol.ERROR, in.readByte());
+            in.readUTF();
+            assertEquals(-1, in.read());
+        }
+        startWorker(port);
+
+        RunController controller = run.get(5, TimeUnit.MINUTES);
+        assertEquals(RUNS, controller.getCompletedCount());
+    }
+
+    @Test
+    void remoteWorkersNeedAToken() throws Exception {
+        WorkerPool pool = new WorkerPool(createEngine(), 0, "256m", THRUST_CURVE, 0);
+        pool.listenForRemoteWorkers("localhost", freePort(), "");
+        assertThrows(IOException.class, pool::start);
+    }
+
+    private static SimulationEngine createEngine() throws Exception {
+        OpenRocketDocument document = DesignCache.getInstance().loadDocument(ROCKET, THRUST_CURVE);
+        SimulationEngine engine = new SimulationEngine(document, RUNS, 0, 0);
+        engine.createMonteCarloSimulations(engine.generateDefaultSimulation());
+        return engine;
+    }
+
+    /**
+     * Runs the engine on remote workers only, in the background
+     */
+    private static Future<RunController> start(SimulationEngine engine, int port) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<RunController> run = executor.submit(() -> {
+            WorkerPool pool = new WorkerPool(engine, 0, "256m", THRUST_CURVE, 0);
+            pool.listenForRemoteWorkers("localhost", port, TOKEN);
+            pool.setHeartbeatInterval(HEARTBEAT_MILLIS);
+            try (AdmissionController admission = AdmissionController.forThreads(0.9, 2)) {
+                RunController controller = new RunController(engine, 2, admission);
+                controller.setWorkerPool(pool);
+                controller.run(new RunController.RunListener() {
+                    @Override
+                    public void simulationCompleted(SimulationData data) {
+                    }
+
+                    @Override
+                    public void simulationFailed(SimulationData data, Exception e) {
+                    }
+                });
+                return controller;
+            }
+        });
+        executor.shutdown();
+        return run;
+    }
+
+    private static void startWorker(int port) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = connect(port)) {
+                SimulationWorker.runRemote(socket, TOKEN);
+            } catch (IOException e) {
+                // the campaign is over
+            }
+        }, "test-worker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a worker that takes one job and then never answers nor sends heartbeats, like a machine that lost power
+     */
+    private static void startSilentWorker(int port, CountDownLatch ready, AtomicInteger jobs) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = connect(port)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.write(WorkerProtocol.Challenge.read(in).answer(TOKEN));
+                out.flush();
+                if (in.readByte() != WorkerProtocol.READY) return;
+                WorkerProtocol.Handshake.read(in);
+                out.writeByte(WorkerProtocol.READY);
+                out.flush();
+                ready.countDown();
+                if (in.readByte() == WorkerProtocol.JOB) {
+                    WorkerProtocol.Job.read(in);
+                    jobs.incrementAndGet();
+                }
+                while (in.read() >= 0) {
+                    // wait for the pool to give up on this worker
+                }
+            } catch (IOException e) {
+                // dropped by the pool
+            }
+        }, "silent-worker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Connects to the pool, waiting for it to listen
+     */
+    private static Socket connect(int port) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (true) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) throw e;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while connecting", e);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
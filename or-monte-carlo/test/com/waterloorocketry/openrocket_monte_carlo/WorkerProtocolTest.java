@@ -0,0 +1,197 @@
+package com.waterloorocketry.openrocket_monte_carlo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes every message of the worker protocol and reads it back
+ */
+class WorkerProtocolTest {
+    private final static List<String> METRICS = List.of("Max Dynamic Pressure (Pa)", "Rail Exit Velocity (m/s)");
+
+    @Test
+    void handshakeRoundTrip() throws IOException {
+        WorkerProtocol.Handshake handshake = new WorkerProtocol.Handshake(new byte[]{1, 2, 3}, "motor.rse",
+                new byte[]{4, 5}, 2, 60_000, 5_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        handshake.write(new DataOutputStream(bytes));
+
+        DataInputStream in = input(bytes);
+        WorkerProtocol.Handshake read = WorkerProtocol.Handshake.read(in);
+        assertArrayEquals(handshake.design(), read.design());
+        assertEquals(handshake.thrustCurveName(), read.thrustCurveName());
+        assertArrayEquals(handshake.thrustCurve(), read.thrustCurve());
+        assertEquals(handshake.templateCount(), read.templateCount());
+        assertEquals(handshake.timeoutMillis(), read.timeoutMillis());
+        assertEquals(handshake.heartbeatMillis(), read.heartbeatMillis());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void handshakeOfOtherVersionIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WorkerProtocol.Handshake(new byte[0], "", new byte[0], 0, 0, 0).write(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+        data[3]++;
+
+        assertThrows(IOException.class,
+                () -> WorkerProtocol.Handshake.read(new DataInputStream(new ByteArrayInputStream(data))));
+    }
+
+    @Test
+    void challengeIsOnlyAnsweredWithTheToken() throws IOException {
+        WorkerProtocol.Challenge challenge = WorkerProtocol.Challenge.random();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        challenge.write(new DataOutputStream(bytes));
+        DataInputStream in = input(bytes);
+        WorkerProtocol.Challenge read = WorkerProtocol.Challenge.read(in);
+        assertArrayEquals(challenge.nonce(), read.nonce());
+        assertEquals(-1, in.read());
+
+        byte[] answer = read.answer("shared secret");
+        assertEquals(WorkerProtocol.Challenge.LENGTH, answer.length);
+        assertTrue(challenge.accepts(answer, "shared secret"));
+        assertFalse(challenge.accepts(read.answer("shared secreT"), "shared secret"));
+        assertFalse(challenge.accepts(new byte[WorkerProtocol.Challenge.LENGTH], "shared secret"));
+        // the answer depends on the challenge, an answer seen on the wire is no good for the next connection
+        assertFalse(WorkerProtocol.Challenge.random().accepts(answer, "shared secret"));
+        assertFalse(Arrays.equals(challenge.nonce(), WorkerProtocol.Challenge.random().nonce()));
+    }
+
+    @Test
+    void jobRoundTrip() throws IOException {
+        double[][] windLevels = {{0, 4.5, 0.3, 1.2, 0.05}, {1000, 9, 0.6, 2.4, 0.1}};
+        SampledConditions conditions = new SampledConditions(42, 1, 290.5, 101_000, windLevels, 0.25);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WorkerProtocol.Job("Simulation 7", conditions, 0.01, Math.PI / 18).write(new DataOutputStream(bytes));
+
+        DataInputStream in = input(bytes);
+        assertEquals(WorkerProtocol.JOB, in.readByte());
+        WorkerProtocol.Job job = WorkerProtocol.Job.read(in);
+        assertEquals("Simulation 7", job.name());
+        assertEquals(0.01, job.timeStep());
+        assertEquals(Math.PI / 18, job.maximumStepAngle());
+        SampledConditions read = job.conditions();
+        assertEquals(42, read.getSeed());
+        assertEquals(1, read.getTemplateId());
+        assertEquals(290.5, read.getTemperature());
+        assertEquals(101_000, read.getPressure());
+        assertEquals(0.25, read.getWeight());
+        assertEquals(windLevels.length, read.getWindLevelCount());
+        for (int i = 0; i < windLevels.length; i++) assertArrayEquals(windLevels[i], read.getWindLevel(i));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void resultRoundTripKeepsMissingMetrics() throws IOException {
+        SimulationData result = result();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(WorkerProtocol.RESULT);
+        result.writeMetrics(out);
+
+        DataInputStream in = input(bytes);
+        assertEquals(WorkerProtocol.RESULT, in.readByte());
+        SimulationData read = new SimulationData("Simulation 1", conditions());
+        read.readMetrics(in, false);
+        assertEquals(-1, in.read());
+
+        assertTrue(read.hasData());
+        assertEquals(result.getApogee(), read.getApogee());
+        assertEquals(result.getMaxVelocity(), read.getMaxVelocity());
+        assertEquals(result.getMaxMachNumber(), read.getMaxMachNumber());
+        assertEquals(result.getBranchName(), read.getBranchName());
+        assertEquals(METRICS, read.getMetricNames());
+        for (MetricRegistry.Column column : MetricRegistry.getColumns(METRICS)) {
+            for (int i = 0; i < read.getBranchName().size(); i++)
+                assertEquals(column.value().of(result, i), column.value().of(read, i), column.name());
+        }
+        assertTrue(Double.isNaN(read.getMetric(METRICS.get(1), 1)));
+        assertTrue(Double.isNaN(read.getLandingLatitude().get(1)));
+    }
+
+    @Test
+    void truncatedResultLeavesRunUnprocessed() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        result().writeMetrics(new DataOutputStream(bytes));
+        byte[] data = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+
+        SimulationData read = new SimulationData("Simulation 1", conditions());
+        assertThrows(EOFException.class,
+                () -> read.readMetrics(new DataInputStream(new ByteArrayInputStream(data)), false));
+        assertFalse(read.hasData());
+        assertTrue(read.getBranchName().isEmpty());
+    }
+
+    @Test
+    void failureRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WorkerProtocol.Failure(new SimulationTimeoutException("Exceeded 60 s")).write(new DataOutputStream(bytes));
+
+        DataInputStream in = input(bytes);
+        assertEquals(WorkerProtocol.FAILURE, in.readByte());
+        WorkerProtocol.Failure failure = WorkerProtocol.Failure.read(in);
+        assertEquals(SimulationTimeoutException.class.getName(), failure.type());
+        assertEquals("Exceeded 60 s", failure.message());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void failureWithoutMessageRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WorkerProtocol.Failure(new IllegalStateException()).write(new DataOutputStream(bytes));
+
+        DataInputStream in = input(bytes);
+        assertEquals(WorkerProtocol.FAILURE, in.readByte());
+        assertEquals("null", WorkerProtocol.Failure.read(in).message());
+    }
+
+    private static SampledConditions conditions() {
+        return new SampledConditions(7, 0, 288.15, 101_325, new double[][]{{0, 5, 0, 1, 0.1}});
+    }
+
+    /**
+     * @return A processed run with two branches, the second of which has no landing and no rail exit
+     */
+    private static SimulationData result() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeDouble(3048.2);
+        out.writeDouble(310.5);
+        out.writeDouble(0.93);
+        out.writeInt(2);
+        out.writeUTF("Sustainer");
+        for (double v : new double[]{1.8, 3.1, 2.2, 2.0, 48.5, -81.2, 1520.4, -340.9, 12.3}) out.writeDouble(v);
+        out.writeUTF("Booster");
+        for (double v : new double[]{0.9, 1.4, Double.NaN, 1.1, Double.NaN, Double.NaN, 210, 45.5, Double.NaN})
+            out.writeDouble(v);
+        out.writeInt(METRICS.size());
+        for (String name : METRICS) out.writeUTF(name);
+        out.writeDouble(54_000);
+        out.writeDouble(28.7);
+        out.writeDouble(61_000);
+        out.writeDouble(Double.NaN);
+
+        SimulationData data = new SimulationData("Simulation 1", conditions());
+        data.readMetrics(input(bytes), false);
+        return data;
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}